@@ -25,6 +25,7 @@ package org.jjazz.midi;
 import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
+import org.jjazz.midi.device.ChannelRerouter;
 import org.jjazz.midi.device.MidiFilter;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -100,6 +101,10 @@ public final class JJazzMidiSystem
      * the receiver of the JJazzOutDevice.
      */
     private Receiver receiverJJazzOut;
+    /**
+     * Sends the application messages to receiverJJazzOut from a dedicated thread.
+     */
+    private MidiOutDispatcher midiOutDispatcher;
     /**
      * The receiver of JJazzMidiIn for the physical Midi IN device.
      */
@@ -113,6 +118,10 @@ public final class JJazzMidiSystem
      * The default system Sequencer
      */
     private Sequencer defaultSequencer;
+    /**
+     * Reroutes channels between the default sequencer and the JJazzMidiOut device.
+     */
+    private ChannelRerouter sequencerRerouter;
     /**
      * The default system synth
      */
@@ -159,6 +168,7 @@ public final class JJazzMidiSystem
         jjazzMidiOut = new MidiFilter("[JJazz Midi OUT device]");
         transmitterJJazzOut2PhysicalOut = jjazzMidiOut.getTransmitter();
         receiverJJazzOut = jjazzMidiOut.getReceiver();
+        midiOutDispatcher = new MidiOutDispatcher(receiverJJazzOut, "JJazz Midi OUT dispatcher");
         receiverPhysicalIn2JJazzIn = jjazzMidiIn.getReceiver();
 
         // Connect MidiIn to MidiOut to manage MidiThru
@@ -176,8 +186,10 @@ public final class JJazzMidiSystem
             defaultSequencer = MidiSystem.getSequencer(false);
             defaultSequencer.open();
 
-            // Connect the sequencer to the JJazzMidiOut device
-            defaultSequencer.getTransmitter().setReceiver(jjazzMidiOut.getReceiver());
+            // Connect the sequencer to the JJazzMidiOut device via the channel rerouter
+            sequencerRerouter = new ChannelRerouter();
+            defaultSequencer.getTransmitter().setReceiver(sequencerRerouter.getReceiver());
+            sequencerRerouter.getTransmitter().setReceiver(jjazzMidiOut.getReceiver());
         } catch (MidiUnavailableException ex)
         {
             LOGGER.log(Level.SEVERE, "JJazzMidiSystem() No sequencer found on this system. Music can not be played ! " + ex.getLocalizedMessage());
@@ -367,6 +379,18 @@ public final class JJazzMidiSystem
         return defaultSequencer;
     }
 
+    /**
+     * The channel rerouter placed between the default sequencer and the JJazzMidiOut device.
+     * <p>
+     * Use it to reroute channels at playback time without modifying the played Sequence.
+     *
+     * @return Null if no default sequencer.
+     */
+    public ChannelRerouter getSequencerChannelRerouter()
+    {
+        return sequencerRerouter;
+    }
+
     /**
      * The default Java synth.
      *
@@ -377,6 +401,17 @@ public final class JJazzMidiSystem
         return defaultSynth;
     }
 
+    /**
+     * The soundbank successfully loaded by loadSoundbankFileOnSynth().
+     *
+     * @return Can be null if no soundfont/DLS file loaded.
+     * @see OfflineAudioRenderer#getDefaultRenderer()
+     */
+    public Soundbank getDefaultJavaSynthSoundbank()
+    {
+        return lastLoadedSoundbank;
+    }
+
     /**
      * The default internal synth soundfont/DLS file stored in the Preferences.
      *
@@ -823,8 +858,10 @@ public final class JJazzMidiSystem
     }
 
     /**
-     * Send the specified MidiMessages on the JJazzMidiOut device with timing -1
-     * (immediate play).
+     * Send the specified MidiMessages on the JJazzMidiOut device as soon as possible.
+     * <p>
+     * Messages are posted to the MidiOutDispatcher, the caller thread never blocks on the Midi OUT device. Continuous controller
+     * messages (e.g. volume) are coalesced if several values for the same channel/controller are waiting.
      * <p>
      * Midi volume messages are multiplicated by the master volume factor.
      *
@@ -832,37 +869,43 @@ public final class JJazzMidiSystem
      */
     public void sendMidiMessagesOnJJazzMidiOut(MidiMessage... mms)
     {
-        if (receiverJJazzOut != null)
+        sendMidiMessagesOnJJazzMidiOut(0, mms);
+    }
+
+    /**
+     * Send the specified MidiMessages on the JJazzMidiOut device after the specified delay.
+     * <p>
+     * Midi volume messages are multiplicated by the master volume factor.
+     *
+     * @param delayMs Delay in milliseconds. If 0 send as soon as possible.
+     * @param mms
+     */
+    public void sendMidiMessagesOnJJazzMidiOut(long delayMs, MidiMessage... mms)
+    {
+        if (midiOutDispatcher == null)
         {
-            for (MidiMessage mm : mms)
-            {
-                if (masterVolumeFactor != 1f && (mm instanceof ShortMessage))
-                {
-                    ShortMessage sm = (ShortMessage) mm;
-                    if (sm.getCommand() == ShortMessage.CONTROL_CHANGE && sm.getData1() == MidiConst.CTRL_CHG_VOLUME_MSB)
-                    {
-                        // It's a volume change, update the message
-                        int vol = sm.getData2();
-                        int newVol = Math.round(vol * masterVolumeFactor);
-                        newVol = Math.min(127, newVol);
-                        int channel = sm.getChannel();
-                        try
-                        {
-                            sm.setMessage(ShortMessage.CONTROL_CHANGE, channel, MidiConst.CTRL_CHG_VOLUME_MSB, newVol);
-                        } catch (InvalidMidiDataException ex)
-                        {
-                            LOGGER.warning("sendMidiMessagesOnJJazzMidiOut() problem applying master volume :" + ex.getLocalizedMessage());
-                        }
-                    }
-                }
-                receiverJJazzOut.send(mm, -1);
-            }
-        } else
+            LOGGER.warning("sendMidiMessagesOnJJazzMidiOut() midiOutDispatcher=null: no midi message sent.");
+            return;
+        }
+        long time = System.nanoTime() + delayMs * 1000000L;
+        for (MidiMessage mm : mms)
         {
-            LOGGER.warning("sendMidiMessagesOnJJazzMidiOut() receiverJJazzOut=null: no midi message sent.");
+            midiOutDispatcher.sendAt(applyMasterVolume(mm), time);
         }
     }
 
+    /**
+     * The dispatcher used by sendMidiMessagesOnJJazzMidiOut().
+     * <p>
+     * Can be used to get the queue statistics.
+     *
+     * @return
+     */
+    public MidiOutDispatcher getMidiOutDispatcher()
+    {
+        return midiOutDispatcher;
+    }
+
     public void addPropertyChangeListener(PropertyChangeListener l)
     {
         pcs.addPropertyChangeListener(l);
@@ -933,6 +976,34 @@ public final class JJazzMidiSystem
         return res;
     }
 
+    /**
+     * If mm is a volume message and master volume factor is not 1, return a new message with the updated volume.
+     * <p>
+     * The original message is not modified, it might be shared.
+     *
+     * @param mm
+     * @return
+     */
+    private MidiMessage applyMasterVolume(MidiMessage mm)
+    {
+        if (masterVolumeFactor != 1f && (mm instanceof ShortMessage))
+        {
+            ShortMessage sm = (ShortMessage) mm;
+            if (sm.getCommand() == ShortMessage.CONTROL_CHANGE && sm.getData1() == MidiConst.CTRL_CHG_VOLUME_MSB)
+            {
+                int newVol = Math.min(127, Math.round(sm.getData2() * masterVolumeFactor));
+                try
+                {
+                    return new ShortMessage(ShortMessage.CONTROL_CHANGE, sm.getChannel(), MidiConst.CTRL_CHG_VOLUME_MSB, newVol);
+                } catch (InvalidMidiDataException ex)
+                {
+                    LOGGER.warning("applyMasterVolume() problem applying master volume :" + ex.getLocalizedMessage());
+                }
+            }
+        }
+        return mm;
+    }
+
     // =====================================================================================
     // Upgrade Task
     // =====================================================================================
@@ -0,0 +1,489 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.midi;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Send MidiMessages to a Receiver from a dedicated high-priority thread.
+ * <p>
+ * Callers (typically the EDT when user moves a volume knob) only post messages in a bounded lock-free ring buffer, they never block on
+ * the Midi OUT device. Messages can be posted for immediate sending or for a future time.
+ * <p>
+ * Continuous controller messages (volume, pan, expression, reverb, chorus, modulation) which are waiting in the buffer for the same
+ * channel/controller are coalesced: only the last value is sent. Order is preserved for all other messages.
+ * <p>
+ * If the buffer is full the caller waits until a slot is available, so that no message is lost or reordered.
+ */
+public class MidiOutDispatcher
+{
+
+    /**
+     * Ring buffer capacity, must be a power of 2.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+    private static final long OVERFLOW_WAIT_NANOS = 20000;
+    private static final boolean[] COALESCABLE_CONTROLLERS = new boolean[128];
+
+    static
+    {
+        COALESCABLE_CONTROLLERS[MidiConst.CTRL_CHG_MODULATION_MSB] = true;
+        COALESCABLE_CONTROLLERS[MidiConst.CTRL_CHG_VOLUME_MSB] = true;
+        COALESCABLE_CONTROLLERS[MidiConst.CTRL_CHG_PAN_MSB] = true;
+        COALESCABLE_CONTROLLERS[MidiConst.CTRL_CHG_EXPRESSION_MSB] = true;
+        COALESCABLE_CONTROLLERS[MidiConst.CTRL_CHG_REVERB_DEPTH] = true;
+        COALESCABLE_CONTROLLERS[MidiConst.CTRL_CHG_CHORUS_DEPTH] = true;
+    }
+
+    private final Receiver receiver;
+    private final int mask;
+    // Ring buffer slots. A slot content is published by the volatile write of its sequence number.
+    private final AtomicLongArray sequences;
+    private final MidiMessage[] messages;
+    private final long[] dueTimes;
+    private final AtomicLong producerIndex = new AtomicLong();
+    private long consumerIndex;         // Only used by the dispatcher thread
+    private volatile long consumedIndex;    // consumerIndex published for getQueueDepth()
+    private final Thread thread;
+    private volatile boolean parked;
+
+    // Dispatcher thread private data
+    private final PriorityQueue<Scheduled> scheduled = new PriorityQueue<>();
+    private final MidiMessage[] batchMessages;
+    private final long[] batchDueTimes;
+    private final int[] coalesceIndexes = new int[16 * 128];
+    private final int[] coalesceStamps = new int[16 * 128];
+    private int batchStamp;
+
+    // Statistics
+    private final AtomicLong nbOverflows = new AtomicLong();
+    private volatile long nbSent;
+    private volatile long nbCoalesced;
+    private volatile int maxQueueDepth;
+    private volatile long totalLatencyNanos;
+    private volatile long maxLatencyNanos;
+
+    private static final Logger LOGGER = Logger.getLogger(MidiOutDispatcher.class.getSimpleName());
+
+    /**
+     * Create a dispatcher with DEFAULT_CAPACITY and start its thread.
+     *
+     * @param receiver The destination receiver
+     * @param name     Thread name
+     */
+    public MidiOutDispatcher(Receiver receiver, String name)
+    {
+        this(receiver, name, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a dispatcher and start its thread.
+     *
+     * @param receiver The destination receiver
+     * @param name     Thread name
+     * @param capacity Ring buffer capacity, must be a power of 2.
+     */
+    public MidiOutDispatcher(Receiver receiver, String name, int capacity)
+    {
+        if (receiver == null || name == null || capacity < 2 || Integer.bitCount(capacity) != 1)
+        {
+            throw new IllegalArgumentException("receiver=" + receiver + " name=" + name + " capacity=" + capacity);
+        }
+        this.receiver = receiver;
+        mask = capacity - 1;
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++)
+        {
+            sequences.set(i, i);
+        }
+        messages = new MidiMessage[capacity];
+        dueTimes = new long[capacity];
+        batchMessages = new MidiMessage[capacity];
+        batchDueTimes = new long[capacity];
+
+        thread = new Thread(() -> dispatchLoop(), name);
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Post a message for immediate sending.
+     *
+     * @param mm
+     */
+    public void send(MidiMessage mm)
+    {
+        post(mm, System.nanoTime());
+    }
+
+    /**
+     * Post a message to be sent at the specified time.
+     *
+     * @param mm
+     * @param timeNanos A System.nanoTime() value. If in the past, message is sent as soon as possible.
+     */
+    public void sendAt(MidiMessage mm, long timeNanos)
+    {
+        post(mm, timeNanos);
+    }
+
+    /**
+     * Post a message to be sent after the specified delay.
+     *
+     * @param mm
+     * @param delayMs Delay in milliseconds
+     */
+    public void sendLater(MidiMessage mm, long delayMs)
+    {
+        post(mm, System.nanoTime() + delayMs * 1000000L);
+    }
+
+    /**
+     * @return The approximate number of messages waiting in the ring buffer (scheduled messages already taken by the dispatcher
+     *         thread not included).
+     */
+    public int getQueueDepth()
+    {
+        return (int) Math.max(0, producerIndex.get() - consumedIndex);
+    }
+
+    /**
+     * @return The max ring buffer depth observed by the dispatcher thread since last resetStatistics().
+     */
+    public int getMaxQueueDepth()
+    {
+        return maxQueueDepth;
+    }
+
+    /**
+     * @return Number of messages sent to the receiver by the dispatcher thread.
+     */
+    public long getSentCount()
+    {
+        return nbSent;
+    }
+
+    /**
+     * @return Number of messages dropped because a more recent value was posted for the same channel/controller.
+     */
+    public long getCoalescedCount()
+    {
+        return nbCoalesced;
+    }
+
+    /**
+     * @return Number of times a caller had to wait because the ring buffer was full.
+     */
+    public long getOverflowCount()
+    {
+        return nbOverflows.get();
+    }
+
+    /**
+     * @return Average delay in microseconds between the message due time and its actual sending.
+     */
+    public long getAverageLatencyMicros()
+    {
+        long n = nbSent;
+        return n == 0 ? 0 : totalLatencyNanos / n / 1000;
+    }
+
+    /**
+     * @return Max delay in microseconds between a message due time and its actual sending.
+     */
+    public long getMaxLatencyMicros()
+    {
+        return maxLatencyNanos / 1000;
+    }
+
+    /**
+     * Reset the statistics.
+     * <p>
+     * Values might be slightly inaccurate if called while messages are being sent.
+     */
+    public void resetStatistics()
+    {
+        nbOverflows.set(0);
+        nbSent = 0;
+        nbCoalesced = 0;
+        maxQueueDepth = 0;
+        totalLatencyNanos = 0;
+        maxLatencyNanos = 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MidiOutDispatcher[depth=" + getQueueDepth() + " maxDepth=" + maxQueueDepth + " sent=" + nbSent
+                + " coalesced=" + nbCoalesced + " overflows=" + nbOverflows.get()
+                + " avgLatencyUs=" + getAverageLatencyMicros() + " maxLatencyUs=" + getMaxLatencyMicros() + "]";
+    }
+
+    // ===============================================================================================
+    // Private methods
+    // ===============================================================================================
+    /**
+     * Multi-producer insertion in the ring buffer (bounded MPMC queue algorithm by D. Vyukov).
+     */
+    private void post(MidiMessage mm, long dueTime)
+    {
+        if (mm == null)
+        {
+            throw new NullPointerException("mm");
+        }
+        long pos = producerIndex.get();
+        while (true)
+        {
+            int slot = (int) (pos & mask);
+            long dif = sequences.get(slot) - pos;
+            if (dif == 0)
+            {
+                if (producerIndex.compareAndSet(pos, pos + 1))
+                {
+                    messages[slot] = mm;
+                    dueTimes[slot] = dueTime;
+                    sequences.set(slot, pos + 1);       // Publish
+                    if (parked)
+                    {
+                        LockSupport.unpark(thread);
+                    }
+                    return;
+                }
+                pos = producerIndex.get();
+            } else if (dif < 0)
+            {
+                // Buffer is full: wait for the dispatcher thread, don't send directly to preserve messages order
+                nbOverflows.incrementAndGet();
+                LockSupport.unpark(thread);
+                LockSupport.parkNanos(OVERFLOW_WAIT_NANOS);
+                pos = producerIndex.get();
+            } else
+            {
+                pos = producerIndex.get();
+            }
+        }
+    }
+
+    private void dispatchLoop()
+    {
+        while (true)
+        {
+            try
+            {
+                int n = drainBuffer();
+                sendBatch(n);
+                long now = System.nanoTime();
+                long waitNanos = sendDueScheduled(now);
+                if (n == 0)
+                {
+                    parked = true;
+                    if (isBufferEmpty())
+                    {
+                        if (waitNanos == Long.MAX_VALUE)
+                        {
+                            LockSupport.park(this);
+                        } else
+                        {
+                            LockSupport.parkNanos(this, waitNanos);
+                        }
+                    }
+                    parked = false;
+                }
+            } catch (RuntimeException ex)
+            {
+                // Never let the thread die
+                LOGGER.log(Level.WARNING, "dispatchLoop() unexpected exception", ex);
+            }
+        }
+    }
+
+    private boolean isBufferEmpty()
+    {
+        return sequences.get((int) (consumerIndex & mask)) != consumerIndex + 1;
+    }
+
+    /**
+     * Move all available messages from the ring buffer into the batch arrays.
+     * <p>
+     * Messages due in the future go into the scheduled queue.
+     *
+     * @return Number of messages in the batch
+     */
+    private int drainBuffer()
+    {
+        int n = 0;
+        long now = System.nanoTime();
+        int depth = (int) (producerIndex.get() - consumerIndex);
+        if (depth > maxQueueDepth)
+        {
+            maxQueueDepth = depth;
+        }
+        while (n < batchMessages.length)
+        {
+            int slot = (int) (consumerIndex & mask);
+            if (sequences.get(slot) != consumerIndex + 1)
+            {
+                break;
+            }
+            MidiMessage mm = messages[slot];
+            long due = dueTimes[slot];
+            messages[slot] = null;
+            sequences.set(slot, consumerIndex + mask + 1);      // Release slot
+            consumerIndex++;
+            if (due - now > 0)
+            {
+                scheduled.add(new Scheduled(mm, due, consumerIndex));
+            } else
+            {
+                batchMessages[n] = mm;
+                batchDueTimes[n] = due;
+                n++;
+            }
+        }
+        consumedIndex = consumerIndex;
+        return n;
+    }
+
+    /**
+     * Send the batch messages, skipping continuous controller messages overridden by a later one in the same batch.
+     */
+    private void sendBatch(int n)
+    {
+        if (n == 0)
+        {
+            return;
+        }
+        batchStamp++;
+        if (batchStamp == 0)
+        {
+            // Wrapped, reset stamps
+            Arrays.fill(coalesceStamps, 0);
+            batchStamp = 1;
+        }
+        for (int i = 0; i < n; i++)
+        {
+            int key = coalesceKey(batchMessages[i]);
+            if (key >= 0)
+            {
+                if (coalesceStamps[key] == batchStamp)
+                {
+                    batchMessages[coalesceIndexes[key]] = null;
+                    nbCoalesced++;
+                }
+                coalesceStamps[key] = batchStamp;
+                coalesceIndexes[key] = i;
+            }
+        }
+        for (int i = 0; i < n; i++)
+        {
+            MidiMessage mm = batchMessages[i];
+            if (mm != null)
+            {
+                batchMessages[i] = null;
+                doSend(mm, batchDueTimes[i]);
+            }
+        }
+    }
+
+    /**
+     * Send the scheduled messages which are due.
+     *
+     * @param now
+     * @return The nanoseconds to wait until the next scheduled message, or Long.MAX_VALUE if none.
+     */
+    private long sendDueScheduled(long now)
+    {
+        Scheduled s;
+        while ((s = scheduled.peek()) != null)
+        {
+            long wait = s.dueTime - now;
+            if (wait > 0)
+            {
+                return wait;
+            }
+            scheduled.poll();
+            doSend(s.message, s.dueTime);
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private void doSend(MidiMessage mm, long dueTime)
+    {
+        receiver.send(mm, -1);
+        long latency = Math.max(0, System.nanoTime() - dueTime);
+        nbSent++;
+        totalLatencyNanos += latency;
+        if (latency > maxLatencyNanos)
+        {
+            maxLatencyNanos = latency;
+        }
+    }
+
+    /**
+     * @return -1 if message can not be coalesced
+     */
+    private int coalesceKey(MidiMessage mm)
+    {
+        if (mm instanceof ShortMessage)
+        {
+            ShortMessage sm = (ShortMessage) mm;
+            if (sm.getCommand() == ShortMessage.CONTROL_CHANGE && COALESCABLE_CONTROLLERS[sm.getData1()])
+            {
+                return sm.getChannel() * 128 + sm.getData1();
+            }
+        }
+        return -1;
+    }
+
+    private static class Scheduled implements Comparable<Scheduled>
+    {
+
+        private final MidiMessage message;
+        private final long dueTime;
+        private final long order;
+
+        private Scheduled(MidiMessage mm, long dueTime, long order)
+        {
+            this.message = mm;
+            this.dueTime = dueTime;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Scheduled o)
+        {
+            int res = Long.compare(dueTime - o.dueTime, 0);
+            return res != 0 ? res : Long.compare(order, o.order);
+        }
+    }
+}
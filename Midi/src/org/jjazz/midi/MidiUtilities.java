@@ -22,6 +22,7 @@
  */
 package org.jjazz.midi;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Predicate;
@@ -677,45 +678,234 @@ public class MidiUtilities
     }
 
     /**
-     * Change the channel of ShortMessage events in the sequence.
+     * Get a copy of the sequence.
      * <p>
-     * All ShortMessages belonging to one of the fromChannels are reassigned to channel destChannel.
+     * The tracks are new objects, the MidiEvents are shared with the original sequence. The copy can be modified without
+     * impacting the original sequence, e.g. while the original sequence is being played.
+     *
+     * @param sequence
+     * @return
+     * @throws javax.sound.midi.InvalidMidiDataException
+     */
+    static public Sequence getCopy(Sequence sequence) throws InvalidMidiDataException
+    {
+        Sequence res = new Sequence(sequence.getDivisionType(), sequence.getResolution());
+        for (Track track : sequence.getTracks())
+        {
+            Track newTrack = res.createTrack();
+            for (int i = 0; i < track.size(); i++)
+            {
+                newTrack.add(track.get(i));       // End of track is managed by Track
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Get a copy of the sequence where ShortMessages of some channels are rerouted to another channel.
      * <p>
-     * This can be used for example to reroute percussion notes to the GM drums channel.
+     * All ShortMessages belonging to one of the fromChannels are replaced by new ShortMessages on channel destChannel. The other
+     * MidiEvents are shared with the original sequence, which is not modified.
+     * <p>
+     * This can be used for example to reroute percussion notes to the GM drums channel when exporting a sequence. For playback
+     * prefer JJazzMidiSystem.getSequencerChannelRerouter().
      *
      * @param sequence
      * @param fromChannels
      * @param destChannel
+     * @return sequence itself if fromChannels is empty.
+     * @throws javax.sound.midi.InvalidMidiDataException
      */
-    static public void rerouteShortMessages(Sequence sequence, List<Integer> fromChannels, int destChannel)
+    static public Sequence getReroutedSequence(Sequence sequence, List<Integer> fromChannels, int destChannel) throws InvalidMidiDataException
     {
         if (fromChannels.isEmpty())
         {
-            return;
+            return sequence;
+        }
+        boolean[] rerouted = new boolean[16];
+        for (int channel : fromChannels)
+        {
+            rerouted[channel] = channel != destChannel;
         }
+        Sequence res = new Sequence(sequence.getDivisionType(), sequence.getResolution());
         for (Track track : sequence.getTracks())
         {
+            Track newTrack = res.createTrack();
             for (int i = 0; i < track.size(); i++)
             {
                 MidiEvent me = track.get(i);
                 MidiMessage msg = me.getMessage();
-                if (msg instanceof ShortMessage)
+                if (msg instanceof ShortMessage && rerouted[((ShortMessage) msg).getChannel()])
                 {
                     ShortMessage sm = (ShortMessage) msg;
-                    int channel = sm.getChannel();
-                    if (channel != destChannel && fromChannels.contains(channel))
+                    me = new MidiEvent(new ShortMessage(sm.getCommand(), destChannel, sm.getData1(), sm.getData2()), me.getTick());
+                }
+                newTrack.add(me);       // End of track is managed by Track
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Replace the ShortMessages of destTrack in the [tickFrom;tickTo[ range by the ShortMessages of srcTrack.
+     * <p>
+     * NOTE_OFFs are paired with NOTE_ONs per channel and pitch in FIFO order: when several notes with the same pitch overlap, a
+     * NOTE_OFF terminates the oldest sounding note. When a NOTE_ON is removed, its matching NOTE_OFF is also removed even if it is
+     * beyond tickTo. A NOTE_OFF within the range whose NOTE_ON is before tickFrom is kept. MetaMessages and SysexMessages are not
+     * impacted.
+     *
+     * @param destTrack
+     * @param tickFrom
+     * @param tickTo
+     * @param srcTrack Can be null, then ShortMessages are just removed.
+     * @param srcTickOffset The value added to each srcTrack event's tick.
+     */
+    static public void replaceShortMessages(Track destTrack, long tickFrom, long tickTo, Track srcTrack, long srcTickOffset)
+    {
+        // The sounding notes per channel and pitch, oldest first. True if the NOTE_ON is removed.
+        @SuppressWarnings("unchecked")
+        ArrayDeque<Boolean>[] soundingNotes = new ArrayDeque[16 * 128];
+        int nbRemovedSoundingNotes = 0;
+        var toRemove = new ArrayList<MidiEvent>();
+
+        // Start from the beginning of the track to know the notes sounding at tickFrom
+        for (int i = 0; i < destTrack.size(); i++)
+        {
+            MidiEvent me = destTrack.get(i);
+            long tick = me.getTick();
+            if (tick >= tickTo && nbRemovedSoundingNotes == 0)
+            {
+                break;
+            }
+            MidiMessage mm = me.getMessage();
+            if (!(mm instanceof ShortMessage))
+            {
+                continue;
+            }
+            ShortMessage sm = (ShortMessage) mm;
+            int cmd = sm.getCommand();
+            int key = sm.getChannel() * 128 + sm.getData1();
+            if (cmd == ShortMessage.NOTE_ON && sm.getData2() > 0)
+            {
+                if (tick < tickTo)
+                {
+                    boolean removed = tick >= tickFrom;
+                    if (soundingNotes[key] == null)
                     {
-                        try
-                        {
-                            sm.setMessage(sm.getCommand(), destChannel, sm.getData1(), sm.getData2());
-                        } catch (InvalidMidiDataException ex)
-                        {
-                            LOGGER.warning("rerouteShortMessages() ex=" + ex.getLocalizedMessage());
-                        }
+                        soundingNotes[key] = new ArrayDeque<>();
                     }
+                    soundingNotes[key].add(removed);
+                    if (removed)
+                    {
+                        toRemove.add(me);
+                        nbRemovedSoundingNotes++;
+                    }
+                }
+            } else if (cmd == ShortMessage.NOTE_OFF || cmd == ShortMessage.NOTE_ON)
+            {
+                Boolean removed = soundingNotes[key] == null ? null : soundingNotes[key].poll();
+                if (removed == Boolean.TRUE)
+                {
+                    toRemove.add(me);
+                    nbRemovedSoundingNotes--;
                 }
+            } else if (tick >= tickFrom && tick < tickTo)
+            {
+                toRemove.add(me);
+            }
+        }
+
+        for (MidiEvent me : toRemove)
+        {
+            destTrack.remove(me);
+        }
+
+        if (srcTrack != null)
+        {
+            for (int i = 0; i < srcTrack.size(); i++)
+            {
+                MidiEvent me = srcTrack.get(i);
+                if (me.getMessage() instanceof ShortMessage)
+                {
+                    destTrack.add(new MidiEvent(me.getMessage(), me.getTick() + srcTickOffset));
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace the ShortMessages of destTrack in the [tickFrom;tickTo[ range by the ShortMessages of srcTrack in the same range.
+     * <p>
+     * Both tracks must use the same timeline, e.g. srcTrack is an updated version of destTrack. Notes which start before tickFrom
+     * are kept in destTrack and ignored in srcTrack, so that notes sounding at tickFrom are not interrupted. As with
+     * replaceShortMessages(), the NOTE_OFF of a note starting in the range is replaced with its NOTE_ON even if it is beyond
+     * tickTo. MetaMessages and SysexMessages are not impacted.
+     *
+     * @param destTrack
+     * @param srcTrack
+     * @param tickFrom
+     * @param tickTo
+     */
+    static public void spliceShortMessages(Track destTrack, Track srcTrack, long tickFrom, long tickTo)
+    {
+        replaceShortMessages(destTrack, tickFrom, tickTo, null, 0);
+
+        // The sounding notes per channel and pitch, oldest first. True if the NOTE_ON is copied.
+        @SuppressWarnings("unchecked")
+        ArrayDeque<Boolean>[] soundingNotes = new ArrayDeque[16 * 128];
+        int nbCopiedSoundingNotes = 0;
+        var toAdd = new ArrayList<MidiEvent>();
+
+        for (int i = 0; i < srcTrack.size(); i++)
+        {
+            MidiEvent me = srcTrack.get(i);
+            long tick = me.getTick();
+            if (tick >= tickTo && nbCopiedSoundingNotes == 0)
+            {
+                break;
+            }
+            MidiMessage mm = me.getMessage();
+            if (!(mm instanceof ShortMessage))
+            {
+                continue;
+            }
+            ShortMessage sm = (ShortMessage) mm;
+            int cmd = sm.getCommand();
+            int key = sm.getChannel() * 128 + sm.getData1();
+            if (cmd == ShortMessage.NOTE_ON && sm.getData2() > 0)
+            {
+                if (tick < tickTo)
+                {
+                    boolean copied = tick >= tickFrom;
+                    if (soundingNotes[key] == null)
+                    {
+                        soundingNotes[key] = new ArrayDeque<>();
+                    }
+                    soundingNotes[key].add(copied);
+                    if (copied)
+                    {
+                        toAdd.add(me);
+                        nbCopiedSoundingNotes++;
+                    }
+                }
+            } else if (cmd == ShortMessage.NOTE_OFF || cmd == ShortMessage.NOTE_ON)
+            {
+                Boolean copied = soundingNotes[key] == null ? null : soundingNotes[key].poll();
+                if (copied == Boolean.TRUE)
+                {
+                    toAdd.add(me);
+                    nbCopiedSoundingNotes--;
+                }
+            } else if (tick >= tickFrom && tick < tickTo)
+            {
+                toAdd.add(me);
             }
         }
+
+        for (MidiEvent me : toAdd)
+        {
+            destTrack.add(new MidiEvent(me.getMessage(), me.getTick()));
+        }
     }
 
     /**
@@ -0,0 +1,352 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.midi;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Soundbank;
+import javax.sound.midi.Synthesizer;
+import javax.sound.midi.Track;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * Render a Midi sequence to audio offline (faster than real time) using the Java software synthesizer.
+ * <p>
+ * A new synthesizer instance is used for each rendering, in its audio stream mode (AudioSynthesizer.openStream()): all the
+ * sequence events are sent upfront with their microsecond timestamp, then audio is generated as fast as the stream is read. The
+ * synthesizer used for real time playback is not impacted, and no audio line or GUI is required.
+ * <p>
+ * Tempo is taken from the sequence tempo meta events. If there is no tempo meta event (e.g. a playback sequence), the JJazz tempo
+ * factor controller messages are applied to the initial tempo. Otherwise (e.g. a sequence prepared for a Midi file) tempo meta
+ * events already include the tempo factor, and the tempo factor controller messages are ignored. Other JJazz control track
+ * controller messages are always ignored.
+ * <p>
+ * Note: AudioSynthesizer is not a public JDK API. With Java 16+ the application must be started with
+ * "--add-opens=java.desktop/com.sun.media.sound=ALL-UNNAMED" (see default_options in nbproject/app.conf), otherwise rendering
+ * fails with a MidiUnavailableException.
+ */
+public class OfflineAudioRenderer
+{
+
+    /**
+     * 44.1kHz 16 bits stereo.
+     */
+    public static final AudioFormat DEFAULT_FORMAT = new AudioFormat(44100f, 16, 2, true, false);
+    /**
+     * Extra audio duration after the last event to let the notes release.
+     */
+    public static final int RELEASE_TAIL_MS = 2000;
+    private final Soundbank soundbank;
+    private final AudioFormat format;
+    private static final Logger LOGGER = Logger.getLogger(OfflineAudioRenderer.class.getSimpleName());
+
+    /**
+     * Create a renderer which uses DEFAULT_FORMAT.
+     *
+     * @param soundbank If null use the synthesizer default soundbank.
+     */
+    public OfflineAudioRenderer(Soundbank soundbank)
+    {
+        this(soundbank, DEFAULT_FORMAT);
+    }
+
+    /**
+     * Create a renderer.
+     *
+     * @param soundbank If null use the synthesizer default soundbank.
+     * @param format    The audio format of the generated audio
+     */
+    public OfflineAudioRenderer(Soundbank soundbank, AudioFormat format)
+    {
+        if (format == null)
+        {
+            throw new IllegalArgumentException("soundbank=" + soundbank + " format=" + format);
+        }
+        this.soundbank = soundbank;
+        this.format = format;
+    }
+
+    /**
+     * Create a renderer using the soundbank currently loaded on the default Java synth.
+     *
+     * @return
+     * @see JJazzMidiSystem#loadSoundbankFileOnSynth(java.io.File, boolean)
+     */
+    static public OfflineAudioRenderer getDefaultRenderer()
+    {
+        return new OfflineAudioRenderer(JJazzMidiSystem.getInstance().getDefaultJavaSynthSoundbank());
+    }
+
+    public Soundbank getSoundbank()
+    {
+        return soundbank;
+    }
+
+    public AudioFormat getFormat()
+    {
+        return format;
+    }
+
+    /**
+     * Render the sequence to a WAV file.
+     *
+     * @param sequence       The sequence must use a PPQ division type
+     * @param tempoBPM       The initial tempo, used until the first tempo meta event
+     * @param wavFile
+     * @return The number of bytes written
+     * @throws MidiUnavailableException If the Java software synthesizer stream mode is not available
+     * @throws IOException
+     */
+    public long renderToWavFile(Sequence sequence, int tempoBPM, File wavFile) throws MidiUnavailableException, IOException
+    {
+        if (wavFile == null)
+        {
+            throw new IllegalArgumentException("sequence=" + sequence + " tempoBPM=" + tempoBPM + " wavFile=" + wavFile);
+        }
+        long start = System.currentTimeMillis();
+        long res;
+        try (AudioInputStream ais = render(sequence, tempoBPM))
+        {
+            res = AudioSystem.write(ais, AudioFileFormat.Type.WAVE, wavFile);
+        }
+        LOGGER.fine("renderToWavFile() wavFile=" + wavFile.getAbsolutePath() + " bytes=" + res + " time=" + (System.currentTimeMillis() - start) + "ms");
+        return res;
+    }
+
+    /**
+     * Render the sequence to an audio stream.
+     * <p>
+     * Audio is generated while the stream is read. The synthesizer is released when the stream is closed.
+     *
+     * @param sequence The sequence must use a PPQ division type
+     * @param tempoBPM The initial tempo, used until the first tempo meta event
+     * @return A stream with a known frame length, including a RELEASE_TAIL_MS tail.
+     * @throws MidiUnavailableException If the Java software synthesizer stream mode is not available
+     */
+    public AudioInputStream render(Sequence sequence, int tempoBPM) throws MidiUnavailableException
+    {
+        if (sequence == null || sequence.getDivisionType() != Sequence.PPQ || tempoBPM <= 0)
+        {
+            throw new IllegalArgumentException("sequence=" + sequence + " tempoBPM=" + tempoBPM);
+        }
+
+        final Synthesizer synth = createSynthesizer();
+        AudioInputStream stream = openStream(synth);
+        if (soundbank != null && synth.isSoundbankSupported(soundbank))
+        {
+            synth.loadAllInstruments(soundbank);
+        }
+
+        long endMicros;
+        try (Receiver receiver = synth.getReceiver())
+        {
+            endMicros = sendEvents(sequence, tempoBPM, receiver);
+        } catch (MidiUnavailableException ex)
+        {
+            synth.close();
+            throw ex;
+        }
+
+        // Limit the stream length, and close the synth with the stream
+        long nbFrames = (long) ((endMicros / 1000000d + RELEASE_TAIL_MS / 1000d) * format.getFrameRate());
+        return new AudioInputStream(stream, format, nbFrames)
+        {
+            @Override
+            public void close() throws IOException
+            {
+                super.close();
+                synth.close();
+            }
+        };
+    }
+
+    // =================================================================================
+    // Private methods
+    // =================================================================================
+    /**
+     * Send all the sequence events to the receiver in tick order with their microsecond timestamp.
+     * <p>
+     * JJazz tempo factor controller messages are used only if there is no tempo meta event.
+     *
+     * @param sequence
+     * @param tempoBPM
+     * @param receiver
+     * @return The timestamp of the last event
+     */
+    private long sendEvents(Sequence sequence, int tempoBPM, Receiver receiver)
+    {
+        List<MidiEvent> events = getSortedEvents(sequence);
+        boolean useTempoFactor = !hasTempoMetaEvent(events);
+        int resolution = sequence.getResolution();
+        double tempoMPQ = MidiUtilities.toTempoMPQ(tempoBPM);
+        float tempoFactor = 1;
+        long lastTick = 0;
+        double micros = 0;
+        for (MidiEvent me : events)
+        {
+            long tick = me.getTick();
+            micros += (tick - lastTick) * tempoMPQ / tempoFactor / resolution;
+            lastTick = tick;
+
+            MidiMessage mm = me.getMessage();
+            if (mm instanceof MetaMessage)
+            {
+                MetaMessage meta = (MetaMessage) mm;
+                if (meta.getType() == 0x51 && meta.getData().length == 3)
+                {
+                    byte[] data = meta.getData();
+                    tempoMPQ = ((data[0] & 0xFF) << 16) | ((data[1] & 0xFF) << 8) | (data[2] & 0xFF);
+                }
+                continue;
+            }
+            if (mm instanceof ShortMessage && ((ShortMessage) mm).getCommand() == ShortMessage.CONTROL_CHANGE)
+            {
+                ShortMessage sm = (ShortMessage) mm;
+                int controller = sm.getData1();
+                if (controller == MidiConst.CTRL_CHG_JJAZZ_TEMPO_FACTOR)
+                {
+                    if (useTempoFactor)
+                    {
+                        tempoFactor = MidiUtilities.getTempoFactor(sm);
+                    }
+                    continue;
+                } else if (controller >= MidiConst.CTRL_CHG_JJAZZ_MARKER_SYNC && controller <= MidiConst.CTRL_CHG_JJAZZ_ACTIVITY)
+                {
+                    continue;
+                }
+            }
+            receiver.send(mm, (long) micros);
+        }
+        return (long) micros;
+    }
+
+    private boolean hasTempoMetaEvent(List<MidiEvent> events)
+    {
+        for (MidiEvent me : events)
+        {
+            if (me.getMessage() instanceof MetaMessage && ((MetaMessage) me.getMessage()).getType() == 0x51)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get all the sequence events sorted by tick.
+     * <p>
+     * For identical ticks, events keep their track order.
+     *
+     * @param sequence
+     * @return
+     */
+    private List<MidiEvent> getSortedEvents(Sequence sequence)
+    {
+        int size = 0;
+        for (Track track : sequence.getTracks())
+        {
+            size += track.size();
+        }
+        List<MidiEvent> res = new ArrayList<>(size);
+        for (Track track : sequence.getTracks())
+        {
+            for (int i = 0; i < track.size(); i++)
+            {
+                res.add(track.get(i));
+            }
+        }
+        res.sort((me1, me2) -> Long.compare(me1.getTick(), me2.getTick()));     // Stable sort
+        return res;
+    }
+
+    /**
+     * Get a new instance of the Java software synthesizer.
+     *
+     * @return
+     * @throws MidiUnavailableException
+     */
+    private Synthesizer createSynthesizer() throws MidiUnavailableException
+    {
+        Synthesizer defaultSynth = MidiSystem.getSynthesizer();
+        for (MidiDevice.Info info : MidiSystem.getMidiDeviceInfo())
+        {
+            if (info.getName().equals(defaultSynth.getDeviceInfo().getName()))
+            {
+                // For the Java software synth getMidiDevice() always returns a new SoftSynthesizer instance: it can't be the one
+                // used for real time playback
+                MidiDevice md = MidiSystem.getMidiDevice(info);
+                if (md instanceof Synthesizer)
+                {
+                    return (Synthesizer) md;
+                }
+            }
+        }
+        throw new MidiUnavailableException("No software synthesizer available for offline rendering");
+    }
+
+    /**
+     * Open the synthesizer in audio stream mode.
+     *
+     * @param synth
+     * @return
+     * @throws MidiUnavailableException
+     */
+    private AudioInputStream openStream(Synthesizer synth) throws MidiUnavailableException
+    {
+        try
+        {
+            Method m = synth.getClass().getMethod("openStream", AudioFormat.class, Map.class);
+            m.setAccessible(true);
+            return (AudioInputStream) m.invoke(synth, format, null);
+        } catch (NoSuchMethodException | IllegalAccessException | RuntimeException ex)
+        {
+            throw new MidiUnavailableException("Synthesizer " + synth.getDeviceInfo().getName() + " does not support audio stream mode: " + ex.getLocalizedMessage());
+        } catch (InvocationTargetException ex)
+        {
+            Throwable cause = ex.getCause();
+            if (cause instanceof MidiUnavailableException)
+            {
+                throw (MidiUnavailableException) cause;
+            }
+            throw new MidiUnavailableException("Can't open audio stream on synthesizer " + synth.getDeviceInfo().getName() + ": " + cause);
+        }
+    }
+}
@@ -22,7 +22,8 @@
  */
 package org.jjazz.midi.device;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import javax.sound.midi.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -30,11 +31,20 @@ import org.jjazz.midi.MidiConst;
 
 /**
  * This MidiDevice can reroute MidiMessages from one channel to another. Rerouting are added via the addRerouting().
+ * <p>
+ * Reroutings are stored in a channel lookup table which is replaced (copy-on-write) when reroutings change, so that send() does
+ * not lock.
+ * <p>
+ * Received messages are never modified: a rerouted ShortMessage is forwarded as a new ShortMessage, so that the source (e.g. a
+ * Sequence played by a Sequencer) is left untouched.
  */
 public class ChannelRerouter extends JJazzMidiDevice
 {
 
-    ArrayList<Rerouting> reroutings = new ArrayList<>();
+    /**
+     * The destination channel for each source channel, -1 if no rerouting. Never modified, replaced when reroutings change.
+     */
+    private volatile int[] channelMap = createEmptyChannelMap();
     private static final Logger LOGGER = Logger.getLogger(ChannelRerouter.class.getSimpleName());
 
     /**
@@ -48,7 +58,7 @@ public class ChannelRerouter extends JJazzMidiDevice
 
     public synchronized void addRerouting(int channelFrom, int channelTo)
     {
-        if (!MidiConst.checkMidiChannel(channelTo) || MidiConst.checkMidiChannel(channelFrom))
+        if (!MidiConst.checkMidiChannel(channelTo) || !MidiConst.checkMidiChannel(channelFrom))
         {
             throw new IllegalArgumentException("channelFrom=" + channelFrom + " channelTo=" + channelTo);
         }
@@ -56,12 +66,45 @@ public class ChannelRerouter extends JJazzMidiDevice
         {
             return;
         }
-        reroutings.add(new Rerouting(channelFrom, channelTo));
+        int[] newMap = channelMap.clone();
+        if (newMap[channelFrom] == -1)
+        {
+            // First registered rerouting wins
+            newMap[channelFrom] = channelTo;
+            channelMap = newMap;
+        }
+    }
+
+    /**
+     * Replace all the reroutings in one operation.
+     *
+     * @param channelsFrom Can be empty
+     * @param channelTo
+     */
+    public synchronized void setReroutings(List<Integer> channelsFrom, int channelTo)
+    {
+        if (!MidiConst.checkMidiChannel(channelTo))
+        {
+            throw new IllegalArgumentException("channelsFrom=" + channelsFrom + " channelTo=" + channelTo);
+        }
+        int[] newMap = createEmptyChannelMap();
+        for (int channelFrom : channelsFrom)
+        {
+            if (!MidiConst.checkMidiChannel(channelFrom))
+            {
+                throw new IllegalArgumentException("channelsFrom=" + channelsFrom + " channelTo=" + channelTo);
+            }
+            if (channelFrom != channelTo)
+            {
+                newMap[channelFrom] = channelTo;
+            }
+        }
+        channelMap = newMap;
     }
 
     public synchronized void clearReroutings()
     {
-        reroutings.clear();
+        channelMap = createEmptyChannelMap();
     }
 
     /**
@@ -71,14 +114,7 @@ public class ChannelRerouter extends JJazzMidiDevice
      */
     public int getRerouting(int fromChannel)
     {
-        for (Rerouting r : reroutings)
-        {
-            if (r.from == fromChannel)
-            {
-                return r.to;
-            }
-        }
-        return -1;
+        return channelMap[fromChannel];
     }
 
     @Override
@@ -94,6 +130,13 @@ public class ChannelRerouter extends JJazzMidiDevice
     // ========================================================================================
     // Private methods
     // ========================================================================================
+    private static int[] createEmptyChannelMap()
+    {
+        int[] res = new int[16];
+        Arrays.fill(res, -1);
+        return res;
+    }
+
     // ========================================================================================
     // Private classes
     // ========================================================================================
@@ -103,7 +146,7 @@ public class ChannelRerouter extends JJazzMidiDevice
     private class RerouterReceiver implements Receiver
     {
 
-        boolean isOpen = true;
+        volatile boolean isOpen = true;
 
         @Override
         public void close()
@@ -115,6 +158,8 @@ public class ChannelRerouter extends JJazzMidiDevice
 
         /**
          * Operation called each time a MidiMessage arrives. Reroute incoming MidiMessages when matching.
+         * <p>
+         * The incoming message is not modified.
          */
         @Override
         public void send(MidiMessage msg, long timeStamp)
@@ -135,7 +180,7 @@ public class ChannelRerouter extends JJazzMidiDevice
                     // Reroute it
                     try
                     {
-                        sm.setMessage(sm.getCommand(), newChannel, sm.getData1(), sm.getData2());
+                        msg = new ShortMessage(sm.getCommand(), newChannel, sm.getData1(), sm.getData2());
                     } catch (InvalidMidiDataException ex)
                     {
                         throw new IllegalStateException(ex);
@@ -144,27 +189,7 @@ public class ChannelRerouter extends JJazzMidiDevice
             }
 
             // send the messages
-            for (Transmitter t : transmitters.toArray(new Transmitter[0]))
-            {
-                Receiver rcv = t.getReceiver();
-                if (rcv != null)
-                {
-                    rcv.send(msg, timeStamp);
-                }
-            }
-        }
-    }
-
-    private class Rerouting
-    {
-
-        int from;
-        int to;
-
-        public Rerouting(int from, int to)
-        {
-            this.from = from;
-            this.to = to;
+            sendToTransmitters(msg, timeStamp);
         }
     }
 }
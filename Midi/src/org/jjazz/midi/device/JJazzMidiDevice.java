@@ -23,21 +23,26 @@
 package org.jjazz.midi.device;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sound.midi.*;
 
 /**
  * A generic MidiDevice that should be subclassed to create your own MidiDevice.
+ * <p>
+ * Transmitters and receivers lists are copy-on-write lists, and an array snapshot of the transmitters is published each time the
+ * transmitters change: sendToTransmitters() does not lock nor allocate anything.
  */
 public class JJazzMidiDevice implements MidiDevice
 {
 
     protected String name;
     protected DeviceInfo devInfo;
-    protected boolean isOpen = true;
-    protected ArrayList<Transmitter> transmitters = new ArrayList<>();
-    protected ArrayList<Receiver> receivers = new ArrayList<>();
+    protected volatile boolean isOpen = true;
+    protected final List<Transmitter> transmitters = new CopyOnWriteArrayList<>();
+    protected final List<Receiver> receivers = new CopyOnWriteArrayList<>();
+    private volatile Transmitter[] transmittersSnapshot = new Transmitter[0];
 
     private static final Logger LOGGER = Logger.getLogger(JJazzMidiDevice.class.getSimpleName());
 
@@ -106,6 +111,7 @@ public class JJazzMidiDevice implements MidiDevice
     {
         JJazzTransmitter mt = new JJazzTransmitter();
         transmitters.add(mt);
+        updateTransmittersSnapshot();
         open();
         LOGGER.log(Level.FINE, "getTransmitter() mt={0}", mt);
         return mt;
@@ -132,6 +138,35 @@ public class JJazzMidiDevice implements MidiDevice
         return receivers;
     }
 
+    /**
+     * Send a message to the receivers of all our transmitters.
+     * <p>
+     * Can be called concurrently from any thread, no lock and no allocation.
+     *
+     * @param msg
+     * @param timeStamp
+     */
+    protected void sendToTransmitters(MidiMessage msg, long timeStamp)
+    {
+        final Transmitter[] snapshot = transmittersSnapshot;
+        for (int i = 0; i < snapshot.length; i++)
+        {
+            Receiver rcv = snapshot[i].getReceiver();
+            if (rcv != null)
+            {
+                rcv.send(msg, timeStamp);
+            }
+        }
+    }
+
+    // ========================================================================================
+    // Private methods
+    // ========================================================================================
+    private synchronized void updateTransmittersSnapshot()
+    {
+        transmittersSnapshot = transmitters.toArray(new Transmitter[0]);
+    }
+
     //~ Classes =====================================================================================
     /**
      * The device info of the MidiDevice.
@@ -151,7 +186,7 @@ public class JJazzMidiDevice implements MidiDevice
     protected class JJazzTransmitter implements Transmitter
     {
 
-        Receiver rcv;
+        volatile Receiver rcv;
 
         @Override
         public void setReceiver(Receiver r)
@@ -171,6 +206,7 @@ public class JJazzMidiDevice implements MidiDevice
             LOGGER.fine("JJazzTransmitter.close()");
             rcv = null;
             transmitters.remove(this);
+            updateTransmittersSnapshot();
         }
     }
 }
@@ -22,8 +22,8 @@
  */
 package org.jjazz.midi.device;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import javax.sound.midi.MidiMessage;
 import javax.sound.midi.Receiver;
 import javax.sound.midi.ShortMessage;
@@ -47,7 +47,12 @@ public class MidiChannelDispatcher extends JJazzMidiDevice
     /**
      * The transmitters per channel.
      */
-    private ArrayList<Transmitter>[] channelTransmitters = new ArrayList[LAST_CHANNEL + 1];
+    private final CopyOnWriteArrayList<Transmitter>[] channelTransmitters = new CopyOnWriteArrayList[LAST_CHANNEL + 1];
+    /**
+     * Array snapshots of channelTransmitters, used by the receiver to avoid locks and allocations. Replaced when a transmitter is
+     * added.
+     */
+    private volatile Transmitter[][] channelTransmittersSnapshots = new Transmitter[LAST_CHANNEL + 1][];
 
     public MidiChannelDispatcher()
     {
@@ -56,7 +61,8 @@ public class MidiChannelDispatcher extends JJazzMidiDevice
         // Initialize the array for each channel
         for (int i = 0; i < channelTransmitters.length; i++)
         {
-            channelTransmitters[i] = new ArrayList<>();
+            channelTransmitters[i] = new CopyOnWriteArrayList<>();
+            channelTransmittersSnapshots[i] = new Transmitter[0];
         }
     }
 
@@ -86,7 +92,13 @@ public class MidiChannelDispatcher extends JJazzMidiDevice
         }
 
         Transmitter mt = super.getTransmitter();
-        channelTransmitters[channel].add(mt);
+        synchronized (channelTransmitters)
+        {
+            channelTransmitters[channel].add(mt);
+            Transmitter[][] snapshots = channelTransmittersSnapshots.clone();
+            snapshots[channel] = channelTransmitters[channel].toArray(new Transmitter[0]);
+            channelTransmittersSnapshots = snapshots;
+        }
         return mt;
     }
 
@@ -138,9 +150,10 @@ public class MidiChannelDispatcher extends JJazzMidiDevice
             }
 
             // send the messages via the transmitters for the selected channel
-            for (Transmitter t : channelTransmitters[msgChannel])
+            final Transmitter[] snapshot = channelTransmittersSnapshots[msgChannel];
+            for (int i = 0; i < snapshot.length; i++)
             {
-                Receiver rcv = t.getReceiver();
+                Receiver rcv = snapshot[i].getReceiver();
                 if (rcv != null)
                 {
                     rcv.send(msg, timeStamp);
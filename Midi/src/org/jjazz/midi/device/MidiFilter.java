@@ -47,8 +47,10 @@ public class MidiFilter extends JJazzMidiDevice
     }
     /**
      * Configure what is filtered.
+     * <p>
+     * Never modified, replaced by a new instance when config changes.
      */
-    private EnumSet<Config> configFilter = EnumSet.noneOf(Config.class);
+    private volatile EnumSet<Config> configFilter = EnumSet.noneOf(Config.class);
 
     /**
      * Configure what is logged.
@@ -76,12 +78,12 @@ public class MidiFilter extends JJazzMidiDevice
         return rcv;
     }
 
-    public synchronized EnumSet<Config> getFilterConfig()
+    public EnumSet<Config> getFilterConfig()
     {
         return EnumSet.copyOf(configFilter);
     }
 
-    public synchronized void setFilterConfig(EnumSet<Config> newConfig)
+    public void setFilterConfig(EnumSet<Config> newConfig)
     {
         configFilter = EnumSet.copyOf(newConfig);
     }
@@ -92,7 +94,7 @@ public class MidiFilter extends JJazzMidiDevice
     /**
      * Operation called when a MidiMessage has been filtered
      */
-    private synchronized void filtered(MidiMessage msg, long timestamp)
+    private void filtered(MidiMessage msg, long timestamp)
     {
         if (configLog.contains(ConfigLog.LOG_FILTERED_MESSAGES))
         {
@@ -107,17 +109,10 @@ public class MidiFilter extends JJazzMidiDevice
     /**
      * Operation called when a MidiMessage has not been filtered
      */
-    private synchronized void passed(MidiMessage msg, long timestamp)
+    private void passed(MidiMessage msg, long timestamp)
     {
         // Forward the message to transmitters
-        for (Transmitter t : transmitters.toArray(new Transmitter[0]))
-        {
-            Receiver rcv = t.getReceiver();
-            if (rcv != null)
-            {
-                rcv.send(msg, timestamp);
-            }
-        }
+        sendToTransmitters(msg, timestamp);
 
         // Optional log
         if (configLog.contains(ConfigLog.LOG_PASSED_MESSAGES))
@@ -131,15 +126,17 @@ public class MidiFilter extends JJazzMidiDevice
     }
 
     /**
-     * The receiver that does the filtering
+     * The receiver that does the filtering.
+     * <p>
+     * No lock: messages can be sent concurrently by several threads (e.g. sequencer and EDT).
      */
     private class FilterReceiver implements Receiver
     {
 
-        boolean isOpen = true;
+        volatile boolean isOpen = true;
 
         @Override
-        synchronized public void close()
+        public void close()
         {
             LOGGER.fine("FilterReceiver.close()");
             isOpen = false;
@@ -150,13 +147,15 @@ public class MidiFilter extends JJazzMidiDevice
          * Operation called each time a MidiMessage arrives. Filter incoming MidiMessages.
          */
         @Override
-        synchronized public void send(MidiMessage msg, long timestamp)
+        public void send(MidiMessage msg, long timestamp)
         {
             if (!isOpen)
             {
                 throw new IllegalStateException("FilterReceiver object is closed");
             }
 
+            final EnumSet<Config> configFilter = MidiFilter.this.configFilter;      // Read once
+
             if (configFilter.isEmpty())
             {
                 passed(msg, timestamp);
@@ -0,0 +1,275 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.midi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.*;
+
+public class MidiOutDispatcherTest
+{
+
+    private static final long TIMEOUT_MS = 5000;
+    private TestReceiver receiver;
+    private ShortMessage gateMessage;
+
+    public MidiOutDispatcherTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception
+    {
+    }
+
+    @Before
+    public void setUp() throws InvalidMidiDataException
+    {
+        // The dispatcher thread blocks when sending gateMessage, until the gate is opened
+        gateMessage = new ShortMessage(ShortMessage.NOTE_ON, 15, 127, 127);
+        receiver = new TestReceiver(gateMessage);
+    }
+
+    @After
+    public void tearDown()
+    {
+        receiver.openGate();
+    }
+
+    @Test
+    public void testFullBufferWrapAround() throws Exception
+    {
+        System.out.println("full buffer and wrap-around");
+        MidiOutDispatcher dispatcher = new MidiOutDispatcher(receiver, "testFullBufferWrapAround", 4);
+        dispatcher.send(gateMessage);
+        receiver.waitGateReached();
+
+        // Post more messages than the capacity while the dispatcher thread is blocked
+        List<MidiMessage> posted = new ArrayList<>();
+        for (int i = 0; i < 30; i++)
+        {
+            posted.add(new ShortMessage(ShortMessage.NOTE_ON, 0, i, 64));
+        }
+        Thread producer = new Thread(() ->
+        {
+            for (MidiMessage mm : posted)
+            {
+                dispatcher.send(mm);
+            }
+        });
+        producer.start();
+
+        // Producer must wait, nothing is lost
+        long start = System.currentTimeMillis();
+        while (dispatcher.getOverflowCount() == 0 && System.currentTimeMillis() - start < TIMEOUT_MS)
+        {
+            Thread.sleep(1);
+        }
+        assertTrue(dispatcher.getOverflowCount() > 0);
+        assertEquals(4, dispatcher.getQueueDepth());
+        assertTrue(producer.isAlive());
+
+        receiver.openGate();
+        producer.join(TIMEOUT_MS);
+        List<MidiMessage> expected = new ArrayList<>();
+        expected.add(gateMessage);
+        expected.addAll(posted);
+        assertEquals(expected, receiver.waitMessages(expected.size()));
+        assertEquals(expected.size(), dispatcher.getSentCount());
+        assertEquals(0, dispatcher.getCoalescedCount());
+        assertEquals(0, dispatcher.getQueueDepth());
+
+        // Ring buffer is reused after wrap-around
+        MidiMessage mm = new ShortMessage(ShortMessage.NOTE_OFF, 0, 1, 0);
+        dispatcher.send(mm);
+        expected.add(mm);
+        assertEquals(expected, receiver.waitMessages(expected.size()));
+    }
+
+    @Test
+    public void testCoalescing() throws Exception
+    {
+        System.out.println("coalescing within a batch");
+        MidiOutDispatcher dispatcher = new MidiOutDispatcher(receiver, "testCoalescing", 64);
+        dispatcher.send(gateMessage);
+        receiver.waitGateReached();
+
+        // These messages are all posted before the dispatcher thread drains the buffer: they are sent in one batch
+        ShortMessage noteOn = new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 64);
+        ShortMessage vol0 = cc(0, MidiConst.CTRL_CHG_VOLUME_MSB, 10);
+        ShortMessage pan0 = cc(0, MidiConst.CTRL_CHG_PAN_MSB, 20);
+        ShortMessage vol1 = cc(1, MidiConst.CTRL_CHG_VOLUME_MSB, 30);
+        ShortMessage sustain1 = cc(0, 64, 127);
+        ShortMessage sustain2 = cc(0, 64, 0);
+        ShortMessage vol0b = cc(0, MidiConst.CTRL_CHG_VOLUME_MSB, 40);
+        ShortMessage vol0c = cc(0, MidiConst.CTRL_CHG_VOLUME_MSB, 50);
+        ShortMessage noteOff = new ShortMessage(ShortMessage.NOTE_OFF, 0, 60, 0);
+        ShortMessage pan0b = cc(0, MidiConst.CTRL_CHG_PAN_MSB, 60);
+        for (MidiMessage mm : new MidiMessage[]
+        {
+            noteOn, vol0, pan0, vol1, sustain1, sustain2, vol0b, vol0c, noteOff, pan0b
+        })
+        {
+            dispatcher.send(mm);
+        }
+        receiver.openGate();
+
+        // Only the last value of each channel/continuous controller is sent, at the position of the last value
+        List<MidiMessage> expected = List.of(gateMessage, noteOn, vol1, sustain1, sustain2, vol0c, noteOff, pan0b);
+        assertEquals(expected, receiver.waitMessages(expected.size()));
+        assertEquals(3, dispatcher.getCoalescedCount());
+
+        // No coalescing with messages of a previous batch
+        ShortMessage vol0d = cc(0, MidiConst.CTRL_CHG_VOLUME_MSB, 70);
+        dispatcher.send(vol0d);
+        assertEquals(vol0d, receiver.waitMessages(expected.size() + 1).get(expected.size()));
+        assertEquals(3, dispatcher.getCoalescedCount());
+    }
+
+    @Test
+    public void testScheduledOrder() throws Exception
+    {
+        System.out.println("scheduled messages order");
+        MidiOutDispatcher dispatcher = new MidiOutDispatcher(receiver, "testScheduledOrder", 64);
+        long now = System.nanoTime();
+        long due1 = now + TimeUnit.MILLISECONDS.toNanos(600);
+        long due2 = now + TimeUnit.MILLISECONDS.toNanos(300);
+        ShortMessage late = new ShortMessage(ShortMessage.NOTE_ON, 0, 1, 64);
+        ShortMessage early1 = new ShortMessage(ShortMessage.NOTE_ON, 0, 2, 64);
+        ShortMessage early2 = new ShortMessage(ShortMessage.NOTE_ON, 0, 3, 64);
+        ShortMessage immediate = new ShortMessage(ShortMessage.NOTE_ON, 0, 4, 64);
+        ShortMessage past = new ShortMessage(ShortMessage.NOTE_ON, 0, 5, 64);
+
+        dispatcher.sendAt(late, due1);
+        dispatcher.sendAt(early1, due2);
+        dispatcher.sendAt(early2, due2);
+        dispatcher.send(immediate);
+        dispatcher.sendAt(past, now - 1000);
+
+        // Sorted by due time, then by posting order
+        List<MidiMessage> expected = List.of(immediate, past, early1, early2, late);
+        assertEquals(expected, receiver.waitMessages(expected.size()));
+
+        // Not sent before their due time
+        List<Long> times = receiver.getSendTimes();
+        assertTrue(times.get(2) - due2 >= 0);
+        assertTrue(times.get(3) - due2 >= 0);
+        assertTrue(times.get(4) - due1 >= 0);
+        assertEquals(expected.size(), dispatcher.getSentCount());
+    }
+
+    // =========================================================================
+    // Private methods
+    // =========================================================================
+    private ShortMessage cc(int channel, int controller, int value) throws InvalidMidiDataException
+    {
+        return new ShortMessage(ShortMessage.CONTROL_CHANGE, channel, controller, value);
+    }
+
+    // =========================================================================
+    // Private classes
+    // =========================================================================
+    /**
+     * Record the received messages and their System.nanoTime() reception time.
+     */
+    private static class TestReceiver implements Receiver
+    {
+
+        private final MidiMessage gateMessage;
+        private final CountDownLatch gateReached = new CountDownLatch(1);
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final List<MidiMessage> messages = new ArrayList<>();
+        private final List<Long> sendTimes = new ArrayList<>();
+
+        TestReceiver(MidiMessage gateMessage)
+        {
+            this.gateMessage = gateMessage;
+        }
+
+        @Override
+        public void send(MidiMessage mm, long timeStamp)
+        {
+            long time = System.nanoTime();
+            synchronized (this)
+            {
+                messages.add(mm);
+                sendTimes.add(time);
+                notifyAll();
+            }
+            if (mm == gateMessage)
+            {
+                gateReached.countDown();
+                try
+                {
+                    gate.await();
+                } catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void close()
+        {
+        }
+
+        void waitGateReached() throws InterruptedException
+        {
+            assertTrue(gateReached.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        }
+
+        void openGate()
+        {
+            gate.countDown();
+        }
+
+        synchronized List<MidiMessage> waitMessages(int n) throws InterruptedException
+        {
+            long start = System.currentTimeMillis();
+            while (messages.size() < n && System.currentTimeMillis() - start < TIMEOUT_MS)
+            {
+                wait(10);
+            }
+            return new ArrayList<>(messages);
+        }
+
+        synchronized List<Long> getSendTimes()
+        {
+            return new ArrayList<>(sendTimes);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *   
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3) 
+ *  as published by the Free Software Foundation, either version 3 of the License, 
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ * 
+ *  Contributor(s): 
+ */
+package org.jjazz.midi;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import static org.junit.Assert.assertEquals;
+import org.junit.*;
+
+public class MidiUtilitiesTest
+{
+
+    private Track track;
+
+    public MidiUtilitiesTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception
+    {
+    }
+
+    @Before
+    public void setUp() throws InvalidMidiDataException
+    {
+        track = new Sequence(Sequence.PPQ, MidiConst.PPQ_RESOLUTION).createTrack();
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testReplaceShortMessagesOverlappingNotesAcrossTickFrom() throws InvalidMidiDataException
+    {
+        System.out.println("replaceShortMessages overlapping same-pitch notes across tickFrom");
+        add(ShortMessage.NOTE_ON, 0, 60, 64, 90);       // Before range, ends at 120 (FIFO)
+        add(ShortMessage.NOTE_ON, 0, 60, 64, 110);      // In range, ends at 150
+        add(ShortMessage.NOTE_OFF, 0, 60, 0, 120);
+        add(ShortMessage.NOTE_OFF, 0, 60, 0, 150);
+
+        MidiUtilities.replaceShortMessages(track, 100, 200, null, 0);
+
+        assertEquals(List.of("ON 0 60 90", "OFF 0 60 120"), dump());
+    }
+
+    @Test
+    public void testReplaceShortMessagesNoteOffBeyondTickTo() throws InvalidMidiDataException
+    {
+        System.out.println("replaceShortMessages removed note with NOTE_OFF beyond tickTo");
+        add(ShortMessage.NOTE_ON, 0, 60, 64, 150);      // In range, ends at 300 (FIFO)
+        add(ShortMessage.NOTE_ON, 0, 60, 64, 250);      // After range, ends at 400
+        add(ShortMessage.NOTE_OFF, 0, 60, 0, 300);
+        add(ShortMessage.NOTE_ON, 0, 60, 0, 400);       // NOTE_ON with velocity 0 is a NOTE_OFF
+
+        MidiUtilities.replaceShortMessages(track, 100, 200, null, 0);
+
+        assertEquals(List.of("ON 0 60 250", "ON 0 60 400"), dump());
+    }
+
+    @Test
+    public void testReplaceShortMessagesChannelsAreIndependent() throws InvalidMidiDataException
+    {
+        System.out.println("replaceShortMessages same pitch on different channels");
+        add(ShortMessage.NOTE_ON, 1, 60, 64, 90);
+        add(ShortMessage.NOTE_ON, 0, 60, 64, 110);
+        add(ShortMessage.NOTE_OFF, 0, 60, 0, 130);
+        add(ShortMessage.NOTE_OFF, 1, 60, 0, 140);
+        add(ShortMessage.CONTROL_CHANGE, 0, 7, 100, 150);
+
+        MidiUtilities.replaceShortMessages(track, 100, 200, null, 0);
+
+        assertEquals(List.of("ON 1 60 90", "OFF 1 60 140"), dump());
+    }
+
+    @Test
+    public void testReplaceShortMessagesWithSrcTrack() throws InvalidMidiDataException
+    {
+        System.out.println("replaceShortMessages with srcTrack");
+        add(ShortMessage.NOTE_ON, 0, 60, 64, 90);
+        add(ShortMessage.NOTE_ON, 0, 62, 64, 110);
+        add(ShortMessage.NOTE_OFF, 0, 62, 0, 130);
+        add(ShortMessage.NOTE_OFF, 0, 60, 0, 300);
+        Track srcTrack = new Sequence(Sequence.PPQ, MidiConst.PPQ_RESOLUTION).createTrack();
+        srcTrack.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, 64, 64), 10));
+        srcTrack.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 0, 64, 0), 50));
+
+        MidiUtilities.replaceShortMessages(track, 100, 200, srcTrack, 100);
+
+        assertEquals(List.of("ON 0 60 90", "ON 0 64 110", "OFF 0 64 150", "OFF 0 60 300"), dump());
+    }
+
+    @Test
+    public void testSpliceShortMessages() throws InvalidMidiDataException
+    {
+        System.out.println("spliceShortMessages");
+        add(ShortMessage.NOTE_ON, 0, 60, 64, 90);       // Sounding at tickFrom, kept
+        add(ShortMessage.NOTE_ON, 0, 62, 64, 110);      // Replaced
+        add(ShortMessage.NOTE_OFF, 0, 60, 0, 150);
+        add(ShortMessage.NOTE_OFF, 0, 62, 0, 250);
+        Track srcTrack = new Sequence(Sequence.PPQ, MidiConst.PPQ_RESOLUTION).createTrack();
+        srcTrack.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, 48, 64), 80));       // Sounding at tickFrom, ignored
+        srcTrack.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, 64, 64), 120));
+        srcTrack.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 0, 48, 0), 130));
+        srcTrack.add(new MidiEvent(new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 7, 100), 140));
+        srcTrack.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 0, 64, 0), 300));      // Beyond tickTo, follows its NOTE_ON
+        srcTrack.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, 65, 64), 310));      // After range, ignored
+
+        MidiUtilities.spliceShortMessages(track, srcTrack, 100, 200);
+
+        assertEquals(List.of("ON 0 60 90", "ON 0 64 120", "CMD176 0 7 140", "OFF 0 60 150", "OFF 0 64 300"), dump());
+    }
+
+    // ===================================================================================
+    // Private methods
+    // ===================================================================================
+    private void add(int cmd, int channel, int pitch, int velocity, long tick) throws InvalidMidiDataException
+    {
+        track.add(new MidiEvent(new ShortMessage(cmd, channel, pitch, velocity), tick));
+    }
+
+    /**
+     * @return The track ShortMessages as "ON|OFF channel pitch tick" strings, NOTE_ON with velocity 0 is "ON".
+     */
+    private List<String> dump()
+    {
+        List<String> res = new ArrayList<>();
+        for (int i = 0; i < track.size(); i++)
+        {
+            MidiEvent me = track.get(i);
+            if (me.getMessage() instanceof ShortMessage)
+            {
+                ShortMessage sm = (ShortMessage) me.getMessage();
+                String cmd = sm.getCommand() == ShortMessage.NOTE_ON ? "ON" : sm.getCommand() == ShortMessage.NOTE_OFF ? "OFF" : "CMD" + sm.getCommand();
+                res.add(cmd + " " + sm.getChannel() + " " + sm.getData1() + " " + me.getTick());
+            }
+        }
+        return res;
+    }
+}
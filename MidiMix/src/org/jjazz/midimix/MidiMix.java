@@ -843,6 +843,31 @@ public class MidiMix implements SgsChangeListener, PropertyChangeListener, Seria
         }
     }
 
+    /**
+     * Get a snapshot of this MidiMix.
+     * <p>
+     * The copy uses copies of the InstrumentMixes with the same RhythmVoice keys and the same drums rerouted channels. It is not
+     * associated to a song and nothing listens to it: it can be used e.g. to generate music out of the EDT while this MidiMix is
+     * being modified.
+     *
+     * @return
+     */
+    public MidiMix getCopy()
+    {
+        MidiMix mm = new MidiMix();
+        for (int i = 0; i < instrumentMixes.length; i++)
+        {
+            if (instrumentMixes[i] != null)
+            {
+                mm.instrumentMixes[i] = new InstrumentMix(instrumentMixes[i]);
+                mm.rvKeys[i] = rvKeys[i];
+            }
+        }
+        mm.rvDelegates.addAll(rvDelegates);
+        mm.drumsReroutedChannels.putAll(drumsReroutedChannels);
+        return mm;
+    }
+
     /**
      * @return True if MidiMix has some unsaved changes.
      */
@@ -82,7 +82,7 @@ public class MidiMixManager implements PropertyChangeListener
      * @return A valid MidiMix usable for the specified song.
      * @throws javax.sound.midi.MidiUnavailableException
      */
-    public MidiMix findMix(Song s) throws MidiUnavailableException
+    public synchronized MidiMix findMix(Song s) throws MidiUnavailableException
     {
         LOGGER.fine("findMix() -- s=" + s);
         // Try to get existing MidiMix in memory
@@ -243,7 +243,7 @@ public class MidiMixManager implements PropertyChangeListener
     // ==================================================================
     // Private functions
     // ==================================================================
-    private void registerSong(MidiMix mm, Song sg)
+    private synchronized void registerSong(MidiMix mm, Song sg)
     {
         if (mapSongMix.get(sg) == null)
         {
@@ -253,7 +253,7 @@ public class MidiMixManager implements PropertyChangeListener
         mapSongMix.put(sg, mm);
     }
 
-    private void unregisterSong(Song song)
+    private synchronized void unregisterSong(Song song)
     {
         song.removePropertyChangeListener(this);
         mapSongMix.remove(song);
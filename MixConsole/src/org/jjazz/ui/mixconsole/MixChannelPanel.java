@@ -35,8 +35,8 @@ import org.jjazz.leadsheet.chordleadsheet.api.item.Position;
 import org.jjazz.midi.synths.StdSynth;
 import org.jjazz.midi.Instrument;
 import org.jjazz.midi.MidiConst;
-import org.jjazz.musiccontrol.MusicController;
-import org.jjazz.musiccontrol.PlaybackListener;
+import org.jjazz.musiccontrol.AggregatedPlaybackListener;
+import org.jjazz.musiccontrol.PlaybackEventAggregator;
 import org.jjazz.ui.flatcomponents.FlatIntegerKnob;
 import org.jjazz.ui.flatcomponents.FlatIntegerVerticalSlider;
 import org.jjazz.ui.flatcomponents.FlatTextEditDialog;
@@ -47,7 +47,7 @@ import org.jjazz.util.Utilities;
 /**
  * Display a MixChannel.
  */
-public class MixChannelPanel extends javax.swing.JPanel implements PropertyChangeListener, PlaybackListener
+public class MixChannelPanel extends javax.swing.JPanel implements PropertyChangeListener, AggregatedPlaybackListener
 {
 
     private static FlatTextEditDialog TEXT_EDIT_DIALOG;
@@ -81,7 +81,7 @@ public class MixChannelPanel extends javax.swing.JPanel implements PropertyChang
         this.settings.addPropertyChangeListener(this);
         this.model.addPropertyChangeListener(this);
 
-        MusicController.getInstance().addPlaybackListener(this);
+        PlaybackEventAggregator.getInstance().addAggregatedPlaybackListener(this);
 
         initComponents();
 
@@ -105,7 +105,7 @@ public class MixChannelPanel extends javax.swing.JPanel implements PropertyChang
 
     public void cleanup()
     {
-        MusicController.getInstance().removePlaybackListener(this);
+        PlaybackEventAggregator.getInstance().removeAggregatedPlaybackListener(this);
         model.removePropertyChangeListener(this);
         settings.removePropertyChangeListener(this);
         model.cleanup();
@@ -168,24 +168,18 @@ public class MixChannelPanel extends javax.swing.JPanel implements PropertyChang
     }
 
     // ======================================================================
-    // Playbackistener interface
+    // AggregatedPlaybackListener interface
     // ======================================================================  
     @Override
-    public void beatChanged(Position oldPos, Position newPos)
+    public void positionChanged(Position oldPos, Position newPos)
     {
         // Nothing
     }
 
     @Override
-    public void barChanged(int oldBar, int newBar)
+    public void midiActivity(int channelMask)
     {
-        // Nothing
-    }
-
-    @Override
-    public void midiActivity(int channel, long tick)
-    {
-        if (model.getChannelId() == channel)
+        if ((channelMask & (1 << model.getChannelId())) != 0)
         {
             fled_midiActivity.showActivity();
         }
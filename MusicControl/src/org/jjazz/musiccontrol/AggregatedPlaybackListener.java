@@ -0,0 +1,53 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.musiccontrol;
+
+import org.jjazz.leadsheet.chordleadsheet.api.item.Position;
+
+/**
+ * Listener of the playback events aggregated by the PlaybackEventAggregator.
+ * <p>
+ * Methods are called on the EDT, at most once per display frame.
+ *
+ * @see PlaybackEventAggregator
+ */
+public interface AggregatedPlaybackListener
+{
+
+    /**
+     * The playback position has changed since the last update.
+     * <p>
+     * Position instances are shared: they must not be modified.
+     *
+     * @param oldPos The position notified at the previous update
+     * @param newPos The latest position
+     */
+    void positionChanged(Position oldPos, Position newPos);
+
+    /**
+     * There was some musical activity since the last update.
+     *
+     * @param channelMask Bit n is set if there was activity on channel n.
+     */
+    void midiActivity(int channelMask);
+}
@@ -24,13 +24,11 @@ package org.jjazz.musiccontrol;
 
 import java.beans.PropertyChangeListener;
 import java.util.Arrays;
-import java.util.logging.Level;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 import java.util.prefs.Preferences;
 import javax.sound.midi.InvalidMidiDataException;
-import javax.sound.midi.MetaMessage;
 import javax.sound.midi.MidiEvent;
-import javax.sound.midi.MidiMessage;
 import javax.sound.midi.Sequence;
 import javax.sound.midi.ShortMessage;
 import javax.sound.midi.Track;
@@ -90,6 +88,10 @@ public class ClickManager
     public static String PROP_CLICK_PRECOUNT_MODE = "ClickPrecountMode";
 
     private SwingPropertyChangeSupport pcs = new SwingPropertyChangeSupport(this);
+    /**
+     * The click templates per TimeSignature and channel, built from the current click settings.
+     */
+    private final ConcurrentHashMap<Integer, ClickTemplate> clickTemplates = new ConcurrentHashMap<>();
     private static Preferences prefs = NbPreferences.forModule(ClickManager.class);
     protected static final Logger LOGGER = Logger.getLogger(ClickManager.class.getSimpleName());
 
@@ -107,7 +109,8 @@ public class ClickManager
 
     private ClickManager()
     {
-
+        // Click settings have changed, templates must be rebuilt
+        pcs.addPropertyChangeListener(e -> clickTemplates.clear());
     }
 
     /**
@@ -343,6 +346,19 @@ public class ClickManager
      * @return the index of the track in the sequence.
      */
     public int addClickTrack(Sequence sequence, MusicGenerationContext context)
+    {
+        return addClickTrack(sequence, context, 0);
+    }
+
+    /**
+     * Same as addClickTrack(Sequence, MusicGenerationContext) but the click events start at tickOffset.
+     *
+     * @param sequence   The sequence for which we add the control track.
+     * @param context
+     * @param tickOffset The tick position of the start of the song in the sequence, e.g. getPreCountTickLength().
+     * @return the index of the track in the sequence.
+     */
+    public int addClickTrack(Sequence sequence, MusicGenerationContext context, long tickOffset)
     {
         if (sequence == null || context == null)
         {
@@ -356,7 +372,7 @@ public class ClickManager
         MidiEvent me = new MidiEvent(MidiUtilities.getTrackNameMetaMessage(CLICK_TRACK_NAME), 0);
         track.add(me);
 
-        long tick = 0;
+        long tick = tickOffset;
         // Scan all SongParts in the context
         for (SongPart spt : context.getSongParts())
         {
@@ -372,12 +388,26 @@ public class ClickManager
     }
 
     /**
-     * Add a precount click track to the sequence for the specified song.
+     * The length of the precount bars for the specified context using the current settings.
      * <p>
-     * Except for the cases below, all existing sequence MidiEvents are shifted 1 or 2 bars later in order to leave room for the
-     * precount bars.
+     * This is the tick position of the start of the song when a precount click track is used: the other tracks of the sequence
+     * must be built with this tick offset, see MidiSequenceBuilder.setTickOffset().
+     *
+     * @param context
+     * @return
+     */
+    public long getPreCountTickLength(MusicGenerationContext context)
+    {
+        TimeSignature ts = context.getSongParts().get(0).getRhythm().getTimeSignature();
+        int nbPrecountBars = getClickPrecountNbBars(ts, context.getSong().getTempo());
+        return (long) (nbPrecountBars * ts.getNbNaturalBeats() * MidiConst.PPQ_RESOLUTION);
+    }
+
+    /**
+     * Add a precount click track to the sequence for the specified song.
      * <p>
-     * Not moved Meta events: Track name and Time signature.
+     * The precount clicks are added in [0;getPreCountTickLength()[. Existing tracks are not modified, they should have been built
+     * with a tick offset equal to getPreCountTickLength() to leave room for the precount bars.
      *
      * @param sequence The sequence for which we add the precount click track.
      * @param context
@@ -392,34 +422,12 @@ public class ClickManager
 
         TimeSignature ts = context.getSongParts().get(0).getRhythm().getTimeSignature();
         int nbPrecountBars = getClickPrecountNbBars(ts, context.getSong().getTempo());
-        long songStartTick = (long) (nbPrecountBars * ts.getNbNaturalBeats() * MidiConst.PPQ_RESOLUTION);
-
-        // Shift all existing MidiEvents except some meta events
-        for (Track track : sequence.getTracks())
-        {
-            for (int i = track.size() - 1; i >= 0; i--)
-            {
-                MidiEvent me = track.get(i);
-                MidiMessage mm = me.getMessage();
-                if (mm instanceof MetaMessage)
-                {
-                    int type = ((MetaMessage) mm).getType();
-                    // Track name=3, time signature=88                    
-                    if (type == 3 || type == 88)
-                    {
-                        continue;
-                    }
-                }
-                me.setTick(me.getTick() + songStartTick);
-            }
-        }
 
         // Add the precount click track
         Track track = sequence.createTrack();
         MidiEvent me = new MidiEvent(MidiUtilities.getTrackNameMetaMessage(PRECOUNT_CLICK_TRACK_NAME), 0);
         track.add(me);
-        addClickEvents(track, getClickChannel(context.getMidiMix()), 0, nbPrecountBars, ts);
-        return songStartTick;
+        return addClickEvents(track, getClickChannel(context.getMidiMix()), 0, nbPrecountBars, ts);
     }
 
     public void addPropertyChangeListener(PropertyChangeListener l)
@@ -449,30 +457,91 @@ public class ClickManager
         {
             throw new IllegalArgumentException("track=" + track + " channel=" + channel + " tickOffset=" + tickOffset);
         }
-        float nbNaturalBeatsPerBar = ts.getNbNaturalBeats();
-        float nbNaturalBeats = nbBars * nbNaturalBeatsPerBar;
-        try
+        return getClickTemplate(ts, channel).stamp(track, tickOffset, nbBars);
+    }
+
+    /**
+     * Get the click template for the specified parameters, create it if needed.
+     *
+     * @param ts
+     * @param channel
+     * @return
+     */
+    private ClickTemplate getClickTemplate(TimeSignature ts, int channel)
+    {
+        int key = ts.ordinal() * 16 + channel;
+        return clickTemplates.computeIfAbsent(key, k -> new ClickTemplate(ts, channel,
+                getClickPitchHigh(), getClickVelocityHigh(), getClickPitchLow(), getClickVelocityLow()));
+    }
+
+    // ============================================================================
+    // Private classes
+    // ============================================================================
+    /**
+     * The click events of the smallest group of bars which starts and ends on a natural beat (1 bar except for e.g. 7/8).
+     * <p>
+     * Immutable: ShortMessages are shared by all the click tracks built from this template.
+     */
+    private static class ClickTemplate
+    {
+
+        private final float nbNaturalBeatsPerBar;
+        private final ShortMessage[] noteOns;
+        private final ShortMessage[] noteOffs;
+
+        private ClickTemplate(TimeSignature ts, int channel, int pitchHigh, int velocityHigh, int pitchLow, int velocityLow)
+        {
+            nbNaturalBeatsPerBar = ts.getNbNaturalBeats();
+            int nbBars = 1;
+            while (nbBars * nbNaturalBeatsPerBar != Math.floor(nbBars * nbNaturalBeatsPerBar))
+            {
+                nbBars++;
+            }
+            int nbBeats = (int) (nbBars * nbNaturalBeatsPerBar);
+            noteOns = new ShortMessage[nbBeats];
+            noteOffs = new ShortMessage[nbBeats];
+            try
+            {
+                ShortMessage onHigh = new ShortMessage(ShortMessage.NOTE_ON, channel, pitchHigh, velocityHigh);
+                ShortMessage offHigh = new ShortMessage(ShortMessage.NOTE_OFF, channel, pitchHigh, 0);
+                ShortMessage onLow = new ShortMessage(ShortMessage.NOTE_ON, channel, pitchLow, velocityLow);
+                ShortMessage offLow = new ShortMessage(ShortMessage.NOTE_OFF, channel, pitchLow, 0);
+                for (int beat = 0; beat < nbBeats; beat++)
+                {
+                    boolean high = (beat % nbNaturalBeatsPerBar) == 0;
+                    noteOns[beat] = high ? onHigh : onLow;
+                    noteOffs[beat] = high ? offHigh : offLow;
+                }
+            } catch (InvalidMidiDataException ex)
+            {
+                throw new IllegalArgumentException("channel=" + channel + " pitchHigh=" + pitchHigh + " velocityHigh=" + velocityHigh
+                        + " pitchLow=" + pitchLow + " velocityLow=" + velocityLow, ex);
+            }
+        }
+
+        /**
+         * Add the click events for nbBars bars starting at tickOffset.
+         *
+         * @param track
+         * @param tickOffset
+         * @param nbBars
+         * @return The tick position corresponding to the start of bar (nbBars+1).
+         */
+        private long stamp(Track track, long tickOffset, int nbBars)
         {
+            float nbNaturalBeats = nbBars * nbNaturalBeatsPerBar;
             for (int beat = 0; beat < nbNaturalBeats; beat++)
             {
-                int velocity = ((beat % nbNaturalBeatsPerBar) == 0) ? getClickVelocityHigh() : getClickVelocityLow();
-                int pitch = ((beat % nbNaturalBeatsPerBar) == 0) ? getClickPitchHigh() : getClickPitchLow();
-                ShortMessage smOn = new ShortMessage(ShortMessage.NOTE_ON, channel, pitch, velocity);
-                ShortMessage smOff = new ShortMessage(ShortMessage.NOTE_OFF, channel, pitch, 0);
+                int index = beat % noteOns.length;
                 long tick = tickOffset + beat * MidiConst.PPQ_RESOLUTION;
-                track.add(new MidiEvent(smOn, tick));
-                track.add(new MidiEvent(smOff, tick + MidiConst.PPQ_RESOLUTION / 2));  // Half-beat duration
+                track.add(new MidiEvent(noteOns[index], tick));
+                track.add(new MidiEvent(noteOffs[index], tick + MidiConst.PPQ_RESOLUTION / 2));  // Half-beat duration
             }
-        } catch (InvalidMidiDataException ex)
-        {
-            LOGGER.log(Level.SEVERE, null, ex);
+            // Next section tick
+            return tickOffset + (long) (nbNaturalBeats * MidiConst.PPQ_RESOLUTION);
         }
-        // Next section tick
-        long nextTick = tickOffset + (long) (nbNaturalBeats * MidiConst.PPQ_RESOLUTION);
-        return nextTick;
     }
 
-
     // =====================================================================================
     // Upgrade Task
     // =====================================================================================
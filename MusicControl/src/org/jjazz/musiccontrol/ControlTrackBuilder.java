@@ -22,9 +22,7 @@
  */
 package org.jjazz.musiccontrol;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sound.midi.MidiEvent;
@@ -54,7 +52,21 @@ public class ControlTrackBuilder
     /**
      * Store the position of each natural beat.
      */
-    private final ArrayList<Position> naturalBeatPositions = new ArrayList<>();
+    private NaturalBeatMap naturalBeatMap = new NaturalBeatMap(0);
+    /**
+     * Control messages are never modified, they can be shared by all the events.
+     */
+    private static final ShortMessage BEAT_CHANGE_MESSAGE = MidiUtilities.getJJazzBeatChangeControllerMessage(MidiConst.CHANNEL_MIN);
+    private static final ShortMessage CHORD_CHANGE_MESSAGE = MidiUtilities.getJJazzChordChangeControllerMessage(MidiConst.CHANNEL_MIN);
+    private static final ShortMessage[] ACTIVITY_MESSAGES = new ShortMessage[16];
+
+    static
+    {
+        for (int i = 0; i < ACTIVITY_MESSAGES.length; i++)
+        {
+            ACTIVITY_MESSAGES[i] = MidiUtilities.getJJazzActivityControllerMessage(i);
+        }
+    }
     private static final Logger LOGGER = Logger.getLogger(ControlTrackBuilder.class.getSimpleName());
 
     public ControlTrackBuilder(MusicGenerationContext context)
@@ -76,96 +88,118 @@ public class ControlTrackBuilder
      * @return the index of the track in the sequence.
      */
     public int addControlTrack(Sequence sequence)
+    {
+        return addControlTrack(sequence, 0);
+    }
+
+    /**
+     * Same as addControlTrack(Sequence) but the control events start at tickOffset.
+     *
+     * @param sequence   The sequence for which we add the control track.
+     * @param tickOffset The tick position of the start of the song in the sequence, e.g. to leave room for precount bars.
+     * @return the index of the track in the sequence.
+     * @see org.jjazz.rhythmmusicgeneration.MidiSequenceBuilder#setTickOffset(long)
+     */
+    public int addControlTrack(Sequence sequence, long tickOffset)
     {
         if (sequence == null)
         {
             throw new IllegalArgumentException("sequence=" + sequence);
         }
+        Track[] noteTracks = sequence.getTracks();
         Track track = sequence.createTrack();
 
         // Add track name
         MidiEvent me = new MidiEvent(MidiUtilities.getTrackNameMetaMessage(TRACK_NAME), 0);
         track.add(me);
 
+        // Collect the control events in sorted runs: beats, chords, then activity for each track
+        int nbBeats = (int) Math.ceil(context.getBeatRange().size());
+        naturalBeatMap = new NaturalBeatMap(nbBeats);
+        EventRun beatRun = new EventRun(nbBeats);
+        EventRun chordRun = new EventRun(64);
         long tick = 0;
-        naturalBeatPositions.clear();
-
-        // Scan all SongParts in context
         for (SongPart spt : context.getSongParts())
         {
-            tick = fillControlTrack(track, tick, spt);
+            tick = collectControlEvents(beatRun, chordRun, tick, tickOffset, spt);
+        }
+        EventRun[] runs = new EventRun[2 + noteTracks.length];
+        runs[0] = beatRun;
+        runs[1] = chordRun.sortIfNeeded();
+        for (int i = 0; i < noteTracks.length; i++)
+        {
+            runs[2 + i] = collectActivityEvents(noteTracks[i]);
         }
 
-        // Add the Midi Activity controller messages
-        addActivityMessages(sequence, track);
+        // Merge the runs and append the events in tick order
+        mergeRuns(runs, track);
 
         // Set EndOfTrack
-        long lastTick = (long) (context.getBeatRange().size() * MidiConst.PPQ_RESOLUTION) + 1;
+        long lastTick = tickOffset + (long) (context.getBeatRange().size() * MidiConst.PPQ_RESOLUTION) + 1;
         MidiUtilities.setEndOfTrackPosition(track, lastTick);
 
         return Arrays.asList(sequence.getTracks()).indexOf(track);
     }
 
     /**
-     * Get an array containing the natural beat positions computed by the last call to addControlTrack().
+     * Get the natural beat positions computed by the last call to addControlTrack().
      * <p>
      *
      * @return
      */
-    public List<Position> getNaturalBeatPositions()
+    public NaturalBeatMap getNaturalBeatMap()
     {
-        return naturalBeatPositions;
+        return naturalBeatMap;
     }
 
     // =================================================================================
     // Private methods
     // =================================================================================
     /**
-     * Fill the track with control events for the specified SongPart.
+     * Collect the beat change and chord change events for the specified SongPart.
      * <p>
-     * Update the naturalBeatPositions list.
+     * Update the naturalBeatMap.
      *
-     * @param track
-     * @param tickOffset
+     * @param beatRun
+     * @param chordRun
+     * @param tickOffset     The relative tick of the start of spt
+     * @param songTickOffset The tick position of the start of the song
      * @param spt
-     * @return The tick position corresponding to the start of next spt.
+     * @return The relative tick position corresponding to the start of next spt.
      */
-    private long fillControlTrack(Track track, long tickOffset, SongPart spt)
+    private long collectControlEvents(EventRun beatRun, EventRun chordRun, long tickOffset, long songTickOffset, SongPart spt)
     {
         IntRange sptRange = context.getSptBarRange(spt);    // Use only the relevant bars for the context
         int sptStartBar = sptRange.from;
         float nbNaturalBeatsPerBar = spt.getRhythm().getTimeSignature().getNbNaturalBeats();
         float nbNaturalBeats = sptRange.size() * nbNaturalBeatsPerBar;
 
-        LOGGER.fine("fillControlTrack() -- tickOffset=" + tickOffset + " spt=" + spt + " sptRange=" + sptRange);
+        LOGGER.fine("collectControlEvents() -- tickOffset=" + tickOffset + " spt=" + spt + " sptRange=" + sptRange);
 
-        // Add CTRL_CHG_JJAZZ_BEAT_CHANGE events every beat change
+        // CTRL_CHG_JJAZZ_BEAT_CHANGE events every beat change
         for (float beat = 0; beat < nbNaturalBeats; beat++)
         {
-            long tick = (long) (tickOffset + beat * MidiConst.PPQ_RESOLUTION);
+            long tick = songTickOffset + (long) (tickOffset + beat * MidiConst.PPQ_RESOLUTION);
             int bar = (int) Math.floor(beat / nbNaturalBeatsPerBar);
             float inbarBeat = beat - (bar * nbNaturalBeatsPerBar);
-            Position pos = new Position(bar + sptStartBar, inbarBeat);
-            naturalBeatPositions.add(pos);
-            ShortMessage sm = MidiUtilities.getJJazzBeatChangeControllerMessage(MidiConst.CHANNEL_MIN);
-            track.add(new MidiEvent(sm, tick));
+            naturalBeatMap.add(bar + sptStartBar, inbarBeat);
+            beatRun.add(tick, BEAT_CHANGE_MESSAGE);
         }
 
-        // Add CTRL_CHG_JJAZZ_CHORD_CHANGE events every chord
+        // CTRL_CHG_JJAZZ_CHORD_CHANGE events every chord
         CLI_Section section = spt.getParentSection();
         ChordLeadSheet cls = section.getContainer();
         for (CLI_ChordSymbol cli : cls.getItems(section, CLI_ChordSymbol.class))
         {
             Position ssPos = context.getSong().getSongStructure().getSptItemPosition(spt, cli);
-            long tick = context.getRelativeTick(ssPos); 
-            LOGGER.log(Level.FINE, "fillControlTrack() cli={0} tick={1} ssPos={2}", new Object[]
+            long tick = context.getRelativeTick(ssPos);
+            LOGGER.log(Level.FINE, "collectControlEvents() cli={0} tick={1} ssPos={2}", new Object[]
             {
                 cli, tick, ssPos
             });
             if (tick != -1)
             {
-                ShortMessage sm = MidiUtilities.getJJazzChordChangeControllerMessage(MidiConst.CHANNEL_MIN);
-                track.add(new MidiEvent(sm, tick));
+                chordRun.add(songTickOffset + tick, CHORD_CHANGE_MESSAGE);
             }
         }
 
@@ -173,42 +207,131 @@ public class ControlTrackBuilder
     }
 
     /**
-     * Add CTRL_CHG_JJAZZ_ACTIVITY controller messages for each NOTE_ON on each channel.
+     * Collect CTRL_CHG_JJAZZ_ACTIVITY controller events for each NOTE_ON on each channel of the track.
      * <p>
-     * For a given channel add a single CTRL_CHG_JJAZZ_ACTIVITY message if several NOTE_ONs start within the same ACTIVITY_MIN_PERIOD.
+     * For a given channel add a single CTRL_CHG_JJAZZ_ACTIVITY event if several NOTE_ONs start within the same
+     * ACTIVITY_MIN_PERIOD.
      *
-     * @param sequence  The track to analyze
-     * @param ctrlTrack Where CTRL_CHG_JJAZZ_ACTIVITY messages will be added
+     * @param track The track to analyze
+     * @return The activity events sorted by tick
      */
-    private void addActivityMessages(Sequence sequence, Track ctrlTrack)
+    private EventRun collectActivityEvents(Track track)
     {
         int nbChannels = MidiConst.CHANNEL_MAX - MidiConst.CHANNEL_MIN + 1;
         long[] lastActivityTick = new long[nbChannels];
-
-        for (Track track : sequence.getTracks())
+        Arrays.fill(lastActivityTick, -2 * ACTIVITY_MIN_PERIOD);
+        EventRun res = new EventRun(16);
+        int size = track.size();
+        for (int i = 0; i < size; i++)
         {
-            for (int i = 0; i < nbChannels; i++)
+            MidiEvent me = track.get(i);
+            MidiMessage mm = me.getMessage();
+            if (!(mm instanceof ShortMessage) || ((ShortMessage) mm).getCommand() != ShortMessage.NOTE_ON)
+            {
+                continue;
+            }
+            int channel = ((ShortMessage) mm).getChannel();
+            long tick = me.getTick();
+            if (tick - lastActivityTick[channel] > ACTIVITY_MIN_PERIOD)
             {
-                lastActivityTick[i] = -2 * ACTIVITY_MIN_PERIOD;
+                res.add(tick, ACTIVITY_MESSAGES[channel]);
+                lastActivityTick[channel] = tick;
             }
-            for (int i = 0; i < track.size(); i++)
+        }
+        return res;
+    }
+
+    /**
+     * Append the events of the sorted runs to the track in tick order.
+     * <p>
+     * For identical ticks, events of the run with the lowest index come first.
+     *
+     * @param runs
+     * @param track
+     */
+    private void mergeRuns(EventRun[] runs, Track track)
+    {
+        int[] indexes = new int[runs.length];
+        while (true)
+        {
+            int bestRun = -1;
+            long bestTick = Long.MAX_VALUE;
+            for (int r = 0; r < runs.length; r++)
             {
-                MidiEvent me = track.get(i);
-                MidiMessage mm = me.getMessage();
-                if (!(mm instanceof ShortMessage) || ((ShortMessage) mm).getCommand() != ShortMessage.NOTE_ON)
+                EventRun run = runs[r];
+                if (indexes[r] < run.size && run.ticks[indexes[r]] < bestTick)
                 {
-                    continue;
+                    bestRun = r;
+                    bestTick = run.ticks[indexes[r]];
                 }
-                int channel = ((ShortMessage) mm).getChannel();
-                long tick = me.getTick();
-                if (tick - lastActivityTick[channel] > ACTIVITY_MIN_PERIOD)
+            }
+            if (bestRun == -1)
+            {
+                break;
+            }
+            track.add(new MidiEvent(runs[bestRun].messages[indexes[bestRun]], bestTick));
+            indexes[bestRun]++;
+        }
+    }
+
+    // =================================================================================
+    // Private classes
+    // =================================================================================
+    /**
+     * A growable list of control events, stored as primitive ticks and shared messages.
+     */
+    private static class EventRun
+    {
+
+        private long[] ticks;
+        private ShortMessage[] messages;
+        private int size;
+
+        private EventRun(int capacity)
+        {
+            capacity = Math.max(capacity, 16);
+            ticks = new long[capacity];
+            messages = new ShortMessage[capacity];
+        }
+
+        private void add(long tick, ShortMessage sm)
+        {
+            if (size == ticks.length)
+            {
+                ticks = Arrays.copyOf(ticks, size * 2);
+                messages = Arrays.copyOf(messages, size * 2);
+            }
+            ticks[size] = tick;
+            messages[size] = sm;
+            size++;
+        }
+
+        /**
+         * Sort the events by tick if not already sorted (stable).
+         *
+         * @return This object
+         */
+        private EventRun sortIfNeeded()
+        {
+            for (int i = 1; i < size; i++)
+            {
+                if (ticks[i] < ticks[i - 1])
                 {
-                    ShortMessage controlSm = MidiUtilities.getJJazzActivityControllerMessage(channel);
-                    MidiEvent ctrlMe = new MidiEvent(controlSm, tick);
-                    ctrlTrack.add(ctrlMe);
-                    lastActivityTick[channel] = tick;
+                    // Insertion sort, stable and fast enough for this rare case
+                    long t = ticks[i];
+                    ShortMessage sm = messages[i];
+                    int j = i - 1;
+                    while (j >= 0 && ticks[j] > t)
+                    {
+                        ticks[j + 1] = ticks[j];
+                        messages[j + 1] = messages[j];
+                        j--;
+                    }
+                    ticks[j + 1] = t;
+                    messages[j + 1] = sm;
                 }
             }
+            return this;
         }
     }
 }
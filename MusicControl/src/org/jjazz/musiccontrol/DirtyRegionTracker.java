@@ -0,0 +1,239 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.musiccontrol;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jjazz.leadsheet.chordleadsheet.api.ChordLeadSheet;
+import org.jjazz.leadsheet.chordleadsheet.api.ClsChangeListener;
+import org.jjazz.leadsheet.chordleadsheet.api.UnsupportedEditException;
+import org.jjazz.leadsheet.chordleadsheet.api.event.ClsChangeEvent;
+import org.jjazz.leadsheet.chordleadsheet.api.event.ItemAddedEvent;
+import org.jjazz.leadsheet.chordleadsheet.api.event.ItemChangedEvent;
+import org.jjazz.leadsheet.chordleadsheet.api.event.ItemMovedEvent;
+import org.jjazz.leadsheet.chordleadsheet.api.event.ItemRemovedEvent;
+import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_Section;
+import org.jjazz.leadsheet.chordleadsheet.api.item.ChordLeadSheetItem;
+import org.jjazz.leadsheet.chordleadsheet.api.item.Position;
+import org.jjazz.rhythm.parameters.RP_SYS_TempoFactor;
+import org.jjazz.song.api.Song;
+import org.jjazz.songstructure.api.SgsChangeListener;
+import org.jjazz.songstructure.api.SongPart;
+import org.jjazz.songstructure.api.SongStructure;
+import org.jjazz.songstructure.api.event.RpChangedEvent;
+import org.jjazz.songstructure.api.event.SgsChangeEvent;
+import org.jjazz.songstructure.api.event.SptRenamedEvent;
+import org.jjazz.util.IntRange;
+
+/**
+ * Track the song changes to identify the song structure bars whose music must be regenerated.
+ * <p>
+ * Changes which do not impact the song structure timing (chord symbols added/removed/moved/changed, rhythm parameter value
+ * changes) mark the bars of the impacted song parts as dirty. Any other change requires a full rebuild of the sequence.
+ */
+class DirtyRegionTracker implements ClsChangeListener, SgsChangeListener
+{
+
+    private final Song song;
+    /**
+     * The union of the dirty song structure bars. Null if no dirty bars.
+     */
+    private IntRange dirtyBarRange;
+    private boolean fullRebuildRequired;
+    private static final Logger LOGGER = Logger.getLogger(DirtyRegionTracker.class.getSimpleName());
+
+    /**
+     * Create a tracker and start listening to the song changes.
+     *
+     * @param song
+     */
+    DirtyRegionTracker(Song song)
+    {
+        if (song == null)
+        {
+            throw new NullPointerException("song");
+        }
+        this.song = song;
+        this.song.getChordLeadSheet().addClsChangeListener(this);
+        this.song.getSongStructure().addSgsChangeListener(this);
+    }
+
+    /**
+     * The song structure bars impacted by the changes since the last reset().
+     *
+     * @return Null if no dirty bars.
+     */
+    synchronized IntRange getDirtyBarRange()
+    {
+        return dirtyBarRange;
+    }
+
+    /**
+     * @return True if a change occured since the last reset() which can not be handled by regenerating only the dirty bars.
+     */
+    synchronized boolean isFullRebuildRequired()
+    {
+        return fullRebuildRequired;
+    }
+
+    synchronized void setFullRebuildRequired()
+    {
+        fullRebuildRequired = true;
+    }
+
+    /**
+     * Forget all the recorded changes.
+     */
+    synchronized void reset()
+    {
+        dirtyBarRange = null;
+        fullRebuildRequired = false;
+    }
+
+    /**
+     * Stop listening to the song changes.
+     */
+    void close()
+    {
+        song.getChordLeadSheet().removeClsChangeListener(this);
+        song.getSongStructure().removeSgsChangeListener(this);
+    }
+
+    // ======================================================================
+    // ClsChangeListener interface
+    // ======================================================================
+    @Override
+    public void authorizeChange(ClsChangeEvent e) throws UnsupportedEditException
+    {
+        // Nothing
+    }
+
+    @Override
+    public synchronized void chordLeadSheetChanged(ClsChangeEvent e)
+    {
+        LOGGER.log(Level.FINE, "chordLeadSheetChanged() e={0}", e);
+        if (fullRebuildRequired)
+        {
+            return;
+        }
+
+        if (e instanceof ItemAddedEvent || e instanceof ItemRemovedEvent || e instanceof ItemChangedEvent)
+        {
+            for (ChordLeadSheetItem<?> item : e.getItems())
+            {
+                if (item instanceof CLI_Section)
+                {
+                    // Section name or time signature change etc.
+                    fullRebuildRequired = true;
+                    return;
+                }
+                markSection(e.getSource(), item.getPosition());
+            }
+        } else if (e instanceof ItemMovedEvent)
+        {
+            ItemMovedEvent ime = (ItemMovedEvent) e;
+            markSection(e.getSource(), ime.getOldPosition());
+            markSection(e.getSource(), ime.getNewPosition());
+        } else
+        {
+            // ItemBarShiftedEvent, SectionMovedEvent, SizeChangedEvent: song structure is impacted
+            fullRebuildRequired = true;
+        }
+    }
+
+    // ======================================================================
+    // SgsChangeListener interface
+    // ======================================================================
+    @Override
+    public void authorizeChange(SgsChangeEvent e) throws UnsupportedEditException
+    {
+        // Nothing
+    }
+
+    @Override
+    public synchronized void songStructureChanged(SgsChangeEvent e)
+    {
+        LOGGER.log(Level.FINE, "songStructureChanged() e={0}", e);
+        if (fullRebuildRequired)
+        {
+            return;
+        }
+
+        if (e instanceof RpChangedEvent)
+        {
+            RpChangedEvent rce = (RpChangedEvent) e;
+            if (rce.getRhytmParameter() instanceof RP_SYS_TempoFactor)
+            {
+                // Tempo factor changes are stored in the first track of the sequence
+                fullRebuildRequired = true;
+                return;
+            }
+            markBars(rce.getSongPart().getBarRange());
+        } else if (e instanceof SptRenamedEvent)
+        {
+            // Nothing
+        } else
+        {
+            // Added/removed/resized/replaced song parts
+            fullRebuildRequired = true;
+        }
+    }
+
+    // ======================================================================
+    // Private methods
+    // ======================================================================
+    /**
+     * Mark dirty the bars of all the song parts using the parent section of pos.
+     *
+     * @param cls
+     * @param pos
+     */
+    private void markSection(ChordLeadSheet cls, Position pos)
+    {
+        if (pos.getBar() >= cls.getSize())
+        {
+            fullRebuildRequired = true;
+            return;
+        }
+        CLI_Section section = cls.getSection(pos.getBar());
+        SongStructure ss = song.getSongStructure();
+        for (SongPart spt : ss.getSongParts())
+        {
+            if (spt.getParentSection() == section)
+            {
+                markBars(spt.getBarRange());
+            }
+        }
+    }
+
+    private void markBars(IntRange bars)
+    {
+        if (dirtyBarRange == null)
+        {
+            dirtyBarRange = bars;
+        } else
+        {
+            dirtyBarRange = new IntRange(Math.min(dirtyBarRange.from, bars.from), Math.max(dirtyBarRange.to, bars.to));
+        }
+    }
+}
@@ -31,6 +31,7 @@ import java.beans.VetoableChangeSupport;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.prefs.Preferences;
@@ -43,6 +44,7 @@ import javax.sound.midi.Sequencer;
 import javax.sound.midi.ShortMessage;
 import javax.sound.midi.Track;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import org.jjazz.harmony.Note;
 import org.jjazz.leadsheet.chordleadsheet.api.ChordLeadSheet;
 import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_ChordSymbol;
@@ -52,18 +54,24 @@ import org.jjazz.midi.InstrumentMix;
 import org.jjazz.midi.MidiConst;
 import org.jjazz.midi.MidiUtilities;
 import org.jjazz.midi.JJazzMidiSystem;
+import org.jjazz.midi.device.ChannelRerouter;
 import org.jjazz.midimix.MidiMix;
 import org.jjazz.midimix.UserChannelRvKey;
 import static org.jjazz.musiccontrol.Bundle.*;
 import org.jjazz.rhythm.api.RhythmVoice;
 import org.jjazz.rhythmmusicgeneration.MidiSequenceBuilder;
 import org.jjazz.rhythmmusicgeneration.MusicGenerationContext;
+import org.jjazz.rhythmmusicgeneration.PhraseCache;
 import org.jjazz.rhythm.api.MusicGenerationException;
 import org.jjazz.rhythmmusicgeneration.spi.MusicGenerator;
 import org.jjazz.song.api.Song;
 import org.jjazz.song.api.SongFactory;
+import org.jjazz.songstructure.api.SongPart;
+import org.jjazz.songstructure.api.SongStructure;
+import org.jjazz.util.IntRange;
 import org.openide.util.NbBundle.Messages;
 import org.openide.util.NbPreferences;
+import org.openide.util.RequestProcessor;
 
 /**
  * Control the music playback.
@@ -85,6 +93,10 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
 {
 
     public static final String PROP_PLAYBACK_KEY_TRANSPOSITION = "PlaybackTransposition";
+    public static final String PREF_INCREMENTAL_BUILD_MARGIN = "IncrementalBuildMargin";
+    public static final String PREF_PHRASE_CACHE_ENABLED = "PhraseCacheEnabled";
+    public static final String PREF_LIVE_UPDATE_ENABLED = "LiveUpdateEnabled";
+    public static final String PREF_PARALLEL_GENERATION_ENABLED = "ParallelGenerationEnabled";
     public static final String PROP_STATE = "PropPlaybackState";
     /**
      * This vetoable property is changed/fired just before playing song and can be vetoed by vetoables listeners to cancel
@@ -123,11 +135,14 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
      */
     private MusicGenerator.PostProcessor[] postProcessors;
 
-    private State state;
     /**
-     * The current beat position during playback.
+     * Also read by the sequencer and background build threads.
+     */
+    private volatile State state;
+    /**
+     * The current beat position during playback. Shared instance, never modified.
      */
-    Position currentBeatPosition = new Position();
+    private volatile Position currentBeatPosition = new Position();
     // private final Sequencer sequencer;
     private int loopCount;
     private boolean isClickEnabled;
@@ -160,6 +175,20 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
     private final PropertyChangeSupport pcs = new PropertyChangeSupport(this);
     private final VetoableChangeSupport vcs = new VetoableChangeSupport(this);
     private final List<PlaybackListener> playbackListeners = new ArrayList<>();
+    /**
+     * Copy of playbackListeners used to fire events without locking or allocating. Never modified, replaced on listener change.
+     */
+    private volatile PlaybackListener[] playbackListenersSnapshot = new PlaybackListener[0];
+    /**
+     * The delay after the last change before building the sequence in the background.
+     */
+    private static final int BACKGROUND_BUILD_DELAY_MS = 400;
+    /**
+     * Live update: events are swapped only after this margin from the current playback position, so that the sequencer does not
+     * play the old events while the updated sequence is being prepared.
+     */
+    private static final int HOT_SWAP_MARGIN_TICKS = MidiConst.PPQ_RESOLUTION / 2;
+    private static final RequestProcessor BACKGROUND_BUILDER = new RequestProcessor("MusicController-BackgroundBuilder", 1, true);
     private static Preferences prefs = NbPreferences.forModule(MusicController.class);
     private static final Logger LOGGER = Logger.getLogger(MusicController.class.getSimpleName());
 
@@ -435,7 +464,7 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
         }
 
 
-        if (playbackContext.isDirty())
+        if (playbackContext.isDirty() && !isLiveUpdateEnabled())
         {
             // Song was modified during playback, do play() instead
             play(mgContext.getBarRange().from);
@@ -456,6 +485,15 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
         vcs.fireVetoableChange(PROPVETO_PRE_PLAYBACK, null, mgContext.getSong());  // can raise PropertyVetoException
 
 
+        if (playbackContext.isDirty())
+        {
+            // Live update: rebuild and continue from the same position in the song
+            long relTick = Math.max(0, sequencer.getTickPosition() - playbackContext.songTickStart);
+            playbackContext.buildSequence();            // Can raise MusicGenerationException
+            sequencer.setTickPosition(playbackContext.getTickPosition(relTick));
+        }
+
+
         // Let's go again
         seqStart();
 
@@ -515,7 +553,7 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
             return;
         }
 
-        if (playbackContext.isDirty())
+        if (playbackContext.isDirty() && !isLiveUpdateEnabled())
         {
             // Song was modified during playback, pause() not allowed, do stop() instead
             stop();
@@ -549,6 +587,11 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
         return postProcessors;
     }
 
+    /**
+     * The current beat position during playback.
+     *
+     * @return A shared instance which must not be modified.
+     */
     public Position getBeatPosition()
     {
         return currentBeatPosition;
@@ -596,6 +639,117 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
         }
     }
 
+    /**
+     * The number of bars regenerated before and after the modified bars when only some song parts need to be rebuilt.
+     * <p>
+     * A margin is needed by music generators which look ahead, e.g. to anticipate the next chord. The regenerated range is
+     * always extended to complete song parts.
+     *
+     * @return Default is 1.
+     */
+    public int getIncrementalBuildMargin()
+    {
+        return prefs.getInt(PREF_INCREMENTAL_BUILD_MARGIN, 1);
+    }
+
+    /**
+     * Set the number of bars regenerated before and after the modified bars.
+     *
+     * @param nbBars Must be &gt;= 0
+     * @see #getIncrementalBuildMargin()
+     */
+    public void setIncrementalBuildMargin(int nbBars)
+    {
+        if (nbBars < 0)
+        {
+            throw new IllegalArgumentException("nbBars=" + nbBars);
+        }
+        prefs.putInt(PREF_INCREMENTAL_BUILD_MARGIN, nbBars);
+    }
+
+    /**
+     * Check if the phrases generated for song parts with identical musical content are reused.
+     *
+     * @return Default is false.
+     * @see PhraseCache
+     */
+    public boolean isPhraseCacheEnabled()
+    {
+        return prefs.getBoolean(PREF_PHRASE_CACHE_ENABLED, false);
+    }
+
+    /**
+     * Reuse the phrases generated for song parts with identical musical content, e.g. the repeated sections of a song.
+     * <p>
+     * This speeds up the sequence build but it should be used only if the rhythms music generators always produce the same
+     * music for the same input. Music is then generated song part by song part, see PhraseCache.
+     *
+     * @param b
+     */
+    public void setPhraseCacheEnabled(boolean b)
+    {
+        prefs.putBoolean(PREF_PHRASE_CACHE_ENABLED, b);
+        if (!b)
+        {
+            PhraseCache.getDefault().clear();
+        }
+    }
+
+    /**
+     * Check if the music of the song rhythms is generated in parallel.
+     *
+     * @return Default is false.
+     * @see MidiSequenceBuilder#setParallelGeneration(boolean)
+     */
+    public boolean isParallelGenerationEnabled()
+    {
+        return prefs.getBoolean(PREF_PARALLEL_GENERATION_ENABLED, false);
+    }
+
+    /**
+     * Generate the music of the song rhythms in parallel when the song uses several rhythms.
+     * <p>
+     * This speeds up the sequence build on multi-core computers, but it should be used only if the rhythms music generators do
+     * not share mutable state.
+     *
+     * @param b
+     * @see MidiSequenceBuilder#setParallelGeneration(boolean)
+     */
+    public void setParallelGenerationEnabled(boolean b)
+    {
+        prefs.putBoolean(PREF_PARALLEL_GENERATION_ENABLED, b);
+    }
+
+    /**
+     * Check if song changes are heard during playback.
+     *
+     * @return Default is false.
+     * @see #setLiveUpdateEnabled(boolean)
+     */
+    public boolean isLiveUpdateEnabled()
+    {
+        return prefs.getBoolean(PREF_LIVE_UPDATE_ENABLED, false);
+    }
+
+    /**
+     * Make song changes heard during playback.
+     * <p>
+     * If true, when the song is modified while playing the modified song parts are rebuilt in the background, then their events
+     * replace the events of the playing sequence from the next bar, without stopping playback (notes sounding at that bar are
+     * stopped). The beginning of the song is updated when playback is back at the song start, e.g. after the sequencer has
+     * looped. Changes which modify the sequence tracks or the song size (e.g. a rhythm change) are heard
+     * only when playback is restarted. Pause is also possible after a song change: resume() then continues from the paused
+     * position with the updated sequence.
+     * <p>
+     * If false, song changes are heard only when playback is restarted.
+     *
+     * @param b
+     */
+    public void setLiveUpdateEnabled(boolean b)
+    {
+        prefs.putBoolean(PREF_LIVE_UPDATE_ENABLED, b);
+    }
+
     /**
      * Enable the click or not.
      * <p>
@@ -680,12 +834,16 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
         if (!playbackListeners.contains(listener))
         {
             playbackListeners.add(listener);
+            playbackListenersSnapshot = playbackListeners.toArray(new PlaybackListener[0]);
         }
     }
 
     public synchronized void removePlaybackListener(PlaybackListener listener)
     {
-        playbackListeners.remove(listener);
+        if (playbackListeners.remove(listener))
+        {
+            playbackListenersSnapshot = playbackListeners.toArray(new PlaybackListener[0]);
+        }
     }
 
     public synchronized void addPropertyChangeListener(PropertyChangeListener listener)
@@ -722,6 +880,8 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
      * Handle the listened controllers notifications.
      * <p>
      * CAUTIOUS : the global listenedControllers array must be consistent with this method !
+     * <p>
+     * Called on the sequencer thread: beat change and activity events must not allocate anything.
      *
      * @param event
      */
@@ -742,15 +902,23 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
                 fireMidiActivity(event.getChannel(), tick);
                 break;
             case MidiConst.CTRL_CHG_JJAZZ_BEAT_CHANGE:
-                int index = (int) (tick / MidiConst.PPQ_RESOLUTION);
-                long remainder = tick % MidiConst.PPQ_RESOLUTION;
-                index += (remainder <= MidiConst.PPQ_RESOLUTION / 2) ? 0 : 1;
-                if (index >= playbackContext.naturalBeatPositions.size())
+                NaturalBeatMap beatMap = playbackContext.naturalBeatMap;
+                int index = beatMap.getBeatIndex(tick);
+                if (index == -1)
                 {
-                    index = playbackContext.naturalBeatPositions.size() - 1;
+                    break;
+                }
+                setCurrentBeatPosition(beatMap.getPosition(index));
+                if (beatMap.getBeat(index) == 0
+                        && (playbackContext.hotSwapPending || (index == 0 && playbackContext.hotSwapHeadPending)))
+                {
+                    // Live update: a new sequence is ready, swap its events from this bar. Or we're back at the song start 
+                    // (e.g. sequencer has looped), swap the events which were behind the playback position.
+                    playbackContext.hotSwapPending = false;
+                    playbackContext.hotSwapHeadPending = false;
+                    PlaybackContext pbc = playbackContext;
+                    SwingUtilities.invokeLater(() -> pbc.hotSwapSequence());
                 }
-                Position newPos = playbackContext.naturalBeatPositions.get(index);
-                setCurrentBeatPosition(newPos.getBar(), newPos.getBeat());
                 break;
             case MidiConst.CTRL_CHG_JJAZZ_TEMPO_FACTOR:
                 songPartTempoFactor = MidiUtilities.getTempoFactor(event);
@@ -809,7 +977,8 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
             {
                 if ((Boolean) e.getNewValue() == true)
                 {
-                    playbackContext.setDirty();
+                    // The DirtyRegionTracker knows if only some song parts are impacted
+                    playbackContext.setSongDirty();
                 }
             } else if (e.getPropertyName() == Song.PROP_TEMPO)
             {
@@ -827,6 +996,9 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
                     updateTrackMuteState(insMix, playbackContext.mapRvTrackId);
                     break;
                 case MidiMix.PROP_CHANNEL_DRUMS_REROUTED:
+                    // Rerouting is done at the output of the sequencer, no need to rebuild the sequence
+                    updateDrumsRerouting();
+                    break;
                 case MidiMix.PROP_INSTRUMENT_TRANSPOSITION:
                 case MidiMix.PROP_INSTRUMENT_VELOCITY_SHIFT:
                     // This can impact the sequence, make sure it is rebuilt
@@ -850,7 +1022,7 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
             playbackContext.setDirty();
         }
 
-        if (playbackContext.isDirty() && state == State.PAUSED)
+        if (playbackContext.isDirty() && state == State.PAUSED && !isLiveUpdateEnabled())
         {
             stop();
         }
@@ -907,7 +1079,7 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
 
         sequencer.setTickPosition(tick);
 
-        setCurrentBeatPosition(fromBar, 0);
+        setCurrentBeatPosition(new Position(fromBar, 0));
     }
 
     /**
@@ -947,7 +1119,7 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
 
     private void fireBeatChanged(Position oldPos, Position newPos)
     {
-        for (PlaybackListener pl : playbackListeners.toArray(new PlaybackListener[0]))
+        for (PlaybackListener pl : playbackListenersSnapshot)
         {
             pl.beatChanged(oldPos, newPos);
         }
@@ -955,7 +1127,7 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
 
     private void fireBarChanged(int oldBar, int newBar)
     {
-        for (PlaybackListener pl : playbackListeners.toArray(new PlaybackListener[0]))
+        for (PlaybackListener pl : playbackListenersSnapshot)
         {
             pl.barChanged(oldBar, newBar);
         }
@@ -963,7 +1135,7 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
 
     private void fireMidiActivity(int channel, long tick)
     {
-        for (PlaybackListener pl : playbackListeners.toArray(new PlaybackListener[0]))
+        for (PlaybackListener pl : playbackListenersSnapshot)
         {
             pl.midiActivity(channel, tick);
         }
@@ -976,6 +1148,7 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
     {
         assert !state.equals(State.DISABLED);
 
+        updateDrumsRerouting();     // Sequencer might have been used by someone else with different settings
         sequencer.start();
 
         // JDK -11 BUG: start() resets tempo at 120 !
@@ -983,17 +1156,31 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
 
     }
 
-    private void setCurrentBeatPosition(int bar, float beat)
+    /**
+     * Configure the sequencer channel rerouter from the current MidiMix.
+     */
+    private void updateDrumsRerouting()
+    {
+        ChannelRerouter rerouter = JJazzMidiSystem.getInstance().getSequencerChannelRerouter();
+        if (rerouter != null && mgContext != null)
+        {
+            rerouter.setReroutings(mgContext.getMidiMix().getDrumsReroutedChannels(), MidiConst.CHANNEL_DRUMS);
+        }
+    }
+
+    /**
+     * @param newPos Must not be modified afterwards
+     */
+    private void setCurrentBeatPosition(Position newPos)
     {
         assert !state.equals(State.DISABLED);
 
-        Position oldPos = new Position(currentBeatPosition);
-        currentBeatPosition.setBar(bar);
-        currentBeatPosition.setBeat(beat);
-        fireBeatChanged(oldPos, new Position(currentBeatPosition));
-        if (beat == 0)
+        Position oldPos = currentBeatPosition;
+        currentBeatPosition = newPos;
+        fireBeatChanged(oldPos, newPos);
+        if (newPos.getBeat() == 0)
         {
-            fireBarChanged(oldPos.getBar(), bar);
+            fireBarChanged(oldPos.getBar(), newPos.getBar());
         }
     }
 
@@ -1045,14 +1232,51 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
         /**
          * The position of each natural beat.
          */
-        List<Position> naturalBeatPositions;
+        NaturalBeatMap naturalBeatMap = new NaturalBeatMap(0);
         int clickTrackId;
         int precountTrackId;
         long songTickStart;
         long songTickEnd;
         int controlTrackId;
         private boolean dirty;
+        private boolean closed;
+        /**
+         * Incremented each time something is modified.
+         */
+        private volatile long version;
         MusicGenerator.PostProcessor[] postProcessors;
+        private Timer backgroundBuildTimer;
+        private RequestProcessor.Task backgroundBuildTask;
+        /**
+         * The version used by backgroundBuildTask.
+         */
+        private long backgroundBuildVersion;
+        /**
+         * Identify the current background build, its result is dropped if it changed. Guarded by this.
+         */
+        private long backgroundBuildId;
+        /**
+         * The last sequence built in the background.
+         */
+        private final AtomicReference<PreparedSequence> preparedSequence = new AtomicReference<>();
+        /**
+         * Identify the song parts impacted by the song changes.
+         */
+        private final DirtyRegionTracker dirtyTracker;
+        /**
+         * Live update: true if preparedSequence events must be swapped into the playing sequence at the next bar.
+         */
+        private volatile boolean hotSwapPending;
+        /**
+         * Live update: true if the remaining events of hotSwapSource must be swapped when playback is back at the song start.
+         */
+        private volatile boolean hotSwapHeadPending;
+        /**
+         * Live update: the prepared sequence being swapped, and the end (excluded) of the sequence region which still contains
+         * the old events.
+         */
+        private PreparedSequence hotSwapSource;
+        private long hotSwapTickTo;
 
         /**
          * The sequence track id (index) for each rhythm voice, for the given context.
@@ -1077,91 +1301,627 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
             this.originalContext = context;
             dirty = true;
             this.postProcessors = postProcessors;
+            dirtyTracker = new DirtyRegionTracker(context.getSong());
 
-            buildSequence();
+            try
+            {
+                buildSequence();
+            } catch (MusicGenerationException ex)
+            {
+                dirtyTracker.close();
+                throw ex;
+            }
         }
 
         /**
          * Prepare the sequencer to play the specified song.
          * <p>
-         * Create the sequence and load it in the sequencer. Store all the other related sequence-dependent data in this object.
-         * Object is now "clean".
+         * If only some song parts were modified since the last build, only these song parts are regenerated and spliced into the
+         * existing sequence. Otherwise create the sequence and load it in the sequencer. Store all the other related
+         * sequence-dependent data in this object. Object is now "clean".
          *
          * @param song
          * @throws MusicGenerationException If problem occurs when creating the sequence.
          */
         final void buildSequence() throws MusicGenerationException
         {
+            // Use the sequence prepared in the background if it is up to date
+            PreparedSequence ps = cancelBackgroundBuild();
+            if (ps != null && ps.version == version)
+            {
+                LOGGER.log(Level.FINE, "buildSequence() using the sequence prepared in background, partial={0}", ps.partial);
+                if (!ps.partial)
+                {
+                    dirtyTracker.reset();
+                    installSequence(ps);
+                    return;
+                } else if (applyPartialSequence(ps))
+                {
+                    dirtyTracker.reset();
+                    dirty = false;
+                    return;
+                }
+            }
+
+
+            // Regenerate only the dirty song parts if possible
+            IntRange dirtyBars = getIncrementalDirtyBars();
+            if (dirtyBars != null)
+            {
+                ps = preparePartialSequence(buildWorkMgContext(originalContext), dirtyBars, songTickStart, version);     // Can raise MusicGenerationException
+                if (applyPartialSequence(ps))
+                {
+                    dirtyTracker.reset();
+                    dirty = false;
+                    return;
+                }
+            }
 
+            // Full rebuild
+            dirtyTracker.reset();
+            buildFullSequence();
+        }
+
+        /**
+         * Build the complete sequence and load it in the sequencer.
+         *
+         * @throws MusicGenerationException
+         */
+        private void buildFullSequence() throws MusicGenerationException
+        {
             // Prepare our work MusicGenerationContext
             MusicGenerationContext workMgContext = buildWorkMgContext(originalContext);
 
+            PreparedSequence ps = prepareSequence(workMgContext, false, version);       // Can raise MusicGenerationException
+            installSequence(ps);                // Can raise MusicGenerationException
+        }
+
+        /**
+         * Build the sequence and all its related data for the specified context.
+         * <p>
+         * The sequencer is not used, so this method can be called from any thread.
+         *
+         * @param workMgContext
+         * @param silent If true do not show a progress dialog
+         * @param version The version of the song/settings used by workMgContext
+         * @return
+         * @throws MusicGenerationException
+         */
+        private PreparedSequence prepareSequence(MusicGenerationContext workMgContext, boolean silent, long version) throws MusicGenerationException
+        {
+            PreparedSequence ps = new PreparedSequence(version);
+
+
+            // Build the sequence, leaving room for the precount bars at the beginning
+            long precountTickLength = ClickManager.getInstance().getPreCountTickLength(workMgContext);
+            MidiSequenceBuilder seqBuilder = new MidiSequenceBuilder(workMgContext, postProcessors);
+            seqBuilder.setPhraseCache(isPhraseCacheEnabled() ? PhraseCache.getDefault() : null);
+            seqBuilder.setParallelGeneration(isParallelGenerationEnabled());
+            seqBuilder.setTickOffset(precountTickLength);
+            ps.sequence = seqBuilder.buildSequence(silent);                  // Can raise MusicGenerationException
+            if (ps.sequence == null)
+            {
+                // If unexpected error, assertion error etc.
+                throw new MusicGenerationException("Unexpected error while building sequence. Consult log for details.");
+            }
+
+
+            ps.mapRvTrackId = seqBuilder.getRvTrackIdMap();                 // Used to identify a RhythmVoice's track
+
+
+            // Add the control track
+            ControlTrackBuilder ctm = new ControlTrackBuilder(workMgContext);
+            ps.controlTrackId = ctm.addControlTrack(ps.sequence, precountTickLength);
+            ps.naturalBeatMap = ctm.getNaturalBeatMap();
+
 
+            // Add the click track
+            ps.clickTrackId = prepareClickTrack(ps.sequence, workMgContext, precountTickLength);
+
+
+            // Add the click precount track in the room left at the beginning
+            ps.songTickStart = preparePrecountClickTrack(ps.sequence, workMgContext);
+            assert ps.songTickStart == precountTickLength : "ps.songTickStart=" + ps.songTickStart + " precountTickLength=" + precountTickLength;
+            ps.precountTrackId = ps.sequence.getTracks().length - 1;
+            ps.songTickEnd = (long) (ps.songTickStart + workMgContext.getBeatRange().size() * MidiConst.PPQ_RESOLUTION);
+            ps.tickFrom = ps.songTickStart;
+            ps.tickTo = ps.songTickEnd;
+
+
+            if (debugBuiltSequence)
+            {
+                LOGGER.info("prepareSequence() song=" + workMgContext.getSong().getName() + " sequence :");
+                LOGGER.info(MidiUtilities.toString(ps.sequence));
+            }
+
+            return ps;
+        }
+
+        /**
+         * Load a prepared sequence in the sequencer and make its data the current ones.
+         * <p>
+         * Object is now "clean".
+         *
+         * @param ps
+         * @throws MusicGenerationException
+         */
+        private void installSequence(PreparedSequence ps) throws MusicGenerationException
+        {
             try
             {
+                // Initialize sequencer with the built sequence
+                sequencer.setSequence(ps.sequence);    // Can raise InvalidMidiDataException                                               
+            } catch (InvalidMidiDataException ex)
+            {
+                throw new MusicGenerationException(ex.getLocalizedMessage());
+            }
 
-                // Build the sequence
-                MidiSequenceBuilder seqBuilder = new MidiSequenceBuilder(workMgContext, postProcessors);
-                sequence = seqBuilder.buildSequence(false);                  // Can raise MusicGenerationException
-                if (sequence == null)
-                {
-                    // If unexpected error, assertion error etc.
-                    throw new MusicGenerationException("Unexpected error while building sequence. Consult log for details.");
-                }
+            sequence = ps.sequence;
+            mapRvTrackId = ps.mapRvTrackId;
+            controlTrackId = ps.controlTrackId;
+            naturalBeatMap = ps.naturalBeatMap;
+            clickTrackId = ps.clickTrackId;
+            precountTrackId = ps.precountTrackId;
+            songTickStart = ps.songTickStart;
+            songTickEnd = ps.songTickEnd;
+            updateSequencerSettings();
 
 
-                mapRvTrackId = seqBuilder.getRvTrackIdMap();                 // Used to identify a RhythmVoice's track
+            // We're clean
+            dirty = false;
+        }
 
+        /**
+         * Update the sequencer track mute states and loop points for the loaded sequence.
+         */
+        private void updateSequencerSettings()
+        {
+            // Update muted state for each track
+            updateAllTracksMuteState(originalContext.getMidiMix());
+            sequencer.setTrackMute(controlTrackId, false);
+            sequencer.setTrackMute(precountTrackId, false);
+            sequencer.setTrackMute(clickTrackId, !isClickEnabled);
 
-                // Add the control track
-                ControlTrackBuilder ctm = new ControlTrackBuilder(workMgContext);
-                controlTrackId = ctm.addControlTrack(sequence);
-                naturalBeatPositions = ctm.getNaturalBeatPositions();
 
+            // Set loop points
+            sequencer.setLoopStartPoint(songTickStart);
+            sequencer.setLoopEndPoint(songTickEnd);
+        }
 
-                // Add the click track
-                clickTrackId = prepareClickTrack(sequence, workMgContext);
+        /**
+         * Schedule a background build of the sequence after a short delay.
+         * <p>
+         * Restart the delay if a build was already scheduled. If not called on the EDT, the call is transferred to the EDT.
+         */
+        private void scheduleBackgroundBuild()
+        {
+            if (!SwingUtilities.isEventDispatchThread())
+            {
+                SwingUtilities.invokeLater(() -> scheduleBackgroundBuild());
+                return;
+            }
+            if (closed)
+            {
+                return;
+            }
+            if (backgroundBuildTimer == null)
+            {
+                backgroundBuildTimer = new Timer(BACKGROUND_BUILD_DELAY_MS, e -> startBackgroundBuild());
+                backgroundBuildTimer.setRepeats(false);
+            }
+            backgroundBuildTimer.restart();
+        }
+
+        /**
+         * Cancel the scheduled background build and the running background build if any.
+         * <p>
+         * The running build is interrupted but not waited for: it stops at the next song part or rhythm, and its result is
+         * dropped. MidiSequenceBuilder serializes the MusicGenerator calls per rhythm, so a new build can be started right away.
+         * Must be called on the EDT.
+         *
+         * @return The sequence prepared in the background, which is now discarded. Can be null.
+         */
+        private PreparedSequence cancelBackgroundBuild()
+        {
+            if (backgroundBuildTimer != null)
+            {
+                backgroundBuildTimer.stop();
+            }
+            if (backgroundBuildTask != null)
+            {
+                backgroundBuildTask.cancel();
+                backgroundBuildTask = null;
+            }
+            synchronized (this)
+            {
+                backgroundBuildId++;
+                hotSwapPending = false;
+                hotSwapHeadPending = false;
+                hotSwapSource = null;
+                return preparedSequence.getAndSet(null);
+            }
+        }
+
+        /**
+         * Live update: swap the events of the sequence prepared in the background into the playing sequence.
+         * <p>
+         * Called at the first bar after the prepared sequence is ready: the events after the playback position (plus a margin)
+         * are swapped. If the prepared sequence region started before the playback position, the remaining events are swapped
+         * when playback is back at the song start, e.g. after the sequencer has looped. The swap is then complete, even if the
+         * events within the margin from the song start could not be swapped: in this case the prepared sequence is kept (and the
+         * context stays dirty) so that it's used when playback is restarted.
+         * <p>
+         * If the prepared sequence tracks do not match the playing sequence tracks (e.g. rhythm or song size change), nothing is
+         * swapped: changes will be heard at next playback start.
+         * <p>
+         * Must be called on the EDT. Do nothing if the prepared sequence is not up to date.
+         *
+         * @see #swapSequence(PreparedSequence, long, long)
+         */
+        private void hotSwapSequence()
+        {
+            if (closed || this != playbackContext || !state.equals(State.PLAYING))
+            {
+                return;
+            }
+            PreparedSequence ps = preparedSequence.get();
+            if (ps == null || ps.version != version)
+            {
+                return;
+            }
+            if (!isHotSwapCompatible(ps))
+            {
+                LOGGER.fine("hotSwapSequence() prepared sequence tracks don't match the playing sequence, swap not possible");
+                return;
+            }
+
+            boolean head = ps == hotSwapSource;
+            if (!head)
+            {
+                hotSwapSource = ps;
+                hotSwapTickTo = ps.tickTo;
+            }
+            long tickFrom = Math.max(ps.tickFrom, sequencer.getTickPosition() + HOT_SWAP_MARGIN_TICKS);
+            if (ps.sequence != null && tickFrom < hotSwapTickTo)
+            {
+                try
+                {
+                    swapSequence(ps, tickFrom, hotSwapTickTo);
+                } catch (InvalidMidiDataException ex)
+                {
+                    // Should never happen, sequence is unchanged
+                    LOGGER.log(Level.WARNING, "hotSwapSequence() ex={0}", ex.getLocalizedMessage());
+                    hotSwapSource = null;
+                    return;
+                }
+                LOGGER.log(Level.FINE, "hotSwapSequence() events swapped in [{0};{1}[", new Object[]
+                {
+                    tickFrom, hotSwapTickTo
+                });
+                hotSwapTickTo = tickFrom;
+            }
+
+
+            if (ps.sequence == null || hotSwapTickTo <= ps.tickFrom)
+            {
+                // Swap is complete
+                hotSwapSource = null;
+                preparedSequence.set(null);
+                dirtyTracker.reset();
+                dirty = false;
+            } else if (head)
+            {
+                // The remaining events are within the margin from the song start, they can't be swapped during playback
+                LOGGER.log(Level.FINE, "hotSwapSequence() events not swapped in [{0};{1}[", new Object[]
+                {
+                    ps.tickFrom, hotSwapTickTo
+                });
+                hotSwapSource = null;
+            } else
+            {
+                // Swap the remaining events when playback is back at song start
+                hotSwapHeadPending = true;
+            }
+        }
 
+        /**
+         * Live update: replace the playing sequence by a copy where the events of the prepared sequence are spliced in the
+         * [tickFrom;tickTo[ range.
+         * <p>
+         * The playing sequence tracks are never modified while the sequencer iterates them: the copy is loaded with setSequence()
+         * and playback continues from the current position. Notes sounding at the swap position are stopped by the sequencer.
+         * <p>
+         * Must be called on the EDT.
+         *
+         * @param ps Must be compatible, see isHotSwapCompatible()
+         * @param tickFrom
+         * @param tickTo
+         * @throws InvalidMidiDataException
+         */
+        private void swapSequence(PreparedSequence ps, long tickFrom, long tickTo) throws InvalidMidiDataException
+        {
+            Sequence newSequence = MidiUtilities.getCopy(sequence);
+            spliceEvents(newSequence, ps, tickFrom, tickTo);
+
+
+            // setSequence() resets the position to 0: make sure the precount track is not heard in the meantime
+            sequencer.setTrackMute(precountTrackId, true);
+            long tick = sequencer.getTickPosition();
+            sequencer.setSequence(newSequence);         // Can raise InvalidMidiDataException
+            sequencer.setTickPosition(tick);
+            sequencer.setTempoInBPM(MidiConst.SEQUENCER_REF_TEMPO);     // As in seqStart(), tempo might have been reset
+            sequence = newSequence;
+            updateSequencerSettings();
+        }
 
-                // Add the click precount track - this must be done last because it will shift all song events
-                songTickStart = preparePrecountClickTrack(sequence, workMgContext);
-                precountTrackId = sequence.getTracks().length - 1;
+        /**
+         * Check if the events of a prepared sequence can be swapped into the playing sequence.
+         *
+         * @param ps
+         * @return True if both sequences have the same tracks and the same song start/end ticks. For a partial sequence, true if
+         *         its rhythm voices have a track in the sequence.
+         */
+        private boolean isHotSwapCompatible(PreparedSequence ps)
+        {
+            if (ps.partial)
+            {
+                return ps.songTickStart == songTickStart && mapRvTrackId.keySet().containsAll(ps.mapRvTrackId.keySet());
+            }
+            return ps.sequence.getTracks().length == sequence.getTracks().length
+                    && ps.mapRvTrackId.equals(mapRvTrackId)
+                    && ps.controlTrackId == controlTrackId
+                    && ps.clickTrackId == clickTrackId
+                    && ps.precountTrackId == precountTrackId
+                    && ps.songTickStart == songTickStart
+                    && ps.songTickEnd == songTickEnd;
+        }
 
-                
-                // Update the sequence if rerouting needed
-                rerouteDrumsChannels(sequence, workMgContext.getMidiMix());
+        /**
+         * Get the sequencer tick position for a tick relative to the song start.
+         *
+         * @param relTick
+         * @return The song start position if relTick is beyond the song end
+         */
+        private long getTickPosition(long relTick)
+        {
+            long tick = songTickStart + relTick;
+            return tick < songTickEnd ? tick : songTickStart;
+        }
 
+        /**
+         * Take a snapshot of the song on the EDT, then build the sequence on a background thread.
+         * <p>
+         * If only some song parts are dirty, only these song parts are regenerated, see preparePartialSequence().
+         * <p>
+         * The result is stored only if no change occured during the build. If a build is already running, it is interrupted and a
+         * new build is scheduled when it's complete. The background builder runs one build at a time: a build started after
+         * cancelBackgroundBuild() waits for the end of the interrupted one.
+         */
+        private void startBackgroundBuild()
+        {
+            if (!dirty || closed || state.equals(State.DISABLED))
+            {
+                return;
+            }
 
-                if (debugBuiltSequence)
+            if (backgroundBuildTask != null && !backgroundBuildTask.isFinished())
+            {
+                if (backgroundBuildVersion != version)
                 {
-                    LOGGER.info("buildSequence() song=" + workMgContext.getSong().getName() + " sequence :");
-                    LOGGER.info(MidiUtilities.toString(sequence));
+                    backgroundBuildTask.cancel();       // Task listener will schedule a new build
                 }
+                return;
+            }
 
+            // Work on a copy of the song and of the MidiMix so that the user can continue editing while we build
+            final long buildVersion = version;
+            final long buildId;
+            synchronized (this)
+            {
+                buildId = ++backgroundBuildId;
+            }
+            final IntRange dirtyBars = getIncrementalDirtyBars();
+            final long tickStart = songTickStart;
+            var sf = SongFactory.getInstance();
+            Song songCopy = sf.getCopy(originalContext.getSong());
+            sf.unregisterSong(songCopy);
+            final MusicGenerationContext copyContext = new MusicGenerationContext(songCopy, originalContext.getMidiMix().getCopy(), originalContext.getBarRange());
 
-                // Initialize sequencer with the built sequence
-                sequencer.setSequence(sequence);    // Can raise InvalidMidiDataException                                               
 
+            Runnable run = () ->
+            {
+                try
+                {
+                    // copyContext is only used by this task, its song can be transposed out of the EDT
+                    MusicGenerationContext workMgContext = buildWorkMgContext(copyContext);
+                    PreparedSequence ps = dirtyBars != null
+                            ? preparePartialSequence(workMgContext, dirtyBars, tickStart, buildVersion)
+                            : prepareSequence(workMgContext, true, buildVersion);
+                    synchronized (PlaybackContext.this)
+                    {
+                        if (buildVersion == version && buildId == backgroundBuildId)
+                        {
+                            preparedSequence.set(ps);
+                            hotSwapPending = isLiveUpdateEnabled() && state.equals(State.PLAYING);
+                            hotSwapHeadPending = false;
+                            LOGGER.fine("startBackgroundBuild() sequence prepared for version=" + buildVersion);
+                        }
+                    }
+                } catch (MusicGenerationException ex)
+                {
+                    // The user will be notified when the sequence is built at playback start
+                    LOGGER.log(Level.FINE, "startBackgroundBuild() ex={0}", ex.getLocalizedMessage());
+                } catch (RuntimeException ex)
+                {
+                    // Can happen e.g. if task is interrupted
+                    LOGGER.log(Level.FINE, "startBackgroundBuild() unexpected exception ex={0}", ex);
+                }
+            };
+
+            backgroundBuildVersion = buildVersion;
+            backgroundBuildTask = BACKGROUND_BUILDER.create(run);
+            backgroundBuildTask.addTaskListener(task ->
+            {
+                // Song might have been modified during the build
+                if (buildVersion != version)
+                {
+                    scheduleBackgroundBuild();
+                }
+            });
+            backgroundBuildTask.schedule(0);
+        }
 
-                // Update muted state for each track
-                updateAllTracksMuteState(workMgContext.getMidiMix());
-                sequencer.setTrackMute(controlTrackId, false);
-                sequencer.setTrackMute(precountTrackId, false);
-                sequencer.setTrackMute(clickTrackId, !isClickEnabled);
+        /**
+         * The dirty bars which can be regenerated without rebuilding the whole sequence.
+         * <p>
+         * Must be called on the EDT.
+         *
+         * @return Null if there is no sequence yet, if no dirty bars were identified, or if a full rebuild is required.
+         */
+        private IntRange getIncrementalDirtyBars()
+        {
+            if (sequence == null || dirtyTracker.isFullRebuildRequired())
+            {
+                return null;
+            }
+            return dirtyTracker.getDirtyBarRange();
+        }
 
+        /**
+         * Regenerate only the specified bars (extended with the margin and to complete song parts).
+         * <p>
+         * The returned sequence only contains the rhythm voice tracks of the regenerated bars and a control track, on the same
+         * timeline than the playing sequence: its events are meant to replace the events of the playing sequence in the
+         * [tickFrom;tickTo[ range, see applyPartialSequence(). Song structure timing, click and precount tracks are unchanged.
+         * <p>
+         * The sequencer is not used, so this method can be called from any thread.
+         *
+         * @param workMgContext
+         * @param dirtyBars Song structure bars
+         * @param songTickStart The tick position of the song start in the playing sequence
+         * @param version The version of the song/settings used by workMgContext
+         * @return
+         * @throws MusicGenerationException
+         */
+        private PreparedSequence preparePartialSequence(MusicGenerationContext workMgContext, IntRange dirtyBars, long songTickStart, long version) throws MusicGenerationException
+        {
+            PreparedSequence ps = new PreparedSequence(version);
+            ps.partial = true;
+            ps.songTickStart = songTickStart;
+            IntRange contextBars = workMgContext.getBarRange();
+            SongStructure ss = workMgContext.getSong().getSongStructure();
+            int margin = getIncrementalBuildMargin();
+
+
+            // Compute the bars to regenerate
+            IntRange bars = new IntRange(Math.max(0, dirtyBars.from - margin), Math.min(ss.getSizeInBars() - 1, dirtyBars.to + margin));
+            bars = bars.getIntersectRange(contextBars);
+            if (bars.isEmpty())
+            {
+                // Changes are outside of our context
+                LOGGER.log(Level.FINE, "preparePartialSequence() dirtyBars={0} outside of context bars={1}", new Object[]
+                {
+                    dirtyBars, contextBars
+                });
+                ps.tickFrom = ps.tickTo = songTickStart;
+                ps.mapRvTrackId = new HashMap<>();
+                return ps;
+            }
+            SongPart sptFrom = ss.getSongPart(bars.from);
+            SongPart sptTo = ss.getSongPart(bars.to);
+            bars = new IntRange(sptFrom.getStartBarIndex(), sptTo.getBarRange().to).getIntersectRange(contextBars);
+            MusicGenerationContext partialMgContext = new MusicGenerationContext(workMgContext, bars);
+            ps.tickFrom = songTickStart + partialMgContext.getTickRange().from - workMgContext.getTickRange().from;
+            ps.tickTo = ps.tickFrom + partialMgContext.getTickRange().size();
+
+
+            // Build the partial sequence 
+            MidiSequenceBuilder seqBuilder = new MidiSequenceBuilder(partialMgContext, postProcessors);
+            seqBuilder.setPhraseCache(isPhraseCacheEnabled() ? PhraseCache.getDefault() : null);
+            seqBuilder.setParallelGeneration(isParallelGenerationEnabled());
+            seqBuilder.setTickOffset(ps.tickFrom);
+            ps.sequence = seqBuilder.buildSequence(true);          // Can raise MusicGenerationException
+            if (ps.sequence == null)
+            {
+                throw new MusicGenerationException("Unexpected error while building sequence. Consult log for details.");
+            }
+            ps.mapRvTrackId = seqBuilder.getRvTrackIdMap();
+            ControlTrackBuilder ctm = new ControlTrackBuilder(partialMgContext);
+            ps.controlTrackId = ctm.addControlTrack(ps.sequence, ps.tickFrom);
 
-                // Set position and loop points
-                sequencer.setLoopStartPoint(songTickStart);
-                songTickEnd = (long) (songTickStart + workMgContext.getBeatRange().size() * MidiConst.PPQ_RESOLUTION);
-                sequencer.setLoopEndPoint(songTickEnd);
 
+            LOGGER.log(Level.FINE, "preparePartialSequence() dirtyBars={0} => regenerated bars={1}", new Object[]
+            {
+                dirtyBars, bars
+            });
+            if (debugBuiltSequence)
+            {
+                LOGGER.info("preparePartialSequence() song=" + workMgContext.getSong().getName() + " sequence :");
+                LOGGER.info(MidiUtilities.toString(ps.sequence));
+            }
 
-                // We're clean
-                dirty = false;
+            return ps;
+        }
 
-            } catch (MusicGenerationException | InvalidMidiDataException ex)
+        /**
+         * Replace the events of the sequence by the events of a partial sequence in its [tickFrom;tickTo[ range.
+         * <p>
+         * Must be called on the EDT while the sequencer is not playing. The sequencer already uses this sequence: the sequencer
+         * position will be set before playback restarts, which makes it reindex the modified tracks.
+         *
+         * @param ps A sequence prepared by preparePartialSequence()
+         * @return False if the sequence could not be updated (e.g. tracks mapping has changed), a full rebuild is then required.
+         */
+        private boolean applyPartialSequence(PreparedSequence ps)
+        {
+            assert ps.partial : "ps=" + ps;
+            if (ps.sequence == null)
             {
-                throw new MusicGenerationException(ex.getLocalizedMessage());
+                // Nothing to regenerate
+                return true;
+            }
+            if (!isHotSwapCompatible(ps))
+            {
+                return false;
+            }
+            spliceEvents(sequence, ps, ps.tickFrom, ps.tickTo);
+            if (debugBuiltSequence)
+            {
+                LOGGER.info("applyPartialSequence() song=" + originalContext.getSong().getName() + " sequence :");
+                LOGGER.info(MidiUtilities.toString(sequence));
+            }
+            return true;
+        }
+
+        /**
+         * Replace the ShortMessages of the destination tracks in the [tickFrom;tickTo[ range by the ones of the prepared sequence.
+         *
+         * @param destSequence The sequence or a copy of the sequence
+         * @param ps Must be compatible, see isHotSwapCompatible()
+         * @param tickFrom
+         * @param tickTo
+         */
+        private void spliceEvents(Sequence destSequence, PreparedSequence ps, long tickFrom, long tickTo)
+        {
+            Track[] tracks = destSequence.getTracks();
+            Track[] srcTracks = ps.sequence.getTracks();
+            if (ps.partial)
+            {
+                for (RhythmVoice rv : ps.mapRvTrackId.keySet())
+                {
+                    MidiUtilities.spliceShortMessages(tracks[mapRvTrackId.get(rv)], srcTracks[ps.mapRvTrackId.get(rv)], tickFrom, tickTo);
+                }
+                MidiUtilities.spliceShortMessages(tracks[controlTrackId], srcTracks[ps.controlTrackId], tickFrom, tickTo);
+            } else
+            {
+                for (int i = 0; i < tracks.length; i++)
+                {
+                    if (i != precountTrackId)
+                    {
+                        MidiUtilities.spliceShortMessages(tracks[i], srcTracks[i], tickFrom, tickTo);
+                    }
+                }
+                naturalBeatMap = ps.naturalBeatMap;
             }
         }
 
@@ -1227,15 +1987,15 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
         /**
          *
          * @param sequence
-         * @param mm
-         * @param sg
+         * @param context
+         * @param tickOffset
          * @return The track id
          */
-        private int prepareClickTrack(Sequence sequence, MusicGenerationContext context)
+        private int prepareClickTrack(Sequence sequence, MusicGenerationContext context, long tickOffset)
         {
             // Add the click track
             ClickManager cm = ClickManager.getInstance();
-            int trackId = cm.addClickTrack(sequence, context);
+            int trackId = cm.addClickTrack(sequence, context, tickOffset);
 
             // Send a Drums program change if Click channel is not used in the current MidiMix
             int clickChannel = ClickManager.getInstance().getPreferredClickChannel();
@@ -1272,17 +2032,14 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
             return tickPos;
         }
 
-        private void rerouteDrumsChannels(Sequence seq, MidiMix mm)
-        {
-            List<Integer> toBeRerouted = mm.getDrumsReroutedChannels();
-            MidiUtilities.rerouteShortMessages(seq, toBeRerouted, MidiConst.CHANNEL_DRUMS);
-        }
-
         /**
          * Make sure resources are released.
          */
         void close()
         {
+            closed = true;
+            cancelBackgroundBuild();
+            dirtyTracker.close();
             if (sequence == null)
             {
                 return;
@@ -1307,9 +2064,61 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
             return dirty;
         }
 
+        /**
+         * Something has been modified which requires a full rebuild of the sequence.
+         */
         void setDirty()
         {
             dirty = true;
+            version++;
+            dirtyTracker.setFullRebuildRequired();
+            preparedSequence.set(null);
+            scheduleBackgroundBuild();
+        }
+
+        /**
+         * The song has been modified.
+         * <p>
+         * Only the song parts identified by the DirtyRegionTracker will be rebuilt, or the full sequence if nothing was identified.
+         */
+        void setSongDirty()
+        {
+            dirty = true;
+            version++;
+            preparedSequence.set(null);
+            scheduleBackgroundBuild();
+        }
+    }
+
+    /**
+     * A sequence and its related data, ready to be loaded in the sequencer.
+     */
+    private static class PreparedSequence
+    {
+
+        final long version;
+        Sequence sequence;
+        NaturalBeatMap naturalBeatMap;
+        HashMap<RhythmVoice, Integer> mapRvTrackId;
+        int controlTrackId;
+        int clickTrackId;
+        int precountTrackId;
+        long songTickStart;
+        long songTickEnd;
+        /**
+         * If true the sequence only contains the regenerated rhythm voice tracks and a control track, see
+         * preparePartialSequence(). Other track ids and songTickEnd are not used.
+         */
+        boolean partial;
+        /**
+         * The sequence range whose events must replace the events of the playing sequence.
+         */
+        long tickFrom;
+        long tickTo;
+
+        PreparedSequence(long version)
+        {
+            this.version = version;
         }
     }
 
@@ -0,0 +1,145 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.musiccontrol;
+
+import java.util.Arrays;
+import org.jjazz.leadsheet.chordleadsheet.api.item.Position;
+import org.jjazz.midi.MidiConst;
+
+/**
+ * The song position of each natural beat of a playback sequence.
+ * <p>
+ * Natural beat i starts at relative tick i * MidiConst.PPQ_RESOLUTION. Bars and beats are stored in primitive arrays so that the
+ * lookups done on the sequencer thread do not allocate anything.
+ * <p>
+ * The Position objects returned by getPosition() are created once when the map is built and shared: they must not be modified.
+ */
+public final class NaturalBeatMap
+{
+
+    private int[] bars;
+    private float[] beats;
+    private Position[] positions;
+    private int size;
+
+    /**
+     * Create an empty map.
+     *
+     * @param capacity The expected number of natural beats
+     */
+    NaturalBeatMap(int capacity)
+    {
+        capacity = Math.max(capacity, 16);
+        bars = new int[capacity];
+        beats = new float[capacity];
+        positions = new Position[capacity];
+    }
+
+    /**
+     * @return The number of natural beats.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Get the index of the natural beat closest to the specified relative tick.
+     *
+     * @param relTick A tick relative to the start of the song
+     * @return A value in [0; size()-1], or -1 if map is empty.
+     */
+    public int getBeatIndex(long relTick)
+    {
+        if (size == 0)
+        {
+            return -1;
+        }
+        long index = relTick / MidiConst.PPQ_RESOLUTION;
+        if (relTick % MidiConst.PPQ_RESOLUTION > MidiConst.PPQ_RESOLUTION / 2)
+        {
+            index++;
+        }
+        return (int) Math.max(0, Math.min(size - 1, index));
+    }
+
+    public int getBar(int index)
+    {
+        checkIndex(index);
+        return bars[index];
+    }
+
+    public float getBeat(int index)
+    {
+        checkIndex(index);
+        return beats[index];
+    }
+
+    /**
+     * @param index
+     * @return A shared instance which must not be modified.
+     */
+    public Position getPosition(int index)
+    {
+        checkIndex(index);
+        return positions[index];
+    }
+
+    @Override
+    public String toString()
+    {
+        return "NaturalBeatMap[size=" + size + "]";
+    }
+
+    /**
+     * Add the next natural beat.
+     *
+     * @param bar
+     * @param beat
+     */
+    void add(int bar, float beat)
+    {
+        if (size == bars.length)
+        {
+            int newCapacity = size * 2;
+            bars = Arrays.copyOf(bars, newCapacity);
+            beats = Arrays.copyOf(beats, newCapacity);
+            positions = Arrays.copyOf(positions, newCapacity);
+        }
+        bars[size] = bar;
+        beats[size] = beat;
+        positions[size] = new Position(bar, beat);
+        size++;
+    }
+
+    // =================================================================================
+    // Private methods
+    // =================================================================================
+    private void checkIndex(int index)
+    {
+        if (index < 0 || index >= size)
+        {
+            throw new IndexOutOfBoundsException("index=" + index + " size=" + size);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.musiccontrol;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import org.jjazz.leadsheet.chordleadsheet.api.item.Position;
+
+/**
+ * Aggregate the MusicController playback events for the UI.
+ * <p>
+ * PlaybackListener events are fired on the sequencer thread for each beat and each Midi activity. This object collapses them
+ * into at most one update per display frame on the EDT, with the latest position and a per-channel activity bitmask. UI
+ * components should use it instead of a raw PlaybackListener.
+ * <p>
+ * The frame timer runs only while events are received.
+ */
+public class PlaybackEventAggregator implements PlaybackListener
+{
+
+    /**
+     * Minimum delay in milliseconds between 2 updates (60Hz).
+     */
+    public static final int FRAME_PERIOD_MS = 16;
+    /**
+     * Number of frames without events before stopping the timer.
+     */
+    private static final int MAX_IDLE_FRAMES = 30;
+    private static PlaybackEventAggregator INSTANCE;
+
+    private final CopyOnWriteArrayList<AggregatedPlaybackListener> listeners = new CopyOnWriteArrayList<>();
+    private final Timer timer;
+    private final AtomicBoolean timerActive = new AtomicBoolean();
+    private final Runnable startTimerTask;
+    private int nbIdleFrames;
+
+    // Written by the sequencer thread, read by the EDT
+    private volatile Position lastPos;
+    private final AtomicBoolean positionChanged = new AtomicBoolean();
+    private final AtomicInteger activityMask = new AtomicInteger();
+
+    // Used on the EDT only
+    private Position lastNotifiedPos;
+    private static final Logger LOGGER = Logger.getLogger(PlaybackEventAggregator.class.getSimpleName());
+
+    public static PlaybackEventAggregator getInstance()
+    {
+        synchronized (PlaybackEventAggregator.class)
+        {
+            if (INSTANCE == null)
+            {
+                INSTANCE = new PlaybackEventAggregator();
+                MusicController.getInstance().addPlaybackListener(INSTANCE);
+            }
+        }
+        return INSTANCE;
+    }
+
+    private PlaybackEventAggregator()
+    {
+        lastPos = MusicController.getInstance().getBeatPosition();
+        lastNotifiedPos = lastPos;
+        timer = new Timer(FRAME_PERIOD_MS, e -> frame());
+        timer.setCoalesce(true);
+        startTimerTask = () -> timer.start();
+    }
+
+    /**
+     * Add a listener notified on the EDT.
+     *
+     * @param listener
+     */
+    public void addAggregatedPlaybackListener(AggregatedPlaybackListener listener)
+    {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeAggregatedPlaybackListener(AggregatedPlaybackListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    // ==========================================================================================
+    // PlaybackListener interface
+    // ==========================================================================================
+    @Override
+    public void beatChanged(Position oldPos, Position newPos)
+    {
+        lastPos = newPos;
+        positionChanged.set(true);
+        activateTimer();
+    }
+
+    @Override
+    public void barChanged(int oldBar, int newBar)
+    {
+        // Nothing, bar changes are notified via positionChanged()
+    }
+
+    @Override
+    public void midiActivity(int channel, long tick)
+    {
+        activityMask.accumulateAndGet(1 << channel, (m, bit) -> m | bit);
+        activateTimer();
+    }
+
+    // ==========================================================================================
+    // Private methods
+    // ==========================================================================================
+    /**
+     * Make sure the frame timer is running. Allocates only when timer needs to be restarted.
+     */
+    private void activateTimer()
+    {
+        if (!timerActive.get() && timerActive.compareAndSet(false, true))
+        {
+            SwingUtilities.invokeLater(startTimerTask);
+        }
+    }
+
+    /**
+     * Called on the EDT on each frame.
+     */
+    private void frame()
+    {
+        boolean posChanged = positionChanged.getAndSet(false);
+        int mask = activityMask.getAndSet(0);
+
+        if (!posChanged && mask == 0)
+        {
+            nbIdleFrames++;
+            if (nbIdleFrames >= MAX_IDLE_FRAMES)
+            {
+                // Stop the timer, but restart it if an event arrived in between
+                nbIdleFrames = 0;
+                timer.stop();
+                timerActive.set(false);
+                if ((positionChanged.get() || activityMask.get() != 0) && timerActive.compareAndSet(false, true))
+                {
+                    timer.start();
+                }
+            }
+            return;
+        }
+        nbIdleFrames = 0;
+
+        if (posChanged)
+        {
+            Position oldPos = lastNotifiedPos;
+            Position newPos = lastPos;
+            lastNotifiedPos = newPos;
+            for (AggregatedPlaybackListener l : listeners)
+            {
+                l.positionChanged(oldPos, newPos);
+            }
+        }
+        if (mask != 0)
+        {
+            for (AggregatedPlaybackListener l : listeners)
+            {
+                l.midiActivity(mask);
+            }
+        }
+    }
+}
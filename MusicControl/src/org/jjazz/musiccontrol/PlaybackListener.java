@@ -28,10 +28,20 @@ import org.jjazz.leadsheet.chordleadsheet.api.item.Position;
  * Listener of events occuring during song playback.
  * <p>
  * There can be many events fired during a plyaback, so event handling must be time-efficient.
+ * <p>
+ * Methods are called on the sequencer thread.
  */
 public interface PlaybackListener
 {
 
+    /**
+     * The playback position has moved to a new natural beat.
+     * <p>
+     * Position instances are shared and reused between calls: they must not be modified.
+     *
+     * @param oldPos
+     * @param newPos
+     */
     void beatChanged(Position oldPos, Position newPos);
 
     void barChanged(int oldBar, int newBar);
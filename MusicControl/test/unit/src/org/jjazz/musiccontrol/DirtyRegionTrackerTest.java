@@ -0,0 +1,222 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.musiccontrol;
+
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.List;
+import org.jjazz.harmony.TimeSignature;
+import org.jjazz.leadsheet.chordleadsheet.api.ChordLeadSheet;
+import org.jjazz.leadsheet.chordleadsheet.api.UnsupportedEditException;
+import org.jjazz.leadsheet.chordleadsheet.api.event.ItemMovedEvent;
+import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_ChordSymbol;
+import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_Factory;
+import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_Section;
+import org.jjazz.leadsheet.chordleadsheet.api.item.ExtChordSymbol;
+import org.jjazz.leadsheet.chordleadsheet.api.item.Position;
+import org.jjazz.rhythm.api.Rhythm;
+import org.jjazz.rhythm.parameters.RP_STD_Variation;
+import org.jjazz.rhythm.parameters.RP_SYS_TempoFactor;
+import org.jjazz.song.api.Song;
+import org.jjazz.song.api.SongFactory;
+import org.jjazz.songstructure.api.SongPart;
+import org.jjazz.songstructure.api.SongStructure;
+import org.jjazz.songstructure.api.event.RpChangedEvent;
+import org.jjazz.util.IntRange;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.*;
+
+/**
+ * Check which song changes mark song parts as dirty and which ones require a full rebuild.
+ */
+public class DirtyRegionTrackerTest
+{
+
+    Song song;
+    SongStructure sgs;
+    ChordLeadSheet cls;
+    CLI_Section sectionA;
+    CLI_Section sectionB;
+    CLI_ChordSymbol cliDm7;
+    CLI_ChordSymbol cliBb7M;
+    Rhythm r;
+    DirtyRegionTracker tracker;
+
+    public DirtyRegionTrackerTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception
+    {
+    }
+
+    @Before
+    public void setUp() throws UnsupportedEditException, ParseException
+    {
+        // 2 sections A(4 bars) B(4 bars), song structure A B A (12 bars)
+        song = SongFactory.getInstance().createEmptySong("DirtyRegionTrackerTest", 8);
+        cls = song.getChordLeadSheet();
+        sgs = song.getSongStructure();
+        CLI_Factory clif = CLI_Factory.getDefault();
+        sectionA = cls.getSection(0);
+        sectionB = clif.createSection(cls, "B", TimeSignature.FOUR_FOUR, 4);
+        cls.addSection(sectionB);
+        cliDm7 = clif.createChordSymbol(cls, new ExtChordSymbol("Dm7"), new Position(1, 0));
+        cliBb7M = clif.createChordSymbol(cls, new ExtChordSymbol("Bb7M"), new Position(5, 0));
+        cls.addItem(cliDm7);
+        cls.addItem(cliBb7M);
+        r = sgs.getSongPart(0).getRhythm();
+        SongPart sptA = sgs.getSongParts().get(0);
+        sgs.addSongParts(Arrays.asList(sgs.createSongPart(r, sptA.getName(), 8, sptA.getNbBars(), sectionA, true)));
+        assertEquals(12, sgs.getSizeInBars());
+
+        tracker = new DirtyRegionTracker(song);
+    }
+
+    @After
+    public void tearDown()
+    {
+        tracker.close();
+    }
+
+    @Test
+    public void testChordChangeMarksSongParts() throws ParseException
+    {
+        System.out.println("testChordChangeMarksSongParts");
+        assertNull(tracker.getDirtyBarRange());
+
+        cls.changeItem(cliBb7M, new ExtChordSymbol("Eb7M"));
+        assertEquals(new IntRange(4, 7), tracker.getDirtyBarRange());
+        assertFalse(tracker.isFullRebuildRequired());
+
+        // Section A is used by the 1st and 3rd song parts
+        tracker.reset();
+        cls.changeItem(cliDm7, new ExtChordSymbol("D7"));
+        assertEquals(new IntRange(0, 11), tracker.getDirtyBarRange());
+        assertFalse(tracker.isFullRebuildRequired());
+    }
+
+    @Test
+    public void testChordAddRemove() throws ParseException
+    {
+        System.out.println("testChordAddRemove");
+        cls.addItem(CLI_Factory.getDefault().createChordSymbol(cls, new ExtChordSymbol("C7"), new Position(6, 2)));
+        assertEquals(new IntRange(4, 7), tracker.getDirtyBarRange());
+
+        tracker.reset();
+        assertNull(tracker.getDirtyBarRange());
+        cls.removeItem(cliBb7M);
+        assertEquals(new IntRange(4, 7), tracker.getDirtyBarRange());
+        assertFalse(tracker.isFullRebuildRequired());
+    }
+
+    @Test
+    public void testChordMove()
+    {
+        System.out.println("testChordMove");
+        cls.moveItem(cliBb7M, new Position(6, 1));
+        assertEquals(new IntRange(4, 7), tracker.getDirtyBarRange());
+
+        // Moved from section B to section A
+        tracker.reset();
+        cls.moveItem(cliBb7M, new Position(2, 0));
+        assertEquals(new IntRange(0, 11), tracker.getDirtyBarRange());
+        assertFalse(tracker.isFullRebuildRequired());
+    }
+
+    @Test
+    public void testMoveOutOfRange()
+    {
+        System.out.println("testMoveOutOfRange");
+        tracker.chordLeadSheetChanged(new ItemMovedEvent(cls, cliBb7M, cliBb7M.getPosition(), new Position(cls.getSize(), 0)));
+        assertTrue(tracker.isFullRebuildRequired());
+    }
+
+    @Test
+    public void testRpChange()
+    {
+        System.out.println("testRpChange");
+        SongPart spt1 = sgs.getSongParts().get(1);
+        RP_STD_Variation rpVariation = RP_STD_Variation.getVariationRp(r);
+        List<String> values = rpVariation.getPossibleValues();
+        String newValue = values.get((values.indexOf(spt1.getRPValue(rpVariation)) + 1) % values.size());
+        sgs.setRhythmParameterValue(spt1, rpVariation, newValue);
+        assertEquals(new IntRange(4, 7), tracker.getDirtyBarRange());
+        assertFalse(tracker.isFullRebuildRequired());
+    }
+
+    @Test
+    public void testTempoFactorChange()
+    {
+        System.out.println("testTempoFactorChange");
+        SongPart spt1 = sgs.getSongParts().get(1);
+        tracker.songStructureChanged(new RpChangedEvent(sgs, spt1, RP_SYS_TempoFactor.getInstance(), 100, 120));
+        assertTrue(tracker.isFullRebuildRequired());
+
+        tracker.reset();
+        assertFalse(tracker.isFullRebuildRequired());
+    }
+
+    @Test
+    public void testSectionChange() throws UnsupportedEditException
+    {
+        System.out.println("testSectionChange");
+        cls.setSectionName(sectionB, "C");
+        assertTrue(tracker.isFullRebuildRequired());
+
+        tracker.reset();
+        cls.addSection(CLI_Factory.getDefault().createSection(cls, "D", TimeSignature.FOUR_FOUR, 6));
+        assertTrue(tracker.isFullRebuildRequired());
+    }
+
+    @Test
+    public void testStructureChange() throws UnsupportedEditException
+    {
+        System.out.println("testStructureChange");
+        sgs.removeSongParts(Arrays.asList(sgs.getSongParts().get(2)));
+        assertTrue(tracker.isFullRebuildRequired());
+
+        tracker.reset();
+        cls.insertBars(2, 1);
+        assertTrue(tracker.isFullRebuildRequired());
+    }
+
+    @Test
+    public void testFullRebuildIgnoresLaterEdits() throws ParseException
+    {
+        System.out.println("testFullRebuildIgnoresLaterEdits");
+        tracker.setFullRebuildRequired();
+        cls.changeItem(cliBb7M, new ExtChordSymbol("Eb7M"));
+        assertTrue(tracker.isFullRebuildRequired());
+        assertNull(tracker.getDirtyBarRange());
+    }
+}
@@ -28,8 +28,9 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.jjazz.activesong.ActiveSongManager;
 import org.jjazz.leadsheet.chordleadsheet.api.item.Position;
+import org.jjazz.musiccontrol.AggregatedPlaybackListener;
 import org.jjazz.musiccontrol.MusicController;
-import org.jjazz.musiccontrol.PlaybackListener;
+import org.jjazz.musiccontrol.PlaybackEventAggregator;
 import org.jjazz.song.api.Song;
 
 import org.openide.awt.Actions;
@@ -42,7 +43,7 @@ import org.openide.util.actions.BooleanStateAction;
 /**
  * The panel used as a control toolbar.
  */
-public class ControlToolbarPanel extends javax.swing.JPanel implements PropertyChangeListener, LookupListener, PlaybackListener
+public class ControlToolbarPanel extends javax.swing.JPanel implements PropertyChangeListener, LookupListener, AggregatedPlaybackListener
 {
 
     private Lookup.Result<Song> lookupResult;
@@ -69,7 +70,7 @@ public class ControlToolbarPanel extends javax.swing.JPanel implements PropertyC
         
         // Listen to playbackState and position changes
         MusicController.getInstance().addPropertyChangeListener(this);
-        MusicController.getInstance().addPlaybackListener(this);
+        PlaybackEventAggregator.getInstance().addAggregatedPlaybackListener(this);
 
 
         // Listen to the active MidiMix changes
@@ -113,32 +114,18 @@ public class ControlToolbarPanel extends javax.swing.JPanel implements PropertyC
         });
     }
     // ======================================================================
-    // Playbackistener interface
+    // AggregatedPlaybackListener interface
     // ======================================================================  
 
     @Override
-    public void beatChanged(final Position oldPos, final Position newPos)
+    public void positionChanged(Position oldPos, Position newPos)
     {
-        // Changes can be generated outside the EDT
-        Runnable run = new Runnable()
-        {
-            @Override
-            public void run()
-            {
-                posModel.set(newPos);   // PositionViewer listens to posModel changes
-            }
-        };
-        org.jjazz.ui.utilities.Utilities.invokeLaterIfNeeded(run);
-    }
-
-    @Override
-    public void barChanged(int oldBar, int newBar)
-    {
-        // Nothing
+        // Called on the EDT
+        posModel.set(newPos);   // PositionViewer listens to posModel changes
     }
 
     @Override
-    public void midiActivity(int channel, long tick)
+    public void midiActivity(int channelMask)
     {
         // Nothing
     }
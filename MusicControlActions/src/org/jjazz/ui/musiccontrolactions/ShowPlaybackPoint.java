@@ -42,8 +42,9 @@ import org.jjazz.leadsheet.chordleadsheet.api.event.ItemRemovedEvent;
 import org.jjazz.leadsheet.chordleadsheet.api.event.SizeChangedEvent;
 import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_ChordSymbol;
 import org.jjazz.leadsheet.chordleadsheet.api.item.Position;
+import org.jjazz.musiccontrol.AggregatedPlaybackListener;
 import org.jjazz.musiccontrol.MusicController;
-import org.jjazz.musiccontrol.PlaybackListener;
+import org.jjazz.musiccontrol.PlaybackEventAggregator;
 import org.jjazz.songstructure.api.event.SgsChangeEvent;
 import org.jjazz.songstructure.api.event.RpChangedEvent;
 import org.jjazz.songstructure.api.event.SptAddedEvent;
@@ -84,7 +85,7 @@ import org.jjazz.songstructure.api.SongPart;
             "CTL_ShowPlaybackPoint=Show playback point",
             "CTL_ShowPlaybackTooltip=Highlight the bar being played"
         })
-public class ShowPlaybackPoint extends BooleanStateAction implements PropertyChangeListener, LookupListener, Presenter.Toolbar, ClsChangeListener, SgsChangeListener, PlaybackListener
+public class ShowPlaybackPoint extends BooleanStateAction implements PropertyChangeListener, LookupListener, Presenter.Toolbar, ClsChangeListener, SgsChangeListener, AggregatedPlaybackListener
 {
 
     private final Lookup.Result<Song> lookupResult;
@@ -106,7 +107,7 @@ public class ShowPlaybackPoint extends BooleanStateAction implements PropertyCha
         putValue("hideActionText", true);
         // Listen to playbackState and position changes
         MusicController.getInstance().addPropertyChangeListener(this);
-        MusicController.getInstance().addPlaybackListener(this);
+        PlaybackEventAggregator.getInstance().addAggregatedPlaybackListener(this);
         // Listen to the Midi active song changes
         ActiveSongManager.getInstance().addPropertyListener(this);
         // Listen to the current Song changes
@@ -264,40 +265,26 @@ public class ShowPlaybackPoint extends BooleanStateAction implements PropertyCha
     }
 
     // ======================================================================
-    // PlaybackListener interface
+    // AggregatedPlaybackListener interface
     // ======================================================================  
     @Override
-    public void beatChanged(final Position oldPos, final Position newPos)
+    public void positionChanged(Position oldPos, Position newPos)
     {
-        // Changes can be generated outside the EDT
-        Runnable run = new Runnable()
+        // Called on the EDT
+        if (currentCL_Editor != null)
         {
-            @Override
-            public void run()
+            newSgsPos.set(newPos);
+            Position newClsPos = convertToClsPosition(newSgsPos);
+            if (newClsPos != null)
             {
-                if (currentCL_Editor != null)
-                {
-                    newSgsPos.set(newPos);
-                    Position newClsPos = convertToClsPosition(newSgsPos);
-                    if (newClsPos != null)
-                    {
-                        currentCL_Editor.showPlaybackPoint(true, newClsPos);
-                    }
-                    currentRL_Editor.showPlaybackPoint(true, newSgsPos);
-                }
+                currentCL_Editor.showPlaybackPoint(true, newClsPos);
             }
-        };
-        org.jjazz.ui.utilities.Utilities.invokeLaterIfNeeded(run);
-    }
-
-    @Override
-    public void barChanged(int oldBar, int newBar)
-    {
-        // Nothing
+            currentRL_Editor.showPlaybackPoint(true, newSgsPos);
+        }
     }
 
     @Override
-    public void midiActivity(int channel, long tick)
+    public void midiActivity(int channelMask)
     {
         // Nothing
     }
@@ -28,6 +28,7 @@ import java.io.File;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.jjazz.filedirectorymanager.FileDirectoryManager;
+import org.jjazz.musiccontrol.MusicController;
 import org.jjazz.songeditormanager.StartupShutdownSongManager;
 import org.jjazz.uisettings.GeneralUISettings;
 import org.jjazz.ui.utilities.Utilities;
@@ -54,6 +55,9 @@ final class GeneralPanel extends javax.swing.JPanel implements PropertyChangeLis
         cb_disableMouseWheelChangeValue.addActionListener(al -> controller.changed());
         cb_loadLastRecentFile.addActionListener(al -> controller.changed());
         cb_useRhythmFileUserDir.addActionListener(al -> controller.changed());        
+        cb_liveUpdate.addActionListener(al -> controller.changed());
+        cb_parallelGeneration.addActionListener(al -> controller.changed());
+        cb_phraseCache.addActionListener(al -> controller.changed());
         
         // Listen to directory changes
         FileDirectoryManager fdm = FileDirectoryManager.getInstance();
@@ -106,6 +110,9 @@ final class GeneralPanel extends javax.swing.JPanel implements PropertyChangeLis
         jScrollPane1 = new javax.swing.JScrollPane();
         helpTextArea1 = new org.jjazz.ui.utilities.HelpTextArea();
         cb_disableMouseWheelChangeValue = new javax.swing.JCheckBox();
+        cb_liveUpdate = new javax.swing.JCheckBox();
+        cb_parallelGeneration = new javax.swing.JCheckBox();
+        cb_phraseCache = new javax.swing.JCheckBox();
 
         org.openide.awt.Mnemonics.setLocalizedText(cb_loadLastRecentFile, org.openide.util.NbBundle.getMessage(GeneralPanel.class, "GeneralPanel.cb_loadLastRecentFile.text")); // NOI18N
         cb_loadLastRecentFile.addChangeListener(new javax.swing.event.ChangeListener()
@@ -179,6 +186,15 @@ final class GeneralPanel extends javax.swing.JPanel implements PropertyChangeLis
         org.openide.awt.Mnemonics.setLocalizedText(cb_disableMouseWheelChangeValue, org.openide.util.NbBundle.getMessage(GeneralPanel.class, "GeneralPanel.cb_disableMouseWheelChangeValue.text")); // NOI18N
         cb_disableMouseWheelChangeValue.setToolTipText(org.openide.util.NbBundle.getMessage(GeneralPanel.class, "GeneralPanel.cb_disableMouseWheelChangeValue.toolTipText")); // NOI18N
 
+        org.openide.awt.Mnemonics.setLocalizedText(cb_liveUpdate, org.openide.util.NbBundle.getMessage(GeneralPanel.class, "GeneralPanel.cb_liveUpdate.text")); // NOI18N
+        cb_liveUpdate.setToolTipText(org.openide.util.NbBundle.getMessage(GeneralPanel.class, "GeneralPanel.cb_liveUpdate.toolTipText")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(cb_parallelGeneration, org.openide.util.NbBundle.getMessage(GeneralPanel.class, "GeneralPanel.cb_parallelGeneration.text")); // NOI18N
+        cb_parallelGeneration.setToolTipText(org.openide.util.NbBundle.getMessage(GeneralPanel.class, "GeneralPanel.cb_parallelGeneration.toolTipText")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(cb_phraseCache, org.openide.util.NbBundle.getMessage(GeneralPanel.class, "GeneralPanel.cb_phraseCache.text")); // NOI18N
+        cb_phraseCache.setToolTipText(org.openide.util.NbBundle.getMessage(GeneralPanel.class, "GeneralPanel.cb_phraseCache.toolTipText")); // NOI18N
+
         javax.swing.GroupLayout layout = new javax.swing.GroupLayout(this);
         this.setLayout(layout);
         layout.setHorizontalGroup(
@@ -190,7 +206,10 @@ final class GeneralPanel extends javax.swing.JPanel implements PropertyChangeLis
                     .addGroup(layout.createSequentialGroup()
                         .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
                             .addComponent(cb_disableMouseWheelChangeValue)
-                            .addComponent(cb_loadLastRecentFile))
+                            .addComponent(cb_loadLastRecentFile)
+                            .addComponent(cb_liveUpdate)
+                            .addComponent(cb_parallelGeneration)
+                            .addComponent(cb_phraseCache))
                         .addGap(0, 0, Short.MAX_VALUE)))
                 .addContainerGap())
         );
@@ -201,9 +220,15 @@ final class GeneralPanel extends javax.swing.JPanel implements PropertyChangeLis
                 .addComponent(cb_loadLastRecentFile)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
                 .addComponent(cb_disableMouseWheelChangeValue)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
+                .addComponent(cb_liveUpdate)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
+                .addComponent(cb_parallelGeneration)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
+                .addComponent(cb_phraseCache)
                 .addGap(18, 18, 18)
                 .addComponent(jPanel1, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
-                .addContainerGap(232, Short.MAX_VALUE))
+                .addContainerGap(139, Short.MAX_VALUE))
         );
     }// </editor-fold>//GEN-END:initComponents
 
@@ -240,6 +265,9 @@ final class GeneralPanel extends javax.swing.JPanel implements PropertyChangeLis
 
         cb_loadLastRecentFile.setSelected(StartupShutdownSongManager.getInstance().isOpenRecentFilesUponStartup());
         cb_disableMouseWheelChangeValue.setSelected(!GeneralUISettings.getInstance().isChangeValueWithMouseWheelEnabled());
+        cb_liveUpdate.setSelected(MusicController.getInstance().isLiveUpdateEnabled());
+        cb_parallelGeneration.setSelected(MusicController.getInstance().isParallelGenerationEnabled());
+        cb_phraseCache.setSelected(MusicController.getInstance().isPhraseCacheEnabled());
         
                 
 
@@ -259,6 +287,9 @@ final class GeneralPanel extends javax.swing.JPanel implements PropertyChangeLis
         StartupShutdownSongManager.getInstance().setOpenRecentFilesUponStartup(cb_loadLastRecentFile.isSelected());
 
         GeneralUISettings.getInstance().setChangeValueWithMouseWheelEnabled(!cb_disableMouseWheelChangeValue.isSelected());        
+        MusicController.getInstance().setLiveUpdateEnabled(cb_liveUpdate.isSelected());
+        MusicController.getInstance().setParallelGenerationEnabled(cb_parallelGeneration.isSelected());
+        MusicController.getInstance().setPhraseCacheEnabled(cb_phraseCache.isSelected());
     }
 
     boolean valid()
@@ -271,7 +302,10 @@ final class GeneralPanel extends javax.swing.JPanel implements PropertyChangeLis
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JButton btn_changeDefaultRhythmMixDir;
     private javax.swing.JCheckBox cb_disableMouseWheelChangeValue;
+    private javax.swing.JCheckBox cb_liveUpdate;
     private javax.swing.JCheckBox cb_loadLastRecentFile;
+    private javax.swing.JCheckBox cb_parallelGeneration;
+    private javax.swing.JCheckBox cb_phraseCache;
     private javax.swing.JCheckBox cb_useRhythmFileUserDir;
     private org.jjazz.ui.utilities.HelpTextArea helpTextArea1;
     private javax.swing.JPanel jPanel1;
@@ -98,6 +98,18 @@ public interface RhythmProvider
      */
     public Rhythm readFast(File f) throws IOException;
 
+    /**
+     * Return true if readFast() can be called concurrently from several threads, each one reading a different file.
+     * <p>
+     * If false the framework does not call readFast() or getFileRhythms() concurrently on this RhythmProvider.
+     *
+     * @return Default implementation returns false.
+     */
+    default boolean supportsConcurrentRead()
+    {
+        return false;
+    }
+
     /**
      * Provide a new rhythm which is an adapted version of r for a different time signature.
      * <p>
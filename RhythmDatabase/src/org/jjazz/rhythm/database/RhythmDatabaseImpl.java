@@ -24,18 +24,25 @@ package org.jjazz.rhythm.database;
 
 import org.jjazz.util.MultipleErrorsReportDialog;
 import org.jjazz.ui.utilities.PleaseWaitDialog;
+import java.awt.GraphicsEnvironment;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.file.Path;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -78,7 +85,14 @@ import org.openide.windows.WindowManager;
  * Then upon normal start:<br>
  * - retrieve all available builtin rhythm instances by polling RhythmProviders, create the corresponding RhythmInfos.<br>
  * - load additional file-based RhythmInfos from the cache file<br>
+ * - compare the user rhythm directory files with the cached file fingerprints (size, last modification time): remove the
+ * RhythmInfos of removed or modified files, read only the new or modified files.<br>
  * - create Rhythm instances only when required.<p>
+ * The database is available in 2 stages. The initialization task only adds the builtin rhythms and the cached RhythmInfos whose
+ * file did not change: getInstance() returns once it is complete, then the background scan only adds rhythms. The rhythm files
+ * are scanned by a background task: rhythms are added by batches (one per RhythmProvider for a full scan, FILE_BATCH_SIZE files
+ * for an incremental update), and ChangeListeners are notified after each batch. Meanwhile, a getRhythmInstance(String) call for
+ * a rhythm not yet known blocks until this rhythm is added, or until the scan is complete.
  * <p>
  * Default rhythms are stored as Preferences.
  */
@@ -87,12 +101,24 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
 
     private static final String PREF_DEFAULT_RHYTHM = "DefaultRhythm";
     private static final String PREF_NEED_RESCAN = "NeedRescan";
+    /**
+     * The number of rhythm files read before the new rhythms are added to the database.
+     */
+    private static final int FILE_BATCH_SIZE = 100;
+    /**
+     * The last modification time resolution of some file systems.
+     */
+    private static final long FILE_TIME_RESOLUTION_MS = 2000;
     private static RhythmDatabaseImpl INSTANCE;
 
     /**
      * Main data structure
      */
     private final HashMap<RhythmProvider, List<RhythmInfo>> mapRpRhythms = new HashMap<>();
+    /**
+     * Secondary indexes on the RhythmInfos of mapRpRhythms, updated when mapRpRhythms is updated.
+     */
+    private final RhythmInfoIndex index = new RhythmInfoIndex();
     /**
      * Save the created Rhythm instances.
      */
@@ -104,19 +130,36 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
      */
     private final HashMap<String, AdaptedRhythm> mapAdaptedRhythms = new HashMap<>();
     /**
-     * The initialization task.
+     * The rhythm files which could not be read, with their [size, lastModified] fingerprint captured before the read attempt.
+     * <p>
+     * Saved in the cache file so that they are not read again until they change.
+     */
+    private final HashMap<File, long[]> unreadableFiles = new HashMap<>();
+    /**
+     * Used to serialize the file reading calls of each RhythmProvider which does not support concurrent reads.
+     */
+    private final ConcurrentHashMap<RhythmProvider, Object> mapRpReadLock = new ConcurrentHashMap<>();
+    /**
+     * The initialization task: builtin rhythms and cached RhythmInfos.
      */
     protected volatile RequestProcessor.Task initTask;
+    /**
+     * True when the background scan of the rhythm files is complete.
+     */
+    private volatile boolean fileScanComplete;
     /**
      * Used to store the default rhythms
      */
     private static Preferences prefs = NbPreferences.forModule(RhythmDatabaseImpl.class);
 
-    private final ArrayList<ChangeListener> listeners = new ArrayList<>();
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
     private static final Logger LOGGER = Logger.getLogger(RhythmDatabaseImpl.class.getSimpleName());
 
     /**
-     * If database is not ready yet (scanning rhythm files) then the call blocks and shows a dialog to inform user we're waiting.
+     * If the initialization task is not complete yet (builtin rhythms and cache file) then the call blocks and shows a dialog to
+     * inform user we're waiting.
+     * <p>
+     * In headless mode the call just blocks. Note that the returned database might still be scanning the rhythm files.
      *
      * @return
      */
@@ -125,7 +168,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
         if (INSTANCE == null || INSTANCE.initTask == null)
         {
             // getInstance() calls should happen after initialization
-            throw new IllegalStateException("INSTANCE=" + INSTANCE + " initTask=" + INSTANCE.initTask);
+            throw new IllegalStateException("INSTANCE=" + INSTANCE + " initTask=" + (INSTANCE == null ? null : INSTANCE.initTask));
         }
 
         // Init is done
@@ -134,6 +177,12 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
             return INSTANCE;
         }
 
+        if (GraphicsEnvironment.isHeadless())
+        {
+            INSTANCE.initTask.waitFinished();
+            return INSTANCE;
+        }
+
         // Show a dialog while waiting for end of the init task
         PleaseWaitDialog dlg = new PleaseWaitDialog(WindowManager.getDefault().getMainWindow());
 
@@ -154,7 +203,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
     }
 
     /**
-     * Create the database and start a background scanning task.
+     * Create the database and start the initialization task, which then starts the background rhythm files scanning task.
      */
     private RhythmDatabaseImpl()
     {
@@ -168,7 +217,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
         ProgressHandle ph = ProgressHandle.createHandle(msg);
         ph.start();
 
-        // Start the task
+        // Start the initialization task
         Runnable run = () -> initDatabase(ph, needRescan);
         initTask = RequestProcessor.getDefault().post(run);
     }
@@ -184,6 +233,14 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
         prefs.putBoolean(PREF_NEED_RESCAN, true);
     }
 
+    /**
+     * The rhythm file is read without holding the database lock. If 2 threads read the same rhythm concurrently, both get the
+     * instance saved first.
+     *
+     * @param ri
+     * @return
+     * @throws UnavailableRhythmException
+     */
     @Override
     public Rhythm getRhythmInstance(RhythmInfo ri) throws UnavailableRhythmException
     {
@@ -192,7 +249,11 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
             throw new IllegalArgumentException("ri=" + ri);
         }
 
-        Rhythm r = mapInfoInstance.get(ri);
+        Rhythm r;
+        synchronized (this)
+        {
+            r = mapInfoInstance.get(ri);
+        }
         if (r != null)
         {
             return r;
@@ -209,7 +270,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
         }
         try
         {
-            r = rp.readFast(ri.getFile());
+            r = readFast(rp, ri.getFile());
         } catch (IOException ex)
         {
             throw new UnavailableRhythmException(ex.getLocalizedMessage());
@@ -220,30 +281,22 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
             throw new UnavailableRhythmException("Inconsistency detected for rhythm " + ri + ". Consider refreshing the rhythm database.");
         }
 
-        // Save the instance
-        mapInfoInstance.put(ri, r);
-
-        return r;
+        // Save the instance, unless another thread did it meanwhile
+        synchronized (this)
+        {
+            Rhythm r2 = mapInfoInstance.putIfAbsent(ri, r);
+            return r2 != null ? r2 : r;
+        }
     }
 
     @Override
-    public RhythmInfo getRhythm(String rhythmId)
+    public synchronized RhythmInfo getRhythm(String rhythmId)
     {
-        for (RhythmProvider rp : mapRpRhythms.keySet())
-        {
-            for (RhythmInfo ri : mapRpRhythms.get(rp))
-            {
-                if (ri.getUniqueId().equals(rhythmId))
-                {
-                    return ri;
-                }
-            }
-        }
-        return null;
+        return index.getRhythm(rhythmId);
     }
 
     @Override
-    public List<RhythmInfo> getRhythms(Predicate<RhythmInfo> tester)
+    public synchronized List<RhythmInfo> getRhythms(Predicate<RhythmInfo> tester)
     {
         if (tester == null)
         {
@@ -264,39 +317,51 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
     }
 
     @Override
-    public List<RhythmInfo> getRhythms(TimeSignature ts)
+    public synchronized List<RhythmInfo> getRhythms(TimeSignature ts)
     {
         if (ts == null)
         {
             throw new NullPointerException("ts=" + ts);
         }
-        return getRhythms(ri -> ri.getTimeSignature().equals(ts));
+        return index.getRhythms(ts);
     }
 
     @Override
     public RhythmInfo getSimilarRhythm(final RhythmInfo ri)
     {
-        int max = -1;
-        RhythmInfo res = null;
-        for (RhythmInfo rii : getRhythms())
+        List<RhythmInfo> res = getSimilarRhythms(ri, 1);
+        return res.isEmpty() ? null : res.get(0);
+    }
+
+    @Override
+    public synchronized List<RhythmInfo> getSimilarRhythms(RhythmInfo ri, int maxSize)
+    {
+        if (ri == null || maxSize < 0)
         {
-            if (!rii.getTimeSignature().equals(ri.getTimeSignature()) || rii == ri)
-            {
-                continue;
-            }
-            int score = ri.getFeatures().getMatchingScore(rii.getFeatures());
-            if (score > max)
-            {
-                max = score;
-                res = rii;
-            }
+            throw new IllegalArgumentException("ri=" + ri + " maxSize=" + maxSize);
         }
-
-        return res;
+        return index.getSimilarRhythms(ri, maxSize);
     }
 
     @Override
     public Rhythm getRhythmInstance(String rId) throws UnavailableRhythmException
+    {
+        // The rhythm might be in a rhythm file not read yet
+        String rIdOriginal = rId;
+        if (rId.contains(AdaptedRhythm.RHYTHM_ID_DELIMITER))
+        {
+            String[] strs = rId.split(AdaptedRhythm.RHYTHM_ID_DELIMITER);
+            rIdOriginal = strs.length == 3 ? strs[1] : null;
+        }
+        if (rIdOriginal != null)
+        {
+            waitForRhythm(rIdOriginal);
+        }
+
+        return getRhythmInstanceImpl(rId);
+    }
+
+    private Rhythm getRhythmInstanceImpl(String rId) throws UnavailableRhythmException
     {
         Rhythm r = null;
         if (rId.contains(AdaptedRhythm.RHYTHM_ID_DELIMITER))
@@ -312,7 +377,10 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
                 try
                 {
                     newTs = TimeSignature.parse(strs[2]);   // Possible ParseException
-                    r = mapAdaptedRhythms.get(getAdaptedRhythmKey(rIdOriginal, newTs));       // Can be null if first time request                   
+                    synchronized (this)
+                    {
+                        r = mapAdaptedRhythms.get(getAdaptedRhythmKey(rIdOriginal, newTs));       // Can be null if first time request                   
+                    }
                 } catch (ParseException ex)
                 {
                     LOGGER.warning("getRhythmInstance() Invalid time signature in AdaptedRhythm rId=" + rId);
@@ -322,7 +390,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
                 // Create the AdaptedRhythm if possible
                 if (r == null && newTs != null)
                 {
-                    Rhythm rOriginal = getRhythmInstance(rIdOriginal);      // Possible exception here                    
+                    Rhythm rOriginal = getRhythmInstanceImpl(rIdOriginal);      // Possible exception here                    
                     RhythmProvider rp = getRhythmProviders().stream().filter(rhp -> rhp.getInfo().getUniqueId().equals(rpId)).findAny().orElse(null);
                     if (rp == null)
                     {
@@ -358,7 +426,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
     }
 
     @Override
-    public List<RhythmInfo> getRhythms(RhythmProvider rp)
+    public synchronized List<RhythmInfo> getRhythms(RhythmProvider rp)
     {
         if (rp == null)
         {
@@ -383,6 +451,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
         String rId = prefs.get(prefName, null);
         if (rId != null)
         {
+            waitForRhythm(rId);
             res = getRhythm(rId);
         }
         if (res != null)
@@ -437,25 +506,13 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
     }
 
     @Override
-    public List<TimeSignature> getTimeSignatures()
+    public synchronized List<TimeSignature> getTimeSignatures()
     {
-        List<TimeSignature> res = new ArrayList<>();
-        for (RhythmProvider rp : mapRpRhythms.keySet())
-        {
-            for (RhythmInfo ri : mapRpRhythms.get(rp))
-            {
-                TimeSignature ts = ri.getTimeSignature();
-                if (!res.contains(ts))
-                {
-                    res.add(ts);
-                }
-            }
-        }
-        return res;
+        return index.getTimeSignatures();
     }
 
     @Override
-    public AdaptedRhythm getAdaptedRhythmInstance(Rhythm r, TimeSignature ts)
+    public synchronized AdaptedRhythm getAdaptedRhythmInstance(Rhythm r, TimeSignature ts)
     {
         if (r == null || ts == null || r.getTimeSignature().equals(ts))
         {
@@ -480,7 +537,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
     }
 
     @Override
-    public RhythmProvider getRhythmProvider(Rhythm r)
+    public synchronized RhythmProvider getRhythmProvider(Rhythm r)
     {
         RhythmProvider resRp = null;
         RhythmInfo ri = getRhythm(r.getUniqueId());
@@ -496,7 +553,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
     }
 
     @Override
-    public RhythmProvider getRhythmProvider(RhythmInfo ri)
+    public synchronized RhythmProvider getRhythmProvider(RhythmInfo ri)
     {
         if (ri == null)
         {
@@ -541,11 +598,14 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
             throw new NullPointerException("pairs");
         }
         int n = 0;
-        for (RpRhythmPair p : pairs)
+        synchronized (this)
         {
-            if (addRhythm(p.rp, p.r))
+            for (RpRhythmPair p : pairs)
             {
-                n++;
+                if (addRhythm(p.rp, p.r))
+                {
+                    n++;
+                }
             }
         }
         if (n > 0)
@@ -562,7 +622,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
     }
 
     @Override
-    public int size()
+    public synchronized int size()
     {
         int size = 0;
         for (RhythmProvider rp : mapRpRhythms.keySet())
@@ -603,47 +663,30 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
     // Private 
     // --------------------------------------------------------------------- 
     /**
-     * Initialization operations.
+     * Initialization operations: add the builtin rhythms and the cached RhythmInfos, then start the rhythm files scanning task.
      *
-     * @param ph Used to monitor progress (already started)
-     * @return True if ok
+     * @param ph         Used to monitor progress (already started)
+     * @param needRescan If true ignore the cache file
      */
     private void initDatabase(ProgressHandle ph, boolean needRescan)
     {
-        File rDir = FileDirectoryManager.getInstance().getUserRhythmDirectory();
         boolean cacheFilePresent = RhythmDbCache.getFile().isFile();
         LOGGER.info("initDatabase() needRescan=" + needRescan + " cacheFilePresent=" + cacheFilePresent);
 
-        String msg1 = "Scanning all rhythms in " + rDir.getAbsolutePath() + "...";
-        String msg2 = "Saving rhythm database cache file...";
 
-        // Perform a scan or use the cache file
-        if (needRescan || !cacheFilePresent)
-        {
-            // Full scan
-
-            // Get all rhythm instances from RhythmProviders
-            ph.progress(msg1);
-            addNewRhythmsFromRhythmProviders(false, false, true);
+        // Builtin rhythms
+        ph.progress("Scanning all built-in rhythms...");
+        addNewRhythmsFromRhythmProviders(false, true, false, null);
 
-            // Build and save cache file
-            ph.progress(msg2);
-            writeCache();
 
-        } else
+        // Reuse cache file to avoid a full scan
+        RhythmDbCache cache = null;
+        if (!needRescan && cacheFilePresent)
         {
-            // Reuse cache file to avoid a full scan
-
-            // Scan only for builtin Rhythms
-            ph.progress("Scanning all built-in rhythms...");
-            addNewRhythmsFromRhythmProviders(false, true, false);
-
-            // Read cache
             try
             {
                 ph.progress("Reading rhythm database cache file...");
-                readCache();
-
+                cache = readCache();        // Null if obsolete cache file format
             } catch (IOException ex)
             {
                 // Notify
@@ -652,31 +695,143 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
                         + "JJazzLab needs to relaunch a full scan of the rhythm files, this may take some time...";
                 NotifyDescriptor d = new NotifyDescriptor.Message(msg, NotifyDescriptor.ERROR_MESSAGE);
                 DialogDisplayer.getDefault().notify(d);
+            }
+        }
 
-                // And start full scan!
-                // Get all rhythm instances from RhythmProviders, don't need built-in since we already have them
-                ph.progress(msg1);
-                addNewRhythmsFromRhythmProviders(true, false, true);
 
-                // Rescan
-                ph.progress(msg2);
+        // Remove the obsolete cached rhythms now: once getInstance() has returned, a RhythmInfo or a Rhythm instance provided by
+        // the database must remain valid
+        LinkedHashMap<RhythmProvider, List<File>> rpFiles = null;
+        int nbCacheChanges = 0;
+        if (cache != null)
+        {
+            ph.progress("Checking rhythm files in " + FileDirectoryManager.getInstance().getUserRhythmDirectory().getAbsolutePath() + "...");
+            rpFiles = new LinkedHashMap<>();
+            nbCacheChanges = removeObsoleteFileRhythms(cache, FileDirectoryManager.getInstance().getUserRhythmDirectory(), rpFiles);
+        }
+
+
+        // Rhythm files are read in the background, database can be used meanwhile
+        final LinkedHashMap<RhythmProvider, List<File>> fRpFiles = rpFiles;
+        final int fNbCacheChanges = nbCacheChanges;
+        RequestProcessor.getDefault().post(() -> scanRhythmFiles(ph, fRpFiles, fNbCacheChanges));
+    }
+
+    /**
+     * Read the rhythm files and add the corresponding rhythms to the database.
+     *
+     * @param ph             Used to monitor progress (already started). Finished when method returns.
+     * @param rpFiles        The new or modified rhythm files to read for each RhythmProvider. If null perform a full scan.
+     * @param nbCacheChanges The number of changes since the cache file was saved, see removeObsoleteFileRhythms()
+     */
+    private void scanRhythmFiles(ProgressHandle ph, LinkedHashMap<RhythmProvider, List<File>> rpFiles, int nbCacheChanges)
+    {
+        File rDir = FileDirectoryManager.getInstance().getUserRhythmDirectory();
+        String msg = "Saving rhythm database cache file...";
+
+        try
+        {
+            if (rpFiles == null)
+            {
+                // Full scan, builtin rhythms are already there
+                ph.progress("Scanning all rhythms in " + rDir.getAbsolutePath() + "...");
+                addNewRhythmsFromRhythmProviders(true, false, true, ph);
+                ph.progress(msg);
                 writeCache();
+            } else
+            {
+                // Read only the new or modified rhythm files
+                ph.progress("Reading new or modified rhythm files in " + rDir.getAbsolutePath() + "...");
+                int nbUnreadables = getNbUnreadableFiles();
+                int nbAdded = addRhythmsFromFiles(rpFiles, ph);
+                int nbNewUnreadables = getNbUnreadableFiles() - nbUnreadables;
+                LOGGER.info("scanRhythmFiles() nbCacheChanges=" + nbCacheChanges + " added=" + nbAdded + " new unreadable=" + nbNewUnreadables);
+                if (nbCacheChanges + nbAdded + nbNewUnreadables > 0)
+                {
+                    ph.progress(msg);
+                    writeCache();
+                }
+            }
+        } finally
+        {
+            // Release the threads waiting for a rhythm
+            synchronized (this)
+            {
+                fileScanComplete = true;
+                notifyAll();
             }
+            ph.finish();
         }
 
-        ph.finish();
-
         logStats();
     }
 
     /**
+     * Wait until the specified rhythm is in the database, or until the rhythm files scan is complete.
+     * <p>
+     * Return immediately if rhythm is already there. If called on the EDT a dialog is shown to inform user we're waiting.
+     *
+     * @param rId
+     */
+    private void waitForRhythm(String rId)
+    {
+        if (fileScanComplete || getRhythm(rId) != null)
+        {
+            return;
+        }
+
+        LOGGER.info("waitForRhythm() rId=" + rId + " not available yet, waiting for rhythm files scan...");
+
+        if (!SwingUtilities.isEventDispatchThread() || GraphicsEnvironment.isHeadless())
+        {
+            awaitRhythm(rId);
+            return;
+        }
+
+        // Show a dialog while waiting, the dialog is hidden from the EDT so that it can't happen before the dialog is shown
+        PleaseWaitDialog dlg = new PleaseWaitDialog(WindowManager.getDefault().getMainWindow());
+        RequestProcessor.Task task = RequestProcessor.getDefault().post(() -> awaitRhythm(rId));
+        task.addTaskListener(t -> SwingUtilities.invokeLater(() ->
+        {
+            dlg.setVisible(false);
+            dlg.dispose();
+        }));
+        if (!task.isFinished())
+        {
+            dlg.setVisible(true);
+        }
+    }
+
+    private synchronized void awaitRhythm(String rId)
+    {
+        while (!fileScanComplete && getRhythm(rId) == null)
+        {
+            try
+            {
+                wait();
+            } catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Add the builtin and/or file-based rhythms of all the RhythmProviders.
+     * <p>
+     * File-based rhythms are obtained with RhythmProvider.getFileRhythms(), which is called in parallel for the different
+     * RhythmProviders. Results are merged in the database in the RhythmProviders order. The fingerprint of a returned rhythm file
+     * is saved only if the file was not modified after getFileRhythms() was called, so that the next incremental update can't miss
+     * a change.
      *
      * @param excludeBuiltinRhythms
      * @param excludeFileRhythms
      * @param forceFileRescan
+     * @param ph                    Used to report progress for each RhythmProvider whose files were scanned. Can be null.
      * @return The number of new rhythms added
      */
-    private int addNewRhythmsFromRhythmProviders(boolean excludeBuiltinRhythms, boolean excludeFileRhythms, boolean forceFileRescan)
+    private int addNewRhythmsFromRhythmProviders(boolean excludeBuiltinRhythms, boolean excludeFileRhythms, boolean forceFileRescan, ProgressHandle ph)
     {
 
         // Get all the available RhythmProviders 
@@ -686,15 +841,93 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
             LOGGER.warning("addNewRhythmsFromRhythmProviders() - no RhythmProvider found, database might be empty");
         }
 
+
+        // Start the file rhythms scan of each RhythmProvider
+        long scanStart = System.currentTimeMillis();
+        List<ForkJoinTask<List<Rhythm>>> fileTasks = new ArrayList<>();
+        List<MultipleErrorsReport> fileErrRpts = new ArrayList<>();
+        ForkJoinPool pool = null;
+        if (!excludeFileRhythms && !rps.isEmpty())
+        {
+            if (ph != null)
+            {
+                ph.switchToDeterminate(rps.size());
+            }
+            final AtomicInteger nbScanned = new AtomicInteger();
+            pool = new ForkJoinPool(Math.min(rps.size(), Runtime.getRuntime().availableProcessors()));
+            for (final RhythmProvider rp : rps)
+            {
+                final MultipleErrorsReport fileErrRpt = new MultipleErrorsReport();
+                fileErrRpts.add(fileErrRpt);
+                fileTasks.add(pool.submit(() ->
+                {
+                    List<Rhythm> res;
+                    synchronized (getReadLock(rp))
+                    {
+                        res = rp.getFileRhythms(forceFileRescan, fileErrRpt);
+                    }
+                    if (ph != null)
+                    {
+                        ph.progress(rp.getInfo().getName(), nbScanned.incrementAndGet());
+                    }
+                    return res;
+                }));
+            }
+        }
+
+
         int n = 0;
-        for (final RhythmProvider rp : rps)
+        try
+        {
+            for (int rpIndex = 0; rpIndex < rps.size(); rpIndex++)
+            {
+                n += addNewRhythmsFromRhythmProvider(rps.get(rpIndex), excludeBuiltinRhythms,
+                        excludeFileRhythms ? null : fileTasks.get(rpIndex),
+                        excludeFileRhythms ? null : fileErrRpts.get(rpIndex),
+                        scanStart);
+            }
+        } finally
         {
+            if (pool != null)
+            {
+                pool.shutdown();
+                if (ph != null)
+                {
+                    ph.switchToIndeterminate();
+                }
+            }
+        }
+
+        LOGGER.info("addNewRhythmsFromRhythmProviders() excludeBuiltinRhythms=" + excludeBuiltinRhythms
+                + " excludeFileRhythms=" + excludeFileRhythms + " forceFileRescan=" + forceFileRescan + ". Added " + n + " rhythms in "
+                + (System.currentTimeMillis() - scanStart) + "ms");
+
+        return n;
+    }
+
+    /**
+     * Add the builtin and/or file-based rhythms of a RhythmProvider.
+     *
+     * @param rp
+     * @param excludeBuiltinRhythms
+     * @param fileTask              The task which returns the file rhythms. If null file rhythms are excluded.
+     * @param fileErrRpt            The error report used by fileTask
+     * @param scanStart             The time before the file rhythms scan was started
+     * @return The number of new rhythms added
+     */
+    private int addNewRhythmsFromRhythmProvider(final RhythmProvider rp, boolean excludeBuiltinRhythms, ForkJoinTask<List<Rhythm>> fileTask,
+            final MultipleErrorsReport fileErrRpt, long scanStart)
+    {
+        int n = 0;
 
-            // First get builtin rhythms         
-            final MultipleErrorsReport builtinErrRpt = new MultipleErrorsReport();
-            if (!excludeBuiltinRhythms)
+        // First get builtin rhythms         
+        final MultipleErrorsReport builtinErrRpt = new MultipleErrorsReport();
+        if (!excludeBuiltinRhythms)
+        {
+            List<Rhythm> builtinRhythms = rp.getBuiltinRhythms(builtinErrRpt);
+            synchronized (this)
             {
-                for (Rhythm r : rp.getBuiltinRhythms(builtinErrRpt))
+                for (Rhythm r : builtinRhythms)
                 {
                     if (addRhythm(rp, r))
                     {
@@ -702,80 +935,266 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
                     }
                 }
             }
+        }
+
+
+        // Notify user of possible errors
+        if (builtinErrRpt.primaryErrorMessage != null)
+        {
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    new MultipleErrorsReportDialog(WindowManager.getDefault().getMainWindow(), "Builtin rhythm creation errors", builtinErrRpt).setVisible(true);
+                }
+            });
+        }
 
 
-            // Notify user of possible errors
-            if (builtinErrRpt.primaryErrorMessage != null)
+        if (fileTask == null)
+        {
+            return n;
+        }
+
+
+        // Add file rhythms
+        List<Rhythm> rhythmsNotBuiltin;
+        try
+        {
+            rhythmsNotBuiltin = fileTask.get();
+        } catch (InterruptedException | ExecutionException ex)
+        {
+            LOGGER.log(Level.WARNING, "addNewRhythmsFromRhythmProvider() rp=" + rp.getInfo().getName(), ex);
+            if (ex instanceof InterruptedException)
+            {
+                Thread.currentThread().interrupt();
+            }
+            rhythmsNotBuiltin = new ArrayList<>();
+            if (fileErrRpt.primaryErrorMessage == null)
             {
-                SwingUtilities.invokeLater(new Runnable()
+                fileErrRpt.primaryErrorMessage = "Unexpected error while scanning the rhythm files: " + ex.getLocalizedMessage();
+            }
+        }
+        int nFile = 0;
+        synchronized (this)
+        {
+            for (Rhythm r : rhythmsNotBuiltin)
+            {
+                long[] stamp = RhythmDbCache.getFileStamp(r.getFile());
+                if (stamp[1] >= scanStart - FILE_TIME_RESOLUTION_MS)
                 {
-                    @Override
-                    public void run()
-                    {
-                        new MultipleErrorsReportDialog(WindowManager.getDefault().getMainWindow(), "Builtin rhythm creation errors", builtinErrRpt).setVisible(true);
-                    }
-                });
+                    stamp = null;       // File might have changed while being read
+                }
+                if (addRhythm(rp, r, stamp))
+                {
+                    nFile++;
+                }
             }
+            notifyAll();
+        }
+        if (nFile > 0)
+        {
+            n += nFile;
+            fireChanged(new ChangeEvent(this));
+        }
 
 
-            // Add file rhythms
-            final MultipleErrorsReport fileErrRpt = new MultipleErrorsReport();
-            if (!excludeFileRhythms)
+        // Notify user of possible errors            
+        if (fileErrRpt.primaryErrorMessage != null)
+        {
+            SwingUtilities.invokeLater(new Runnable()
             {
-                List<Rhythm> rhythmsNotBuiltin = rp.getFileRhythms(forceFileRescan, fileErrRpt);
-                for (Rhythm r : rhythmsNotBuiltin)
+                @Override
+                public void run()
                 {
-                    if (addRhythm(rp, r))
-                    {
-                        n++;
-                    }
+                    new MultipleErrorsReportDialog(WindowManager.getDefault().getMainWindow(), "File-based rhythm creation errors", fileErrRpt).setVisible(true);
                 }
+            });
+        }
+
+
+        return n;
+    }
+
+    /**
+     * Read the rhythm files in parallel and add the resulting rhythms to the database.
+     * <p>
+     * Files are read with RhythmProvider.readFast() using a work-stealing pool with one thread per processor, by batches of
+     * FILE_BATCH_SIZE files. Files of different RhythmProviders are read in parallel. Files of a RhythmProvider which does not
+     * support concurrent reads are read one at a time, see readFast(RhythmProvider, File). The fingerprint of each file is captured
+     * just before it is read and saved with its RhythmInfo, or in unreadableFiles if file could not be read. The results of each
+     * batch are merged in the database in the rpFiles order, so that the database content does not depend on thread scheduling,
+     * then listeners are notified. Errors are notified to user, one report per RhythmProvider.
+     *
+     * @param rpFiles The files to read for each RhythmProvider
+     * @param ph      Used to report progress for each read file. Can be null.
+     * @return The number of new rhythms added
+     */
+    private int addRhythmsFromFiles(LinkedHashMap<RhythmProvider, List<File>> rpFiles, ProgressHandle ph)
+    {
+        List<RhythmProvider> taskRps = new ArrayList<>();
+        List<File> taskFiles = new ArrayList<>();
+        for (RhythmProvider rp : rpFiles.keySet())
+        {
+            for (File f : rpFiles.get(rp))
+            {
+                taskRps.add(rp);
+                taskFiles.add(f);
             }
+        }
+        final int nbFiles = taskFiles.size();
+        if (nbFiles == 0)
+        {
+            return 0;
+        }
+
 
+        // Read files in parallel
+        long start = System.currentTimeMillis();
+        final Rhythm[] rhythms = new Rhythm[nbFiles];
+        final long[][] stamps = new long[nbFiles][];
+        final String[] errors = new String[nbFiles];
+        final AtomicInteger nbRead = new AtomicInteger();
+        if (ph != null)
+        {
+            ph.switchToDeterminate(nbFiles);
+        }
+        List<Callable<Void>> tasks = new ArrayList<>(nbFiles);
+        for (int i = 0; i < nbFiles; i++)
+        {
+            final int index = i;
+            tasks.add(() ->
+            {
+                File f = taskFiles.get(index);
+                stamps[index] = RhythmDbCache.getFileStamp(f);      // Before reading so that a concurrent change can't be missed
+                try
+                {
+                    rhythms[index] = readFast(taskRps.get(index), f);
+                } catch (IOException | RuntimeException ex)
+                {
+                    errors[index] = f.getName() + ": " + ex.getLocalizedMessage();
+                }
+                int n = nbRead.incrementAndGet();
+                if (ph != null)
+                {
+                    ph.progress(f.getName(), n);
+                }
+                return null;
+            });
+        }
 
-            // Notify user of possible errors            
-            if (fileErrRpt.primaryErrorMessage != null)
+        int n = 0;
+        HashMap<RhythmProvider, MultipleErrorsReport> mapRpErrRpt = new HashMap<>();
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try
+        {
+            for (int from = 0; from < nbFiles; from += FILE_BATCH_SIZE)
             {
-                SwingUtilities.invokeLater(new Runnable()
+                int to = Math.min(nbFiles, from + FILE_BATCH_SIZE);
+                pool.invokeAll(tasks.subList(from, to));
+
+
+                // Merge the results of the batch
+                int nBatch = 0;
+                synchronized (this)
                 {
-                    @Override
-                    public void run()
+                    for (int i = from; i < to; i++)
                     {
-                        new MultipleErrorsReportDialog(WindowManager.getDefault().getMainWindow(), "File-based rhythm creation errors", fileErrRpt).setVisible(true);
+                        RhythmProvider rp = taskRps.get(i);
+                        if (rhythms[i] != null)
+                        {
+                            if (addRhythm(rp, rhythms[i], stamps[i]))
+                            {
+                                nBatch++;
+                            }
+                        } else
+                        {
+                            unreadableFiles.put(taskFiles.get(i), stamps[i]);
+                            MultipleErrorsReport errRpt = mapRpErrRpt.computeIfAbsent(rp, k -> new MultipleErrorsReport());
+                            errRpt.individualErrorMessages.add(errors[i] != null ? errors[i] : taskFiles.get(i).getName());
+                        }
                     }
-                });
+                    notifyAll();        // Threads waiting for a rhythm
+                }
+                if (nBatch > 0)
+                {
+                    n += nBatch;
+                    fireChanged(new ChangeEvent(this));
+                }
             }
+        } finally
+        {
+            pool.shutdown();
+        }
+        if (ph != null)
+        {
+            ph.switchToIndeterminate();
+        }
+
 
+        // Notify user of possible errors            
+        for (RhythmProvider rp : mapRpErrRpt.keySet())
+        {
+            final MultipleErrorsReport fileErrRpt = mapRpErrRpt.get(rp);
+            fileErrRpt.primaryErrorMessage = fileErrRpt.individualErrorMessages.size() + " file(s) could not be read";
+            fileErrRpt.secondaryErrorMessage = "Rhythm Provider: " + rp.getInfo().getName();
+            LOGGER.warning("addRhythmsFromFiles() rp=" + rp.getInfo().getName() + " " + fileErrRpt.primaryErrorMessage);
+            SwingUtilities.invokeLater(() -> new MultipleErrorsReportDialog(WindowManager.getDefault().getMainWindow(), "File-based rhythm creation errors", fileErrRpt).setVisible(true));
         }
 
-        LOGGER.info("addNewRhythmsFromRhythmProviders() excludeBuiltinRhythms=" + excludeBuiltinRhythms
-                + " excludeFileRhythms=" + excludeFileRhythms + " forceFileRescan=" + forceFileRescan + ". Added " + n + " rhythms");
+        LOGGER.info("addRhythmsFromFiles() read " + nbFiles + " files in " + (System.currentTimeMillis() - start) + "ms. Added " + n + " rhythms");
 
         return n;
     }
 
+    /**
+     * Get the rhythm files of a RhythmProvider in the user rhythm directory.
+     * <p>
+     * Files are searched in SUBDIR_MAX_DEPTH levels of subdirectories, subdirectories starting with PREFIX_IGNORED_SUBDIR are
+     * ignored.
+     *
+     * @param rp
+     * @param rDir
+     * @return The absolute files, sorted.
+     */
+    private TreeSet<File> listRhythmFiles(RhythmProvider rp, File rDir)
+    {
+        String[] exts = rp.getSupportedFileExtensions();
+        TreeSet<File> res = new TreeSet<>();
+        for (Path p : Utilities.listFiles(rDir, (dir, name) -> hasExtension(name, exts), RhythmProvider.PREFIX_IGNORED_SUBDIR, RhythmProvider.SUBDIR_MAX_DEPTH + 1))
+        {
+            res.add(p.toFile().getAbsoluteFile());
+        }
+        return res;
+    }
+
     /**
      * Build the cache and write it to file.
      */
     private void writeCache()
     {
-        // Buid the cache
-        RhythmDbCache cacheFile = new RhythmDbCache(mapRpRhythms);
+        // Save a snapshot of the data
+        var data = cloneDataMap();
+        HashMap<File, long[]> unreadables;
+        synchronized (this)
+        {
+            unreadables = new HashMap<>(unreadableFiles);
+        }
 
-        // cacheFile.dump();
         // Save to file
         Runnable run = () ->
         {
             File f = RhythmDbCache.getFile();
-            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(f)))
+            try
             {
-                oos.writeObject(cacheFile);
+                int size = RhythmDbCache.write(f, data, unreadables);
                 prefs.putBoolean(PREF_NEED_RESCAN, false);
-                LOGGER.info("writeCache.run() cache file created, size=" + cacheFile.getSize());
+                LOGGER.info("writeCache.run() cache file created, size=" + size);
             } catch (IOException ex)
             {
-                LOGGER.severe("writeCache.run() Can't save cache file=" + RhythmDbCache.getFile().getAbsolutePath() + ". ex=" + ex.getLocalizedMessage());
-                prefs.putBoolean(PREF_NEED_RESCAN, true);
+                // The previous cache file, if any, is unchanged: no need to force a rescan
+                LOGGER.severe("writeCache.run() Can't save cache file=" + f.getAbsolutePath() + ". ex=" + ex.getLocalizedMessage());
             }
         };
 
@@ -787,25 +1206,20 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
     /**
      * Read the cache file and update the database accordingly.
      *
-     * @param cache
-     * @return The number of added RhythmInfo instances
+     * @return The cache read from file. Null if cache file was saved with another format version.
+     * @throws java.io.IOException
      */
-    private void readCache() throws IOException
+    private RhythmDbCache readCache() throws IOException
     {
         // Read the file
         File f = RhythmDbCache.getFile();
-        RhythmDbCache cache = null;
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(f)))
+        RhythmDbCache cache = RhythmDbCache.read(f);
+        if (cache == null)
         {
-            cache = (RhythmDbCache) ois.readObject();
-
-        } catch (ClassNotFoundException ex)
-        {
-            throw new IOException(ex);
+            LOGGER.info("readCache() Cache file " + f.getAbsolutePath() + " has an obsolete format, ignored");
+            return null;
         }
 
-        assert cache != null;
-
         // Process it
         var cacheData = cache.getData();
         var rps = getRhythmProviders();
@@ -826,18 +1240,173 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
             }
 
             // Update state
-            var rpRhythms = mapRpRhythms.get(rp);
-            if (rpRhythms == null)
+            synchronized (this)
             {
-                rpRhythms = new ArrayList<RhythmInfo>();
-                mapRpRhythms.put(rp, rpRhythms);
+                var rpRhythms = mapRpRhythms.get(rp);
+                if (rpRhythms == null)
+                {
+                    rpRhythms = new ArrayList<RhythmInfo>();
+                    mapRpRhythms.put(rp, rpRhythms);
+                }
+                for (RhythmInfo ri : rhythms)
+                {
+                    if (index.add(ri))
+                    {
+                        rpRhythms.add(ri);
+                    }
+                }
             }
-            rpRhythms.addAll(rhythms);
         }
 
         // cache.dump();
         LOGGER.info("readCache() Successfully read rhythm list from cache, size=" + cache.getSize());
 
+        return cache;
+    }
+
+    /**
+     * Compare the rhythm files in the user rhythm directory with the cached file-based rhythms.
+     * <p>
+     * Cached rhythms whose file was removed or modified are removed from the database. Files which could not be read previously
+     * are ignored if they did not change. Must be called before the database is made available.
+     *
+     * @param cache   The cache whose data was just added to the database
+     * @param rDir    The user rhythm directory
+     * @param rpFiles Updated with the new or modified files to read for each RhythmProvider
+     * @return The number of changes: removed RhythmInfo instances plus obsolete unreadable files
+     */
+    private int removeObsoleteFileRhythms(RhythmDbCache cache, File rDir, LinkedHashMap<RhythmProvider, List<File>> rpFiles)
+    {
+        int nbRemoved = 0;
+        int nbUnreadablesKept = 0;
+
+        for (final RhythmProvider rp : getRhythmProviders())
+        {
+            if (rp.getSupportedFileExtensions().length == 0)
+            {
+                continue;
+            }
+
+            // The current rhythm files for this provider
+            TreeSet<File> files = listRhythmFiles(rp, rDir);
+
+            // Remove the obsolete rhythms
+            synchronized (this)
+            {
+                List<RhythmInfo> rhythms = mapRpRhythms.get(rp);
+                if (rhythms != null)
+                {
+                    for (var it = rhythms.iterator(); it.hasNext();)
+                    {
+                        RhythmInfo ri = it.next();
+                        File f = ri.getFile().getAbsoluteFile();
+                        if (ri.getFile().getName().equals("") || ri.isAdaptedRhythm())
+                        {
+                            continue;       // Builtin rhythm
+                        }
+                        if (files.contains(f) && cache.isUpToDate(f))
+                        {
+                            files.remove(f);        // No need to read it
+                        } else
+                        {
+                            it.remove();
+                            index.remove(ri);
+                            mapInfoInstance.remove(ri);
+                            nbRemoved++;
+                        }
+                    }
+                }
+            }
+
+            // Skip the unchanged unreadable files
+            for (var it = files.iterator(); it.hasNext();)
+            {
+                File f = it.next();
+                if (cache.isUnreadable(f))
+                {
+                    it.remove();
+                    synchronized (this)
+                    {
+                        unreadableFiles.put(f, RhythmDbCache.getFileStamp(f));
+                    }
+                    nbUnreadablesKept++;
+                }
+            }
+
+            // Remaining files are new or modified
+            rpFiles.put(rp, new ArrayList<>(files));
+        }
+
+        int nbObsoleteUnreadables = cache.getNbUnreadableFiles() - nbUnreadablesKept;
+
+        LOGGER.info("removeObsoleteFileRhythms() removed=" + nbRemoved + " obsolete unreadable=" + nbObsoleteUnreadables);
+
+        return nbRemoved + nbObsoleteUnreadables;
+    }
+
+    private synchronized int getNbUnreadableFiles()
+    {
+        return unreadableFiles.size();
+    }
+
+    /**
+     * Read a rhythm file with rp.readFast().
+     * <p>
+     * Calls are serialized if rp does not support concurrent reads.
+     *
+     * @param rp
+     * @param f
+     * @return
+     * @throws IOException
+     */
+    private Rhythm readFast(RhythmProvider rp, File f) throws IOException
+    {
+        if (rp.supportsConcurrentRead())
+        {
+            return rp.readFast(f);
+        }
+        synchronized (getReadLock(rp))
+        {
+            return rp.readFast(f);
+        }
+    }
+
+    /**
+     * The lock used to serialize the file reading calls of rp.
+     *
+     * @param rp
+     * @return
+     */
+    private Object getReadLock(RhythmProvider rp)
+    {
+        return mapRpReadLock.computeIfAbsent(rp, k -> new Object());
+    }
+
+    private boolean hasExtension(String fileName, String[] exts)
+    {
+        String name = fileName.toLowerCase();
+        for (String ext : exts)
+        {
+            if (name.endsWith("." + ext))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add to the database one Rhythm from RhythmProvider rp.
+     * <p>
+     * Do nothing if rhythm already exists in the database for this rp.
+     *
+     * @param rp
+     * @param r
+     * @return True if rhythm was added.
+     */
+    private synchronized boolean addRhythm(RhythmProvider rp, Rhythm r)
+    {
+        return addRhythm(rp, r, null);
     }
 
     /**
@@ -847,12 +1416,14 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
      *
      * @param rp
      * @param r
+     * @param fileStamp The fingerprint of the rhythm file captured before it was read. Can be null.
      * @return True if rhythm was added.
      */
-    private boolean addRhythm(RhythmProvider rp, Rhythm r)
+    private synchronized boolean addRhythm(RhythmProvider rp, Rhythm r, long[] fileStamp)
     {
         // Build the RhythmInfo object
-        RhythmInfo ri = new RhythmInfoImpl(r, rp);
+        RhythmInfoImpl ri = new RhythmInfoImpl(r, rp);
+        ri.setFileStamp(fileStamp);
 
         // Update state
         List<RhythmInfo> rhythms = mapRpRhythms.get(rp);
@@ -861,7 +1432,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
             rhythms = new ArrayList<>();
             mapRpRhythms.put(rp, rhythms);
         }
-        if (!rhythms.contains(ri))
+        if (index.add(ri))
         {
             rhythms.add(ri);
             mapInfoInstance.put(ri, r);
@@ -906,7 +1477,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
      *
      * @return
      */
-    private HashMap<RhythmProvider, List<RhythmInfo>> cloneDataMap()
+    private synchronized HashMap<RhythmProvider, List<RhythmInfo>> cloneDataMap()
     {
         HashMap<RhythmProvider, List<RhythmInfo>> res = new HashMap<>();
         for (RhythmProvider rp : mapRpRhythms.keySet())
@@ -923,7 +1494,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
 
     }
 
-    private void logStats()
+    private synchronized void logStats()
     {
         LOGGER.info("logStats() Rythm Database stats - total=" + size());
         for (RhythmProvider rp : mapRpRhythms.keySet())
@@ -22,50 +22,344 @@
  */
 package org.jjazz.rhythm.database;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.Serializable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Objects;
 import java.util.logging.Logger;
 import org.jjazz.filedirectorymanager.FileDirectoryManager;
+import org.jjazz.harmony.TimeSignature;
+import org.jjazz.midi.DrumKit;
+import org.jjazz.midi.Instrument;
+import org.jjazz.midi.keymap.KeyMapGM;
+import org.jjazz.midi.spi.KeyMapProvider;
+import org.jjazz.midi.synths.GM1Bank;
+import org.jjazz.midi.synths.StdSynth;
+import org.jjazz.rhythm.api.Beat;
+import org.jjazz.rhythm.api.Feel;
+import org.jjazz.rhythm.api.Genre;
+import org.jjazz.rhythm.api.Intensity;
+import org.jjazz.rhythm.api.RhythmFeatures;
+import org.jjazz.rhythm.api.RhythmVoice;
+import org.jjazz.rhythm.api.TempoRange;
 import org.jjazz.rhythm.database.api.RhythmInfo;
+import org.jjazz.rhythm.database.api.RhythmParameterInfo;
+import org.jjazz.rhythm.database.api.RhythmVoiceInfo;
 import org.jjazz.rhythm.spi.RhythmProvider;
 
 /**
- * Contains the serializable cached data of the RhythmDatabase.
+ * The cached data of the RhythmDatabase, stored in a compact binary file.
  * <p>
+ * Cache contains only file-based RhythmInfo instances and no AdaptedRhythms. The size and last modification time of each rhythm
+ * file, captured just before the file was read, are also saved so that the database can detect which files need to be read
+ * again. The files which could not be read are saved with their size and last modification time too, so that they are not read
+ * again until they change.
+ * <p>
+ * File format (big endian):<br>
+ * - header: magic, format version, number of strings/records/tag references, offsets of the sections<br>
+ * - string table: offset of each string, then the UTF-8 strings. Each distinct string (names, authors, tags, provider ids, enum
+ * names...) is stored once<br>
+ * - records: one fixed-width record per RhythmInfo, which references the string table<br>
+ * - tags: the string indexes of the tags of all records<br>
+ * - blobs: the RhythmVoiceInfos and RhythmParameterInfos of each record, see BLOB_VERSION<br>
+ * - unreadable files: the string index of the file path, then its size and last modification time.
+ * <p>
+ * The file is read at once in a heap buffer (the file is not kept open or mapped, so that it can be replaced at any time): strings
+ * are decoded only once, and the blob of a RhythmInfo is decoded only when its RhythmVoiceInfos or RhythmParameterInfos are
+ * requested. The blob of a RhythmInfo which was not decoded is written back as is when the cache is saved.
  */
-public class RhythmDbCache implements Serializable
+public class RhythmDbCache
 {
 
-    private static final long serialVersionUID = 2922229276100L;
     private static final String DB_CACHE_FILE = "RhythmDbCache.dat";
+    private static final int MAGIC = 0x4A4A5244;        // "JJRD"
+    /**
+     * Must be increased each time the file format changes.
+     */
+    private static final int FORMAT_VERSION = 3;
+    /**
+     * The first byte of each blob. Must be increased each time the blob format changes.
+     * <p>
+     * Blob format version 1: number of RhythmVoiceInfos, then for each one: name, type, preferred channel, instrument (saveAsString()
+     * and patch name), drum kit (type and key map name). Then number of RhythmParameterInfos, then for each one: display name,
+     * description, class name. Each nullable value is preceded by a boolean.
+     */
+    private static final byte BLOB_VERSION = 1;
+    private static final int HEADER_SIZE = 44;
+    private static final int RECORD_SIZE = 100;
+    private static final int UNREADABLE_FILE_SIZE = 20;
+    private static final int FLAG_ADAPTED_RHYTHM = 1;
+    private static final long[] NO_STAMP = new long[]
+    {
+        -1, -1
+    };
 
-    private HashMap<String, List<RhythmInfo>> data = new HashMap<>();
+    private final HashMap<String, List<RhythmInfo>> data = new HashMap<>();
+    /**
+     * The [size, lastModified] fingerprint of each cached rhythm file, key=absolute file path.
+     */
+    private final HashMap<String, long[]> fileStamps = new HashMap<>();
+    /**
+     * The [size, lastModified] fingerprint of the rhythm files which could not be read, key=absolute file path.
+     */
+    private final HashMap<String, long[]> unreadableFileStamps = new HashMap<>();
     private static final Logger LOGGER = Logger.getLogger(RhythmDbCache.class.getSimpleName());
 
+    private RhythmDbCache()
+    {
+    }
+
     /**
-     * Create the cache object.
+     * Write the file-based RhythmInfos of the database to a cache file.
      * <p>
-     * Cache will contain only file-based RhythmInfo instances and no AdaptedRhythms.
+     * File is first written in a temporary file which then replaces f.
      *
+     * @param f
      * @param map
+     * @param unreadableFiles The rhythm files which could not be read, with their fingerprint captured before the read attempt
+     * @return The number of saved RhythmInfos
+     * @throws IOException
      */
-    public RhythmDbCache(HashMap<RhythmProvider, List<RhythmInfo>> map)
+    static public int write(File f, HashMap<RhythmProvider, List<RhythmInfo>> map, HashMap<File, long[]> unreadableFiles) throws IOException
     {
-        // Copy data : just change RhythmProvider by its id
+        // Collect the records
+        List<RhythmInfo> rhythms = new ArrayList<>();
         for (RhythmProvider rp : map.keySet())
         {
-            var rhythms = new ArrayList<RhythmInfo>();
             map.get(rp).stream()
                     .filter(ri -> !ri.getFile().getName().equals("") && !ri.isAdaptedRhythm())
                     .forEach(ri -> rhythms.add(ri));
-            if (!rhythms.isEmpty())
+        }
+
+        // Build the records, the string table, the tags and the blobs
+        LinkedHashMap<String, Integer> strings = new LinkedHashMap<>();
+        ByteBuffer records = ByteBuffer.allocate(rhythms.size() * RECORD_SIZE);
+        ByteArrayOutputStream tagsBytes = new ByteArrayOutputStream();
+        DataOutputStream tags = new DataOutputStream(tagsBytes);
+        ByteArrayOutputStream blobs = new ByteArrayOutputStream();
+        DataOutputStream blobsOut = new DataOutputStream(blobs);
+        int nbTagRefs = 0;
+        for (RhythmInfo ri : rhythms)
+        {
+            RhythmFeatures rf = ri.getFeatures();
+            File rFile = ri.getFile();
+            long[] stamp = ri instanceof RhythmInfoImpl ? ((RhythmInfoImpl) ri).getFileStamp() : null;
+            if (stamp == null)
+            {
+                stamp = NO_STAMP;       // Will never be up to date
+            }
+            records.putInt(intern(strings, ri.getRhythmProviderId()));
+            records.putInt(intern(strings, ri.getUniqueId()));
+            records.putInt(intern(strings, rFile.getAbsolutePath()));
+            records.putInt(intern(strings, ri.getName()));
+            records.putInt(intern(strings, ri.getDescription()));
+            records.putInt(intern(strings, ri.getVersion()));
+            records.putInt(intern(strings, ri.getAuthor()));
+            records.putInt(intern(strings, ri.getTimeSignature().name()));
+            records.putInt(ri.getPreferredTempo());
+            records.putInt(intern(strings, rf.getFeel().name()));
+            records.putInt(intern(strings, rf.getBeat().name()));
+            records.putInt(intern(strings, rf.getGenre().name()));
+            records.putInt(intern(strings, rf.getIntensity().name()));
+            records.putInt(rf.getTempoRange().getMin());
+            records.putInt(rf.getTempoRange().getMax());
+            records.putInt(intern(strings, rf.getTempoRange().getName()));
+            String[] riTags = ri.getTags();
+            records.putInt(nbTagRefs);
+            records.putInt(riTags == null ? -1 : riTags.length);
+            if (riTags != null)
+            {
+                for (String tag : riTags)
+                {
+                    tags.writeInt(intern(strings, tag));
+                    nbTagRefs++;
+                }
+            }
+            records.putInt(ri.isAdaptedRhythm() ? FLAG_ADAPTED_RHYTHM : 0);
+            int blobOffset = blobs.size();
+            RhythmInfoImpl.InfosLoader loader = ri instanceof RhythmInfoImpl ? ((RhythmInfoImpl) ri).getInfosLoader() : null;
+            if (loader instanceof BlobLoader)
+            {
+                blobsOut.write(((BlobLoader) loader).getBlob());       // Not decoded, no need to encode it again
+            } else
+            {
+                writeBlob(blobsOut, ri.getRhythmVoiceInfos(), ri.getRhythmParametersInfos());
+            }
+            records.putInt(blobOffset);
+            records.putInt(blobs.size() - blobOffset);
+            records.putLong(stamp[0]);
+            records.putLong(stamp[1]);
+        }
+
+        // The unreadable files
+        ByteBuffer unreadables = ByteBuffer.allocate(unreadableFiles.size() * UNREADABLE_FILE_SIZE);
+        for (File uFile : unreadableFiles.keySet())
+        {
+            long[] stamp = unreadableFiles.get(uFile);
+            unreadables.putInt(intern(strings, uFile.getAbsolutePath()));
+            unreadables.putLong(stamp[0]);
+            unreadables.putLong(stamp[1]);
+        }
+
+        // Encode the string table
+        List<byte[]> stringBytes = new ArrayList<>(strings.size());
+        int stringsSize = 4 * strings.size();
+        for (String s : strings.keySet())
+        {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            stringBytes.add(bytes);
+            stringsSize += 4 + bytes.length;
+        }
+
+        // Assemble the file
+        int stringsOffset = HEADER_SIZE;
+        int recordsOffset = stringsOffset + stringsSize;
+        int tagsOffset = recordsOffset + records.capacity();
+        int blobsOffset = tagsOffset + tagsBytes.size();
+        int unreadablesOffset = blobsOffset + blobs.size();
+        ByteBuffer buf = ByteBuffer.allocate(unreadablesOffset + unreadables.capacity());
+        buf.putInt(MAGIC);
+        buf.putInt(FORMAT_VERSION);
+        buf.putInt(strings.size());
+        buf.putInt(rhythms.size());
+        buf.putInt(nbTagRefs);
+        buf.putInt(stringsOffset);
+        buf.putInt(recordsOffset);
+        buf.putInt(tagsOffset);
+        buf.putInt(blobsOffset);
+        buf.putInt(unreadableFiles.size());
+        buf.putInt(unreadablesOffset);
+        int stringOffset = 4 * strings.size();
+        for (byte[] bytes : stringBytes)
+        {
+            buf.putInt(stringOffset);
+            stringOffset += 4 + bytes.length;
+        }
+        for (byte[] bytes : stringBytes)
+        {
+            buf.putInt(bytes.length);
+            buf.put(bytes);
+        }
+        buf.put(records.array());
+        buf.put(tagsBytes.toByteArray());
+        buf.put(blobs.toByteArray());
+        buf.put(unreadables.array());
+        assert !buf.hasRemaining() : "buf=" + buf;
+
+        // Write the temporary file then replace the cache file
+        File tmpFile = new File(f.getAbsolutePath() + ".tmp");
+        Files.write(tmpFile.toPath(), buf.array());
+        Files.move(tmpFile.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        return rhythms.size();
+    }
+
+    /**
+     * Read a cache file.
+     *
+     * @param f
+     * @return Null if f was not written with the current cache file format version.
+     * @throws IOException If file is corrupted
+     */
+    static public RhythmDbCache read(File f) throws IOException
+    {
+        // Don't map the file: a mapped file can't be replaced on some OS (e.g. Windows) as long as the mapping is alive
+        byte[] bytes = Files.readAllBytes(f.toPath());
+        if (bytes.length < HEADER_SIZE)
+        {
+            return null;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != FORMAT_VERSION)
+        {
+            return null;
+        }
+
+        RhythmDbCache res = new RhythmDbCache();
+        try
+        {
+            int nbStrings = buf.getInt(8);
+            int nbRecords = buf.getInt(12);
+            int stringsOffset = buf.getInt(20);
+            int recordsOffset = buf.getInt(24);
+            int tagsOffset = buf.getInt(28);
+            int blobsOffset = buf.getInt(32);
+            int nbUnreadables = buf.getInt(36);
+            int unreadablesOffset = buf.getInt(40);
+            StringTable strings = new StringTable(buf, stringsOffset, nbStrings);
+
+            for (int i = 0; i < nbRecords; i++)
             {
-                data.put(rp.getInfo().getUniqueId(), rhythms);
+                int r = recordsOffset + i * RECORD_SIZE;
+                String rpId = strings.get(buf.getInt(r));
+                String uniqueId = strings.get(buf.getInt(r + 4));
+                File file = new File(strings.get(buf.getInt(r + 8)));
+                String name = strings.get(buf.getInt(r + 12));
+                String description = strings.get(buf.getInt(r + 16));
+                String version = strings.get(buf.getInt(r + 20));
+                String author = strings.get(buf.getInt(r + 24));
+                TimeSignature ts = TimeSignature.valueOf(strings.get(buf.getInt(r + 28)));
+                int preferredTempo = buf.getInt(r + 32);
+                Feel feel = Feel.valueOf(strings.get(buf.getInt(r + 36)));
+                Beat beat = Beat.valueOf(strings.get(buf.getInt(r + 40)));
+                Genre genre = Genre.valueOf(strings.get(buf.getInt(r + 44)));
+                Intensity intensity = Intensity.valueOf(strings.get(buf.getInt(r + 48)));
+                TempoRange tempoRange = new TempoRange(buf.getInt(r + 52), buf.getInt(r + 56), strings.get(buf.getInt(r + 60)));
+                int tagsStart = buf.getInt(r + 64);
+                int tagsCount = buf.getInt(r + 68);
+                String[] tags = null;
+                if (tagsCount >= 0)
+                {
+                    tags = new String[tagsCount];
+                    for (int j = 0; j < tagsCount; j++)
+                    {
+                        tags[j] = strings.get(buf.getInt(tagsOffset + 4 * (tagsStart + j)));
+                    }
+                }
+                boolean isAdapted = (buf.getInt(r + 72) & FLAG_ADAPTED_RHYTHM) != 0;
+                int blobOffset = blobsOffset + buf.getInt(r + 76);
+                int blobLength = buf.getInt(r + 80);
+                long[] stamp = new long[]
+                {
+                    buf.getLong(r + 84), buf.getLong(r + 92)
+                };
+
+                RhythmFeatures rf = new RhythmFeatures(feel, beat, genre, tempoRange, intensity);
+                RhythmInfo ri = new RhythmInfoImpl(rpId, uniqueId, file, name, tags, description, version, author, ts, preferredTempo, rf, isAdapted,
+                        Arrays.equals(stamp, NO_STAMP) ? null : stamp,
+                        new BlobLoader(buf, blobOffset, blobLength));
+
+                res.data.computeIfAbsent(rpId, k -> new ArrayList<>()).add(ri);
+                res.fileStamps.put(file.getAbsolutePath(), stamp);
+            }
+
+            for (int i = 0; i < nbUnreadables; i++)
+            {
+                int u = unreadablesOffset + i * UNREADABLE_FILE_SIZE;
+                String path = strings.get(buf.getInt(u));
+                res.unreadableFileStamps.put(Objects.requireNonNull(path), new long[]
+                {
+                    buf.getLong(u + 4), buf.getLong(u + 12)
+                });
             }
+        } catch (IndexOutOfBoundsException | IllegalArgumentException | NullPointerException ex)
+        {
+            throw new IOException("Corrupted cache file " + f.getAbsolutePath() + ": " + ex);
         }
+
+        return res;
     }
 
     /**
@@ -80,6 +374,40 @@ public class RhythmDbCache implements Serializable
         return data;
     }
 
+    /**
+     * Check if the file has not changed since the cache was created.
+     *
+     * @param f
+     * @return True if f size and last modification time are the same than when the cache was created.
+     */
+    public boolean isUpToDate(File f)
+    {
+        long[] stamp = fileStamps.get(f.getAbsolutePath());
+        return stamp != null && Arrays.equals(stamp, getFileStamp(f));
+    }
+
+    /**
+     * Check if the file could not be read when the cache was created, and has not changed since.
+     *
+     * @param f
+     * @return True if f is a known unreadable file with the same size and last modification time.
+     */
+    public boolean isUnreadable(File f)
+    {
+        long[] stamp = unreadableFileStamps.get(f.getAbsolutePath());
+        return stamp != null && Arrays.equals(stamp, getFileStamp(f));
+    }
+
+    /**
+     * The number of unreadable files saved in the cache.
+     *
+     * @return
+     */
+    public int getNbUnreadableFiles()
+    {
+        return unreadableFileStamps.size();
+    }
+
     public void dump()
     {
         LOGGER.info("dump():");
@@ -114,8 +442,266 @@ public class RhythmDbCache implements Serializable
         return new File(dir, DB_CACHE_FILE);
     }
 
+    /**
+     * Get the fingerprint of a file.
+     * <p>
+     * To be reliable the fingerprint of a rhythm file must be captured before the file is read.
+     *
+     * @param f
+     * @return [size, lastModified]. Both values are 0 if file does not exist.
+     */
+    static public long[] getFileStamp(File f)
+    {
+        return new long[]
+        {
+            f.length(), f.lastModified()
+        };
+    }
+
     // =========================================================================
     // Private methods
     // =========================================================================   
+    /**
+     * Get the string table index of s, add s if required.
+     *
+     * @param strings
+     * @param s
+     * @return -1 if s is null
+     */
+    static private int intern(LinkedHashMap<String, Integer> strings, String s)
+    {
+        if (s == null)
+        {
+            return -1;
+        }
+        Integer index = strings.get(s);
+        if (index == null)
+        {
+            index = strings.size();
+            strings.put(s, index);
+        }
+        return index;
+    }
+
+    /**
+     * Encode RhythmVoiceInfos and RhythmParameterInfos using the BLOB_VERSION format.
+     *
+     * @param out
+     * @param rvInfos
+     * @param rpInfos
+     * @throws IOException
+     */
+    static private void writeBlob(DataOutputStream out, List<RhythmVoiceInfo> rvInfos, List<RhythmParameterInfo> rpInfos) throws IOException
+    {
+        out.writeByte(BLOB_VERSION);
+        out.writeInt(rvInfos.size());
+        for (RhythmVoiceInfo rvi : rvInfos)
+        {
+            out.writeUTF(rvi.getName());
+            out.writeUTF(rvi.getType().name());
+            out.writeInt(rvi.getPreferredChannel());
+            Instrument ins = rvi.getPreferredInstrument();
+            out.writeBoolean(ins != null);
+            if (ins != null)
+            {
+                writeNullableString(out, ins.getBank() != null && ins.getBank().getMidiSynth() != null ? ins.saveAsString() : null);
+                out.writeUTF(ins.getPatchName());
+            }
+            DrumKit kit = rvi.getDrumKit();
+            out.writeBoolean(kit != null);
+            if (kit != null)
+            {
+                out.writeUTF(kit.getType().name());
+                out.writeUTF(kit.getKeyMap().getName());
+            }
+        }
+        out.writeInt(rpInfos.size());
+        for (RhythmParameterInfo rpi : rpInfos)
+        {
+            out.writeUTF(rpi.getDisplayName());
+            writeNullableString(out, rpi.getDescription());
+            out.writeUTF(rpi.className());
+        }
+    }
+
+    /**
+     * Decode a blob written by writeBlob().
+     *
+     * @param blob
+     * @param rvInfos
+     * @param rpInfos
+     * @throws IOException If blob format version is not supported or blob is corrupted
+     */
+    static private void readBlob(byte[] blob, List<RhythmVoiceInfo> rvInfos, List<RhythmParameterInfo> rpInfos) throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(blob)))
+        {
+            byte version = in.readByte();
+            if (version != BLOB_VERSION)
+            {
+                throw new IOException("Unsupported blob format version=" + version);
+            }
+            int nbRvs = in.readInt();
+            for (int i = 0; i < nbRvs; i++)
+            {
+                String name = in.readUTF();
+                RhythmVoice.Type type = RhythmVoice.Type.valueOf(in.readUTF());
+                int channel = in.readInt();
+                Instrument ins = null;
+                if (in.readBoolean())
+                {
+                    ins = readInstrument(readNullableString(in), in.readUTF());
+                }
+                DrumKit kit = null;
+                if (in.readBoolean())
+                {
+                    kit = readDrumKit(DrumKit.Type.valueOf(in.readUTF()), in.readUTF());
+                }
+                rvInfos.add(new RhythmVoiceInfo(name, ins, channel, kit, type));
+            }
+            int nbRps = in.readInt();
+            for (int i = 0; i < nbRps; i++)
+            {
+                String displayName = in.readUTF();
+                String description = readNullableString(in);
+                String className = in.readUTF();
+                rpInfos.add(new RhythmParameterInfo(displayName, description, className));
+            }
+        } catch (IllegalArgumentException ex)
+        {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Retrieve an instrument, same as the Instrument serialization proxy.
+     *
+     * @param saveString Can be null
+     * @param patchName
+     * @return
+     */
+    static private Instrument readInstrument(String saveString, String patchName)
+    {
+        Instrument ins = saveString == null ? null : Instrument.loadFromString(saveString);
+        if (ins == null)
+        {
+            GM1Bank gm1Bank = StdSynth.getInstance().getGM1Bank();
+            ins = gm1Bank.guessInstrument(patchName.trim());
+            if (ins == null)
+            {
+                ins = gm1Bank.getInstrument(0);
+            }
+            LOGGER.warning("readInstrument() Can not retrieve Instrument from string=" + saveString + ", using instead GM1 Instrument=" + ins.getPatchName());
+        }
+        return ins;
+    }
+
+    /**
+     * Retrieve a drum kit, same as the DrumKit serialization proxy.
+     *
+     * @param type
+     * @param keyMapName
+     * @return
+     */
+    static private DrumKit readDrumKit(DrumKit.Type type, String keyMapName)
+    {
+        DrumKit.KeyMap map = KeyMapProvider.Util.getKeyMap(keyMapName);
+        if (map == null)
+        {
+            map = KeyMapGM.getInstance();
+            LOGGER.warning("readDrumKit() Can't find KeyMap from name=" + keyMapName + ". Using GM keymap instead.");
+        }
+        return new DrumKit(type, map);
+    }
+
+    static private void writeNullableString(DataOutputStream out, String s) throws IOException
+    {
+        out.writeBoolean(s != null);
+        if (s != null)
+        {
+            out.writeUTF(s);
+        }
+    }
+
+    static private String readNullableString(DataInputStream in) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    // =========================================================================
+    // Private classes
+    // =========================================================================   
+    /**
+     * Decode the blob of a RhythmInfo from the cache file buffer.
+     */
+    static private class BlobLoader implements RhythmInfoImpl.InfosLoader
+    {
+
+        private final ByteBuffer buf;
+        private final int offset;
+        private final int length;
+
+        BlobLoader(ByteBuffer buf, int offset, int length)
+        {
+            this.buf = buf;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * @return A copy of the encoded blob.
+         */
+        byte[] getBlob()
+        {
+            byte[] bytes = new byte[length];
+            buf.duplicate().position(offset).get(bytes);
+            return bytes;
+        }
+
+        @Override
+        public void load(List<RhythmVoiceInfo> rvInfos, List<RhythmParameterInfo> rpInfos) throws IOException
+        {
+            readBlob(getBlob(), rvInfos, rpInfos);
+        }
+    }
+
+    /**
+     * The strings of the cache file, decoded on demand.
+     */
+    static private class StringTable
+    {
 
+        private final ByteBuffer buf;
+        private final int offset;
+        private final String[] strings;
+
+        StringTable(ByteBuffer buf, int offset, int size)
+        {
+            this.buf = buf;
+            this.offset = offset;
+            this.strings = new String[size];
+        }
+
+        /**
+         * @param index
+         * @return Null if index is -1
+         */
+        String get(int index)
+        {
+            if (index == -1)
+            {
+                return null;
+            }
+            String s = strings[index];
+            if (s == null)
+            {
+                int pos = offset + buf.getInt(offset + 4 * index);
+                byte[] bytes = new byte[buf.getInt(pos)];
+                buf.duplicate().position(pos + 4).get(bytes);
+                s = new String(bytes, StandardCharsets.UTF_8);
+                strings[index] = s;
+            }
+            return s;
+        }
+    }
 }
@@ -23,6 +23,8 @@
 package org.jjazz.rhythm.database;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -57,15 +59,63 @@ public class RhythmInfoImpl implements RhythmInfo, Serializable
     private int preferredTempo;
     private RhythmFeatures rhythmFeatures;
     private boolean isAdaptedRhythm;
+    /**
+     * The [size, lastModified] fingerprint of the rhythm file captured just before the file was read. Null if unknown.
+     */
+    private long[] fileStamp;
     private final List<RhythmVoiceInfo> cacheRvs = new ArrayList<>();
     private final List<RhythmParameterInfo> cacheRps = new ArrayList<>();
+    /**
+     * If non null cacheRvs and cacheRps must be loaded using this object.
+     */
+    private transient InfosLoader infosLoader;
     private static final Logger LOGGER = Logger.getLogger(RhythmInfoImpl.class.getSimpleName());
 
+    /**
+     * Load the RhythmVoiceInfos and RhythmParameterInfos on demand.
+     */
+    interface InfosLoader
+    {
+
+        void load(List<RhythmVoiceInfo> rvInfos, List<RhythmParameterInfo> rpInfos) throws IOException;
+    }
+
     private RhythmInfoImpl()
     {
 
     }
 
+    /**
+     * Constructs a RhythmInfo from cached data.
+     *
+     * @param fileStamp   The cached fingerprint of the rhythm file, can be null
+     * @param infosLoader Used to load the RhythmVoiceInfos and RhythmParameterInfos the first time they are needed.
+     */
+    RhythmInfoImpl(String rhythmProviderId, String rhythmUniqueId, File file, String name, String[] tags, String description, String version, String author,
+            TimeSignature timeSignature, int preferredTempo, RhythmFeatures rhythmFeatures, boolean isAdaptedRhythm, long[] fileStamp, InfosLoader infosLoader)
+    {
+        if (rhythmProviderId == null || rhythmUniqueId == null || file == null || name == null || timeSignature == null || rhythmFeatures == null
+                || infosLoader == null)
+        {
+            throw new IllegalArgumentException("rhythmProviderId=" + rhythmProviderId + " rhythmUniqueId=" + rhythmUniqueId + " file=" + file + " name=" + name
+                    + " timeSignature=" + timeSignature + " rhythmFeatures=" + rhythmFeatures + " infosLoader=" + infosLoader);
+        }
+        this.rhythmProviderId = rhythmProviderId;
+        this.rhythmUniqueId = rhythmUniqueId;
+        this.file = file;
+        this.name = name;
+        this.tags = tags;
+        this.description = description;
+        this.version = version;
+        this.author = author;
+        this.timeSignature = timeSignature;
+        this.preferredTempo = preferredTempo;
+        this.rhythmFeatures = rhythmFeatures;
+        this.isAdaptedRhythm = isAdaptedRhythm;
+        this.fileStamp = fileStamp;
+        this.infosLoader = infosLoader;
+    }
+
     /**
      * Constructs a RhythmInfo from an existing rhythm.
      *
@@ -146,12 +196,14 @@ public class RhythmInfoImpl implements RhythmInfo, Serializable
     @Override
     public List<RhythmVoiceInfo> getRhythmVoiceInfos()
     {
+        loadInfos();
         return new ArrayList<>(cacheRvs);
     }
 
     @Override
     public List<RhythmParameterInfo> getRhythmParametersInfos()
     {
+        loadInfos();
         return new ArrayList<>(cacheRps);
     }
 
@@ -228,6 +280,37 @@ public class RhythmInfoImpl implements RhythmInfo, Serializable
         return isAdaptedRhythm;
     }
 
+    /**
+     * The fingerprint of the rhythm file when it was read.
+     *
+     * @return [size, lastModified]. Null if unknown.
+     * @see RhythmDbCache#getFileStamp(java.io.File)
+     */
+    long[] getFileStamp()
+    {
+        return fileStamp;
+    }
+
+    /**
+     * The object used to load the RhythmVoiceInfos and RhythmParameterInfos.
+     *
+     * @return Null if the RhythmVoiceInfos and RhythmParameterInfos are already loaded.
+     */
+    synchronized InfosLoader getInfosLoader()
+    {
+        return infosLoader;
+    }
+
+    /**
+     * Set the fingerprint of the rhythm file.
+     *
+     * @param stamp Must be captured before the file is read. Can be null if unknown.
+     */
+    void setFileStamp(long[] stamp)
+    {
+        this.fileStamp = stamp;
+    }
+
     @Override
     public String toString()
     {
@@ -251,8 +334,7 @@ public class RhythmInfoImpl implements RhythmInfo, Serializable
         hash = 83 * hash + this.preferredTempo;
         hash = 83 * hash + Objects.hashCode(this.rhythmFeatures);
         hash = 83 * hash + (this.isAdaptedRhythm ? 1 : 0);
-        hash = 83 * hash + Objects.hashCode(this.cacheRvs);
-        hash = 83 * hash + Objects.hashCode(this.cacheRps);
+        // cacheRvs and cacheRps are not used, see equals(). fileStamp is not a rhythm property.
         return hash;
     }
 
@@ -320,19 +402,38 @@ public class RhythmInfoImpl implements RhythmInfo, Serializable
         {
             return false;
         }
-        if (!Objects.equals(this.cacheRvs, other.cacheRvs))
-        {
-            return false;
-        }
-        if (!Objects.equals(this.cacheRps, other.cacheRps))
-        {
-            return false;
-        }
+        // cacheRvs and cacheRps are not used, loading them would defeat the lazy loading
         return true;
     }
 
     // ===========================================================================================
     // Private methods
     // ===========================================================================================
+    /**
+     * Load cacheRvs and cacheRps if not done yet.
+     */
+    private synchronized void loadInfos()
+    {
+        if (infosLoader == null)
+        {
+            return;
+        }
+        try
+        {
+            infosLoader.load(cacheRvs, cacheRps);
+        } catch (IOException ex)
+        {
+            cacheRvs.clear();
+            cacheRps.clear();
+            LOGGER.warning("loadInfos() Can't load rhythm voices and parameters for " + this + " from cache. ex=" + ex.getLocalizedMessage());
+        }
+        infosLoader = null;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        loadInfos();
+        out.defaultWriteObject();
+    }
 
 }
@@ -0,0 +1,301 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.rhythm.database;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import org.jjazz.harmony.TimeSignature;
+import org.jjazz.rhythm.api.Beat;
+import org.jjazz.rhythm.api.Feel;
+import org.jjazz.rhythm.api.Genre;
+import org.jjazz.rhythm.api.Intensity;
+import org.jjazz.rhythm.api.RhythmFeatures;
+import org.jjazz.rhythm.database.api.RhythmInfo;
+
+/**
+ * Secondary indexes of the RhythmDatabase RhythmInfos.
+ * <p>
+ * - a hash index on the rhythm unique id<br>
+ * - RhythmInfos per TimeSignature<br>
+ * - for each TimeSignature, RhythmInfos per Genre/Feel/Beat combination, used to find the most similar rhythms without scoring
+ * all the rhythms.<p>
+ * Lists are kept in insertion order. This class is not thread-safe.
+ */
+class RhythmInfoIndex
+{
+
+    /**
+     * The insertion sequence number of each RhythmInfo, used as tie-breaker for similarity queries.
+     */
+    private final HashMap<RhythmInfo, Integer> mapRhythmSeq = new HashMap<>();
+    /**
+     * Key=rhythm unique id. If several RhythmInfos share the same id, the first added one is used.
+     */
+    private final HashMap<String, RhythmInfo> mapIdRhythm = new HashMap<>();
+    private final LinkedHashMap<TimeSignature, List<RhythmInfo>> mapTsRhythms = new LinkedHashMap<>();
+    private final HashMap<TimeSignature, HashMap<Integer, Bucket>> mapTsBuckets = new HashMap<>();
+    private int seq;
+
+    /**
+     * Add a RhythmInfo to the indexes.
+     *
+     * @param ri
+     * @return False if ri was already indexed
+     */
+    public boolean add(RhythmInfo ri)
+    {
+        if (mapRhythmSeq.putIfAbsent(ri, seq) != null)
+        {
+            return false;
+        }
+        seq++;
+        mapIdRhythm.putIfAbsent(ri.getUniqueId(), ri);
+        mapTsRhythms.computeIfAbsent(ri.getTimeSignature(), ts -> new ArrayList<>()).add(ri);
+        RhythmFeatures rf = ri.getFeatures();
+        mapTsBuckets.computeIfAbsent(ri.getTimeSignature(), ts -> new HashMap<>())
+                .computeIfAbsent(getBucketKey(rf), k -> new Bucket(rf.getGenre(), rf.getFeel(), rf.getBeat()))
+                .rhythms.add(ri);
+        return true;
+    }
+
+    /**
+     * Remove a RhythmInfo from the indexes.
+     *
+     * @param ri
+     * @return False if ri was not indexed
+     */
+    public boolean remove(RhythmInfo ri)
+    {
+        if (mapRhythmSeq.remove(ri) == null)
+        {
+            return false;
+        }
+
+        TimeSignature ts = ri.getTimeSignature();
+        List<RhythmInfo> tsRhythms = mapTsRhythms.get(ts);
+        tsRhythms.remove(ri);
+        if (tsRhythms.isEmpty())
+        {
+            mapTsRhythms.remove(ts);
+        }
+
+        var buckets = mapTsBuckets.get(ts);
+        int key = getBucketKey(ri.getFeatures());
+        Bucket bucket = buckets.get(key);
+        bucket.rhythms.remove(ri);
+        if (bucket.rhythms.isEmpty())
+        {
+            buckets.remove(key);
+        }
+
+        if (mapIdRhythm.get(ri.getUniqueId()) == ri)
+        {
+            // Use the first added RhythmInfo with the same id, if any (rare)
+            mapIdRhythm.remove(ri.getUniqueId());
+            int firstSeq = Integer.MAX_VALUE;
+            for (var entry : mapRhythmSeq.entrySet())
+            {
+                if (entry.getValue() < firstSeq && entry.getKey().getUniqueId().equals(ri.getUniqueId()))
+                {
+                    firstSeq = entry.getValue();
+                    mapIdRhythm.put(ri.getUniqueId(), entry.getKey());
+                }
+            }
+        }
+        return true;
+    }
+
+    public boolean contains(RhythmInfo ri)
+    {
+        return mapRhythmSeq.containsKey(ri);
+    }
+
+    /**
+     * @param rId
+     * @return Can be null
+     */
+    public RhythmInfo getRhythm(String rId)
+    {
+        return mapIdRhythm.get(rId);
+    }
+
+    /**
+     * @param ts
+     * @return A new list, possibly empty.
+     */
+    public List<RhythmInfo> getRhythms(TimeSignature ts)
+    {
+        List<RhythmInfo> res = mapTsRhythms.get(ts);
+        return res == null ? new ArrayList<>() : new ArrayList<>(res);
+    }
+
+    /**
+     * @return The TimeSignatures used by at least one RhythmInfo.
+     */
+    public List<TimeSignature> getTimeSignatures()
+    {
+        return new ArrayList<>(mapTsRhythms.keySet());
+    }
+
+    /**
+     * Get the RhythmInfos with the same TimeSignature which have the highest RhythmFeatures.getMatchingScore() with ri.
+     * <p>
+     * Genre/Feel/Beat buckets are visited by decreasing maximum possible score. The search stops once no remaining bucket can
+     * provide a better score than the maxSize-th best score found. Equal scores are ordered by insertion order.
+     *
+     * @param ri
+     * @param maxSize The max number of returned RhythmInfos
+     * @return The RhythmInfos ordered by decreasing score. ri itself is excluded.
+     */
+    public List<RhythmInfo> getSimilarRhythms(RhythmInfo ri, int maxSize)
+    {
+        List<RhythmInfo> res = new ArrayList<>();
+        var buckets = mapTsBuckets.get(ri.getTimeSignature());
+        if (buckets == null || maxSize <= 0)
+        {
+            return res;
+        }
+
+        // Order buckets by decreasing max score
+        RhythmFeatures rf = ri.getFeatures();
+        IdentityHashMap<Bucket, Integer> mapBucketMaxScore = new IdentityHashMap<>();
+        for (Bucket bucket : buckets.values())
+        {
+            mapBucketMaxScore.put(bucket, bucket.getMaxScore(rf));
+        }
+        List<Bucket> sortedBuckets = new ArrayList<>(mapBucketMaxScore.keySet());
+        sortedBuckets.sort((b1, b2) -> Integer.compare(mapBucketMaxScore.get(b2), mapBucketMaxScore.get(b1)));
+
+
+        List<Integer> scores = new ArrayList<>();
+        for (Bucket bucket : sortedBuckets)
+        {
+            if (res.size() == maxSize && mapBucketMaxScore.get(bucket) < scores.get(maxSize - 1))
+            {
+                break;
+            }
+
+            for (RhythmInfo rii : bucket.rhythms)
+            {
+                if (rii == ri)
+                {
+                    continue;
+                }
+                int score = rf.getMatchingScore(rii.getFeatures());
+                insert(res, scores, rii, score, maxSize);
+            }
+        }
+
+        return res;
+    }
+
+    // ===================================================================================
+    // Private methods
+    // ===================================================================================
+    /**
+     * Insert rii in the sorted result lists if its score is good enough.
+     */
+    private void insert(List<RhythmInfo> res, List<Integer> scores, RhythmInfo rii, int score, int maxSize)
+    {
+        int riiSeq = mapRhythmSeq.get(rii);
+        int index = res.size();
+        while (index > 0 && (scores.get(index - 1) < score
+                || (scores.get(index - 1) == score && mapRhythmSeq.get(res.get(index - 1)) > riiSeq)))
+        {
+            index--;
+        }
+        if (index < maxSize)
+        {
+            res.add(index, rii);
+            scores.add(index, score);
+            if (res.size() > maxSize)
+            {
+                res.remove(maxSize);
+                scores.remove(maxSize);
+            }
+        }
+    }
+
+    private int getBucketKey(RhythmFeatures rf)
+    {
+        return (rf.getGenre().ordinal() * Feel.values().length + rf.getFeel().ordinal()) * Beat.values().length + rf.getBeat().ordinal();
+    }
+
+    /**
+     * The score contribution of one feature, see RhythmFeatures.getMatchingScore().
+     */
+    static private int getFeatureScore(Enum<?> v1, Enum<?> v2, Enum<?> unknown, int matchScore)
+    {
+        if (v1 == unknown && v2 == unknown)
+        {
+            return 0;
+        } else if (v1 == unknown || v2 == unknown)
+        {
+            return 10;
+        }
+        return v1 == v2 ? matchScore : 0;
+    }
+
+    // ===================================================================================
+    // Private classes
+    // ===================================================================================
+    /**
+     * The RhythmInfos which share the same Genre, Feel and Beat.
+     */
+    static private class Bucket
+    {
+
+        private final Genre genre;
+        private final Feel feel;
+        private final Beat beat;
+        private final List<RhythmInfo> rhythms = new ArrayList<>();
+
+        public Bucket(Genre genre, Feel feel, Beat beat)
+        {
+            this.genre = genre;
+            this.feel = feel;
+            this.beat = beat;
+        }
+
+        /**
+         * The max. possible RhythmFeatures.getMatchingScore() between rf and the RhythmInfos of this bucket.
+         * <p>
+         * Genre, Feel and Beat scores are exact, Intensity and TempoRange scores are the max. possible values.
+         *
+         * @param rf
+         * @return
+         */
+        public int getMaxScore(RhythmFeatures rf)
+        {
+            int score = getFeatureScore(rf.getGenre(), genre, Genre.UNKNOWN, 70)
+                    + getFeatureScore(rf.getFeel(), feel, Feel.UNKNOWN, 30)
+                    + getFeatureScore(rf.getBeat(), beat, Beat.UNKNOWN, 30);
+            score += rf.getIntensity() == Intensity.UNKNOWN ? 10 : 30;
+            score += 30;        // TempoRange
+            return score;
+        }
+    }
+}
@@ -85,6 +85,9 @@ public interface RhythmDatabase
      * is created on demand, see AdaptedRhythm.getUniqueId(). The rhythm provider, the original rhythm and the time signature are
      * obtained from rhythmId, and the returned rhythm instance is obtained by calling
      * RhythmProvider.getAdaptedRhythmInstance(Rhythm, TimeSignature). Rhythm instances are cached.
+     * <p>
+     * If the database is still reading rhythm files and rhythmId is not known yet, the call blocks until the rhythm is added or
+     * until all rhythm files have been read.
      *
      * @param rhythmId A unique id
      * @return The rhythm whose uniqueSerialId matches the specified id
@@ -161,6 +164,17 @@ public interface RhythmDatabase
      */
     RhythmInfo getSimilarRhythm(RhythmInfo ri);
 
+    /**
+     * Get the rhythms in the database which are the most "similar" to the specified rhythm info.
+     * <p>
+     * Same as getSimilarRhythm(RhythmInfo), but return up to maxSize rhythms, ordered from the most similar.
+     *
+     * @param ri
+     * @param maxSize
+     * @return A list of rhythms which share the same time signature, excluding ri. Can be empty.
+     */
+    List<RhythmInfo> getSimilarRhythms(RhythmInfo ri, int maxSize);
+
     /**
      * @return All rhythms stored in the database.
      */
@@ -257,7 +271,8 @@ public interface RhythmDatabase
     /**
      * Listeners are notified when the rhythm database has changed.
      * <p>
-     * Note that listeners might be notified out of the Event Dispatch Thread.
+     * Rhythms from rhythm files might be added after the database is made available: listeners are notified each time a batch of
+     * new rhythms is added. Note that listeners might be notified out of the Event Dispatch Thread.
      *
      * @param l
      */
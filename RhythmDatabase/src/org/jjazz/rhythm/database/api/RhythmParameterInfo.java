@@ -46,6 +46,24 @@ public class RhythmParameterInfo implements Serializable
         className = rp.getClass().getName();
     }
 
+    /**
+     * Create a RhythmParameterInfo from saved data.
+     *
+     * @param displayName
+     * @param description Can be null
+     * @param className
+     */
+    public RhythmParameterInfo(String displayName, String description, String className)
+    {
+        if (displayName == null || className == null)
+        {
+            throw new IllegalArgumentException("displayName=" + displayName + " description=" + description + " className=" + className);
+        }
+        this.displayName = displayName;
+        this.description = description;
+        this.className = className;
+    }
+
     public String getDisplayName()
     {
         return displayName;
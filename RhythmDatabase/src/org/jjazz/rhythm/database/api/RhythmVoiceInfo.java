@@ -55,6 +55,28 @@ public class RhythmVoiceInfo implements Serializable
         type = rv.getType();
     }
 
+    /**
+     * Create a RhythmVoiceInfo from saved data.
+     *
+     * @param name
+     * @param instrument       Can be null
+     * @param preferredChannel
+     * @param drumKit          Can be null
+     * @param type
+     */
+    public RhythmVoiceInfo(String name, Instrument instrument, int preferredChannel, DrumKit drumKit, Type type)
+    {
+        if (name == null || type == null)
+        {
+            throw new IllegalArgumentException("name=" + name + " instrument=" + instrument + " preferredChannel=" + preferredChannel + " drumKit=" + drumKit + " type=" + type);
+        }
+        this.name = name;
+        this.instrument = instrument;
+        this.preferredChannel = preferredChannel;
+        this.drumKit = drumKit;
+        this.type = type;
+    }
+
     public String getName()
     {
         return name;
@@ -0,0 +1,281 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.rhythm.database;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.jjazz.harmony.TimeSignature;
+import org.jjazz.rhythm.api.Beat;
+import org.jjazz.rhythm.api.Feel;
+import org.jjazz.rhythm.api.Genre;
+import org.jjazz.rhythm.api.Intensity;
+import org.jjazz.rhythm.api.RhythmFeatures;
+import org.jjazz.rhythm.api.TempoRange;
+import org.jjazz.rhythm.database.api.RhythmInfo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.*;
+
+/**
+ * Check that RhythmInfoIndex.getSimilarRhythms() returns the same result than a linear scan of all the rhythms.
+ */
+public class RhythmInfoIndexTest
+{
+
+    private static final TimeSignature[] TIME_SIGNATURES =
+    {
+        TimeSignature.FOUR_FOUR, TimeSignature.THREE_FOUR, TimeSignature.SIX_EIGHT
+    };
+    private static final TempoRange[] TEMPO_RANGES =
+    {
+        TempoRange.ALL_TEMPO, TempoRange.SLOW, TempoRange.MEDIUM, TempoRange.FAST
+    };
+    private Random random;
+    private RhythmInfoIndex index;
+    /**
+     * The indexed rhythms in insertion order.
+     */
+    private List<RhythmInfo> rhythms;
+    private int nbCreated;
+
+    public RhythmInfoIndexTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception
+    {
+    }
+
+    @Before
+    public void setUp()
+    {
+        random = new Random(42);
+        index = new RhythmInfoIndex();
+        rhythms = new ArrayList<>();
+        nbCreated = 0;
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testSameAsLinearScan()
+    {
+        System.out.println("getSimilarRhythms same as linear scan");
+        for (int i = 0; i < 3000; i++)
+        {
+            add(createRandomRhythmInfo());
+        }
+        checkQueries(300);
+    }
+
+    @Test
+    public void testTies()
+    {
+        System.out.println("getSimilarRhythms ties");
+        RhythmFeatures rf = new RhythmFeatures(Feel.TERNARY, Beat.EIGHT, Genre.JAZZ, TempoRange.MEDIUM, Intensity.MEDIUM);
+        RhythmFeatures rf2 = new RhythmFeatures(Feel.TERNARY, Beat.EIGHT, Genre.JAZZ, TempoRange.FAST, Intensity.MEDIUM);
+        RhythmInfo ri0 = add(createRhythmInfo(TimeSignature.FOUR_FOUR, rf));
+        RhythmInfo ri1 = add(createRhythmInfo(TimeSignature.FOUR_FOUR, rf2));
+        RhythmInfo ri2 = add(createRhythmInfo(TimeSignature.FOUR_FOUR, rf));
+        RhythmInfo ri3 = add(createRhythmInfo(TimeSignature.FOUR_FOUR, rf));
+        add(createRhythmInfo(TimeSignature.THREE_FOUR, rf));
+        RhythmInfo ri5 = add(createRhythmInfo(TimeSignature.FOUR_FOUR, rf));
+
+        // Equal scores are ordered by insertion order
+        assertEquals(Arrays.asList(ri2, ri3, ri5, ri1), index.getSimilarRhythms(ri0, 10));
+        assertEquals(Arrays.asList(ri2, ri3), index.getSimilarRhythms(ri0, 2));
+        assertEquals(Arrays.asList(ri0, ri2, ri5), index.getSimilarRhythms(ri3, 3));
+
+        // A re-added rhythm comes last among equal scores
+        remove(ri2);
+        add(ri2);
+        assertEquals(Arrays.asList(ri3, ri5, ri2, ri1), index.getSimilarRhythms(ri0, 10));
+        checkQueries(20);
+    }
+
+    @Test
+    public void testRemove()
+    {
+        System.out.println("getSimilarRhythms after removals");
+        for (int i = 0; i < 2000; i++)
+        {
+            add(createRandomRhythmInfo());
+        }
+
+        // Remove some rhythms, then add new ones and re-add some removed ones
+        List<RhythmInfo> removed = new ArrayList<>();
+        for (int i = 0; i < 600; i++)
+        {
+            RhythmInfo ri = remove(rhythms.get(random.nextInt(rhythms.size())));
+            assertFalse(index.remove(ri));
+            assertFalse(index.contains(ri));
+            removed.add(ri);
+        }
+        checkQueries(200);
+        for (int i = 0; i < 200; i++)
+        {
+            add(createRandomRhythmInfo());
+            add(removed.remove(random.nextInt(removed.size())));
+        }
+        checkQueries(200);
+
+        // Removed rhythms can still be used as query
+        for (RhythmInfo ri : removed.subList(0, 50))
+        {
+            int maxSize = 1 + random.nextInt(10);
+            assertEquals(getSimilarRhythmsLinearScan(ri, maxSize), index.getSimilarRhythms(ri, maxSize));
+        }
+
+        // Remove all the rhythms of a time signature
+        for (RhythmInfo ri : new ArrayList<>(rhythms))
+        {
+            if (ri.getTimeSignature() == TimeSignature.SIX_EIGHT)
+            {
+                remove(ri);
+            }
+        }
+        assertFalse(index.getTimeSignatures().contains(TimeSignature.SIX_EIGHT));
+        assertTrue(index.getRhythms(TimeSignature.SIX_EIGHT).isEmpty());
+        assertTrue(index.getSimilarRhythms(createRhythmInfo(TimeSignature.SIX_EIGHT, new RhythmFeatures()), 5).isEmpty());
+        checkQueries(100);
+    }
+
+    @Test
+    public void testGetRhythm()
+    {
+        System.out.println("getRhythm");
+        RhythmFeatures rf = new RhythmFeatures();
+        RhythmInfo ri0 = add(createRhythmInfo("id", "file0", TimeSignature.FOUR_FOUR, rf));
+        RhythmInfo ri1 = add(createRhythmInfo("id", "file1", TimeSignature.THREE_FOUR, rf));
+        RhythmInfo ri2 = add(createRhythmInfo("id", "file2", TimeSignature.FOUR_FOUR, rf));
+        assertFalse(index.add(ri1));
+        assertSame(ri0, index.getRhythm("id"));
+
+        // The first added RhythmInfo with the same id is used
+        index.remove(ri0);
+        assertSame(ri1, index.getRhythm("id"));
+        index.remove(ri1);
+        assertSame(ri2, index.getRhythm("id"));
+        index.remove(ri2);
+        assertNull(index.getRhythm("id"));
+    }
+
+    // =========================================================================
+    // Private methods
+    // =========================================================================
+    /**
+     * Compare getSimilarRhythms() with a linear scan for random rhythms and sizes.
+     */
+    private void checkQueries(int nbQueries)
+    {
+        for (int i = 0; i < nbQueries; i++)
+        {
+            RhythmInfo ri = rhythms.get(random.nextInt(rhythms.size()));
+            int maxSize = random.nextInt(12);
+            assertEquals("ri=" + ri + " maxSize=" + maxSize, getSimilarRhythmsLinearScan(ri, maxSize), index.getSimilarRhythms(ri, maxSize));
+            assertSame(ri, index.getRhythm(ri.getUniqueId()));
+        }
+        for (TimeSignature ts : TIME_SIGNATURES)
+        {
+            List<RhythmInfo> tsRhythms = new ArrayList<>();
+            rhythms.stream().filter(ri -> ri.getTimeSignature() == ts).forEach(ri -> tsRhythms.add(ri));
+            assertEquals(tsRhythms, index.getRhythms(ts));
+        }
+    }
+
+    /**
+     * The reference implementation: score all the rhythms.
+     */
+    private List<RhythmInfo> getSimilarRhythmsLinearScan(RhythmInfo ri, int maxSize)
+    {
+        RhythmFeatures rf = ri.getFeatures();
+        List<RhythmInfo> res = new ArrayList<>();
+        for (RhythmInfo rii : rhythms)
+        {
+            if (rii != ri && rii.getTimeSignature() == ri.getTimeSignature())
+            {
+                res.add(rii);
+            }
+        }
+        // Stable sort: equal scores remain in insertion order
+        res.sort((r1, r2) -> Integer.compare(rf.getMatchingScore(r2.getFeatures()), rf.getMatchingScore(r1.getFeatures())));
+        return new ArrayList<>(res.subList(0, Math.min(maxSize, res.size())));
+    }
+
+    private RhythmInfo add(RhythmInfo ri)
+    {
+        assertTrue(index.add(ri));
+        rhythms.add(ri);
+        return ri;
+    }
+
+    private RhythmInfo remove(RhythmInfo ri)
+    {
+        assertTrue(index.remove(ri));
+        rhythms.remove(ri);
+        return ri;
+    }
+
+    /**
+     * Use few values for each feature to get many equal scores.
+     */
+    private RhythmInfo createRandomRhythmInfo()
+    {
+        RhythmFeatures rf = new RhythmFeatures(Feel.values()[random.nextInt(Feel.values().length)],
+                Beat.values()[random.nextInt(Beat.values().length)],
+                Genre.values()[random.nextInt(4)],
+                TEMPO_RANGES[random.nextInt(TEMPO_RANGES.length)],
+                Intensity.values()[random.nextInt(Intensity.values().length)]);
+        return createRhythmInfo(TIME_SIGNATURES[random.nextInt(TIME_SIGNATURES.length)], rf);
+    }
+
+    private RhythmInfo createRhythmInfo(TimeSignature ts, RhythmFeatures rf)
+    {
+        String id = "id" + nbCreated;
+        return createRhythmInfo(id, id + ".sty", ts, rf);
+    }
+
+    private RhythmInfo createRhythmInfo(String id, String fileName, TimeSignature ts, RhythmFeatures rf)
+    {
+        nbCreated++;
+        return new RhythmInfoImpl("RhythmProviderId", id, new File(fileName), "Rhythm" + nbCreated, null, null, "1", "author", ts, 120, rf, false, null,
+                (rvInfos, rpInfos) ->
+        {
+        });
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.rhythmmusicgeneration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jjazz.harmony.Chord;
+import org.jjazz.harmony.Degree;
+import org.jjazz.leadsheet.chordleadsheet.api.item.ExtChordSymbol;
+import static org.jjazz.util.Utilities.heapPermutation;
+
+/**
+ * Find the best destination chord for a chord-oriented source phrase, see Phrases.fitChordPhrase2ChordSymbol().
+ * <p>
+ * The result is the same as computing Chord.computeParallelChord() (start note above then below) for each permutation of the
+ * destination degrees in Utilities.heapPermutation() order, and keeping the first chord with the best
+ * Phrases.computeChordMatchingScore(). But:<br>
+ * - permutations are explored with a branch-and-bound search: the destination chord is built note by note and a branch is
+ * abandoned as soon as its minimum possible score is worse than the best score found so far.<br>
+ * - results are cached per (source chord, destination degrees, destination root, destination chord type base).
+ * <p>
+ * Thread-safe.
+ */
+class ChordVoicingFinder
+{
+
+    private static final int CACHE_MAX_SIZE = 2000;
+    private static final int NO_PITCH = -1;
+    private static ChordVoicingFinder INSTANCE;
+    private final Map<List<Object>, Chord> cache;
+    /**
+     * For each number of degrees, the Utilities.heapPermutation() index of each permutation, indexed by lexicographic rank.
+     */
+    private final Map<Integer, int[]> mapSizeHeapRanks = new ConcurrentHashMap<>();
+
+    static synchronized ChordVoicingFinder getInstance()
+    {
+        if (INSTANCE == null)
+        {
+            INSTANCE = new ChordVoicingFinder();
+        }
+        return INSTANCE;
+    }
+
+    private ChordVoicingFinder()
+    {
+        cache = Collections.synchronizedMap(new LinkedHashMap<>(CACHE_MAX_SIZE, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Chord> eldest)
+            {
+                return size() > CACHE_MAX_SIZE;
+            }
+        });
+    }
+
+    /**
+     * Get the best destination chord.
+     *
+     * @param srcChord The chord made of each unique pitch of the source phrase.
+     * @param destDegrees The destination degrees, in the order used for the permutations. Max size is 9. Size must be the number
+     * of unique relative pitches of srcChord.
+     * @param ecsDest The destination chord symbol
+     * @return The returned chord must not be modified.
+     */
+    Chord findBestChord(Chord srcChord, Degree[] destDegrees, ExtChordSymbol ecsDest)
+    {
+        if (destDegrees.length == 0 || destDegrees.length > 9 || srcChord.size() == 0)
+        {
+            throw new IllegalArgumentException("srcChord=" + srcChord + " destDegrees=" + Arrays.toString(destDegrees) + " ecsDest=" + ecsDest);
+        }
+
+        int rootRelPitch = ecsDest.getRootNote().getRelativePitch();
+        List<Object> key = new ArrayList<>();
+        for (int i = 0; i < srcChord.size(); i++)
+        {
+            key.add(srcChord.getNote(i).getPitch());
+        }
+        key.addAll(Arrays.asList(destDegrees));
+        key.add(rootRelPitch);
+        key.add(ecsDest.getChordType().getBase());
+
+        Chord res = cache.get(key);
+        if (res == null)
+        {
+            Search search = new Search(srcChord, destDegrees, ecsDest, getHeapRanks(destDegrees.length));
+            res = search.run();
+            cache.put(key, res);
+        }
+        return res;
+    }
+
+    // =========================================================================
+    // Private methods
+    // =========================================================================
+    private int[] getHeapRanks(int size)
+    {
+        return mapSizeHeapRanks.computeIfAbsent(size, n ->
+        {
+            Integer[] indexes = new Integer[n];
+            for (int i = 0; i < n; i++)
+            {
+                indexes[i] = i;
+            }
+            List<Integer[]> perms = new ArrayList<>();
+            heapPermutation(indexes, n, perms);
+            int[] res = new int[perms.size()];
+            for (int i = 0; i < perms.size(); i++)
+            {
+                Integer[] perm = perms.get(i);
+                int[] p = new int[n];
+                for (int j = 0; j < n; j++)
+                {
+                    p[j] = perm[j];
+                }
+                res[getLexicographicRank(p)] = i;
+            }
+            return res;
+        });
+    }
+
+    /**
+     * The rank of a permutation of [0;n-1] in lexicographic order.
+     *
+     * @param perm
+     * @return
+     */
+    static private int getLexicographicRank(int[] perm)
+    {
+        int n = perm.length;
+        int rank = 0;
+        for (int i = 0; i < n; i++)
+        {
+            int smaller = 0;
+            for (int j = i + 1; j < n; j++)
+            {
+                if (perm[j] < perm[i])
+                {
+                    smaller++;
+                }
+            }
+            rank = rank * (n - i) + smaller;
+        }
+        return rank;
+    }
+
+    /**
+     * Same as Note.getUpperPitch(relPitch, false).
+     */
+    static private int getUpperPitch(int pitch, int relPitch)
+    {
+        int octave = pitch / 12;
+        int p = octave * 12 + relPitch;
+        if (relPitch <= pitch % 12)
+        {
+            p = (octave + 1) * 12 + relPitch;
+        }
+        if (p > 127)
+        {
+            p -= 12;
+        }
+        return p;
+    }
+
+    // =========================================================================
+    // Private classes
+    // =========================================================================
+    /**
+     * One branch-and-bound search.
+     */
+    private static class Search
+    {
+
+        private final Chord srcChord;
+        private final ExtChordSymbol ecsDest;
+        private final int[] heapRanks;
+        private final int nbNotes;
+        private final int nbDegrees;
+        private final int[] srcPitches;
+        private final int[] srcRelPitches;
+        private final int[] skipNexts;
+        /**
+         * The max pitch increase from note i to the last note.
+         */
+        private final int[] maxRemainingRise;
+        private final int srcMaxPitch;
+        private final int[] destRelPitches;
+        // Search state
+        private final int[] perm;
+        private final boolean[] used;
+        private final int[] mapSrcDestRelPitch = new int[12];
+        private boolean startBelow;
+        private int bestScore;
+        private long bestKey;
+        private Chord bestChord;
+
+        Search(Chord srcChord, Degree[] destDegrees, ExtChordSymbol ecsDest, int[] heapRanks)
+        {
+            this.srcChord = srcChord;
+            this.ecsDest = ecsDest;
+            this.heapRanks = heapRanks;
+            nbNotes = srcChord.size();
+            nbDegrees = destDegrees.length;
+            srcPitches = new int[nbNotes];
+            srcRelPitches = new int[nbNotes];
+            skipNexts = new int[nbNotes];
+            for (int i = 0; i < nbNotes; i++)
+            {
+                srcPitches[i] = srcChord.getNote(i).getPitch();
+                srcRelPitches[i] = srcPitches[i] % 12;
+                skipNexts[i] = i == 0 ? 0 : (srcPitches[i] - srcPitches[i - 1]) / 12;
+            }
+            maxRemainingRise = new int[nbNotes];
+            for (int i = nbNotes - 2; i >= 0; i--)
+            {
+                maxRemainingRise[i] = maxRemainingRise[i + 1] + 12 * (skipNexts[i + 1] + 1);
+            }
+            srcMaxPitch = srcPitches[nbNotes - 1];
+            List<Integer> relPitches = Phrases.getRelativePitches(ecsDest.getRootNote().getRelativePitch(), destDegrees);
+            destRelPitches = new int[nbDegrees];
+            for (int i = 0; i < nbDegrees; i++)
+            {
+                destRelPitches[i] = relPitches.get(i);
+            }
+            perm = new int[nbDegrees];
+            used = new boolean[nbDegrees];
+        }
+
+        Chord run()
+        {
+            bestScore = Integer.MAX_VALUE;
+            bestKey = Long.MAX_VALUE;
+            bestChord = null;
+            Arrays.fill(mapSrcDestRelPitch, NO_PITCH);
+            var n0 = srcChord.getNote(0);
+            for (boolean below : new boolean[]
+            {
+                true, false
+            })
+            {
+                startBelow = below;
+                for (int d = 0; d < nbDegrees; d++)
+                {
+                    int destRelPitch = destRelPitches[d];
+                    int pitch = below ? n0.getLowerPitch(destRelPitch, true) : n0.getUpperPitch(destRelPitch, true);
+                    int lowPitchDelta = Math.abs(srcPitches[0] - pitch);
+                    perm[0] = d;
+                    used[d] = true;
+                    mapSrcDestRelPitch[srcRelPitches[0]] = destRelPitch;
+                    explore(1, pitch, Math.abs(pitch - srcPitches[0]) + lowPitchDelta, 1, true);
+                    mapSrcDestRelPitch[srcRelPitches[0]] = NO_PITCH;
+                    used[d] = false;
+                }
+            }
+            assert bestChord != null : "srcChord=" + srcChord + " ecsDest=" + ecsDest;
+            return bestChord;
+        }
+
+        /**
+         * Compute the next destination note.
+         *
+         * @param noteIndex The index of the note to compute
+         * @param lastPitch The pitch of the previous destination note
+         * @param partialScore The part of the score already known
+         * @param permIndex The next permutation index to be assigned
+         * @param exact True if the notes computed so far are the final notes of the destination chord (no pitch limit hit)
+         */
+        private void explore(int noteIndex, int lastPitch, int partialScore, int permIndex, boolean exact)
+        {
+            if (exact && lowerBound(noteIndex - 1, lastPitch, partialScore) > bestScore)
+            {
+                return;
+            }
+
+            if (noteIndex == nbNotes)
+            {
+                evaluateLeaf();
+                return;
+            }
+
+            int srcRelPitch = srcRelPitches[noteIndex];
+            int savedDestRelPitch = mapSrcDestRelPitch[srcRelPitch];
+            if (savedDestRelPitch != NO_PITCH)
+            {
+                exploreNote(noteIndex, lastPitch, partialScore, permIndex, exact, savedDestRelPitch);
+            } else
+            {
+                for (int d = 0; d < nbDegrees; d++)
+                {
+                    if (!used[d])
+                    {
+                        used[d] = true;
+                        perm[permIndex] = d;
+                        mapSrcDestRelPitch[srcRelPitch] = destRelPitches[d];
+                        exploreNote(noteIndex, lastPitch, partialScore, permIndex + 1, exact, destRelPitches[d]);
+                        mapSrcDestRelPitch[srcRelPitch] = NO_PITCH;
+                        used[d] = false;
+                    }
+                }
+            }
+        }
+
+        private void exploreNote(int noteIndex, int lastPitch, int partialScore, int permIndex, boolean exact, int destRelPitch)
+        {
+            int pitch = lastPitch;
+            for (int j = 0; j <= skipNexts[noteIndex]; j++)
+            {
+                int p = getUpperPitch(pitch, destRelPitch);
+                exact &= p > pitch;     // Otherwise the 127 pitch limit was hit
+                pitch = p;
+            }
+            explore(noteIndex + 1, pitch, partialScore + Math.abs(pitch - srcPitches[noteIndex]), permIndex, exact);
+        }
+
+        /**
+         * A lower bound of the score of the destination chords starting with the computed notes.
+         * <p>
+         * The lowPitchDelta is already in partialScore, penalties are ignored. Remaining notes are each at least 1 semitone above
+         * the previous one.
+         */
+        private int lowerBound(int lastIndex, int lastPitch, int partialScore)
+        {
+            if (lastPitch + maxRemainingRise[lastIndex] > 127)
+            {
+                // Next notes might hit the pitch limit, can't say anything
+                return 0;
+            }
+            int res = partialScore;
+            for (int i = lastIndex + 1; i < nbNotes; i++)
+            {
+                res += Math.max(0, lastPitch + (i - lastIndex) - srcPitches[i]);
+            }
+            res += 3 * Math.max(0, lastPitch + (nbNotes - 1 - lastIndex) - srcMaxPitch);
+            return res;
+        }
+
+        private void evaluateLeaf()
+        {
+            int[] p = Arrays.copyOf(perm, nbDegrees);
+            long key = 2L * heapRanks[getLexicographicRank(p)] + (startBelow ? 1 : 0);
+            List<Integer> relPitches = new ArrayList<>(nbDegrees);
+            for (int d : perm)
+            {
+                relPitches.add(destRelPitches[d]);
+            }
+            Chord destChord = srcChord.computeParallelChord(relPitches, startBelow);
+            int score = Phrases.computeChordMatchingScore(srcChord, destChord, ecsDest);
+            if (score < bestScore || (score == bestScore && key < bestKey))
+            {
+                bestScore = score;
+                bestKey = key;
+                bestChord = destChord;
+            }
+        }
+    }
+}
@@ -27,6 +27,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sound.midi.InvalidMidiDataException;
@@ -43,6 +46,7 @@ import org.jjazz.midi.InstrumentSettings;
 import org.jjazz.midi.MidiConst;
 import org.jjazz.midi.MidiUtilities;
 import org.jjazz.midimix.MidiMix;
+import org.jjazz.rhythm.api.AdaptedRhythm;
 import org.jjazz.rhythm.api.Rhythm;
 import org.jjazz.rhythm.api.RhythmVoice;
 import org.jjazz.rhythm.api.RhythmVoiceDelegate;
@@ -52,6 +56,7 @@ import org.jjazz.rhythmmusicgeneration.spi.MusicGenerator;
 import org.netbeans.api.progress.BaseProgressUtils;
 import org.jjazz.songstructure.api.SongPart;
 import org.jjazz.util.FloatRange;
+import org.openide.util.RequestProcessor;
 
 /**
  * Ask all the rhythms of a song to produce music and integrate the results to make a Midi sequence.
@@ -66,6 +71,18 @@ public class MidiSequenceBuilder
     private MusicGenerationContext context;
     private MusicGenerator.PostProcessor[] postProcessors;  // Can be null
     private final HashMap<RhythmVoice, Integer> mapRvTrackId = new HashMap<>();
+    private boolean parallelGeneration = false;
+    private PhraseCache phraseCache;    // Can be null
+    private long tickOffset = 0;
+    /**
+     * Shared by all instances to bound the number of generation threads when several sequences are built concurrently.
+     */
+    private static final RequestProcessor GENERATION_RP = new RequestProcessor("MidiSequenceBuilder-Generation",
+            Runtime.getRuntime().availableProcessors(), true);
+    /**
+     * The locks used to serialize the music generation calls, key=source rhythm unique id.
+     */
+    private static final ConcurrentHashMap<String, Object> MAP_RHYTHM_LOCK = new ConcurrentHashMap<>();
 
     private static final Logger LOGGER = Logger.getLogger(MidiSequenceBuilder.class.getSimpleName());
 
@@ -93,7 +110,8 @@ public class MidiSequenceBuilder
      * 3/ Perform some checks and assemble the produced phrases into a sequence.<br>
      * 4/ Add CTRL_CHG_JJAZZ_TEMPO_FACTOR Midi controller messages based on the RP_SYS_TempoFactor value (if used by a rhythm)
      * <p>
-     * If context range start bar is &gt; 0, the Midi events are shifted to start at sequence tick 0.
+     * If context range start bar is &gt; 0, the Midi events are shifted to start at sequence tick 0 (or at the tick offset, see
+     * setTickOffset()).
      *
      * @param silent If true do not show a progress dialog
      * @return A Sequence containing accompaniment tracks for the context.
@@ -138,6 +156,79 @@ public class MidiSequenceBuilder
         return new HashMap<>(mapRvTrackId);
     }
 
+    /**
+     * Enable the parallel generation mode.
+     * <p>
+     * If true and the context uses several rhythms, the MusicGenerator of each rhythm is run in its own thread (the threads are
+     * shared by all MidiSequenceBuilder instances and bounded by the number of available processors). Results are merged in the context's unique rhythms order, and
+     * if several generators fail the reported MusicGenerationException is the one of the first failing rhythm in this order, as
+     * in the sequential mode.
+     * <p>
+     * The MusicGenerator implementations of the context rhythms must not share mutable state. Default is false.
+     *
+     * @param b
+     */
+    public void setParallelGeneration(boolean b)
+    {
+        parallelGeneration = b;
+    }
+
+    /**
+     * @return True if parallel generation mode is enabled.
+     * @see #setParallelGeneration(boolean)
+     */
+    public boolean isParallelGeneration()
+    {
+        return parallelGeneration;
+    }
+
+    /**
+     * Set the cache used to reuse the phrases generated for song parts with identical musical content.
+     * <p>
+     * When a cache is used the MusicGenerators are called once per song part.
+     *
+     * @param cache If null no cache is used. Default is null.
+     * @see PhraseCache
+     */
+    public void setPhraseCache(PhraseCache cache)
+    {
+        phraseCache = cache;
+    }
+
+    /**
+     * @return Can be null.
+     */
+    public PhraseCache getPhraseCache()
+    {
+        return phraseCache;
+    }
+
+    /**
+     * Set the tick position of the start of the song in the built sequence.
+     * <p>
+     * Can be used to leave room for precount bars: all Midi events except the track names and the initial time signature are
+     * generated from tickOffset.
+     *
+     * @param tickOffset Must be &gt;= 0. Default is 0.
+     */
+    public void setTickOffset(long tickOffset)
+    {
+        if (tickOffset < 0)
+        {
+            throw new IllegalArgumentException("tickOffset=" + tickOffset);
+        }
+        this.tickOffset = tickOffset;
+    }
+
+    /**
+     * @return The tick position of the start of the song in the built sequence.
+     * @see #setTickOffset(long)
+     */
+    public long getTickOffset()
+    {
+        return tickOffset;
+    }
+
     /**
      * @return The last context used by buildSequence()
      * @see buildSequence()
@@ -159,6 +250,11 @@ public class MidiSequenceBuilder
     // =========================================================================
     /**
      * Get the rhythm's MidiMusicGenerator and ask him to generate music.
+     * <p>
+     * MusicGenerators are not required to be reentrant: generation is serialized per source rhythm (an AdaptedRhythm usually
+     * shares its source rhythm resources), so that sequences of different songs can be built concurrently.
+     * <p>
+     * If the thread is interrupted the generation is aborted before calling the MusicGenerator.
      *
      * @param r
      */
@@ -168,14 +264,87 @@ public class MidiSequenceBuilder
         if (generator != null)
         {
             LOGGER.fine("fillRhythmTracks() calling generateMusic() for rhythm r=" + r.getName());
-            r.loadResources();
-            return generator.generateMusic(context);
+            synchronized (getGenerationLock(r))
+            {
+                if (Thread.currentThread().isInterrupted())
+                {
+                    // Possibly waited for the lock while the build was cancelled
+                    throw new MusicGenerationException("Music generation was interrupted");
+                }
+                r.loadResources();
+                return phraseCache != null ? phraseCache.generateMusic(generator, r, context) : generator.generateMusic(context);
+            }
         } else
         {
             throw new MusicGenerationException("No MidiMusicGenerator object found in rhythm's lookup. rhythm=" + r.getName());
         }
     }
 
+    /**
+     * The lock used to serialize the music generation calls for r.
+     *
+     * @param r
+     * @return The same lock for an AdaptedRhythm and its source rhythm.
+     */
+    private Object getGenerationLock(Rhythm r)
+    {
+        Rhythm rSrc = r instanceof AdaptedRhythm ? ((AdaptedRhythm) r).getSourceRhythm() : r;
+        return MAP_RHYTHM_LOCK.computeIfAbsent(rSrc.getUniqueId(), id -> new Object());
+    }
+
+    /**
+     * Generate the phrases of each rhythm, one task per rhythm.
+     * <p>
+     * Results are returned in the rhythms order.
+     *
+     * @param rhythms
+     * @return One map per rhythm, in the same order than rhythms.
+     * @throws MusicGenerationException The exception of the first failing rhythm (in the rhythms order).
+     */
+    private List<HashMap<RhythmVoice, Phrase>> generateRhythmPhrasesParallel(List<Rhythm> rhythms) throws MusicGenerationException
+    {
+        List<Future<HashMap<RhythmVoice, Phrase>>> futures = new ArrayList<>();
+        try
+        {
+            for (Rhythm r : rhythms)
+            {
+                futures.add(GENERATION_RP.submit(() -> generateRhythmPhrases(r)));
+            }
+
+            List<HashMap<RhythmVoice, Phrase>> res = new ArrayList<>();
+            for (int i = 0; i < rhythms.size(); i++)
+            {
+                try
+                {
+                    res.add(futures.get(i).get());
+                } catch (ExecutionException ex)
+                {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof MusicGenerationException)
+                    {
+                        throw (MusicGenerationException) cause;
+                    } else if (cause instanceof RuntimeException)
+                    {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error)
+                    {
+                        throw (Error) cause;
+                    }
+                    throw new MusicGenerationException("Unexpected error while generating music for rhythm " + rhythms.get(i).getName() + ": " + cause.getLocalizedMessage());
+                } catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new MusicGenerationException("Music generation was interrupted");
+                }
+            }
+            return res;
+        } finally
+        {
+            // Does nothing if all tasks are complete, otherwise try to stop the remaining ones
+            futures.forEach(f -> f.cancel(true));
+        }
+    }
+
     /**
      * Check that there is a starting chord symbol for each section.
      *
@@ -371,7 +540,7 @@ public class MidiSequenceBuilder
                 tempoPercentChange = spt.getRPValue(rp) / 100f;
             }
             float beatPos = context.getSptBeatRange(spt).from - beatOffset;
-            long tickPos = Math.round(beatPos * MidiConst.PPQ_RESOLUTION);
+            long tickPos = tickOffset + Math.round(beatPos * MidiConst.PPQ_RESOLUTION);
             MidiEvent me = new MidiEvent(MidiUtilities.getJJazzTempoFactorControllerMessage(0, tempoPercentChange), tickPos);
             track.add(me);
             if (firstTempoPercentChange == -1)
@@ -386,7 +555,7 @@ public class MidiSequenceBuilder
         if (firstTempoPercentChange != lastTempoPercentChange)
         {
             float beatPos = context.getSptBeatRange(spts.get(spts.size() - 1)).to - beatOffset;
-            long tickPos = Math.round(beatPos * MidiConst.PPQ_RESOLUTION) - 2;  // Make sure it's before the End of Track
+            long tickPos = tickOffset + Math.round(beatPos * MidiConst.PPQ_RESOLUTION) - 2;  // Make sure it's before the End of Track
             MidiEvent me = new MidiEvent(MidiUtilities.getJJazzTempoFactorControllerMessage(0, firstTempoPercentChange), tickPos);
             track.add(me);
         }
@@ -410,7 +579,7 @@ public class MidiSequenceBuilder
             if (!ts.equals(prevTs))
             {
                 float beatPos = context.getSptBeatRange(spt).from - beatOffset;
-                long tickPos = Math.round(beatPos * MidiConst.PPQ_RESOLUTION);
+                long tickPos = prevTs == null ? 0 : tickOffset + Math.round(beatPos * MidiConst.PPQ_RESOLUTION);    // Initial time signature must stay at 0
                 MidiEvent me = new MidiEvent(MidiUtilities.getTimeSignatureMessage(0, ts), tickPos);
                 track.add(me);
                 prevTs = ts;
@@ -426,7 +595,7 @@ public class MidiSequenceBuilder
      */
     private void fixEndOfTracks(Sequence seq)
     {
-        long lastTick = (long) (context.getBeatRange().size() * MidiConst.PPQ_RESOLUTION) + 1;
+        long lastTick = tickOffset + (long) (context.getBeatRange().size() * MidiConst.PPQ_RESOLUTION) + 1;
         for (Track t : seq.getTracks())
         {
             // Make sure all tracks have the same EndOfTrack
@@ -463,13 +632,32 @@ public class MidiSequenceBuilder
 
             // Get the generated phrases for each used rhythm
             HashMap<RhythmVoice, Phrase> mapRes = new HashMap<>();
+            List<Rhythm> rhythms = context.getUniqueRhythms();
 
-            for (Rhythm r : context.getUniqueRhythms())
+
+            // In parallel mode generate all the phrases first
+            List<HashMap<RhythmVoice, Phrase>> parallelResults = null;
+            if (parallelGeneration && rhythms.size() > 1)
+            {
+                try
+                {
+                    parallelResults = generateRhythmPhrasesParallel(rhythms);              // Possible MusicGenerationException here
+                } catch (MusicGenerationException ex)
+                {
+                    musicException = ex;
+                    return;
+                }
+            }
+
+
+            for (int i = 0; i < rhythms.size(); i++)
             {
+                Rhythm r = rhythms.get(i);
                 try
                 {
-                    HashMap<RhythmVoice, Phrase> rMap = generateRhythmPhrases(r);          // Possible MusicGenerationException here
-                    if (context.getUniqueRhythms().size() > 1)
+                    HashMap<RhythmVoice, Phrase> rMap = parallelResults != null ? parallelResults.get(i)
+                            : generateRhythmPhrases(r);                                 // Possible MusicGenerationException here
+                    if (rhythms.size() > 1)
                     {
                         checkRhythmPhrasesScope(r, rMap);                                  // Possible MusicGenerationException here
                     }
@@ -578,7 +766,7 @@ public class MidiSequenceBuilder
                         MidiUtilities.addTrackNameEvent(track, name);
                         // Fill the track
                         Phrase p = mapRes.get(rv);
-                        p.fillTrack(track);
+                        p.fillTrack(track, tickOffset);
                         // Store the track with the RhythmVoice
                         mapRvTrackId.put(rv, trackId);
                         trackId++;
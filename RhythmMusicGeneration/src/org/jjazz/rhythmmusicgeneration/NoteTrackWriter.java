@@ -0,0 +1,147 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.rhythmmusicgeneration;
+
+import java.util.Arrays;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import org.jjazz.midi.MidiConst;
+import org.openide.util.Exceptions;
+
+/**
+ * Bulk writer of notes into a Track.
+ * <p>
+ * NOTE_ON/NOTE_OFF events are added already sorted by tick, so that each Track.add() is an append instead of a sorted insertion.
+ * The resulting events order is the same as if each note's NOTE_ON then NOTE_OFF were added one by one with Track.add().
+ * <p>
+ * ShortMessages are shared between events with identical pitch and velocity: the track's ShortMessages must not be modified
+ * individually.
+ */
+class NoteTrackWriter
+{
+
+    private final int channel;
+    private final ShortMessage[] noteOnMessages = new ShortMessage[128 * 128];
+    private final ShortMessage[] noteOffMessages = new ShortMessage[128];
+
+    /**
+     * @param channel The channel of the written notes
+     */
+    NoteTrackWriter(int channel)
+    {
+        this.channel = channel;
+    }
+
+    /**
+     * Add the notes to the track.
+     *
+     * @param track
+     * @param size The number of notes
+     * @param pitches
+     * @param velocities
+     * @param positions Start position in beats of each note, must be sorted
+     * @param durations Duration in beats of each note
+     * @param tickOffset Added to the tick of each event
+     */
+    void write(Track track, int size, byte[] pitches, byte[] velocities, float[] positions, float[] durations, long tickOffset)
+    {
+        if (size == 0)
+        {
+            return;
+        }
+
+        // NOTE_ON ticks are sorted since positions are sorted.
+        // Sort NOTE_OFFs by tick, then by note index to keep the original order for identical ticks.
+        long[] offKeys = new long[size];
+        for (int i = 0; i < size; i++)
+        {
+            long tickOff = tickOffset + Math.round((positions[i] + durations[i]) * MidiConst.PPQ_RESOLUTION);
+            offKeys[i] = (tickOff << 32) | i;
+        }
+        Arrays.sort(offKeys);
+
+        // Merge NOTE_ONs and NOTE_OFFs. For identical ticks, NOTE_OFF of note j goes before NOTE_ON of note i if j < i.
+        int iOn = 0;
+        int iOff = 0;
+        long tickOn = tickOffset + Math.round(positions[0] * MidiConst.PPQ_RESOLUTION);
+        while (iOff < size)
+        {
+            long tickOff = offKeys[iOff] >>> 32;
+            int jOff = (int) (offKeys[iOff] & 0xFFFFFFFFL);
+            if (iOn < size && (tickOn < tickOff || (tickOn == tickOff && iOn <= jOff)))
+            {
+                track.add(new MidiEvent(getNoteOn(pitches[iOn], velocities[iOn]), tickOn));
+                iOn++;
+                if (iOn < size)
+                {
+                    tickOn = tickOffset + Math.round(positions[iOn] * MidiConst.PPQ_RESOLUTION);
+                }
+            } else
+            {
+                track.add(new MidiEvent(getNoteOff(pitches[jOff]), tickOff));
+                iOff++;
+            }
+        }
+    }
+
+    // =========================================================================
+    // Private methods
+    // =========================================================================
+    private ShortMessage getNoteOn(int pitch, int velocity)
+    {
+        int index = (pitch << 7) | velocity;
+        ShortMessage sm = noteOnMessages[index];
+        if (sm == null)
+        {
+            sm = createMessage(ShortMessage.NOTE_ON, pitch, velocity);
+            noteOnMessages[index] = sm;
+        }
+        return sm;
+    }
+
+    private ShortMessage getNoteOff(int pitch)
+    {
+        ShortMessage sm = noteOffMessages[pitch];
+        if (sm == null)
+        {
+            sm = createMessage(ShortMessage.NOTE_OFF, pitch, 0);
+            noteOffMessages[pitch] = sm;
+        }
+        return sm;
+    }
+
+    private ShortMessage createMessage(int command, int pitch, int velocity)
+    {
+        ShortMessage sm = null;
+        try
+        {
+            sm = new ShortMessage(command, channel, pitch, velocity);
+        } catch (InvalidMidiDataException ex)
+        {
+            Exceptions.printStackTrace(ex);
+        }
+        return sm;
+    }
+}
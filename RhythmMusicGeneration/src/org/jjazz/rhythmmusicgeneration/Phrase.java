@@ -23,6 +23,8 @@
 package org.jjazz.rhythmmusicgeneration;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -46,7 +48,9 @@ import org.jjazz.util.FloatRange;
  * Use addOrdered() to add a NoteEvent: this will ensure NoteEvents are kept ordered by position. Use of add() methods should be
  * used for optimization only and not change the NoteEvents order.
  * <p>
- * LinkedList implementation to speed up item insertion/remove rather than random access.
+ * LinkedList implementation to speed up item insertion/remove rather than random access. An array of the NoteEvents is built on
+ * demand and kept until the phrase is modified: addOrdered(), getNotes() and getCrossingNotes() use it to perform binary searches
+ * on positions.
  */
 public class Phrase extends LinkedList<NoteEvent>
 {
@@ -56,6 +60,14 @@ public class Phrase extends LinkedList<NoteEvent>
      */
     public static final String PARENT_NOTE = "PARENT_NOTE";
     private final int channel;
+    /**
+     * The NoteEvents array used for binary searches, null if not built yet.
+     */
+    private transient PositionIndex positionIndex;
+    /**
+     * Incremented by set() operations, which do not change modCount.
+     */
+    private transient int setCount;
     private static final Logger LOGGER = Logger.getLogger(Phrase.class.getSimpleName());
 
     /**
@@ -82,7 +94,27 @@ public class Phrase extends LinkedList<NoteEvent>
     @Override
     public boolean add(NoteEvent ne)
     {
-        return super.add(ne);
+        PositionIndex index = getValidPositionIndex();
+        boolean b = super.add(ne);
+        if (index != null)
+        {
+            // Keep the index up to date, this is cheap for an append
+            insertInPositionIndex(index, index.size, ne);
+        }
+        return b;
+    }
+
+    @Override
+    public NoteEvent set(int index, NoteEvent ne)
+    {
+        setCount++;
+        return super.set(index, ne);
+    }
+
+    @Override
+    public ListIterator<NoteEvent> listIterator(int index)
+    {
+        return new SetCountListIterator(super.listIterator(index));
     }
 
     /**
@@ -92,9 +124,19 @@ public class Phrase extends LinkedList<NoteEvent>
      */
     public void add(Phrase p)
     {
+        // Both phrases are sorted: merge them in a single pass. For identical positions, our notes come first, as with addOrdered().
+        ListIterator<NoteEvent> it = listIterator();
         for (NoteEvent mne : p)
         {
-            addOrdered(mne.clone());
+            while (it.hasNext())
+            {
+                if (mne.isBefore(it.next()))
+                {
+                    it.previous();
+                    break;
+                }
+            }
+            it.add(mne.clone());
         }
     }
 
@@ -105,25 +147,18 @@ public class Phrase extends LinkedList<NoteEvent>
      */
     public void addOrdered(NoteEvent mne)
     {
-        if (isEmpty())
+        if (isEmpty() || !mne.isBefore(getLast()))
         {
+            // Most common case
             add(mne);
 
         } else
         {
-            // There are more chances to find the right place near the end...
-            ListIterator<NoteEvent> it = listIterator(size());
-            boolean beforeEvent = true;
-            while (it.hasPrevious() && (beforeEvent = mne.isBefore(it.previous())))
-            {
-                // Nothing
-            }
-            if (!beforeEvent)
-            {
-                // We exited the loop because we're after the next event
-                it.next();
-            }
-            it.add(mne);
+            // Insert after the NoteEvents with the same position
+            PositionIndex index = getPositionIndex();
+            int i = index.upperBound(mne.getPositionInBeats());
+            super.add(i, mne);
+            insertInPositionIndex(index, i, mne);
         }
     }
 
@@ -507,16 +542,18 @@ public class Phrase extends LinkedList<NoteEvent>
     public List<NoteEvent> getNotes(FloatRange range, boolean excludeUpperBound)
     {
         var res = new ArrayList<NoteEvent>();
-        for (NoteEvent ne : this)
+        PositionIndex index = getPositionIndex();
+        for (int i = index.lowerBound(range.from); i < index.size; i++)
         {
-            if (range.contains(ne.getPositionInBeats(), excludeUpperBound))
-            {
-                res.add(ne);
-            }
+            NoteEvent ne = index.notes[i];
             if (ne.getPositionInBeats() > range.to)
             {
                 break;
             }
+            if (range.contains(ne.getPositionInBeats(), excludeUpperBound))
+            {
+                res.add(ne);
+            }
         }
         return res;
     }
@@ -532,12 +569,15 @@ public class Phrase extends LinkedList<NoteEvent>
     public List<NoteEvent> getCrossingNotes(float posInBeats, boolean strict)
     {
         ArrayList<NoteEvent> res = new ArrayList<>();
-        var it = listIterator();
-        while (it.hasNext())
+        PositionIndex index = getPositionIndex();
+
+        // Search backwards from the last note starting before posInBeats, until no note can be long enough to reach posInBeats
+        int end = strict ? index.lowerBound(posInBeats) : index.upperBound(posInBeats);
+        for (int i = end - 1; i >= 0; i--)
         {
-            NoteEvent ne = it.next();
+            NoteEvent ne = index.notes[i];
             float pos = ne.getPositionInBeats();
-            if ((strict && pos >= posInBeats) || (!strict && pos > posInBeats))
+            if ((strict && pos + index.maxDuration <= posInBeats) || (!strict && pos + index.maxDuration < posInBeats))
             {
                 break;
             }
@@ -546,23 +586,68 @@ public class Phrase extends LinkedList<NoteEvent>
                 res.add(ne);
             }
         }
+        Collections.reverse(res);
         return res;
     }
 
     /**
      * Create MidiEvents for each note and add it to the specified track.
      * <p>
-     * Tick resolution used is MidiConst.PPQ_RESOLUTION.
+     * Tick resolution used is MidiConst.PPQ_RESOLUTION. MidiEvents of NoteEvent instances are added sorted by tick, and ShortMessages
+     * are shared between notes with identical pitch and velocity. MidiEvents of NoteEvent subclasses (e.g. PitchBendEvent) are
+     * obtained via toMidiEvents().
      *
      * @param track
      */
     public void fillTrack(Track track)
     {
+        fillTrack(track, 0);
+    }
+
+    /**
+     * Same as fillTrack(Track) but with all MidiEvents shifted by tickOffset.
+     *
+     * @param track
+     * @param tickOffset
+     */
+    public void fillTrack(Track track, long tickOffset)
+    {
+        int size = size();
+        byte[] pitches = new byte[size];
+        byte[] velocities = new byte[size];
+        float[] positions = new float[size];
+        float[] durations = new float[size];
+        int i = 0;
+        List<NoteEvent> otherEvents = null;
         for (NoteEvent ne : this)
         {
-            for (MidiEvent me : ne.toMidiEvents(channel))
+            if (ne.getClass() != NoteEvent.class)
             {
-                track.add(me);
+                // Subclasses may override toMidiEvents()
+                if (otherEvents == null)
+                {
+                    otherEvents = new ArrayList<>();
+                }
+                otherEvents.add(ne);
+                continue;
+            }
+            pitches[i] = (byte) ne.getPitch();
+            velocities[i] = (byte) ne.getVelocity();
+            positions[i] = ne.getPositionInBeats();
+            durations[i] = ne.getDurationInBeats();
+            i++;
+        }
+        new NoteTrackWriter(channel).write(track, i, pitches, velocities, positions, durations, tickOffset);
+
+        if (otherEvents != null)
+        {
+            for (NoteEvent ne : otherEvents)
+            {
+                for (MidiEvent me : ne.toMidiEvents(channel))
+                {
+                    me.setTick(me.getTick() + tickOffset);
+                    track.add(me);
+                }
             }
         }
     }
@@ -722,4 +807,198 @@ public class Phrase extends LinkedList<NoteEvent>
         }
     }
 
+    // =========================================================================
+    // Private methods
+    // =========================================================================
+    /**
+     * Get the position index, build it if needed.
+     *
+     * @return
+     */
+    private PositionIndex getPositionIndex()
+    {
+        PositionIndex index = getValidPositionIndex();
+        if (index == null)
+        {
+            int size = size();
+            NoteEvent[] notes = new NoteEvent[size + (size >> 1) + 1];
+            float maxDuration = 0;
+            int i = 0;
+            for (NoteEvent ne : this)
+            {
+                notes[i++] = ne;
+                maxDuration = Math.max(maxDuration, ne.getDurationInBeats());
+            }
+            index = new PositionIndex(notes, size, maxDuration, modCount, setCount);
+            positionIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * @return The position index if it is built and up to date, null otherwise.
+     */
+    private PositionIndex getValidPositionIndex()
+    {
+        PositionIndex index = positionIndex;
+        return (index != null && index.modCount == modCount && index.setCount == setCount) ? index : null;
+    }
+
+    /**
+     * Update the position index after ne was inserted at index i in this phrase.
+     *
+     * @param index The position index before the insertion
+     * @param i
+     * @param ne
+     */
+    private void insertInPositionIndex(PositionIndex index, int i, NoteEvent ne)
+    {
+        NoteEvent[] notes = index.notes;
+        if (index.size == notes.length)
+        {
+            notes = Arrays.copyOf(notes, index.size + (index.size >> 1) + 1);
+        }
+        System.arraycopy(notes, i, notes, i + 1, index.size - i);
+        notes[i] = ne;
+        positionIndex = new PositionIndex(notes, index.size + 1, Math.max(index.maxDuration, ne.getDurationInBeats()), modCount, setCount);
+    }
+
+    // =========================================================================
+    // Private classes
+    // =========================================================================
+    /**
+     * The phrase NoteEvents in an array, valid as long as the phrase is not modified.
+     */
+    private static class PositionIndex
+    {
+
+        final NoteEvent[] notes;
+        final int size;
+        final float maxDuration;
+        final int modCount;
+        final int setCount;
+
+        PositionIndex(NoteEvent[] notes, int size, float maxDuration, int modCount, int setCount)
+        {
+            this.notes = notes;
+            this.size = size;
+            this.maxDuration = maxDuration;
+            this.modCount = modCount;
+            this.setCount = setCount;
+        }
+
+        /**
+         * @param pos
+         * @return The index of the first note whose position is equal or after pos, or size.
+         */
+        int lowerBound(float pos)
+        {
+            int low = 0;
+            int high = size;
+            while (low < high)
+            {
+                int mid = (low + high) >>> 1;
+                if (notes[mid].getPositionInBeats() < pos)
+                {
+                    low = mid + 1;
+                } else
+                {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @param pos
+         * @return The index of the first note whose position is after pos, or size.
+         */
+        int upperBound(float pos)
+        {
+            int low = 0;
+            int high = size;
+            while (low < high)
+            {
+                int mid = (low + high) >>> 1;
+                if (notes[mid].getPositionInBeats() <= pos)
+                {
+                    low = mid + 1;
+                } else
+                {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * A ListIterator which counts the set() operations.
+     */
+    private class SetCountListIterator implements ListIterator<NoteEvent>
+    {
+
+        private final ListIterator<NoteEvent> it;
+
+        SetCountListIterator(ListIterator<NoteEvent> it)
+        {
+            this.it = it;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return it.hasNext();
+        }
+
+        @Override
+        public NoteEvent next()
+        {
+            return it.next();
+        }
+
+        @Override
+        public boolean hasPrevious()
+        {
+            return it.hasPrevious();
+        }
+
+        @Override
+        public NoteEvent previous()
+        {
+            return it.previous();
+        }
+
+        @Override
+        public int nextIndex()
+        {
+            return it.nextIndex();
+        }
+
+        @Override
+        public int previousIndex()
+        {
+            return it.previousIndex();
+        }
+
+        @Override
+        public void remove()
+        {
+            it.remove();
+        }
+
+        @Override
+        public void set(NoteEvent ne)
+        {
+            setCount++;
+            it.set(ne);
+        }
+
+        @Override
+        public void add(NoteEvent ne)
+        {
+            it.add(ne);
+        }
+    }
+
 }
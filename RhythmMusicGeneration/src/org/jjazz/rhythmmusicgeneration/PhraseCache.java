@@ -0,0 +1,395 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.rhythmmusicgeneration;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jjazz.leadsheet.chordleadsheet.api.ChordLeadSheet;
+import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_ChordSymbol;
+import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_Section;
+import org.jjazz.leadsheet.chordleadsheet.api.item.Position;
+import org.jjazz.midi.InstrumentMix;
+import org.jjazz.midimix.MidiMix;
+import org.jjazz.rhythm.api.MusicGenerationException;
+import org.jjazz.rhythm.api.Rhythm;
+import org.jjazz.rhythm.api.RhythmVoice;
+import org.jjazz.rhythm.api.RhythmVoiceDelegate;
+import org.jjazz.rhythm.parameters.RhythmParameter;
+import org.jjazz.rhythmmusicgeneration.spi.MusicGenerator;
+import org.jjazz.song.api.Song;
+import org.jjazz.songstructure.api.SongPart;
+import org.jjazz.songstructure.api.SongStructure;
+import org.jjazz.util.IntRange;
+
+/**
+ * A cache of the phrases generated by a MusicGenerator for a song part.
+ * <p>
+ * The cached unit is the music of one song part. On a cache miss the MusicGenerator is called with a context limited to the song
+ * part bars, on a hit the cached phrases are shifted to the song part position. This way the song parts which repeat in a song
+ * (e.g. the A sections of an AABA tune, or the choruses of a song) are generated only once.
+ * <p>
+ * The cache key identifies the data a generator can use for a song part: the rhythm unique id, the part of the song part in
+ * the context, the song tempo, the song part size, time signature and rhythm parameter values, the chord symbols of its parent
+ * section (relative to the section start), the boundary chord symbols and the size of the neighbour song parts, and the
+ * instruments/channels of the rhythm voices. It assumes that a MusicGenerator produces the same music for the same input.
+ * <p>
+ * Note that the music is generated song part by song part, the result can differ from a single MusicGenerator call for the
+ * whole context if the generator uses data not included in the key. The cache is bounded and its values can be reclaimed by
+ * the garbage collector if memory is low.
+ */
+public class PhraseCache
+{
+
+    public static final int DEFAULT_MAX_SIZE = 200;
+    private static PhraseCache INSTANCE;
+    private final int maxSize;
+    private final LinkedHashMap<List<Object>, SoftReference<HashMap<RhythmVoice, Phrase>>> cache;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private static final Logger LOGGER = Logger.getLogger(PhraseCache.class.getSimpleName());
+
+    /**
+     * The default shared instance.
+     *
+     * @return
+     */
+    public static PhraseCache getDefault()
+    {
+        synchronized (PhraseCache.class)
+        {
+            if (INSTANCE == null)
+            {
+                INSTANCE = new PhraseCache(DEFAULT_MAX_SIZE);
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * @param maxSize The maximum number of song parts phrases stored in the cache.
+     */
+    public PhraseCache(int maxSize)
+    {
+        if (maxSize < 1)
+        {
+            throw new IllegalArgumentException("maxSize=" + maxSize);
+        }
+        this.maxSize = maxSize;
+        cache = new LinkedHashMap<>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, SoftReference<HashMap<RhythmVoice, Phrase>>> eldest)
+            {
+                return size() > PhraseCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Generate the phrases of the specified rhythm for the context, reusing the cached song parts phrases when possible.
+     * <p>
+     * The song parts of r in the context are processed in order: the phrases of a song part are taken from the cache (shifted to
+     * the song part position), or generated with a context limited to the song part bars then stored in the cache. Returned
+     * phrases are new objects, they can be modified by the caller.
+     * <p>
+     * If the thread is interrupted the generation is aborted before the next song part generation.
+     *
+     * @param generator
+     * @param r The rhythm of the generator
+     * @param context
+     * @return One Phrase per rhythm voice, as MusicGenerator.generateMusic().
+     * @throws MusicGenerationException
+     */
+    public HashMap<RhythmVoice, Phrase> generateMusic(MusicGenerator generator, Rhythm r, MusicGenerationContext context) throws MusicGenerationException
+    {
+        HashMap<RhythmVoice, Phrase> res = new HashMap<>();
+
+        for (SongPart spt : context.getSongParts())
+        {
+            if (spt.getRhythm() != r)
+            {
+                continue;
+            }
+
+            List<Object> key = buildKey(r, spt, context);
+            float sptStartPos = context.getSptBeatRange(spt).from;
+            HashMap<RhythmVoice, Phrase> sptRes = get(key);
+            if (sptRes != null)
+            {
+                hitCount.incrementAndGet();
+                sptRes.values().forEach(p -> p.shiftEvents(sptStartPos));
+            } else
+            {
+                if (Thread.currentThread().isInterrupted())
+                {
+                    throw new MusicGenerationException("Music generation was interrupted");
+                }
+                missCount.incrementAndGet();
+                MusicGenerationContext sptContext = new MusicGenerationContext(context, context.getSptBarRange(spt));
+                sptRes = generator.generateMusic(sptContext);        // Throws MusicGenerationException
+                put(key, sptRes, sptStartPos);
+            }
+
+            // Merge
+            for (RhythmVoice rv : sptRes.keySet())
+            {
+                Phrase p = sptRes.get(rv);
+                Phrase pRes = res.get(rv);
+                if (pRes == null)
+                {
+                    res.put(rv, p);
+                } else
+                {
+                    p.forEach(ne -> pRes.addOrdered(ne));
+                }
+            }
+        }
+
+        LOGGER.log(Level.FINE, "generateMusic() r={0} {1}", new Object[]
+        {
+            r.getName(), this
+        });
+
+        return res;
+    }
+
+    /**
+     * @return The number of song parts whose phrases were found in the cache.
+     */
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    /**
+     * @return The number of song parts whose phrases had to be generated.
+     */
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+    public void resetStatistics()
+    {
+        hitCount.set(0);
+        missCount.set(0);
+    }
+
+    /**
+     * @return The number of entries in the cache, including those whose value might have been garbage collected.
+     */
+    public synchronized int getSize()
+    {
+        return cache.size();
+    }
+
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Remove all the cached phrases.
+     */
+    public synchronized void clear()
+    {
+        cache.clear();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PhraseCache[size=" + getSize() + ", hits=" + hitCount.get() + ", misses=" + missCount.get() + "]";
+    }
+
+    /**
+     * Build the cache key of the music of a song part.
+     * <p>
+     * Two song parts with equal keys are considered to provide the same input to a MusicGenerator, except for their position.
+     *
+     * @param r
+     * @param spt A song part of r in the context
+     * @param context
+     * @return
+     */
+    static List<Object> buildKey(Rhythm r, SongPart spt, MusicGenerationContext context)
+    {
+        List<Object> key = new ArrayList<>();
+        Song song = context.getSong();
+        SongStructure ss = song.getSongStructure();
+        ChordLeadSheet cls = song.getChordLeadSheet();
+
+        key.add(r.getUniqueId());
+        IntRange sptBars = context.getSptBarRange(spt);
+        key.add(sptBars.from - spt.getStartBarIndex());
+        key.add(sptBars.to - spt.getStartBarIndex());
+        key.add(song.getTempo());
+
+
+        // The song part itself
+        CLI_Section parentSection = spt.getParentSection();
+        key.add(spt.getNbBars());
+        key.add(parentSection.getData().getTimeSignature());
+        for (RhythmParameter<?> rp : r.getRhythmParameters())
+        {
+            key.add(rp.getId());
+            key.add(getRpValueKey(spt, rp));
+        }
+        int sectionBar = parentSection.getPosition().getBar();
+        for (CLI_ChordSymbol cliCs : cls.getItems(parentSection, CLI_ChordSymbol.class))
+        {
+            Position pos = cliCs.getPosition();
+            key.add(new Position(pos.getBar() - sectionBar, pos.getBeat()));
+            key.add(cliCs.getData());
+        }
+
+
+        // The neighbour song parts, a generator might use them at the song part boundaries
+        List<SongPart> spts = ss.getSongParts();
+        int index = spts.indexOf(spt);
+        SongPart prevSpt = index > 0 ? spts.get(index - 1) : null;
+        SongPart nextSpt = index < spts.size() - 1 ? spts.get(index + 1) : null;
+        addNeighbourKey(key, cls, prevSpt, false);
+        addNeighbourKey(key, cls, nextSpt, true);
+
+
+        // Channel and instrument of each RhythmVoice
+        MidiMix mm = context.getMidiMix();
+        for (RhythmVoice rv : r.getRhythmVoices())
+        {
+            RhythmVoice rvKey = (rv instanceof RhythmVoiceDelegate) ? ((RhythmVoiceDelegate) rv).getSource() : rv;
+            InstrumentMix insMix = mm.getInstrumentMixFromKey(rvKey);
+            key.add(mm.getChannel(rvKey));
+            key.add(insMix == null ? null : insMix.getInstrument());
+        }
+
+        return key;
+    }
+
+    // =========================================================================
+    // Private methods
+    // =========================================================================
+    /**
+     * Get clones of the cached phrases.
+     *
+     * @param key
+     * @return Null if not in the cache. Phrases positions are relative to the song part start.
+     */
+    private synchronized HashMap<RhythmVoice, Phrase> get(List<Object> key)
+    {
+        SoftReference<HashMap<RhythmVoice, Phrase>> ref = cache.get(key);
+        HashMap<RhythmVoice, Phrase> phrases = ref == null ? null : ref.get();
+        if (ref != null && phrases == null)
+        {
+            // Garbage collected
+            cache.remove(key);
+        }
+        return phrases == null ? null : cloneAll(phrases);
+    }
+
+    /**
+     * Store clones of the specified phrases, with positions relative to the song part start.
+     * <p>
+     * Nothing is stored if a note starts before the song part.
+     *
+     * @param key
+     * @param phrases
+     * @param sptStartPos
+     */
+    private synchronized void put(List<Object> key, HashMap<RhythmVoice, Phrase> phrases, float sptStartPos)
+    {
+        if (phrases.values().stream().anyMatch(p -> !p.isEmpty() && p.getFirst().getPositionInBeats() < sptStartPos))
+        {
+            LOGGER.log(Level.FINE, "put() notes before the song part start pos={0}, phrases not cached", sptStartPos);
+            return;
+        }
+        HashMap<RhythmVoice, Phrase> relPhrases = cloneAll(phrases);
+        relPhrases.values().forEach(p -> p.shiftEvents(-sptStartPos));
+        cache.put(key, new SoftReference<>(relPhrases));
+    }
+
+    /**
+     * Add the data of a neighbour song part: size, rhythm, and the chord symbol at the song part boundary.
+     *
+     * @param key
+     * @param cls
+     * @param spt Can be null
+     * @param next If true use the first chord symbol of spt, otherwise the last one.
+     */
+    static private void addNeighbourKey(List<Object> key, ChordLeadSheet cls, SongPart spt, boolean next)
+    {
+        if (spt == null)
+        {
+            key.add(null);
+            return;
+        }
+        key.add(spt.getNbBars());
+        key.add(spt.getRhythm().getUniqueId());
+        List<? extends CLI_ChordSymbol> cliCsList = cls.getItems(spt.getParentSection(), CLI_ChordSymbol.class);
+        if (cliCsList.isEmpty())
+        {
+            key.add(null);
+        } else
+        {
+            CLI_ChordSymbol cliCs = next ? cliCsList.get(0) : cliCsList.get(cliCsList.size() - 1);
+            key.add(cliCs.getPosition().getBeat());
+            key.add(cliCs.getData());
+        }
+    }
+
+    /**
+     * The rhythm parameter value itself (not its string representation which might be ambiguous), collections are copied.
+     */
+    static private Object getRpValueKey(SongPart spt, RhythmParameter<?> rp)
+    {
+        Object value = spt.getRPValue(rp);
+        if (value instanceof Set)
+        {
+            value = new HashSet<>((Set<?>) value);
+        } else if (value instanceof Collection)
+        {
+            value = new ArrayList<>((Collection<?>) value);
+        }
+        return value;
+    }
+
+    static private HashMap<RhythmVoice, Phrase> cloneAll(HashMap<RhythmVoice, Phrase> phrases)
+    {
+        HashMap<RhythmVoice, Phrase> res = new HashMap<>();
+        for (RhythmVoice rv : phrases.keySet())
+        {
+            res.put(rv, phrases.get(rv).clone());
+        }
+        return res;
+    }
+}
@@ -22,7 +22,6 @@
  */
 package org.jjazz.rhythmmusicgeneration;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -39,7 +38,6 @@ import org.jjazz.leadsheet.chordleadsheet.api.item.ChordRenderingInfo;
 import org.jjazz.leadsheet.chordleadsheet.api.item.ChordRenderingInfo.Feature;
 import org.jjazz.leadsheet.chordleadsheet.api.item.ExtChordSymbol;
 import static org.jjazz.rhythmmusicgeneration.Phrase.PARENT_NOTE;
-import static org.jjazz.util.Utilities.heapPermutation;
 import org.jjazz.rhythmmusicgeneration.SourcePhrase.ChordMode;
 
 /**
@@ -300,51 +298,15 @@ public class Phrases
 
         LOGGER.log(Level.FINE, "fitChordPhrase2ChordSymbol()   mapSrcDestDegrees={0}", mapSrcDestDegrees);
 
-        // Compute all the destination degrees permutations, eg [1,3,7] [7,3,1] [3,1,7] etc.
-        // CAUTIOUS this is X! => 6!=720 permutations. But normally most Yamaha chord source phrase should use max 4 or 5 chord notes.     
-        assert destDegrees.size() <= 9 : destDegrees;
-        int nbPermutations = 1;
-        for (int i = 2; i <= destDegrees.size(); i++)
-        {
-            nbPermutations *= i;
-        }
-        List<Degree[]> destDegreesPermutations = new ArrayList<>(nbPermutations);
-        heapPermutation(destDegrees.toArray(new Degree[0]), destDegrees.size(), destDegreesPermutations);
-
 
         // Chord made of each unique pitch note of the phrase
         Chord pSrcChord = pSrcWork.getChord();
 
 
-        // Calculate matching score for each permutation 
-        int bestScore = 100000;
-        Chord bestDestChord = null;
-        for (Degree[] destDegreePermutation : destDegreesPermutations)
-        {
-
-            // Build the destination phrase for this permutation
-            List<Integer> relPitches = getRelativePitches(ecsDest.getRootNote().getRelativePitch(), destDegreePermutation);
-
-
-            // Try with startnote below
-            Chord destChord = pSrcChord.computeParallelChord(relPitches, false);
-            int score = computeChordMatchingScore(pSrcChord, destChord, ecsDest);
-            if (bestDestChord == null || score < bestScore)
-            {
-                bestDestChord = destChord;
-                bestScore = score;
-            }
-
-
-            // Try with startnote above
-            destChord = pSrcChord.computeParallelChord(relPitches, true);
-            score = computeChordMatchingScore(pSrcChord, destChord, ecsDest);
-            if (score < bestScore)
-            {
-                bestDestChord = destChord;
-                bestScore = score;
-            }
-        }
+        // Find the destination degrees permutation, eg [1,3,7] [7,3,1] [3,1,7] etc., and the start note (below or above), which give 
+        // the best matching score. Results are cached since the same source chords and chord symbols are reused a lot in a song.
+        assert destDegrees.size() <= 9 : destDegrees;
+        Chord bestDestChord = ChordVoicingFinder.getInstance().findBestChord(pSrcChord, destDegrees.toArray(new Degree[0]), ecsDest);
 
         // Fix musical problems, like 2 contiguous top notes etc.
         // fixChordMusicalProblems(bestDestChord, ecsDest);
@@ -406,7 +368,7 @@ public class Phrases
      * @param ecsDest The chord symbol for the destination phrase
      * @return
      */
-    static private int computeChordMatchingScore(Chord cSrc, Chord cDest, ExtChordSymbol ecsDest)
+    static int computeChordMatchingScore(Chord cSrc, Chord cDest, ExtChordSymbol ecsDest)
     {
         if (cSrc.size() != cDest.size())
         {
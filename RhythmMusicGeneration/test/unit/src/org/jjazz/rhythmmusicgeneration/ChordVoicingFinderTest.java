@@ -0,0 +1,186 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.rhythmmusicgeneration;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.jjazz.harmony.Chord;
+import org.jjazz.harmony.Degree;
+import org.jjazz.harmony.Note;
+import org.jjazz.leadsheet.chordleadsheet.api.item.ExtChordSymbol;
+import static org.jjazz.util.Utilities.heapPermutation;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import org.junit.*;
+
+/**
+ * Check that ChordVoicingFinder returns the same chord than the former fitChordPhrase2ChordSymbol() algorithm, which scored all
+ * the destination degrees permutations.
+ */
+public class ChordVoicingFinderTest
+{
+
+    private static final String[] ROOTS =
+    {
+        "C", "Db", "D", "Eb", "E", "F", "Gb", "G", "Ab", "A", "Bb", "B"
+    };
+    private static final String[] CHORD_TYPES =
+    {
+        "7", "13", "m7", "7M", "6", "7b9"
+    };
+    private Random random;
+
+    public ChordVoicingFinderTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception
+    {
+    }
+
+    @Before
+    public void setUp()
+    {
+        random = new Random(42);
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testSameAsAllPermutations() throws ParseException
+    {
+        System.out.println("findBestChord same as all permutations");
+        int nbTests = 0;
+        for (int i = 0; i < 5000; i++)
+        {
+            Chord srcChord = createRandomChord();
+            int nbDegrees = srcChord.getRelativePitchChord().size();
+            if (nbDegrees > 7)
+            {
+                continue;
+            }
+            Degree[] destDegrees = createRandomDegrees(nbDegrees);
+            ExtChordSymbol ecsDest = createRandomChordSymbol();
+
+            Chord expResult = findBestChordAllPermutations(srcChord, destDegrees, ecsDest);
+            Chord result = ChordVoicingFinder.getInstance().findBestChord(srcChord, destDegrees, ecsDest);
+            assertEquals("srcChord=" + srcChord + " destDegrees=" + Arrays.toString(destDegrees) + " ecsDest=" + ecsDest,
+                    expResult.toString(), result.toString());
+            nbTests++;
+        }
+        System.out.println("  nbTests=" + nbTests);
+    }
+
+    @Test
+    public void testCache() throws ParseException
+    {
+        System.out.println("findBestChord cache");
+        Chord srcChord = new Chord(Arrays.asList(new Note(48), new Note(52), new Note(55), new Note(59)));
+        Degree[] destDegrees = new Degree[]
+        {
+            Degree.ROOT, Degree.THIRD_FLAT, Degree.FIFTH, Degree.SEVENTH_FLAT
+        };
+        ExtChordSymbol ecsDest = new ExtChordSymbol("Am7");
+
+        Chord result = ChordVoicingFinder.getInstance().findBestChord(srcChord, destDegrees, ecsDest);
+        assertEquals(findBestChordAllPermutations(srcChord, destDegrees, ecsDest).toString(), result.toString());
+        assertSame(result, ChordVoicingFinder.getInstance().findBestChord(srcChord, destDegrees.clone(), ecsDest));
+    }
+
+    // =========================================================================
+    // Private methods
+    // =========================================================================
+    /**
+     * The former fitChordPhrase2ChordSymbol() algorithm.
+     */
+    private Chord findBestChordAllPermutations(Chord srcChord, Degree[] destDegrees, ExtChordSymbol ecsDest)
+    {
+        List<Degree[]> permutations = new ArrayList<>();
+        heapPermutation(destDegrees.clone(), destDegrees.length, permutations);
+
+        int bestScore = 100000;
+        Chord bestDestChord = null;
+        for (Degree[] permutation : permutations)
+        {
+            List<Integer> relPitches = Phrases.getRelativePitches(ecsDest.getRootNote().getRelativePitch(), permutation);
+
+            Chord destChord = srcChord.computeParallelChord(relPitches, false);
+            int score = Phrases.computeChordMatchingScore(srcChord, destChord, ecsDest);
+            if (bestDestChord == null || score < bestScore)
+            {
+                bestDestChord = destChord;
+                bestScore = score;
+            }
+
+            destChord = srcChord.computeParallelChord(relPitches, true);
+            score = Phrases.computeChordMatchingScore(srcChord, destChord, ecsDest);
+            if (score < bestScore)
+            {
+                bestDestChord = destChord;
+                bestScore = score;
+            }
+        }
+        return bestDestChord;
+    }
+
+    /**
+     * A chord of 1 to 7 notes, in the low or high register, with a narrow or wide range.
+     */
+    private Chord createRandomChord()
+    {
+        int nbNotes = 1 + random.nextInt(7);
+        int lowPitch = random.nextBoolean() ? 20 + random.nextInt(60) : 90 + random.nextInt(30);
+        int range = random.nextBoolean() ? 14 : 30;
+        List<Note> notes = new ArrayList<>();
+        for (int i = 0; i < nbNotes; i++)
+        {
+            notes.add(new Note(Math.min(127, lowPitch + random.nextInt(range))));
+        }
+        return new Chord(notes);
+    }
+
+    private Degree[] createRandomDegrees(int nbDegrees)
+    {
+        List<Degree> degrees = new ArrayList<>(Arrays.asList(Degree.values()));
+        Collections.shuffle(degrees, random);
+        return degrees.subList(0, nbDegrees).toArray(new Degree[0]);
+    }
+
+    private ExtChordSymbol createRandomChordSymbol() throws ParseException
+    {
+        return new ExtChordSymbol(ROOTS[random.nextInt(ROOTS.length)] + CHORD_TYPES[random.nextInt(CHORD_TYPES.length)]);
+    }
+}
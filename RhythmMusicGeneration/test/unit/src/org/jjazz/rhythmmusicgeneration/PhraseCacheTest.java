@@ -0,0 +1,267 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.rhythmmusicgeneration;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import org.jjazz.harmony.TimeSignature;
+import org.jjazz.leadsheet.chordleadsheet.api.ChordLeadSheet;
+import org.jjazz.leadsheet.chordleadsheet.api.UnsupportedEditException;
+import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_ChordSymbol;
+import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_Factory;
+import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_Section;
+import org.jjazz.leadsheet.chordleadsheet.api.item.ExtChordSymbol;
+import org.jjazz.leadsheet.chordleadsheet.api.item.Position;
+import org.jjazz.midimix.MidiMix;
+import org.jjazz.rhythm.api.Rhythm;
+import org.jjazz.rhythm.api.RhythmVoice;
+import org.jjazz.rhythm.parameters.RP_STD_Variation;
+import org.jjazz.rhythmmusicgeneration.spi.MusicGenerator;
+import org.jjazz.song.api.Song;
+import org.jjazz.song.api.SongFactory;
+import org.jjazz.songstructure.api.SongPart;
+import org.jjazz.songstructure.api.SongStructure;
+import org.jjazz.util.IntRange;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import org.junit.*;
+
+/**
+ * Check that PhraseCache.generateMusic() returns the same music than MusicGenerator.generateMusic(), and that the music of
+ * repeated song parts is reused.
+ */
+public class PhraseCacheTest
+{
+
+    Song song;
+    SongStructure sgs;
+    ChordLeadSheet cls;
+    Rhythm r;
+    RP_STD_Variation rpVariation;
+    MidiMix midiMix;
+    ContextGenerator generator;
+    PhraseCache cache;
+
+    public PhraseCacheTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception
+    {
+    }
+
+    @Before
+    public void setUp() throws UnsupportedEditException, ParseException
+    {
+        // 2 sections A(4 bars) B(4 bars) => 2 song parts
+        song = SongFactory.getInstance().createEmptySong("PhraseCacheTest", 8);
+        cls = song.getChordLeadSheet();
+        sgs = song.getSongStructure();
+        CLI_Factory clif = CLI_Factory.getDefault();
+        cls.addSection(clif.createSection(cls, "B", TimeSignature.FOUR_FOUR, 4));
+        cls.addItem(clif.createChordSymbol(cls, new ExtChordSymbol("Dm7"), new Position(1, 0)));
+        cls.addItem(clif.createChordSymbol(cls, new ExtChordSymbol("G7"), new Position(3, 2)));
+        cls.addItem(clif.createChordSymbol(cls, new ExtChordSymbol("Bb7M"), new Position(5, 0)));
+        r = sgs.getSongPart(0).getRhythm();
+        rpVariation = RP_STD_Variation.getVariationRp(r);
+        midiMix = new MidiMix();
+        generator = new ContextGenerator(r, rpVariation);
+        cache = new PhraseCache(10);
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testCachedEqualsUncached() throws Exception
+    {
+        System.out.println("testCachedEqualsUncached");
+        MusicGenerationContext context = new MusicGenerationContext(song, midiMix);
+        HashMap<RhythmVoice, Phrase> uncached = generator.generateMusic(context);
+
+        HashMap<RhythmVoice, Phrase> miss = cache.generateMusic(generator, r, context);
+        HashMap<RhythmVoice, Phrase> hit = cache.generateMusic(generator, r, context);
+
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(uncached, miss);
+        assertEquals(uncached, hit);
+
+        // Returned phrases must not be shared with the cache
+        RhythmVoice rv = r.getRhythmVoices().get(0);
+        assertNotSame(miss.get(rv), hit.get(rv));
+        hit.get(rv).clear();
+        assertEquals(uncached, cache.generateMusic(generator, r, context));
+    }
+
+    @Test
+    public void testRpValueChange() throws Exception
+    {
+        System.out.println("testRpValueChange");
+        MusicGenerationContext context = new MusicGenerationContext(song, midiMix);
+        cache.generateMusic(generator, r, context);
+
+        SongPart spt1 = sgs.getSongParts().get(1);
+        List<String> values = rpVariation.getPossibleValues();
+        String newValue = values.get((values.indexOf(spt1.getRPValue(rpVariation)) + 1) % values.size());
+        sgs.setRhythmParameterValue(spt1, rpVariation, newValue);
+
+        // Only the 2nd song part is generated again
+        HashMap<RhythmVoice, Phrase> uncached = generator.generateMusic(context);
+        assertEquals(uncached, cache.generateMusic(generator, r, context));
+        assertEquals(3, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testChordChange() throws Exception
+    {
+        System.out.println("testChordChange");
+        MusicGenerationContext context = new MusicGenerationContext(song, midiMix);
+        cache.generateMusic(generator, r, context);
+
+        // Change the first chord of the 2nd song part, it is also part of the first song part key
+        CLI_ChordSymbol cliCs = cls.getItems(4, 7, CLI_ChordSymbol.class).get(0);
+        cls.changeItem(cliCs, new ExtChordSymbol("Eb7M"));
+
+        HashMap<RhythmVoice, Phrase> uncached = generator.generateMusic(context);
+        assertEquals(uncached, cache.generateMusic(generator, r, context));
+        assertEquals(4, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void testPartialContext() throws Exception
+    {
+        System.out.println("testPartialContext");
+        MusicGenerationContext context = new MusicGenerationContext(song, midiMix);
+        MusicGenerationContext subContext = new MusicGenerationContext(song, midiMix, new IntRange(2, 5));
+        cache.generateMusic(generator, r, context);
+
+        // The song parts are only partially in subContext, they are different cache entries
+        HashMap<RhythmVoice, Phrase> uncached = generator.generateMusic(subContext);
+        assertEquals(uncached, cache.generateMusic(generator, r, subContext));
+        assertEquals(uncached, cache.generateMusic(generator, r, subContext));
+        assertEquals(4, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void testRepeatedSongParts() throws Exception
+    {
+        System.out.println("testRepeatedSongParts");
+
+        // Song structure A B A B A B
+        List<SongPart> newSpts = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+        {
+            SongPart spt = sgs.getSongParts().get(i % 2);
+            newSpts.add(sgs.createSongPart(r, spt.getName(), 8 + i * 4, spt.getNbBars(), spt.getParentSection(), true));
+        }
+        sgs.addSongParts(newSpts);
+        assertEquals(24, sgs.getSizeInBars());
+
+        // The 2nd A and B have the same neighbours than the 3rd A and B: their music is reused, shifted to the new position
+        MusicGenerationContext context = new MusicGenerationContext(song, midiMix);
+        HashMap<RhythmVoice, Phrase> uncached = generator.generateMusic(context);
+        assertEquals(uncached, cache.generateMusic(generator, r, context));
+        assertEquals(4, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+    }
+
+    /**
+     * A generator whose music depends on the whole song: rhythm parameter values, chords and next song part.
+     * <p>
+     * Notes are held over the next song part, and velocity depends on the context bar range.
+     */
+    static private class ContextGenerator implements MusicGenerator
+    {
+
+        private final Rhythm rhythm;
+        private final RP_STD_Variation rpVariation;
+
+        ContextGenerator(Rhythm r, RP_STD_Variation rpVariation)
+        {
+            this.rhythm = r;
+            this.rpVariation = rpVariation;
+        }
+
+        @Override
+        public Rhythm getRhythm()
+        {
+            return rhythm;
+        }
+
+        @Override
+        public HashMap<RhythmVoice, Phrase> generateMusic(MusicGenerationContext context)
+        {
+            Phrase p = new Phrase(0);
+            Song sg = context.getSong();
+            SongStructure ss = sg.getSongStructure();
+            ChordLeadSheet chordLeadSheet = sg.getChordLeadSheet();
+            List<SongPart> spts = ss.getSongParts();
+
+            for (SongPart spt : context.getSongParts())
+            {
+                if (spt.getRhythm() != rhythm)
+                {
+                    continue;
+                }
+                int pitchOffset = rpVariation.getPossibleValues().indexOf(spt.getRPValue(rpVariation));
+                int index = spts.indexOf(spt);
+                SongPart nextSpt = index < spts.size() - 1 ? spts.get(index + 1) : null;
+                CLI_Section section = spt.getParentSection();
+                int sectionBar = section.getPosition().getBar();
+                IntRange bars = context.getSptBarRange(spt);
+                float holdDuration = nextSpt == null ? 1 : 1 + nextSpt.getNbBars();
+
+                for (CLI_ChordSymbol cliCs : chordLeadSheet.getItems(section, CLI_ChordSymbol.class))
+                {
+                    Position pos = cliCs.getPosition();
+                    int bar = spt.getStartBarIndex() + pos.getBar() - sectionBar;
+                    if (!bars.contains(bar))
+                    {
+                        continue;
+                    }
+                    float posInBeats = ss.getPositionInNaturalBeats(bar) + pos.getBeat();
+                    int pitch = 48 + cliCs.getData().getRootNote().getRelativePitch() + pitchOffset;
+                    p.addOrdered(new NoteEvent(pitch, holdDuration, 64 + bars.size(), posInBeats));
+                }
+            }
+
+            HashMap<RhythmVoice, Phrase> res = new HashMap<>();
+            res.put(rhythm.getRhythmVoices().get(0), p);
+            return res;
+        }
+    }
+}
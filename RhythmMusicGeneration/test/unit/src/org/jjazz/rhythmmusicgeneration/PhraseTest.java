@@ -0,0 +1,355 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.rhythmmusicgeneration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Random;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import org.jjazz.midi.MidiConst;
+import org.jjazz.util.FloatRange;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.*;
+
+/**
+ * Check Phrase ordered operations against linear scans, and Phrase.fillTrack() against the NoteEvent.toMidiEvents() conversion.
+ */
+public class PhraseTest
+{
+
+    private static final int CHANNEL = 2;
+    private Random random;
+
+    public PhraseTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception
+    {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception
+    {
+    }
+
+    @Before
+    public void setUp()
+    {
+        random = new Random(7);
+    }
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    @Test
+    public void testOrderedOperationsSameAsLinearScan()
+    {
+        System.out.println("ordered operations same as linear scan");
+        Phrase p = new Phrase(CHANNEL);
+        List<NoteEvent> ref = new ArrayList<>();
+        for (int i = 0; i < 5000; i++)
+        {
+            int op = random.nextInt(10);
+            if (op < 4 || ref.size() < 10)
+            {
+                // Insert anywhere
+                NoteEvent ne = createRandomNoteEvent(random.nextInt(64) * 0.5f);
+                p.addOrdered(ne);
+                addOrderedLinearScan(ref, ne);
+            } else if (op == 4)
+            {
+                // Append
+                float pos = ref.get(ref.size() - 1).getPositionInBeats() + random.nextInt(2) * 0.5f;
+                NoteEvent ne = createRandomNoteEvent(pos);
+                p.add(ne);
+                ref.add(ne);
+            } else if (op == 5)
+            {
+                // Replace by a longer note at the same position
+                int index = random.nextInt(ref.size());
+                NoteEvent ne = ref.get(index);
+                NoteEvent newNe = new NoteEvent(ne, ne.getDurationInBeats() + random.nextInt(20));
+                if (random.nextBoolean())
+                {
+                    p.set(index, newNe);
+                } else
+                {
+                    ListIterator<NoteEvent> it = p.listIterator(index);
+                    it.next();
+                    it.set(newNe);
+                }
+                ref.set(index, newNe);
+            } else if (op == 6)
+            {
+                int index = random.nextInt(ref.size());
+                Iterator<NoteEvent> it = p.iterator();
+                for (int j = 0; j <= index; j++)
+                {
+                    it.next();
+                }
+                it.remove();
+                ref.remove(index);
+            } else if (op == 7)
+            {
+                p.removeFirst();
+                ref.remove(0);
+            } else
+            {
+                // Queries
+                float from = random.nextInt(70) * 0.5f;
+                FloatRange range = new FloatRange(from, from + 0.5f + random.nextInt(8) * 0.5f);
+                boolean b = random.nextBoolean();
+                assertEquals(getNotesLinearScan(ref, range, b), p.getNotes(range, b));
+                float pos = random.nextInt(140) * 0.25f;
+                assertEquals(getCrossingNotesLinearScan(ref, pos, b), p.getCrossingNotes(pos, b));
+            }
+            assertEquals(ref.size(), p.size());
+        }
+        assertEquals(ref, new ArrayList<>(p));
+    }
+
+    @Test
+    public void testFillTrackSameAsToMidiEvents() throws InvalidMidiDataException
+    {
+        System.out.println("fillTrack same as toMidiEvents");
+        for (int tickOffset : new int[]
+        {
+            0, 7 * MidiConst.PPQ_RESOLUTION
+        })
+        {
+            Phrase p = createRandomPhrase(500);
+            Track track = createTrack();
+            p.fillTrack(track, tickOffset);
+
+            // Adding the events one by one gives the same events in the same order
+            Track refTrack = createTrack();
+            for (NoteEvent ne : p)
+            {
+                for (MidiEvent me : ne.toMidiEvents(CHANNEL))
+                {
+                    me.setTick(me.getTick() + tickOffset);
+                    refTrack.add(me);
+                }
+            }
+            assertEquals(toStrings(refTrack), toStrings(track));
+        }
+    }
+
+    @Test
+    public void testFillTrackSubclass() throws InvalidMidiDataException
+    {
+        System.out.println("fillTrack with NoteEvent subclasses");
+        Phrase p = createRandomPhrase(50);
+        NoteEvent destNote = new NoteEvent(64, 2f, 100, 10.5f);
+        PitchBendEvent pbe = new PitchBendEvent(destNote, 62);
+        p.addOrdered(pbe);
+        CustomNoteEvent cne = new CustomNoteEvent(65, 1f, 90, 3.25f);
+        p.addOrdered(cne);
+
+        int tickOffset = 4 * MidiConst.PPQ_RESOLUTION;
+        Track track = createTrack();
+        p.fillTrack(track, tickOffset);
+
+        // Subclasses events come from their toMidiEvents() override
+        List<String> refEvents = new ArrayList<>();
+        for (NoteEvent ne : p)
+        {
+            for (MidiEvent me : ne.toMidiEvents(CHANNEL))
+            {
+                me.setTick(me.getTick() + tickOffset);
+                refEvents.add(toString(me));
+            }
+        }
+        List<String> events = toStrings(track);
+        events.remove(events.size() - 1);       // End of track
+        Collections.sort(refEvents);
+        Collections.sort(events);
+        assertEquals(refEvents, events);
+
+        // Events are still sorted by tick
+        long lastTick = 0;
+        for (int i = 0; i < track.size(); i++)
+        {
+            assertTrue(track.get(i).getTick() >= lastTick);
+            lastTick = track.get(i).getTick();
+        }
+
+        // No NOTE_ON for the subclasses
+        long pbeTick = tickOffset + Math.round(pbe.getPositionInBeats() * MidiConst.PPQ_RESOLUTION);
+        long cneTick = tickOffset + Math.round(cne.getPositionInBeats() * MidiConst.PPQ_RESOLUTION);
+        for (int i = 0; i < track.size(); i++)
+        {
+            MidiEvent me = track.get(i);
+            if (me.getMessage() instanceof ShortMessage && ((ShortMessage) me.getMessage()).getCommand() == ShortMessage.NOTE_ON)
+            {
+                ShortMessage sm = (ShortMessage) me.getMessage();
+                assertFalse(me.getTick() == pbeTick && sm.getData1() == pbe.getPitch());
+                assertFalse(me.getTick() == cneTick && sm.getData1() == cne.getPitch());
+            }
+        }
+        assertEquals(1, countEvents(track, CustomNoteEvent.CONTROLLER));
+    }
+
+    // =========================================================================
+    // Private methods
+    // =========================================================================
+    private Phrase createRandomPhrase(int nbNotes)
+    {
+        Phrase p = new Phrase(CHANNEL);
+        float pos = 0;
+        for (int i = 0; i < nbNotes; i++)
+        {
+            // Use a coarse grid to get identical ticks and overlapping notes
+            pos += random.nextInt(3) * 0.25f;
+            float dur = 0.25f * (1 + random.nextInt(8));
+            p.add(new NoteEvent(36 + random.nextInt(4), dur, 60 + random.nextInt(2), pos));
+        }
+        return p;
+    }
+
+    private NoteEvent createRandomNoteEvent(float pos)
+    {
+        return new NoteEvent(36 + random.nextInt(40), 0.25f * (1 + random.nextInt(12)), 64, pos);
+    }
+
+    /**
+     * Insert ne after the notes with the same position.
+     */
+    private void addOrderedLinearScan(List<NoteEvent> nes, NoteEvent ne)
+    {
+        int index = nes.size();
+        while (index > 0 && ne.isBefore(nes.get(index - 1)))
+        {
+            index--;
+        }
+        nes.add(index, ne);
+    }
+
+    private List<NoteEvent> getNotesLinearScan(List<NoteEvent> nes, FloatRange range, boolean excludeUpperBound)
+    {
+        List<NoteEvent> res = new ArrayList<>();
+        for (NoteEvent ne : nes)
+        {
+            if (range.contains(ne.getPositionInBeats(), excludeUpperBound))
+            {
+                res.add(ne);
+            }
+        }
+        return res;
+    }
+
+    private List<NoteEvent> getCrossingNotesLinearScan(List<NoteEvent> nes, float posInBeats, boolean strict)
+    {
+        List<NoteEvent> res = new ArrayList<>();
+        for (NoteEvent ne : nes)
+        {
+            float from = ne.getPositionInBeats();
+            float to = from + ne.getDurationInBeats();
+            if ((strict && from < posInBeats && to > posInBeats) || (!strict && from <= posInBeats && to >= posInBeats))
+            {
+                res.add(ne);
+            }
+        }
+        return res;
+    }
+
+    private Track createTrack() throws InvalidMidiDataException
+    {
+        return new Sequence(Sequence.PPQ, MidiConst.PPQ_RESOLUTION).createTrack();
+    }
+
+    private int countEvents(Track track, int controller)
+    {
+        int res = 0;
+        for (int i = 0; i < track.size(); i++)
+        {
+            if (track.get(i).getMessage() instanceof ShortMessage)
+            {
+                ShortMessage sm = (ShortMessage) track.get(i).getMessage();
+                if (sm.getCommand() == ShortMessage.CONTROL_CHANGE && sm.getData1() == controller)
+                {
+                    res++;
+                }
+            }
+        }
+        return res;
+    }
+
+    private List<String> toStrings(Track track)
+    {
+        List<String> res = new ArrayList<>();
+        for (int i = 0; i < track.size(); i++)
+        {
+            res.add(toString(track.get(i)));
+        }
+        return res;
+    }
+
+    private String toString(MidiEvent me)
+    {
+        return String.format("%08d:", me.getTick()) + Arrays.toString(me.getMessage().getMessage());
+    }
+
+    /**
+     * A NoteEvent which is rendered as a control change.
+     */
+    private static class CustomNoteEvent extends NoteEvent
+    {
+
+        static final int CONTROLLER = 20;
+
+        CustomNoteEvent(int pitch, float duration, int velocity, float posInBeats)
+        {
+            super(pitch, duration, velocity, posInBeats);
+        }
+
+        @Override
+        public MidiEvent[] toMidiEvents(int channel)
+        {
+            MidiEvent[] events = new MidiEvent[1];
+            try
+            {
+                ShortMessage sm = new ShortMessage(ShortMessage.CONTROL_CHANGE, channel, CONTROLLER, getPitch());
+                events[0] = new MidiEvent(sm, Math.round(getPositionInBeats() * MidiConst.PPQ_RESOLUTION));
+            } catch (InvalidMidiDataException ex)
+            {
+                throw new IllegalStateException(ex);
+            }
+            return events;
+        }
+    }
+}
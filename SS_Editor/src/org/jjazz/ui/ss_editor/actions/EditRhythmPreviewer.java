@@ -43,8 +43,9 @@ import org.jjazz.leadsheet.chordleadsheet.api.UnsupportedEditException;
 import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_Section;
 import org.jjazz.midi.Instrument;
 import org.jjazz.midi.InstrumentMix;
+import org.jjazz.midi.JJazzMidiSystem;
 import org.jjazz.midi.MidiConst;
-import org.jjazz.midi.MidiUtilities;
+import org.jjazz.midi.device.ChannelRerouter;
 import org.jjazz.midi.synths.StdSynth;
 import org.jjazz.midimix.MidiMix;
 import org.jjazz.midimix.MidiMixManager;
@@ -201,9 +202,12 @@ public class EditRhythmPreviewer implements RhythmSelectionDialog.RhythmPreviewP
             throw new MusicGenerationException("Unexpected error while building sequence. Consult log for details.");
         }
 
-        // Reroute drums channels if needed
-        List<Integer> toBeRerouted = mm.getDrumsReroutedChannels();
-        MidiUtilities.rerouteShortMessages(sequence, toBeRerouted, MidiConst.CHANNEL_DRUMS);
+        // Reroute drums channels if needed, sequence is left unchanged
+        ChannelRerouter rerouter = JJazzMidiSystem.getInstance().getSequencerChannelRerouter();
+        if (rerouter != null)
+        {
+            rerouter.setReroutings(mm.getDrumsReroutedChannels(), MidiConst.CHANNEL_DRUMS);
+        }
 
         // Prepare sequencer
         try
@@ -0,0 +1,326 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.songeditormanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+import javax.sound.midi.Sequence;
+import org.jjazz.filedirectorymanager.FileDirectoryManager;
+import org.jjazz.midimix.MidiMix;
+import org.jjazz.midimix.MidiMixManager;
+import org.jjazz.rhythm.api.MusicGenerationException;
+import org.jjazz.song.api.Song;
+import org.jjazz.song.api.SongFactory;
+import org.jjazz.util.Utilities;
+import org.netbeans.api.sendopts.CommandException;
+import org.netbeans.spi.sendopts.Env;
+import org.netbeans.spi.sendopts.Option;
+import org.netbeans.spi.sendopts.OptionProcessor;
+import org.openide.util.lookup.ServiceProvider;
+
+/**
+ * Command line batch export of song files to Midi files, with no user interface.
+ * <p>
+ * Usage: <code>jjazzlab --nogui --export-midi &lt;song file or directory&gt;... [--export-midi-dir &lt;output dir&gt;]
+ * [--export-midi-threads &lt;n&gt;] [--render-wav]</code>
+ * <p>
+ * With --render-wav each song is also rendered offline to a WAV file using the Java software synth, see OfflineAudioRenderer.
+ * <p>
+ * Directories are scanned recursively for song files. Songs are processed in parallel (one thread per processor by default), a
+ * line with the processing time is printed for each song, then a summary. If no output directory is specified, each Midi file
+ * is written next to its song file. Otherwise the tree of each scanned directory is mirrored in the output directory. If several
+ * songs would still be written to the same file, a "-2", "-3"... suffix is added to the file names.
+ */
+@ServiceProvider(service = OptionProcessor.class)
+public class BatchMidiExport extends OptionProcessor
+{
+
+    private static final int MAX_DIR_DEPTH = 20;
+    private final Option exportOption = Option.additionalArguments(Option.NO_SHORT_NAME, "export-midi");
+    private final Option outDirOption = Option.requiredArgument(Option.NO_SHORT_NAME, "export-midi-dir");
+    private final Option threadsOption = Option.requiredArgument(Option.NO_SHORT_NAME, "export-midi-threads");
+    private final Option renderWavOption = Option.withoutArgument(Option.NO_SHORT_NAME, "render-wav");
+    private static final Logger LOGGER = Logger.getLogger(BatchMidiExport.class.getSimpleName());
+
+    // ==================================================================================
+    // OptionProcessor implementation
+    // ==================================================================================
+    @Override
+    protected Set<Option> getOptions()
+    {
+        HashSet<Option> set = new HashSet<>();
+        set.add(exportOption);
+        set.add(outDirOption);
+        set.add(threadsOption);
+        set.add(renderWavOption);
+        return set;
+    }
+
+    @Override
+    protected void process(Env env, Map<Option, String[]> values) throws CommandException
+    {
+        LOGGER.fine("process() --  env=" + env + " values=" + values);
+
+        if (!values.containsKey(exportOption))
+        {
+            throw new CommandException(2, "Missing --export-midi option");
+        }
+
+        // Output directory
+        File outDir = null;
+        if (values.containsKey(outDirOption))
+        {
+            outDir = getFile(env, values.get(outDirOption)[0]);
+            if (!outDir.isDirectory() && !outDir.mkdirs())
+            {
+                throw new CommandException(2, "Invalid output directory: " + outDir.getAbsolutePath());
+            }
+        }
+
+        // Number of threads
+        int nbThreads = Runtime.getRuntime().availableProcessors();
+        if (values.containsKey(threadsOption))
+        {
+            try
+            {
+                nbThreads = Integer.parseInt(values.get(threadsOption)[0]);
+            } catch (NumberFormatException ex)
+            {
+                nbThreads = 0;
+            }
+            if (nbThreads < 1)
+            {
+                throw new CommandException(2, "Invalid number of threads: " + values.get(threadsOption)[0]);
+            }
+        }
+
+        // Collect the song files and their output directory
+        LinkedHashMap<File, File> mapSongOutDir = new LinkedHashMap<>();
+        for (String fileName : values.get(exportOption))
+        {
+            File f = getFile(env, fileName);
+            if (f.isDirectory())
+            {
+                for (File songFile : getSongFiles(f))
+                {
+                    File dir = songFile.getParentFile();
+                    if (outDir != null)
+                    {
+                        // Mirror the scanned directory tree
+                        dir = outDir.toPath().resolve(f.toPath().relativize(dir.toPath())).toFile();
+                    }
+                    mapSongOutDir.putIfAbsent(songFile, dir);
+                }
+            } else if (f.isFile())
+            {
+                mapSongOutDir.putIfAbsent(f, outDir != null ? outDir : f.getParentFile());
+            } else
+            {
+                env.getErrorStream().println("Can't find " + f.getAbsolutePath());
+            }
+        }
+
+        boolean renderWav = values.containsKey(renderWavOption);
+        int nbErrors = exportSongs(getMidiFiles(mapSongOutDir), nbThreads, renderWav, env.getOutputStream(), env.getErrorStream());
+        if (nbErrors > 0)
+        {
+            throw new CommandException(1, nbErrors + " song(s) could not be exported");
+        }
+    }
+
+    /**
+     * Export the song files to Midi files in parallel.
+     *
+     * @param mapSongMidiFile The Midi file of each song file. Midi files must be different. Missing parent directories are
+     *                        created.
+     * @param nbThreads
+     * @param renderWav       If true also render each song to a WAV file, next to its Midi file
+     * @param out             Used to print the per-song timing and the summary
+     * @param err             Used to print the errors
+     * @return The number of songs which could not be exported
+     */
+    public int exportSongs(Map<File, File> mapSongMidiFile, int nbThreads, boolean renderWav, PrintStream out, PrintStream err)
+    {
+        if (mapSongMidiFile == null || nbThreads < 1 || out == null || err == null)
+        {
+            throw new IllegalArgumentException("mapSongMidiFile=" + mapSongMidiFile + " nbThreads=" + nbThreads);
+        }
+
+        List<File> songFiles = new ArrayList<>(mapSongMidiFile.keySet());
+        long start = System.currentTimeMillis();
+        out.println("Exporting " + songFiles.size() + " song(s) to Midi files using " + nbThreads + " thread(s)...");
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(nbThreads, songFiles.size())));
+        List<Future<String>> futures = new ArrayList<>();
+        for (File songFile : songFiles)
+        {
+            File midiFile = mapSongMidiFile.get(songFile);
+            futures.add(executor.submit(() -> exportSong(songFile, midiFile, renderWav)));
+        }
+        executor.shutdown();
+
+        int nbErrors = 0;
+        for (int i = 0; i < futures.size(); i++)
+        {
+            try
+            {
+                out.println(futures.get(i).get());
+            } catch (ExecutionException ex)
+            {
+                nbErrors++;
+                Throwable cause = ex.getCause();
+                err.println("ERROR " + songFiles.get(i).getAbsolutePath() + ": " + cause.getLocalizedMessage());
+                LOGGER.warning("exportSongs() song=" + songFiles.get(i).getAbsolutePath() + " ex=" + cause);
+            } catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                executor.shutdownNow();
+                nbErrors += futures.size() - i;
+                break;
+            }
+        }
+
+        long time = System.currentTimeMillis() - start;
+        out.println("Exported " + (songFiles.size() - nbErrors) + "/" + songFiles.size() + " song(s) in " + time + "ms");
+        return nbErrors;
+    }
+
+    // ==================================================================================
+    // Private methods
+    // ==================================================================================
+    /**
+     * Get the Midi file of each song file.
+     * <p>
+     * If several songs have the same Midi file, a "-2", "-3"... suffix is added to the file names.
+     *
+     * @param mapSongOutDir The output directory of each song file
+     * @return
+     */
+    private Map<File, File> getMidiFiles(Map<File, File> mapSongOutDir)
+    {
+        LinkedHashMap<File, File> res = new LinkedHashMap<>();
+        HashSet<String> usedPaths = new HashSet<>();
+        for (File songFile : mapSongOutDir.keySet())
+        {
+            File dir = mapSongOutDir.get(songFile);
+            String name = songFile.getName();
+            String baseName = name.lastIndexOf('.') == -1 ? name : name.substring(0, name.lastIndexOf('.'));
+            File midiFile = new File(dir, baseName + ".mid");
+            int index = 2;
+            // Compare case-insensitively for case-insensitive file systems
+            while (!usedPaths.add(midiFile.getAbsolutePath().toLowerCase()))
+            {
+                midiFile = new File(dir, baseName + "-" + index + ".mid");
+                index++;
+            }
+            res.put(songFile, midiFile);
+        }
+        return res;
+    }
+
+    /**
+     * Export one song file.
+     *
+     * @param songFile
+     * @param midiFile
+     * @param renderWav
+     * @return The report line for this song
+     * @throws Exception
+     */
+    private String exportSong(File songFile, File midiFile, boolean renderWav) throws Exception
+    {
+        long start = System.nanoTime();
+
+        Song song = SongFactory.getInstance().createFromFile(songFile);
+        try
+        {
+            long tLoad = System.nanoTime();
+            MidiMix midiMix = MidiMixManager.getInstance().findMix(song);
+            SongMidiExporter exporter = new SongMidiExporter(song, midiMix);
+            if (exporter.isAllMuted())
+            {
+                throw new MusicGenerationException("All channels are muted");
+            }
+            File dir = midiFile.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory())
+            {
+                throw new IOException("Can't create directory " + dir.getAbsolutePath());
+            }
+
+            // Build the sequence once for both the Midi and WAV files
+            Sequence sequence = exporter.buildSequence(true);
+            exporter.writeMidiFile(sequence, midiFile);
+            long tMidi = System.nanoTime();
+
+            String res = String.format("%s -> %s  load=%dms generate+write=%dms",
+                    songFile.getName(), midiFile.getAbsolutePath(),
+                    (tLoad - start) / 1000000, (tMidi - tLoad) / 1000000);
+            if (renderWav)
+            {
+                File wavFile = new File(dir, Utilities.replaceExtension(midiFile.getName(), ".wav"));
+                exporter.renderToWavFile(sequence, wavFile);
+                res += String.format(" render=%dms (%s)", (System.nanoTime() - tMidi) / 1000000, wavFile.getName());
+            }
+            return res + String.format(" total=%dms", (System.nanoTime() - start) / 1000000);
+        } finally
+        {
+            song.close(false);
+        }
+    }
+
+    private File getFile(Env env, String fileName)
+    {
+        File f = new File(fileName);
+        if (!f.isAbsolute())
+        {
+            f = new File(env.getCurrentDirectory(), fileName);
+        }
+        return f;
+    }
+
+    private List<File> getSongFiles(File dir)
+    {
+        String ext = "." + FileDirectoryManager.SONG_EXTENSION;
+        List<File> res = new ArrayList<>();
+        for (Path p : Utilities.listFiles(dir, (d, name) -> name.toLowerCase().endsWith(ext), null, MAX_DIR_DEPTH))
+        {
+            res.add(p.toFile());
+        }
+        Collections.sort(res);
+        return res;
+    }
+}
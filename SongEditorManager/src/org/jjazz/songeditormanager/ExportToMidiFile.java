@@ -25,41 +25,18 @@ package org.jjazz.songeditormanager;
 import java.awt.event.ActionEvent;
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.sound.midi.MetaMessage;
-import javax.sound.midi.MidiEvent;
-import javax.sound.midi.MidiMessage;
 import javax.sound.midi.MidiSystem;
 import javax.sound.midi.MidiUnavailableException;
 import javax.sound.midi.Sequence;
-import javax.sound.midi.SysexMessage;
-import javax.sound.midi.Track;
 import javax.swing.AbstractAction;
 import javax.swing.JFileChooser;
 import org.jjazz.filedirectorymanager.FileDirectoryManager;
-import org.jjazz.harmony.TimeSignature;
-import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_ChordSymbol;
-import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_Section;
-import org.jjazz.leadsheet.chordleadsheet.api.item.Position;
-import org.jjazz.midi.InstrumentMix;
-import org.jjazz.midi.MidiConst;
-import org.jjazz.midi.MidiUtilities;
 import org.jjazz.midimix.MidiMix;
 import org.jjazz.midimix.MidiMixManager;
-import org.jjazz.outputsynth.OutputSynth;
-import org.jjazz.outputsynth.OutputSynthManager;
-import org.jjazz.rhythm.api.RhythmVoice;
-import org.jjazz.rhythm.parameters.RP_SYS_TempoFactor;
-import org.jjazz.rhythmmusicgeneration.MidiSequenceBuilder;
-import org.jjazz.rhythmmusicgeneration.MusicGenerationContext;
 import org.jjazz.rhythm.api.MusicGenerationException;
 import org.jjazz.song.api.Song;
-import org.jjazz.song.api.SongFactory;
-import org.jjazz.songstructure.api.SongPart;
-import org.jjazz.songstructure.api.SongStructure;
 import org.jjazz.ui.utilities.Utilities;
 import org.openide.DialogDisplayer;
 import org.openide.NotifyDescriptor;
@@ -158,16 +135,8 @@ public class ExportToMidiFile extends AbstractAction
         }
 
         // Check there is at least one unmuted track
-        boolean allMuted = true;
-        for (InstrumentMix insMix : midiMix.getInstrumentMixes())
-        {
-            if (!insMix.isMute())
-            {
-                allMuted = false;
-                break;
-            }
-        }
-        if (allMuted)
+        SongMidiExporter exporter = new SongMidiExporter(song, midiMix);
+        if (exporter.isAllMuted())
         {
             String msg = "Can't export to Midi file: all channels are muted.";
             LOGGER.warning(msg);
@@ -176,39 +145,19 @@ public class ExportToMidiFile extends AbstractAction
             return;
         }
 
-        // Work on a copy
-        SongFactory sf = SongFactory.getInstance();
-        Song songCopy = sf.getCopy(song);
-
         // Build the sequence
-        MidiSequenceBuilder seqBuilder = new MidiSequenceBuilder(new MusicGenerationContext(songCopy, midiMix));
-        HashMap<RhythmVoice, Integer> mapRvTrackId = seqBuilder.getRvTrackIdMap();
         Sequence sequence = null;
         try
         {
-            sequence = seqBuilder.buildSequence(false);
-            mapRvTrackId = seqBuilder.getRvTrackIdMap();
+            sequence = exporter.buildSequence(false);
         } catch (MusicGenerationException ex)
         {
             LOGGER.log(Level.WARNING, ex.getLocalizedMessage(), ex);
             return;
-        } finally
-        {
-            songCopy.close(false);
         }
 
         // Check Midi export capabilities
-        int[] fileTypes = MidiSystem.getMidiFileTypes(sequence);
-        boolean fileTypeOK = false;
-        for (int fileType : fileTypes)
-        {
-            if (fileType == 1)
-            {
-                fileTypeOK = true;
-                break;
-            }
-        }
-        if (!fileTypeOK)
+        if (!SongMidiExporter.isMidiFileType1Supported(sequence))
         {
             String msg = "Can't export to Midi file: MidiSystem does not support Midi file 1 format";
             LOGGER.warning(msg);
@@ -217,27 +166,6 @@ public class ExportToMidiFile extends AbstractAction
             return;
         }
 
-        // Remove elements from muted tracks (don't remove track because impact on mapRvTrack + drumsrerouting)
-        for (RhythmVoice rv : midiMix.getRhythmVoices())
-        {
-            if (midiMix.getInstrumentMixFromKey(rv).isMute())
-            {
-                Track track = sequence.getTracks()[mapRvTrackId.get(rv)];
-                emptyTrack(track);
-            }
-        }
-
-        // Apply Drums channel rerouting        
-        List<Integer> toBeRerouted = midiMix.getDrumsReroutedChannels();
-        MidiUtilities.rerouteShortMessages(sequence, toBeRerouted, MidiConst.CHANNEL_DRUMS);
-
-        // Add chord symbols as markers
-        addChordSymbolMarkers(sequence);
-
-
-        // Modify sequence to make Midi file as portable as possible
-        prepareForMidiFile(sequence, mapRvTrackId, midiMix);
-
         // Finally write to file
         LOGGER.info("actionPerformed() writing sequence to Midi file: " + midiFile.getAbsolutePath());
         try
@@ -286,172 +214,4 @@ public class ExportToMidiFile extends AbstractAction
         }
         return f;
     }
-
-    /**
-     * Prepare the sequence for Midi file export.
-     * <p>
-     * Shift all events 1 bar to leave time to apply config changes.<br>
-     * Add prog/bank changes messages, tempo, reset controllers, time signature changes, etc...
-     *
-     * @param sequence
-     * @throws ArrayIndexOutOfBoundsException
-     * @todo Should we convert tempo Midi message depending on TimeSignature (eg 4/4 or 6/8 don't have the same natural beat...) ?
-     */
-    private void prepareForMidiFile(Sequence sequence, HashMap<RhythmVoice, Integer> mapRvTrackId, MidiMix midiMix) throws ArrayIndexOutOfBoundsException
-    {
-        Track[] tracks = sequence.getTracks();
-        if (tracks.length == 0)
-        {
-            LOGGER.warning("prepareForMidiFile() no track found in sequence ! mapRvTrackId=" + mapRvTrackId);
-            return;
-        }
-
-        List<SongPart> spts = song.getSongStructure().getSongParts();
-        SongPart spt0 = spts.get(0);
-        TimeSignature ts0 = spt0.getRhythm().getTimeSignature();
-        long initBarInTicks = (long) (ts0.getNbNaturalBeats() * MidiConst.PPQ_RESOLUTION);
-
-
-        // Shift one bar except track names and initial time signature  
-        for (Track track : tracks)
-        {
-            for (int i = track.size() - 1; i >= 0; i--)
-            {
-                MidiEvent me = track.get(i);
-                long tick = me.getTick();
-                MidiMessage mm = me.getMessage();
-                if (mm instanceof MetaMessage)
-                {
-                    int type = ((MetaMessage) mm).getType();
-                    // Track name=3 or initial time signature         
-                    if (type == 3 || (type == 88 && tick == 0))
-                    {
-                        continue;
-                    }
-                }
-                me.setTick(tick + initBarInTicks);
-            }
-        }
-
-
-        // Add initialization messages on first track
-        // Copyright
-        Track firstTrack = tracks[0];
-        MidiMessage mmCopyright = MidiUtilities.getCopyrightMetaMessage("JJazzLab Midi Export file");
-        MidiEvent me = new MidiEvent(mmCopyright, 0);
-        firstTrack.add(me);
-        // Initial tempo
-        int tempo = song.getTempo();
-        RP_SYS_TempoFactor rp = RP_SYS_TempoFactor.getTempoFactorRp(spt0.getRhythm());
-        int tempoFactor = -1;
-        if (rp != null)
-        {
-            tempoFactor = spt0.getRPValue(rp);
-            tempo = Math.round(tempoFactor / 100f * tempo);
-        }
-        me = new MidiEvent(MidiUtilities.getTempoMessage(0, tempo), 0);
-        firstTrack.add(me);
-
-
-        // Add XX mode ON initialization message
-        OutputSynth os = OutputSynthManager.getInstance().getOutputSynth();
-        SysexMessage sm = null;
-        switch (os.getSendModeOnUponPlay())
-        {
-            case GM:
-                sm = MidiUtilities.getGmModeOnSysExMessage();
-                break;
-            case GM2:
-                sm = MidiUtilities.getGm2ModeOnSysExMessage();
-                break;
-            case GS:
-                sm = MidiUtilities.getGsModeOnSysExMessage();
-                break;
-            case XG:
-                sm = MidiUtilities.getXgModeOnSysExMessage();
-                break;
-            default:
-            // Nothing
-        }
-        if (sm != null)
-        {
-            me = new MidiEvent(sm, 0);
-            firstTrack.add(me);
-        }
-
-
-        // Add reset all controllers + instruments initialization messages for each track
-        for (RhythmVoice rv : mapRvTrackId.keySet())
-        {
-            Track track = tracks[mapRvTrackId.get(rv)];
-            int channel = midiMix.getChannel(rv);
-
-            // Reset all controllers
-            MidiMessage mmReset = MidiUtilities.getResetAllControllersMessage(channel);
-            me = new MidiEvent(mmReset, 0);
-            track.add(me);
-
-            // Instrument + volume + pan etc.
-            InstrumentMix insMix = midiMix.getInstrumentMixFromKey(rv);
-            for (MidiMessage mm : insMix.getAllMidiMessages(channel))
-            {
-                me = new MidiEvent(mm, 0);
-                track.add(me);
-            }
-        }
-
-
-        // Add possible song part tempo changes
-        int lastTempoFactor = tempoFactor;
-        for (int i = 1; i < spts.size(); i++)
-        {
-            SongPart spt = spts.get(i);
-            rp = RP_SYS_TempoFactor.getTempoFactorRp(spt.getRhythm());
-            if (rp != null)
-            {
-                tempoFactor = spt.getRPValue(rp);
-                if (tempoFactor != lastTempoFactor)
-                {
-                    tempo = Math.round(tempoFactor / 100f * song.getTempo());
-                    float beatPos = song.getSongStructure().getPositionInNaturalBeats(spt.getStartBarIndex());
-                    long tickPos = initBarInTicks + Math.round(beatPos * MidiConst.PPQ_RESOLUTION);
-                    me = new MidiEvent(MidiUtilities.getTempoMessage(0, tempo), tickPos);
-                    firstTrack.add(me);
-                    lastTempoFactor = tempoFactor;
-                }
-            }
-        }
-    }
-
-    private void addChordSymbolMarkers(Sequence seq)
-    {
-        Track firstTrack = seq.getTracks()[0];
-        SongStructure ss = song.getSongStructure();
-        for (SongPart spt : ss.getSongParts())
-        {
-            CLI_Section section = spt.getParentSection();
-            for (CLI_ChordSymbol cliCs : song.getChordLeadSheet().getItems(section, CLI_ChordSymbol.class))
-            {
-                Position absPos = ss.getSptItemPosition(spt, cliCs);
-                float posInBeats = ss.getPositionInNaturalBeats(absPos.getBar()) + absPos.getBeat();
-                long tickPos = Math.round(posInBeats * MidiConst.PPQ_RESOLUTION);
-                MidiEvent me = new MidiEvent(MidiUtilities.getMarkerMetaMessage(cliCs.getData().getName()), tickPos);
-                firstTrack.add(me);
-            }
-        }
-    }
-
-    /**
-     * Remove all events from the specified track.
-     * <p>
-     */
-    private void emptyTrack(Track track)
-    {
-        // Track uses a simple List to store MidiEvents
-        for (int i = track.size() - 1; i >= 0; i--)
-        {
-            track.remove(track.get(i));
-        }
-    }
-
 }
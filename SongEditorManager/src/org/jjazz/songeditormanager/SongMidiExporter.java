@@ -0,0 +1,444 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.songeditormanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Logger;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.SysexMessage;
+import javax.sound.midi.Track;
+import org.jjazz.harmony.TimeSignature;
+import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_ChordSymbol;
+import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_Section;
+import org.jjazz.leadsheet.chordleadsheet.api.item.Position;
+import org.jjazz.midi.InstrumentMix;
+import org.jjazz.midi.MidiConst;
+import org.jjazz.midi.MidiUtilities;
+import org.jjazz.midi.OfflineAudioRenderer;
+import org.jjazz.midimix.MidiMix;
+import org.jjazz.outputsynth.OutputSynth;
+import org.jjazz.outputsynth.OutputSynthManager;
+import org.jjazz.rhythm.api.MusicGenerationException;
+import org.jjazz.rhythm.api.RhythmVoice;
+import org.jjazz.rhythm.parameters.RP_SYS_TempoFactor;
+import org.jjazz.rhythmmusicgeneration.MidiSequenceBuilder;
+import org.jjazz.rhythmmusicgeneration.MusicGenerationContext;
+import org.jjazz.song.api.Song;
+import org.jjazz.song.api.SongFactory;
+import org.jjazz.songstructure.api.SongPart;
+import org.jjazz.songstructure.api.SongStructure;
+
+/**
+ * Build a Midi file sequence for a song, without any user interface.
+ * <p>
+ * Used by the ExportToMidiFile action and by the headless batch export.
+ */
+public class SongMidiExporter
+{
+
+    private final Song song;
+    private final MidiMix midiMix;
+    private static final Logger LOGGER = Logger.getLogger(SongMidiExporter.class.getSimpleName());
+
+    /**
+     * @param song    Must contain at least one song part
+     * @param midiMix The MidiMix of the song
+     */
+    public SongMidiExporter(Song song, MidiMix midiMix)
+    {
+        if (song == null || midiMix == null || song.getSongStructure().getSongParts().isEmpty())
+        {
+            throw new IllegalArgumentException("song=" + song + " midiMix=" + midiMix);
+        }
+        this.song = song;
+        this.midiMix = midiMix;
+    }
+
+    public Song getSong()
+    {
+        return song;
+    }
+
+    public MidiMix getMidiMix()
+    {
+        return midiMix;
+    }
+
+    /**
+     * @return True if all the MidiMix channels are muted: nothing to export.
+     */
+    public boolean isAllMuted()
+    {
+        for (InstrumentMix insMix : midiMix.getInstrumentMixes())
+        {
+            if (!insMix.isMute())
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Build the sequence ready to be written as a Midi file type 1.
+     * <p>
+     * Muted tracks are emptied, drums rerouting is applied, chord symbols are added as markers, and initialization messages (tempo,
+     * instruments, etc.) are added in a first extra bar.
+     *
+     * @param silent If true do not show a progress dialog, see MidiSequenceBuilder.buildSequence()
+     * @return
+     * @throws MusicGenerationException
+     */
+    public Sequence buildSequence(boolean silent) throws MusicGenerationException
+    {
+        // Work on a copy
+        SongFactory sf = SongFactory.getInstance();
+        Song songCopy = sf.getCopy(song);
+
+        // Build the sequence
+        MidiSequenceBuilder seqBuilder = new MidiSequenceBuilder(new MusicGenerationContext(songCopy, midiMix));
+        HashMap<RhythmVoice, Integer> mapRvTrackId;
+        Sequence sequence;
+        try
+        {
+            sequence = seqBuilder.buildSequence(silent);
+            mapRvTrackId = seqBuilder.getRvTrackIdMap();
+        } finally
+        {
+            songCopy.close(false);
+        }
+
+        // Remove elements from muted tracks (don't remove track because impact on mapRvTrack + drumsrerouting)
+        for (RhythmVoice rv : midiMix.getRhythmVoices())
+        {
+            Integer trackId = mapRvTrackId.get(rv);
+            if (midiMix.getInstrumentMixFromKey(rv).isMute() && trackId != null)
+            {
+                emptyTrack(sequence.getTracks()[trackId]);
+            }
+        }
+
+        // Apply Drums channel rerouting        
+        List<Integer> toBeRerouted = midiMix.getDrumsReroutedChannels();
+        try
+        {
+            sequence = MidiUtilities.getReroutedSequence(sequence, toBeRerouted, MidiConst.CHANNEL_DRUMS);
+        } catch (InvalidMidiDataException ex)
+        {
+            throw new MusicGenerationException(ex.getLocalizedMessage());
+        }
+
+        // Add chord symbols as markers
+        addChordSymbolMarkers(sequence);
+
+        // Modify sequence to make Midi file as portable as possible
+        prepareForMidiFile(sequence, mapRvTrackId);
+
+        return sequence;
+    }
+
+    /**
+     * Check that the MidiSystem can write the sequence as a Midi file type 1.
+     *
+     * @param sequence
+     * @return
+     */
+    static public boolean isMidiFileType1Supported(Sequence sequence)
+    {
+        for (int fileType : MidiSystem.getMidiFileTypes(sequence))
+        {
+            if (fileType == 1)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Build the sequence and write it as a Midi file type 1.
+     *
+     * @param midiFile
+     * @param silent   If true do not show a progress dialog
+     * @throws MusicGenerationException
+     * @throws IOException
+     */
+    public void exportToMidiFile(File midiFile, boolean silent) throws MusicGenerationException, IOException
+    {
+        if (midiFile == null)
+        {
+            throw new IllegalArgumentException("midiFile=" + midiFile);
+        }
+        if (isAllMuted())
+        {
+            throw new MusicGenerationException("All channels are muted");
+        }
+        writeMidiFile(buildSequence(silent), midiFile);
+    }
+
+    /**
+     * Write a sequence returned by buildSequence() as a Midi file type 1.
+     *
+     * @param sequence
+     * @param midiFile
+     * @throws IOException
+     */
+    public void writeMidiFile(Sequence sequence, File midiFile) throws IOException
+    {
+        if (sequence == null || midiFile == null)
+        {
+            throw new IllegalArgumentException("sequence=" + sequence + " midiFile=" + midiFile);
+        }
+        if (!isMidiFileType1Supported(sequence))
+        {
+            throw new IOException("MidiSystem does not support Midi file 1 format");
+        }
+        MidiSystem.write(sequence, 1, midiFile);
+    }
+
+    /**
+     * Build the sequence and render it offline as a WAV file using the Java software synth.
+     *
+     * @param wavFile
+     * @param silent  If true do not show a progress dialog
+     * @throws MusicGenerationException
+     * @throws IOException
+     * @see OfflineAudioRenderer#getDefaultRenderer()
+     */
+    public void exportToWavFile(File wavFile, boolean silent) throws MusicGenerationException, IOException
+    {
+        if (wavFile == null)
+        {
+            throw new IllegalArgumentException("wavFile=" + wavFile);
+        }
+        if (isAllMuted())
+        {
+            throw new MusicGenerationException("All channels are muted");
+        }
+        renderToWavFile(buildSequence(silent), wavFile);
+    }
+
+    /**
+     * Render a sequence returned by buildSequence() offline as a WAV file using the Java software synth.
+     * <p>
+     * The sequence tempo meta events already include the song parts tempo factor.
+     *
+     * @param sequence
+     * @param wavFile
+     * @throws IOException
+     * @see OfflineAudioRenderer#getDefaultRenderer()
+     */
+    public void renderToWavFile(Sequence sequence, File wavFile) throws IOException
+    {
+        if (sequence == null || wavFile == null)
+        {
+            throw new IllegalArgumentException("sequence=" + sequence + " wavFile=" + wavFile);
+        }
+        try
+        {
+            OfflineAudioRenderer.getDefaultRenderer().renderToWavFile(sequence, song.getTempo(), wavFile);
+        } catch (MidiUnavailableException ex)
+        {
+            throw new IOException(ex.getLocalizedMessage(), ex);
+        }
+    }
+
+    // ======================================================================
+    // Private methods
+    // ======================================================================   
+    /**
+     * Prepare the sequence for Midi file export.
+     * <p>
+     * Shift all events 1 bar to leave time to apply config changes.<br>
+     * Add prog/bank changes messages, tempo, reset controllers, time signature changes, etc...
+     *
+     * @param sequence
+     * @throws ArrayIndexOutOfBoundsException
+     * @todo Should we convert tempo Midi message depending on TimeSignature (eg 4/4 or 6/8 don't have the same natural beat...) ?
+     */
+    private void prepareForMidiFile(Sequence sequence, HashMap<RhythmVoice, Integer> mapRvTrackId) throws ArrayIndexOutOfBoundsException
+    {
+        Track[] tracks = sequence.getTracks();
+        if (tracks.length == 0)
+        {
+            LOGGER.warning("prepareForMidiFile() no track found in sequence ! mapRvTrackId=" + mapRvTrackId);
+            return;
+        }
+
+        List<SongPart> spts = song.getSongStructure().getSongParts();
+        SongPart spt0 = spts.get(0);
+        TimeSignature ts0 = spt0.getRhythm().getTimeSignature();
+        long initBarInTicks = (long) (ts0.getNbNaturalBeats() * MidiConst.PPQ_RESOLUTION);
+
+
+        // Shift one bar except track names and initial time signature  
+        for (Track track : tracks)
+        {
+            for (int i = track.size() - 1; i >= 0; i--)
+            {
+                MidiEvent me = track.get(i);
+                long tick = me.getTick();
+                MidiMessage mm = me.getMessage();
+                if (mm instanceof MetaMessage)
+                {
+                    int type = ((MetaMessage) mm).getType();
+                    // Track name=3 or initial time signature         
+                    if (type == 3 || (type == 88 && tick == 0))
+                    {
+                        continue;
+                    }
+                }
+                me.setTick(tick + initBarInTicks);
+            }
+        }
+
+
+        // Add initialization messages on first track
+        // Copyright
+        Track firstTrack = tracks[0];
+        MidiMessage mmCopyright = MidiUtilities.getCopyrightMetaMessage("JJazzLab Midi Export file");
+        MidiEvent me = new MidiEvent(mmCopyright, 0);
+        firstTrack.add(me);
+        // Initial tempo
+        int tempo = song.getTempo();
+        RP_SYS_TempoFactor rp = RP_SYS_TempoFactor.getTempoFactorRp(spt0.getRhythm());
+        int tempoFactor = -1;
+        if (rp != null)
+        {
+            tempoFactor = spt0.getRPValue(rp);
+            tempo = Math.round(tempoFactor / 100f * tempo);
+        }
+        me = new MidiEvent(MidiUtilities.getTempoMessage(0, tempo), 0);
+        firstTrack.add(me);
+
+
+        // Add XX mode ON initialization message
+        OutputSynth os = OutputSynthManager.getInstance().getOutputSynth();
+        SysexMessage sm = null;
+        switch (os.getSendModeOnUponPlay())
+        {
+            case GM:
+                sm = MidiUtilities.getGmModeOnSysExMessage();
+                break;
+            case GM2:
+                sm = MidiUtilities.getGm2ModeOnSysExMessage();
+                break;
+            case GS:
+                sm = MidiUtilities.getGsModeOnSysExMessage();
+                break;
+            case XG:
+                sm = MidiUtilities.getXgModeOnSysExMessage();
+                break;
+            default:
+            // Nothing
+        }
+        if (sm != null)
+        {
+            me = new MidiEvent(sm, 0);
+            firstTrack.add(me);
+        }
+
+
+        // Add reset all controllers + instruments initialization messages for each track
+        for (RhythmVoice rv : mapRvTrackId.keySet())
+        {
+            Track track = tracks[mapRvTrackId.get(rv)];
+            int channel = midiMix.getChannel(rv);
+
+            // Reset all controllers
+            MidiMessage mmReset = MidiUtilities.getResetAllControllersMessage(channel);
+            me = new MidiEvent(mmReset, 0);
+            track.add(me);
+
+            // Instrument + volume + pan etc.
+            InstrumentMix insMix = midiMix.getInstrumentMixFromKey(rv);
+            for (MidiMessage mm : insMix.getAllMidiMessages(channel))
+            {
+                me = new MidiEvent(mm, 0);
+                track.add(me);
+            }
+        }
+
+
+        // Add possible song part tempo changes
+        int lastTempoFactor = tempoFactor;
+        for (int i = 1; i < spts.size(); i++)
+        {
+            SongPart spt = spts.get(i);
+            rp = RP_SYS_TempoFactor.getTempoFactorRp(spt.getRhythm());
+            if (rp != null)
+            {
+                tempoFactor = spt.getRPValue(rp);
+                if (tempoFactor != lastTempoFactor)
+                {
+                    tempo = Math.round(tempoFactor / 100f * song.getTempo());
+                    float beatPos = song.getSongStructure().getPositionInNaturalBeats(spt.getStartBarIndex());
+                    long tickPos = initBarInTicks + Math.round(beatPos * MidiConst.PPQ_RESOLUTION);
+                    me = new MidiEvent(MidiUtilities.getTempoMessage(0, tempo), tickPos);
+                    firstTrack.add(me);
+                    lastTempoFactor = tempoFactor;
+                }
+            }
+        }
+    }
+
+    private void addChordSymbolMarkers(Sequence seq)
+    {
+        Track firstTrack = seq.getTracks()[0];
+        SongStructure ss = song.getSongStructure();
+        for (SongPart spt : ss.getSongParts())
+        {
+            CLI_Section section = spt.getParentSection();
+            for (CLI_ChordSymbol cliCs : song.getChordLeadSheet().getItems(section, CLI_ChordSymbol.class))
+            {
+                Position absPos = ss.getSptItemPosition(spt, cliCs);
+                float posInBeats = ss.getPositionInNaturalBeats(absPos.getBar()) + absPos.getBeat();
+                long tickPos = Math.round(posInBeats * MidiConst.PPQ_RESOLUTION);
+                MidiEvent me = new MidiEvent(MidiUtilities.getMarkerMetaMessage(cliCs.getData().getName()), tickPos);
+                firstTrack.add(me);
+            }
+        }
+    }
+
+    /**
+     * Remove all events from the specified track.
+     * <p>
+     */
+    private void emptyTrack(Track track)
+    {
+        // Track uses a simple List to store MidiEvents
+        for (int i = track.size() - 1; i >= 0; i--)
+        {
+            track.remove(track.get(i));
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.test.benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * A minimal micro-benchmark runner.
+ * <p>
+ * Each benchmark is executed a number of warmup iterations, then measured iterations. For each measured iteration the runner
+ * records the elapsed time and the bytes allocated by the current thread, plus the GC activity for the whole measurement.
+ */
+public class BenchmarkRunner
+{
+
+    /**
+     * A benchmarked operation.
+     */
+    public interface Operation
+    {
+
+        /**
+         * Prepare the next invocation, not measured.
+         *
+         * @throws Exception
+         */
+        default void setup() throws Exception
+        {
+            // Nothing
+        }
+
+        /**
+         * The measured operation.
+         *
+         * @return A value which depends on the computation, to avoid dead code elimination.
+         * @throws Exception
+         */
+        Object run() throws Exception;
+    }
+
+    /**
+     * The result of a benchmark.
+     */
+    public static class Result
+    {
+
+        public final String name;
+        public final int nbIterations;
+        public final double avgTimeMs;
+        public final double minTimeMs;
+        public final long allocatedBytesPerOp;       // -1 if not supported
+        public final long gcCount;
+        public final long gcTimeMs;
+
+        private Result(String name, int nbIterations, double avgTimeMs, double minTimeMs, long allocatedBytesPerOp, long gcCount, long gcTimeMs)
+        {
+            this.name = name;
+            this.nbIterations = nbIterations;
+            this.avgTimeMs = avgTimeMs;
+            this.minTimeMs = minTimeMs;
+            this.allocatedBytesPerOp = allocatedBytesPerOp;
+            this.gcCount = gcCount;
+            this.gcTimeMs = gcTimeMs;
+        }
+
+        /**
+         * Allocation rate in MB/s.
+         *
+         * @return -1 if not supported
+         */
+        public double getAllocationRate()
+        {
+            return allocatedBytesPerOp < 0 || avgTimeMs == 0 ? -1 : (allocatedBytesPerOp / (1024d * 1024d)) / (avgTimeMs / 1000d);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%-50s n=%3d  avg=%10.3f ms  min=%10.3f ms  alloc=%12d B/op  alloc.rate=%8.1f MB/s  gc.count=%3d  gc.time=%5d ms",
+                    name, nbIterations, avgTimeMs, minTimeMs, allocatedBytesPerOp, getAllocationRate(), gcCount, gcTimeMs);
+        }
+    }
+
+    private final int nbWarmupIterations;
+    private final int nbIterations;
+    private final List<Result> results = new ArrayList<>();
+    private volatile Object blackHole;
+    private static final Logger LOGGER = Logger.getLogger(BenchmarkRunner.class.getSimpleName());
+
+    /**
+     * @param nbWarmupIterations
+     * @param nbIterations Must be &gt; 0
+     */
+    public BenchmarkRunner(int nbWarmupIterations, int nbIterations)
+    {
+        if (nbWarmupIterations < 0 || nbIterations < 1)
+        {
+            throw new IllegalArgumentException("nbWarmupIterations=" + nbWarmupIterations + " nbIterations=" + nbIterations);
+        }
+        this.nbWarmupIterations = nbWarmupIterations;
+        this.nbIterations = nbIterations;
+    }
+
+    /**
+     * Run a benchmark and log its result.
+     *
+     * @param name
+     * @param op
+     * @return
+     * @throws Exception If op raised an exception
+     */
+    public Result run(String name, Operation op) throws Exception
+    {
+        for (int i = 0; i < nbWarmupIterations; i++)
+        {
+            op.setup();
+            blackHole = op.run();
+        }
+
+        long gcCount = getGcCount();
+        long gcTime = getGcTime();
+        long totalNanos = 0;
+        long minNanos = Long.MAX_VALUE;
+        long totalBytes = 0;
+        boolean allocSupported = true;
+        for (int i = 0; i < nbIterations; i++)
+        {
+            op.setup();
+            long bytes = getThreadAllocatedBytes();
+            long t = System.nanoTime();
+            blackHole = op.run();
+            long nanos = System.nanoTime() - t;
+            long bytesAfter = getThreadAllocatedBytes();
+            totalNanos += nanos;
+            minNanos = Math.min(minNanos, nanos);
+            if (bytes < 0 || bytesAfter < 0)
+            {
+                allocSupported = false;
+            } else
+            {
+                totalBytes += bytesAfter - bytes;
+            }
+        }
+
+        Result res = new Result(name,
+                nbIterations,
+                totalNanos / 1e6 / nbIterations,
+                minNanos / 1e6,
+                allocSupported ? totalBytes / nbIterations : -1,
+                getGcCount() - gcCount,
+                getGcTime() - gcTime);
+        results.add(res);
+        LOGGER.info(res.toString());
+        return res;
+    }
+
+    /**
+     * The results of all the benchmarks run so far.
+     *
+     * @return
+     */
+    public List<Result> getResults()
+    {
+        return new ArrayList<>(results);
+    }
+
+    // =========================================================================
+    // Private methods
+    // =========================================================================
+    private long getThreadAllocatedBytes()
+    {
+        var bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+        {
+            var sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled())
+            {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private long getGcCount()
+    {
+        long res = 0;
+        for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            res += Math.max(0, gcBean.getCollectionCount());
+        }
+        return res;
+    }
+
+    private long getGcTime()
+    {
+        long res = 0;
+        for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            res += Math.max(0, gcBean.getCollectionTime());
+        }
+        return res;
+    }
+}
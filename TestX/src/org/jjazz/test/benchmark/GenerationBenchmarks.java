@@ -0,0 +1,334 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.test.benchmark;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+import org.jjazz.harmony.TimeSignature;
+import org.jjazz.leadsheet.chordleadsheet.api.ChordLeadSheet;
+import org.jjazz.leadsheet.chordleadsheet.api.ChordLeadSheetFactory;
+import org.jjazz.leadsheet.chordleadsheet.api.UnsupportedEditException;
+import org.jjazz.leadsheet.chordleadsheet.api.item.ExtChordSymbol;
+import org.jjazz.midi.MidiConst;
+import org.jjazz.midimix.MidiMix;
+import org.jjazz.midimix.MidiMixManager;
+import org.jjazz.musiccontrol.ClickManager;
+import org.jjazz.musiccontrol.ControlTrackBuilder;
+import org.jjazz.rhythmmusicgeneration.MidiSequenceBuilder;
+import org.jjazz.rhythmmusicgeneration.MusicGenerationContext;
+import org.jjazz.rhythmmusicgeneration.NoteEvent;
+import org.jjazz.rhythmmusicgeneration.Phrase;
+import org.jjazz.rhythmmusicgeneration.Phrases;
+import org.jjazz.rhythmmusicgeneration.SourcePhrase;
+import org.jjazz.song.api.Song;
+import org.jjazz.song.api.SongFactory;
+import org.netbeans.api.progress.BaseProgressUtils;
+import org.openide.awt.ActionID;
+import org.openide.awt.ActionReference;
+import org.openide.awt.ActionReferences;
+import org.openide.awt.ActionRegistration;
+import org.openide.util.Exceptions;
+
+/**
+ * Benchmarks of the music generation pipeline, for debug purposes.
+ * <p>
+ * Synthetic random songs from 16 to 1000 bars are used. Results (time, allocated bytes per operation, allocation rate, GC
+ * activity) are logged. Benchmarks don't need the UI, they can be run directly via runAll().
+ * <p>
+ * To run them headless (e.g. from a CI job), build the suite then use the TestX "run-benchmarks" Ant target, which calls main()
+ * with the module runtime classpath. The benchmark songs then use the stub rhythms of HeadlessRhythmDatabase:
+ * <pre>
+ * ant -f TestX/build.xml run-benchmarks [-Dbenchmark.args="16 64"]
+ * </pre>
+ */
+//@ActionID(category = "JJazz", id = "org.jjazz.test.benchmark.generationbenchmarks")
+//@ActionRegistration(displayName = "Run music generation benchmarks")
+//@ActionReferences(
+//        {
+//            @ActionReference(path = "Menu/Edit", position = 50300),
+//        })
+public final class GenerationBenchmarks implements ActionListener
+{
+
+    public static final int[] SONG_SIZES =
+    {
+        16, 64, 250, 1000
+    };
+    private static final int NB_BENCHMARKS_PER_SIZE = 5;
+    private static final int NB_WARMUP_ITERATIONS = 3;
+    private static final int NB_ITERATIONS = 10;
+    private static final Logger LOGGER = Logger.getLogger(GenerationBenchmarks.class.getSimpleName());
+
+    /**
+     * Run the benchmarks without UI and print the results on the standard output.
+     * <p>
+     * The NetBeans platform is not started, so a HeadlessRhythmDatabase is installed in the default lookup. Exit status is 1 if a
+     * benchmark could not be run.
+     *
+     * @param args Optional song sizes in bars, default is SONG_SIZES.
+     */
+    public static void main(String[] args)
+    {
+        // Must be done before the first Lookup.getDefault() call
+        if (System.getProperty(HeadlessRhythmDatabase.DEFAULT_LOOKUP_PROPERTY) == null)
+        {
+            System.setProperty(HeadlessRhythmDatabase.DEFAULT_LOOKUP_PROPERTY, HeadlessRhythmDatabase.HeadlessLookup.class.getName());
+        }
+
+        int[] songSizes = SONG_SIZES;
+        if (args.length > 0)
+        {
+            songSizes = new int[args.length];
+            for (int i = 0; i < args.length; i++)
+            {
+                songSizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        List<BenchmarkRunner.Result> results = new GenerationBenchmarks().runAll(songSizes);
+        for (BenchmarkRunner.Result r : results)
+        {
+            System.out.println(r);
+        }
+        System.exit(results.size() == songSizes.length * NB_BENCHMARKS_PER_SIZE ? 0 : 1);
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent ae)
+    {
+        BaseProgressUtils.showProgressDialogAndRun(() -> runAll(), "Running music generation benchmarks...");
+    }
+
+    /**
+     * Run all the benchmarks for all the song sizes.
+     *
+     * @return
+     */
+    public List<BenchmarkRunner.Result> runAll()
+    {
+        return runAll(SONG_SIZES);
+    }
+
+    /**
+     * Run all the benchmarks for the specified song sizes.
+     *
+     * @param songSizes Song sizes in bars
+     * @return
+     */
+    public List<BenchmarkRunner.Result> runAll(int[] songSizes)
+    {
+        BenchmarkRunner runner = new BenchmarkRunner(NB_WARMUP_ITERATIONS, NB_ITERATIONS);
+        for (int nbBars : songSizes)
+        {
+            Song song = createSong(nbBars);
+            try
+            {
+                MidiMix midiMix = MidiMixManager.getInstance().findMix(song);      // Can raise MidiUnavailableException
+                MusicGenerationContext context = new MusicGenerationContext(song, midiMix);
+                benchBuildSequence(runner, context, nbBars);
+                benchAddControlTrack(runner, context, nbBars);
+                benchAddClickTrack(runner, context, nbBars);
+                benchFitChordPhrase(runner, nbBars);
+                benchFillTrack(runner, nbBars);
+            } catch (MidiUnavailableException ex)
+            {
+                LOGGER.log(Level.SEVERE, "runAll() Can''t get MidiMix, benchmarks stopped. ex={0}", ex.getMessage());
+                break;
+            } catch (Exception ex)
+            {
+                Exceptions.printStackTrace(ex);
+                break;
+            } finally
+            {
+                SongFactory.getInstance().unregisterSong(song);
+            }
+        }
+        return runner.getResults();
+    }
+
+    public void benchBuildSequence(BenchmarkRunner runner, MusicGenerationContext context, int nbBars) throws Exception
+    {
+        runner.run("MidiSequenceBuilder.buildSequence(true) bars=" + nbBars, () -> new MidiSequenceBuilder(context).buildSequence(true));
+    }
+
+    public void benchAddControlTrack(BenchmarkRunner runner, MusicGenerationContext context, int nbBars) throws Exception
+    {
+        Sequence sequence = new MidiSequenceBuilder(context).buildSequence(true);
+        runner.run("ControlTrackBuilder.addControlTrack() bars=" + nbBars, new BenchmarkRunner.Operation()
+        {
+            int trackId = -1;
+
+            @Override
+            public void setup()
+            {
+                removeTrack(sequence, trackId);
+            }
+
+            @Override
+            public Object run()
+            {
+                trackId = new ControlTrackBuilder(context).addControlTrack(sequence);
+                return trackId;
+            }
+        });
+    }
+
+    public void benchAddClickTrack(BenchmarkRunner runner, MusicGenerationContext context, int nbBars) throws Exception
+    {
+        Sequence sequence = new MidiSequenceBuilder(context).buildSequence(true);
+        runner.run("ClickManager.addClickTrack() bars=" + nbBars, new BenchmarkRunner.Operation()
+        {
+            int trackId = -1;
+
+            @Override
+            public void setup()
+            {
+                removeTrack(sequence, trackId);
+            }
+
+            @Override
+            public Object run()
+            {
+                trackId = ClickManager.getInstance().addClickTrack(sequence, context);
+                return trackId;
+            }
+        });
+    }
+
+    public void benchFitChordPhrase(BenchmarkRunner runner, int nbBars) throws Exception
+    {
+        // A 4-note chord phrase played on each beat
+        SourcePhrase pSrc = new SourcePhrase(0, new ExtChordSymbol("C7M"));
+        int[] pitches =
+        {
+            48, 55, 59, 64
+        };
+        for (int beat = 0; beat < 4; beat++)
+        {
+            for (int pitch : pitches)
+            {
+                pSrc.addOrdered(new NoteEvent(pitch, 0.5f, 80, beat));
+            }
+        }
+
+        // One destination chord symbol per bar
+        List<ExtChordSymbol> ecsDests = new ArrayList<>();
+        for (int i = 0; i < nbBars; i++)
+        {
+            ecsDests.add(ExtChordSymbol.createRandomChordSymbol());
+        }
+
+        runner.run("Phrases.fitChordPhrase2ChordSymbol() x" + nbBars, () ->
+        {
+            int res = 0;
+            for (ExtChordSymbol ecs : ecsDests)
+            {
+                res += Phrases.fitChordPhrase2ChordSymbol(pSrc, ecs).size();
+            }
+            return res;
+        });
+    }
+
+    public void benchFillTrack(BenchmarkRunner runner, int nbBars) throws Exception
+    {
+        // A drums-like phrase: 16th notes hi-hat plus kick and snare
+        Phrase p = new Phrase(MidiConst.CHANNEL_DRUMS);
+        for (int bar = 0; bar < nbBars; bar++)
+        {
+            for (int i = 0; i < 16; i++)
+            {
+                float pos = bar * 4 + i * 0.25f;
+                p.add(new NoteEvent(42, 0.1f, i % 4 == 0 ? 90 : 60, pos));
+                if (i % 8 == 0)
+                {
+                    p.add(new NoteEvent(36, 0.2f, 100, pos));
+                } else if (i % 8 == 4)
+                {
+                    p.add(new NoteEvent(38, 0.2f, 100, pos));
+                }
+            }
+        }
+
+        runner.run("Phrase.fillTrack() notes=" + p.size(), new BenchmarkRunner.Operation()
+        {
+            Sequence sequence;
+
+            @Override
+            public void setup() throws InvalidMidiDataException
+            {
+                sequence = new Sequence(Sequence.PPQ, MidiConst.PPQ_RESOLUTION);
+            }
+
+            @Override
+            public Object run()
+            {
+                Track track = sequence.createTrack();
+                p.fillTrack(track);
+                return track.size();
+            }
+        });
+    }
+
+    // =========================================================================
+    // Private methods
+    // =========================================================================
+    /**
+     * Create a random 4/4 song in the style of RandomSong.
+     *
+     * @param nbBars
+     * @return
+     */
+    private Song createSong(int nbBars)
+    {
+        SongFactory sf = SongFactory.getInstance();
+        String name = "Benchmark" + nbBars;
+        Song song = null;
+        try
+        {
+            ChordLeadSheet cls = ChordLeadSheetFactory.getDefault().createRamdomLeadSheet("A", TimeSignature.FOUR_FOUR, nbBars);
+            song = sf.createSong(name, cls);
+        } catch (UnsupportedEditException ex)
+        {
+            LOGGER.log(Level.WARNING, "createSong() Can''t create random song, using empty song instead. ex={0}", ex.getMessage());
+            song = sf.createEmptySong(name, nbBars);
+        }
+        song.setTempo(120);
+        return song;
+    }
+
+    private void removeTrack(Sequence sequence, int trackId)
+    {
+        if (trackId != -1)
+        {
+            sequence.deleteTrack(sequence.getTracks()[trackId]);
+        }
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.test.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import org.jjazz.harmony.TimeSignature;
+import org.jjazz.rhythm.api.AdaptedRhythm;
+import org.jjazz.rhythm.api.Rhythm;
+import org.jjazz.rhythm.api.RhythmFeatures;
+import org.jjazz.rhythm.database.api.RhythmDatabase;
+import org.jjazz.rhythm.database.api.RhythmInfo;
+import org.jjazz.rhythm.database.api.RhythmParameterInfo;
+import org.jjazz.rhythm.database.api.RhythmVoiceInfo;
+import org.jjazz.rhythm.database.api.UnavailableRhythmException;
+import org.jjazz.rhythm.spi.RhythmProvider;
+import org.jjazz.rhythm.spi.StubRhythmProvider;
+import org.jjazz.util.MultipleErrorsReport;
+import org.openide.util.Lookup;
+import org.openide.util.lookup.Lookups;
+import org.openide.util.lookup.ProxyLookup;
+
+/**
+ * A minimal in-memory RhythmDatabase used to run the benchmarks outside of the NetBeans platform.
+ * <p>
+ * The platform RhythmDatabase implementation relies on a startup task to be initialized, which is not run with a plain java
+ * command. This implementation only contains the builtin rhythms of the RhythmProviders registered in META-INF/services (at least
+ * the stub rhythms). Rhythm files are not scanned.
+ * <p>
+ * Use HeadlessLookup as the default lookup to make it available via RhythmDatabase.getDefault().
+ */
+public class HeadlessRhythmDatabase implements RhythmDatabase
+{
+
+    /**
+     * The system property used by Lookup.getDefault() to get the default lookup class name.
+     */
+    public static final String DEFAULT_LOOKUP_PROPERTY = "org.openide.util.Lookup";
+
+    /**
+     * A default lookup which contains a HeadlessRhythmDatabase and the META-INF/services registered instances.
+     * <p>
+     * Set the DEFAULT_LOOKUP_PROPERTY system property to this class name before the first Lookup.getDefault() call.
+     */
+    public static class HeadlessLookup extends ProxyLookup
+    {
+
+        public HeadlessLookup()
+        {
+            Lookup services = Lookups.metaInfServices(HeadlessLookup.class.getClassLoader());
+            setLookups(Lookups.singleton(new HeadlessRhythmDatabase(services.lookupAll(RhythmProvider.class))), services);
+        }
+    }
+
+    private final List<RhythmProvider> rhythmProviders = new ArrayList<>();
+    private final LinkedHashMap<String, RhythmInfo> mapIdInfo = new LinkedHashMap<>();
+    private final HashMap<String, Rhythm> mapIdInstance = new HashMap<>();
+    private final HashMap<String, RhythmProvider> mapIdProvider = new HashMap<>();
+    private final HashMap<TimeSignature, RhythmInfo> mapTsDefaultRhythm = new HashMap<>();
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private static final Logger LOGGER = Logger.getLogger(HeadlessRhythmDatabase.class.getSimpleName());
+
+    /**
+     * Create a database with the builtin rhythms of the specified RhythmProviders.
+     *
+     * @param rps
+     */
+    public HeadlessRhythmDatabase(Collection<? extends RhythmProvider> rps)
+    {
+        for (RhythmProvider rp : rps)
+        {
+            rhythmProviders.add(rp);
+            MultipleErrorsReport errRpt = new MultipleErrorsReport();
+            for (Rhythm r : rp.getBuiltinRhythms(errRpt))
+            {
+                addRhythm(rp, r);
+            }
+        }
+        LOGGER.info("HeadlessRhythmDatabase() rhythmProviders=" + rhythmProviders + " size=" + size());
+    }
+
+    @Override
+    public synchronized Rhythm getRhythmInstance(String rhythmId) throws UnavailableRhythmException
+    {
+        Rhythm r = mapIdInstance.get(rhythmId);
+        if (r == null)
+        {
+            throw new UnavailableRhythmException("Unknown rhythmId=" + rhythmId);
+        }
+        return r;
+    }
+
+    @Override
+    public Rhythm getRhythmInstance(RhythmInfo rhythmInfo) throws UnavailableRhythmException
+    {
+        return getRhythmInstance(rhythmInfo.getUniqueId());
+    }
+
+    @Override
+    public synchronized RhythmInfo getRhythm(String rhythmId)
+    {
+        return mapIdInfo.get(rhythmId);
+    }
+
+    @Override
+    public synchronized AdaptedRhythm getAdaptedRhythmInstance(Rhythm r, TimeSignature ts)
+    {
+        if (r == null || ts == null || r.getTimeSignature().equals(ts) || !mapIdInstance.containsKey(r.getUniqueId()))
+        {
+            throw new IllegalArgumentException("r=" + r + " ts=" + ts);
+        }
+        for (RhythmProvider rp : rhythmProviders)
+        {
+            AdaptedRhythm ar = rp.getAdaptedRhythm(r, ts);
+            if (ar != null)
+            {
+                addRhythm(rp, ar);
+                return ar;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized List<RhythmInfo> getRhythms(Predicate<RhythmInfo> tester)
+    {
+        return mapIdInfo.values().stream()
+                .filter(tester)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<RhythmInfo> getRhythms(TimeSignature ts)
+    {
+        return getRhythms(ri -> ri.getTimeSignature().equals(ts));
+    }
+
+    @Override
+    public List<RhythmInfo> getRhythms(RhythmProvider rp)
+    {
+        if (!rhythmProviders.contains(rp))
+        {
+            throw new IllegalArgumentException("rp=" + rp);
+        }
+        return getRhythms(ri -> ri.getRhythmProviderId().equals(rp.getInfo().getUniqueId()));
+    }
+
+    @Override
+    public RhythmInfo getSimilarRhythm(RhythmInfo ri)
+    {
+        List<RhythmInfo> rhythms = getSimilarRhythms(ri, 1);
+        return rhythms.isEmpty() ? null : rhythms.get(0);
+    }
+
+    @Override
+    public List<RhythmInfo> getSimilarRhythms(RhythmInfo ri, int maxSize)
+    {
+        return getRhythms(ri.getTimeSignature()).stream()
+                .filter(rii -> !rii.equals(ri))
+                .limit(maxSize)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<RhythmInfo> getRhythms()
+    {
+        return getRhythms(ri -> true);
+    }
+
+    @Override
+    public synchronized RhythmProvider getRhythmProvider(Rhythm rhythm)
+    {
+        return mapIdProvider.get(rhythm.getUniqueId());
+    }
+
+    @Override
+    public synchronized RhythmProvider getRhythmProvider(RhythmInfo ri)
+    {
+        return mapIdProvider.get(ri.getUniqueId());
+    }
+
+    @Override
+    public RhythmProvider getRhythmProvider(String rpId)
+    {
+        return rhythmProviders.stream()
+                .filter(rp -> rp.getInfo().getUniqueId().equals(rpId))
+                .findAny()
+                .orElse(null);
+    }
+
+    @Override
+    public List<RhythmProvider> getRhythmProviders()
+    {
+        return rhythmProviders.stream()
+                .sorted((rp1, rp2) -> rp1.getInfo().getName().compareTo(rp2.getInfo().getName()))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<TimeSignature> getTimeSignatures()
+    {
+        return getRhythms().stream()
+                .map(ri -> ri.getTimeSignature())
+                .distinct()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Use the first non-stub rhythm if there is one.
+     *
+     * @param ts
+     * @return
+     */
+    @Override
+    public synchronized RhythmInfo getDefaultRhythm(TimeSignature ts)
+    {
+        RhythmInfo res = mapTsDefaultRhythm.get(ts);
+        if (res != null)
+        {
+            return res;
+        }
+        List<RhythmInfo> rhythms = getRhythms(ts);
+        if (rhythms.isEmpty())
+        {
+            throw new IllegalStateException("No rhythm for ts=" + ts + ", no StubRhythmProvider found?");
+        }
+        return rhythms.stream()
+                .filter(ri -> !(getRhythmProvider(ri) instanceof StubRhythmProvider))
+                .findFirst()
+                .orElse(rhythms.get(0));
+    }
+
+    @Override
+    public Rhythm getDefaultStubRhythmInstance(TimeSignature ts)
+    {
+        return StubRhythmProvider.getDefault().getStubRhythm(ts);
+    }
+
+    @Override
+    public synchronized void setDefaultRhythm(TimeSignature ts, RhythmInfo ri)
+    {
+        if (ts == null || ri == null || !mapIdInfo.containsKey(ri.getUniqueId()) || ri.isAdaptedRhythm())
+        {
+            throw new IllegalArgumentException("ts=" + ts + " ri=" + ri);
+        }
+        mapTsDefaultRhythm.put(ts, ri);
+    }
+
+    @Override
+    public synchronized int size()
+    {
+        return mapIdInfo.size();
+    }
+
+    /**
+     * Nothing is done: rhythm files are not scanned.
+     *
+     * @param immediate
+     */
+    @Override
+    public void forceRescan(boolean immediate)
+    {
+        // Nothing
+    }
+
+    @Override
+    public int addExtraRhythms(List<RpRhythmPair> pairs)
+    {
+        int n = 0;
+        synchronized (this)
+        {
+            for (RpRhythmPair pair : pairs)
+            {
+                if (!mapIdInfo.containsKey(pair.r.getUniqueId()))
+                {
+                    addRhythm(pair.rp, pair.r);
+                    n++;
+                }
+            }
+        }
+        if (n > 0)
+        {
+            ChangeEvent evt = new ChangeEvent(this);
+            listeners.forEach(l -> l.stateChanged(evt));
+        }
+        return n;
+    }
+
+    @Override
+    public void addChangeListener(ChangeListener l)
+    {
+        listeners.add(l);
+    }
+
+    @Override
+    public void removeChangeListener(ChangeListener l)
+    {
+        listeners.remove(l);
+    }
+
+    // =========================================================================
+    // Private methods
+    // =========================================================================
+    private void addRhythm(RhythmProvider rp, Rhythm r)
+    {
+        mapIdInfo.put(r.getUniqueId(), new HeadlessRhythmInfo(rp, r));
+        mapIdInstance.put(r.getUniqueId(), r);
+        mapIdProvider.put(r.getUniqueId(), rp);
+    }
+
+    // =========================================================================
+    // Private classes
+    // =========================================================================
+    /**
+     * A RhythmInfo which directly reads the data from the Rhythm instance.
+     */
+    private static class HeadlessRhythmInfo implements RhythmInfo
+    {
+
+        private final String rhythmProviderId;
+        private final transient Rhythm rhythm;
+
+        private HeadlessRhythmInfo(RhythmProvider rp, Rhythm r)
+        {
+            rhythmProviderId = rp.getInfo().getUniqueId();
+            rhythm = r;
+        }
+
+        @Override
+        public boolean checkConsistency(RhythmProvider rp, Rhythm r)
+        {
+            return rhythmProviderId.equals(rp.getInfo().getUniqueId()) && rhythm.getUniqueId().equals(r.getUniqueId());
+        }
+
+        @Override
+        public boolean isAdaptedRhythm()
+        {
+            return rhythm instanceof AdaptedRhythm;
+        }
+
+        @Override
+        public String getUniqueId()
+        {
+            return rhythm.getUniqueId();
+        }
+
+        @Override
+        public String getRhythmProviderId()
+        {
+            return rhythmProviderId;
+        }
+
+        @Override
+        public String getAuthor()
+        {
+            return rhythm.getAuthor();
+        }
+
+        @Override
+        public List<RhythmParameterInfo> getRhythmParametersInfos()
+        {
+            return rhythm.getRhythmParameters().stream()
+                    .map(rp -> new RhythmParameterInfo(rp))
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        public List<RhythmVoiceInfo> getRhythmVoiceInfos()
+        {
+            return rhythm.getRhythmVoices().stream()
+                    .map(rv -> new RhythmVoiceInfo(rv))
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        public String getDescription()
+        {
+            return rhythm.getDescription();
+        }
+
+        @Override
+        public RhythmFeatures getFeatures()
+        {
+            return rhythm.getFeatures();
+        }
+
+        @Override
+        public File getFile()
+        {
+            return rhythm.getFile();
+        }
+
+        @Override
+        public String getName()
+        {
+            return rhythm.getName();
+        }
+
+        @Override
+        public int getPreferredTempo()
+        {
+            return rhythm.getPreferredTempo();
+        }
+
+        @Override
+        public String[] getTags()
+        {
+            return rhythm.getTags();
+        }
+
+        @Override
+        public TimeSignature getTimeSignature()
+        {
+            return rhythm.getTimeSignature();
+        }
+
+        @Override
+        public String getVersion()
+        {
+            return rhythm.getVersion();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "HRI[" + getName() + "]";
+        }
+    }
+}